@@ -35,7 +35,7 @@ public class AdminStatusWebSocket extends ApiWebSocket implements Listener {
 			return;
 		}
 
-		EventBus.INSTANCE.addListener(this::listen);
+		EventBus.INSTANCE.addAsyncListener("AdminStatusWebSocket", this::listen, true);
 	}
 
 	@Override
@@ -5,6 +5,7 @@ import java.io.StringWriter;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -115,7 +116,8 @@ abstract class ApiWebSocket extends WebSocketServlet {
 
 	protected List<Session> getSessions() {
 		synchronized (SESSIONS_BY_CLASS) {
-			return new ArrayList<>(SESSIONS_BY_CLASS.get(this.getClass()));
+			// No entry if no session has connected yet
+			return new ArrayList<>(SESSIONS_BY_CLASS.getOrDefault(this.getClass(), Collections.emptyList()));
 		}
 	}
 
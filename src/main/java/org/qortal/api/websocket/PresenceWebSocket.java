@@ -95,7 +95,7 @@ public class PresenceWebSocket extends ApiWebSocket implements Listener {
 			return;
 		}
 
-		EventBus.INSTANCE.addListener(this::listen);
+		EventBus.INSTANCE.addAsyncListener("PresenceWebSocket", this::listen, false);
 	}
 
 	@Override
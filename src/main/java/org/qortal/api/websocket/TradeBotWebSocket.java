@@ -50,7 +50,7 @@ public class TradeBotWebSocket extends ApiWebSocket implements Listener {
 			// No output this time
 		}
 
-		EventBus.INSTANCE.addListener(this::listen);
+		EventBus.INSTANCE.addAsyncListener("TradeBotWebSocket", this::listen, false);
 	}
 
 	@Override
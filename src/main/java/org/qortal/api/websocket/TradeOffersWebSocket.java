@@ -3,11 +3,16 @@ package org.qortal.api.websocket;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
@@ -27,6 +32,7 @@ import org.qortal.controller.Synchronizer;
 import org.qortal.crosschain.SupportedBlockchain;
 import org.qortal.crosschain.ACCT;
 import org.qortal.crosschain.AcctMode;
+import org.qortal.data.at.ATData;
 import org.qortal.data.at.ATStateData;
 import org.qortal.data.block.BlockData;
 import org.qortal.data.crosschain.CrossChainTradeData;
@@ -46,15 +52,36 @@ public class TradeOffersWebSocket extends ApiWebSocket implements Listener {
 	private static final Logger LOGGER = LogManager.getLogger(TradeOffersWebSocket.class);
 
 	private static class CachedOfferInfo {
-		public final Map<String, AcctMode> previousAtModes = new HashMap<>();
+		public final Map<String, AcctMode> previousAtModes = new ConcurrentHashMap<>();
 
 		// OFFERING
-		public final Map<String, CrossChainOfferSummary> currentSummaries = new HashMap<>();
+		public final Map<String, CrossChainOfferSummary> currentSummaries = new ConcurrentHashMap<>();
 		// REDEEMED/REFUNDED/CANCELLED
-		public final Map<String, CrossChainOfferSummary> historicSummaries = new HashMap<>();
+		public final Map<String, CrossChainOfferSummary> historicSummaries = new ConcurrentHashMap<>();
 	}
-	// Manual synchronization
-	private static final Map<String, CachedOfferInfo> cachedInfoByBlockchain = new HashMap<>();
+	// Only modified by configure() and our listener thread, but read by sessions connecting at any time
+	private static final Map<String, CachedOfferInfo> cachedInfoByBlockchain = new ConcurrentHashMap<>();
+
+	/** Trade AT's blockchain and ACCT, so we don't have to look up AT's code hash again */
+	private static class TradeAtInfo {
+		public final SupportedBlockchain blockchain;
+		public final ACCT acct;
+
+		public TradeAtInfo(SupportedBlockchain blockchain, ACCT acct) {
+			this.blockchain = blockchain;
+			this.acct = acct;
+		}
+	}
+	/** Marker for ATs that aren't trade ATs */
+	private static final TradeAtInfo NOT_TRADE_AT = new TradeAtInfo(null, null);
+	/** TradeAtInfo (or NOT_TRADE_AT) by AT address */
+	private static final Map<String, TradeAtInfo> tradeAtInfoByAddress = new ConcurrentHashMap<>();
+
+	/** Maximum number of new blocks to scan for changed AT states, otherwise we rebuild from scratch */
+	private static final int MAX_INCREMENTAL_BLOCKS = 1000;
+
+	/** Chain tip that cached info is up to date with, only modified by configure() and our listener thread */
+	private static volatile BlockData lastProcessedBlockData;
 
 	private static final Predicate<CrossChainOfferSummary> isHistoric = offerSummary
 			-> offerSummary.getMode() == AcctMode.REDEEMED
@@ -68,100 +95,73 @@ public class TradeOffersWebSocket extends ApiWebSocket implements Listener {
 		factory.register(TradeOffersWebSocket.class);
 
 		try (final Repository repository = RepositoryManager.getRepository()) {
-			populateCurrentSummaries(repository);
+			// Fetch chain tip first, so any blocks added while populating are processed again, rather than missed
+			BlockData chainTip = repository.getBlockRepository().getLastBlock();
+
+			for (SupportedBlockchain blockchain : SupportedBlockchain.values())
+				cachedInfoByBlockchain.put(blockchain.name(), new CachedOfferInfo());
+
+			populateCurrentSummaries(repository, cachedInfoByBlockchain);
+
+			populateHistoricSummaries(repository, cachedInfoByBlockchain);
 
-			populateHistoricSummaries(repository);
+			lastProcessedBlockData = chainTip;
 		} catch (DataException e) {
 			// How to fail properly?
 			return;
 		}
 
-		EventBus.INSTANCE.addListener(this::listen);
+		// We always catch up to the current chain tip, so only the latest waiting event matters
+		EventBus.INSTANCE.addAsyncListener("TradeOffersWebSocket", this::listen, true);
 	}
 
 	@Override
 	public void listen(Event event) {
-		if (!(event instanceof Synchronizer.NewChainTipEvent))
+		// Synchronized, locally minted and orphaned blocks all change chain tip
+		if (!(event instanceof Synchronizer.NewChainTipEvent)
+				&& !(event instanceof Controller.NewBlockEvent)
+				&& !(event instanceof Controller.OrphanedBlockEvent))
 			return;
 
-		BlockData blockData = ((Synchronizer.NewChainTipEvent) event).getNewChainTip();
-
 		// Process any new info
 
 		try (final Repository repository = RepositoryManager.getRepository()) {
-			// Find any new/changed trade ATs since this block
-			final Boolean isFinished = null;
-			final Integer dataByteOffset = null;
-			final Long expectedValue = null;
-			final Integer minimumFinalHeight = blockData.getHeight();
-
-			for (SupportedBlockchain blockchain : SupportedBlockchain.values()) {
-				Map<ByteArray, Supplier<ACCT>> acctsByCodeHash = SupportedBlockchain.getFilteredAcctMap(blockchain);
-
-				List<CrossChainOfferSummary> crossChainOfferSummaries = new ArrayList<>();
-
-				synchronized (cachedInfoByBlockchain) {
-					CachedOfferInfo cachedInfo = cachedInfoByBlockchain.computeIfAbsent(blockchain.name(), k -> new CachedOfferInfo());
+			// Events can be dropped, or arrive after later blocks, so catch up from last processed chain tip to current chain tip
+			BlockData priorBlockData = lastProcessedBlockData;
+			BlockData blockData = repository.getBlockRepository().getLastBlock();
 
-					for (Map.Entry<ByteArray, Supplier<ACCT>> acctInfo : acctsByCodeHash.entrySet()) {
-						byte[] codeHash = acctInfo.getKey().value;
-						ACCT acct = acctInfo.getValue().get();
+			if (priorBlockData != null && Arrays.equals(priorBlockData.getSignature(), blockData.getSignature()))
+				// Nothing new
+				return;
 
-						List<ATStateData> atStates = repository.getATRepository().getMatchingFinalATStates(codeHash,
-								isFinished, dataByteOffset, expectedValue, minimumFinalHeight,
-								null, null, null);
+			Map<SupportedBlockchain, List<CrossChainOfferSummary>> changedSummaries;
 
-						crossChainOfferSummaries.addAll(produceSummaries(repository, acct, atStates, blockData.getTimestamp()));
-					}
+			if (extendsPriorChainTip(repository, priorBlockData, blockData))
+				// Only re-evaluate ATs that ran in new blocks
+				changedSummaries = processNewBlocks(repository, priorBlockData.getHeight() + 1, blockData);
+			else
+				// Reorg, or too many blocks, so start afresh
+				changedSummaries = rebuildSummaries(repository);
 
-					// Remove any entries unchanged from last time
-					crossChainOfferSummaries.removeIf(offerSummary -> cachedInfo.previousAtModes.get(offerSummary.getQortalAtAddress()) == offerSummary.getMode());
+			lastProcessedBlockData = blockData;
 
-					// Skip to next blockchain if nothing has changed (for this blockchain)
-					if (crossChainOfferSummaries.isEmpty())
-						continue;
+			// Remove any historic offers that are over 24 hours old
+			final long tooOldTimestamp = NTP.getTime() - 24 * 60 * 60 * 1000L;
+			for (CachedOfferInfo cachedInfo : cachedInfoByBlockchain.values())
+				cachedInfo.historicSummaries.values().removeIf(historicSummary -> historicSummary.getTimestamp() < tooOldTimestamp);
 
-					// Update
-					for (CrossChainOfferSummary offerSummary : crossChainOfferSummaries) {
-						String offerAtAddress = offerSummary.getQortalAtAddress();
-
-						cachedInfo.previousAtModes.put(offerAtAddress, offerSummary.getMode());
-						LOGGER.trace(() -> String.format("Block height: %d, AT: %s, mode: %s", blockData.getHeight(), offerAtAddress, offerSummary.getMode().name()));
-
-						switch (offerSummary.getMode()) {
-							case OFFERING:
-								cachedInfo.currentSummaries.put(offerAtAddress, offerSummary);
-								cachedInfo.historicSummaries.remove(offerAtAddress);
-								break;
-
-							case REDEEMED:
-							case REFUNDED:
-							case CANCELLED:
-								cachedInfo.currentSummaries.remove(offerAtAddress);
-								cachedInfo.historicSummaries.put(offerAtAddress, offerSummary);
-								break;
-
-							case TRADING:
-								cachedInfo.currentSummaries.remove(offerAtAddress);
-								cachedInfo.historicSummaries.remove(offerAtAddress);
-								break;
-						}
-					}
-
-					// Remove any historic offers that are over 24 hours old
-					final long tooOldTimestamp = NTP.getTime() - 24 * 60 * 60 * 1000L;
-					cachedInfo.historicSummaries.values().removeIf(historicSummary -> historicSummary.getTimestamp() < tooOldTimestamp);
-				}
+			for (Map.Entry<SupportedBlockchain, List<CrossChainOfferSummary>> changedEntry : changedSummaries.entrySet()) {
+				String blockchainName = changedEntry.getKey().name();
+				List<CrossChainOfferSummary> crossChainOfferSummaries = changedEntry.getValue();
 
 				// Notify sessions
 				for (Session session : getSessions()) {
 					// Only send if this session has this/no preferred blockchain
 					String preferredBlockchain = sessionBlockchain.get(session);
 
-					if (preferredBlockchain == null || preferredBlockchain.equals(blockchain.name()))
+					if (preferredBlockchain == null || preferredBlockchain.equals(blockchainName))
 						sendOfferSummaries(session, crossChainOfferSummaries);
 				}
-
 			}
 		} catch (DataException e) {
 			// No output this time
@@ -189,21 +189,19 @@ public class TradeOffersWebSocket extends ApiWebSocket implements Listener {
 
 		List<CrossChainOfferSummary> crossChainOfferSummaries = new ArrayList<>();
 
-		synchronized (cachedInfoByBlockchain) {
-			Collection<CachedOfferInfo> cachedInfos;
+		Collection<CachedOfferInfo> cachedInfos;
 
-			if (foreignBlockchain == null)
-				// No preferred blockchain, so iterate through all of them
-				cachedInfos = cachedInfoByBlockchain.values();
-			else
-				cachedInfos = Collections.singleton(cachedInfoByBlockchain.computeIfAbsent(foreignBlockchain, k -> new CachedOfferInfo()));
+		if (foreignBlockchain == null)
+			// No preferred blockchain, so iterate through all of them
+			cachedInfos = cachedInfoByBlockchain.values();
+		else
+			cachedInfos = Collections.singleton(cachedInfoByBlockchain.computeIfAbsent(foreignBlockchain, k -> new CachedOfferInfo()));
 
-			for (CachedOfferInfo cachedInfo : cachedInfos) {
-				crossChainOfferSummaries.addAll(cachedInfo.currentSummaries.values());
+		for (CachedOfferInfo cachedInfo : cachedInfos) {
+			crossChainOfferSummaries.addAll(cachedInfo.currentSummaries.values());
 
-				if (includeHistoric)
-					crossChainOfferSummaries.addAll(cachedInfo.historicSummaries.values());
-			}
+			if (includeHistoric)
+				crossChainOfferSummaries.addAll(cachedInfo.historicSummaries.values());
 		}
 
 		if (!sendOfferSummaries(session, crossChainOfferSummaries)) {
@@ -248,7 +246,175 @@ public class TradeOffersWebSocket extends ApiWebSocket implements Listener {
 		return true;
 	}
 
-	private static void populateCurrentSummaries(Repository repository) throws DataException {
+	/** Returns whether new chain tip builds on last processed chain tip, within a reasonable number of blocks. */
+	private static boolean extendsPriorChainTip(Repository repository, BlockData priorBlockData, BlockData blockData) throws DataException {
+		if (priorBlockData == null || priorBlockData.getHeight() == null || blockData.getHeight() == null)
+			return false;
+
+		int newBlockCount = blockData.getHeight() - priorBlockData.getHeight();
+		if (newBlockCount < 1 || newBlockCount > MAX_INCREMENTAL_BLOCKS)
+			return false;
+
+		// Prior chain tip must still be in our chain, i.e. not orphaned
+		BlockData ourBlockData = repository.getBlockRepository().fromHeight(priorBlockData.getHeight());
+		return ourBlockData != null && Arrays.equals(ourBlockData.getSignature(), priorBlockData.getSignature());
+	}
+
+	/**
+	 * Re-evaluates trade ATs that ran in blocks from <tt>fromHeight</tt> up to, and including, new chain tip.
+	 *
+	 * @return offer summaries whose mode changed, by blockchain
+	 */
+	private static Map<SupportedBlockchain, List<CrossChainOfferSummary>> processNewBlocks(Repository repository, int fromHeight, BlockData blockData) throws DataException {
+		// AT addresses in order of first appearance, each only once
+		Set<String> atAddresses = new LinkedHashSet<>();
+		for (int height = fromHeight; height <= blockData.getHeight(); ++height)
+			for (ATStateData blockAtState : repository.getATRepository().getBlockATStatesAtHeight(height))
+				atAddresses.add(blockAtState.getATAddress());
+
+		Map<SupportedBlockchain, List<CrossChainOfferSummary>> changedSummaries = new EnumMap<>(SupportedBlockchain.class);
+
+		for (String atAddress : atAddresses) {
+			TradeAtInfo tradeAtInfo = getTradeAtInfo(repository, atAddress);
+			if (tradeAtInfo == NOT_TRADE_AT)
+				continue;
+
+			ATStateData atState = repository.getATRepository().getLatestATState(atAddress);
+			if (atState == null)
+				continue;
+
+			// Avoid looking up block timestamp if AT state is from new chain tip
+			Long timestamp = atState.getHeight() == blockData.getHeight() ? blockData.getTimestamp() : null;
+			CrossChainOfferSummary offerSummary = produceSummary(repository, tradeAtInfo.acct, atState, timestamp);
+
+			CachedOfferInfo cachedInfo = cachedInfoByBlockchain.computeIfAbsent(tradeAtInfo.blockchain.name(), k -> new CachedOfferInfo());
+			if (!updateCachedInfo(cachedInfo, offerSummary))
+				continue;
+
+			LOGGER.trace(() -> String.format("Block height: %d, AT: %s, mode: %s", atState.getHeight(), atAddress, offerSummary.getMode().name()));
+			changedSummaries.computeIfAbsent(tradeAtInfo.blockchain, k -> new ArrayList<>()).add(offerSummary);
+		}
+
+		return changedSummaries;
+	}
+
+	/**
+	 * Rebuilds cached offer info from scratch, e.g. after a reorg, then swaps it in.
+	 *
+	 * @return offer summaries whose mode differs from before, by blockchain
+	 */
+	private static Map<SupportedBlockchain, List<CrossChainOfferSummary>> rebuildSummaries(Repository repository) throws DataException {
+		Map<String, CachedOfferInfo> newInfoByBlockchain = new HashMap<>();
+		for (SupportedBlockchain blockchain : SupportedBlockchain.values())
+			newInfoByBlockchain.put(blockchain.name(), new CachedOfferInfo());
+
+		populateCurrentSummaries(repository, newInfoByBlockchain);
+		populateHistoricSummaries(repository, newInfoByBlockchain);
+
+		Map<SupportedBlockchain, List<CrossChainOfferSummary>> changedSummaries = new EnumMap<>(SupportedBlockchain.class);
+
+		for (SupportedBlockchain blockchain : SupportedBlockchain.values()) {
+			CachedOfferInfo oldInfo = cachedInfoByBlockchain.get(blockchain.name());
+			CachedOfferInfo newInfo = newInfoByBlockchain.get(blockchain.name());
+
+			List<CrossChainOfferSummary> crossChainOfferSummaries = new ArrayList<>();
+
+			for (CrossChainOfferSummary offerSummary : newInfo.currentSummaries.values())
+				if (oldInfo == null || oldInfo.previousAtModes.get(offerSummary.getQortalAtAddress()) != offerSummary.getMode())
+					crossChainOfferSummaries.add(offerSummary);
+
+			for (CrossChainOfferSummary offerSummary : newInfo.historicSummaries.values())
+				if (oldInfo == null || oldInfo.previousAtModes.get(offerSummary.getQortalAtAddress()) != offerSummary.getMode())
+					crossChainOfferSummaries.add(offerSummary);
+
+			// Previously known ATs that are neither offering nor recently finished, e.g. now trading
+			if (oldInfo != null)
+				for (Map.Entry<String, AcctMode> previousAtMode : oldInfo.previousAtModes.entrySet()) {
+					String atAddress = previousAtMode.getKey();
+					if (newInfo.previousAtModes.containsKey(atAddress))
+						continue;
+
+					TradeAtInfo tradeAtInfo = getTradeAtInfo(repository, atAddress);
+					ATStateData atState = repository.getATRepository().getLatestATState(atAddress);
+					if (tradeAtInfo == NOT_TRADE_AT || atState == null)
+						continue;
+
+					CrossChainOfferSummary offerSummary = produceSummary(repository, tradeAtInfo.acct, atState, null);
+					updateCachedInfo(newInfo, offerSummary);
+
+					if (offerSummary.getMode() != previousAtMode.getValue())
+						crossChainOfferSummaries.add(offerSummary);
+				}
+
+			cachedInfoByBlockchain.put(blockchain.name(), newInfo);
+
+			if (!crossChainOfferSummaries.isEmpty())
+				changedSummaries.put(blockchain, crossChainOfferSummaries);
+		}
+
+		return changedSummaries;
+	}
+
+	/**
+	 * Updates cached info with offer summary, if AT's mode has changed.
+	 *
+	 * @return true if AT's mode changed
+	 */
+	private static boolean updateCachedInfo(CachedOfferInfo cachedInfo, CrossChainOfferSummary offerSummary) {
+		String offerAtAddress = offerSummary.getQortalAtAddress();
+
+		if (cachedInfo.previousAtModes.put(offerAtAddress, offerSummary.getMode()) == offerSummary.getMode())
+			return false;
+
+		switch (offerSummary.getMode()) {
+			case OFFERING:
+				cachedInfo.currentSummaries.put(offerAtAddress, offerSummary);
+				cachedInfo.historicSummaries.remove(offerAtAddress);
+				break;
+
+			case REDEEMED:
+			case REFUNDED:
+			case CANCELLED:
+				cachedInfo.currentSummaries.remove(offerAtAddress);
+				cachedInfo.historicSummaries.put(offerAtAddress, offerSummary);
+				break;
+
+			case TRADING:
+				cachedInfo.currentSummaries.remove(offerAtAddress);
+				cachedInfo.historicSummaries.remove(offerAtAddress);
+				break;
+		}
+
+		return true;
+	}
+
+	/** Returns trade AT's blockchain and ACCT, or NOT_TRADE_AT, caching result. */
+	private static TradeAtInfo getTradeAtInfo(Repository repository, String atAddress) throws DataException {
+		TradeAtInfo tradeAtInfo = tradeAtInfoByAddress.get(atAddress);
+		if (tradeAtInfo != null)
+			return tradeAtInfo;
+
+		tradeAtInfo = NOT_TRADE_AT;
+
+		ATData atData = repository.getATRepository().fromATAddress(atAddress);
+		if (atData != null) {
+			ByteArray codeHash = ByteArray.wrap(atData.getCodeHash());
+
+			for (SupportedBlockchain blockchain : SupportedBlockchain.values()) {
+				Supplier<ACCT> acctSupplier = SupportedBlockchain.getFilteredAcctMap(blockchain).get(codeHash);
+
+				if (acctSupplier != null) {
+					tradeAtInfo = new TradeAtInfo(blockchain, acctSupplier.get());
+					break;
+				}
+			}
+		}
+
+		tradeAtInfoByAddress.put(atAddress, tradeAtInfo);
+		return tradeAtInfo;
+	}
+
+	private static void populateCurrentSummaries(Repository repository, Map<String, CachedOfferInfo> infoByBlockchain) throws DataException {
 		// We want ALL OFFERING trades
 		Boolean isFinished = Boolean.FALSE;
 		Long expectedValue = (long) AcctMode.OFFERING.value;
@@ -257,7 +423,7 @@ public class TradeOffersWebSocket extends ApiWebSocket implements Listener {
 		for (SupportedBlockchain blockchain : SupportedBlockchain.values()) {
 			Map<ByteArray, Supplier<ACCT>> acctsByCodeHash = SupportedBlockchain.getFilteredAcctMap(blockchain);
 
-			CachedOfferInfo cachedInfo = cachedInfoByBlockchain.computeIfAbsent(blockchain.name(), k -> new CachedOfferInfo());
+			CachedOfferInfo cachedInfo = infoByBlockchain.computeIfAbsent(blockchain.name(), k -> new CachedOfferInfo());
 
 			for (Map.Entry<ByteArray, Supplier<ACCT>> acctInfo : acctsByCodeHash.entrySet()) {
 				byte[] codeHash = acctInfo.getKey().value;
@@ -274,6 +440,11 @@ public class TradeOffersWebSocket extends ApiWebSocket implements Listener {
 				// Save initial AT modes
 				cachedInfo.previousAtModes.putAll(initialAtStates.stream().collect(Collectors.toMap(ATStateData::getATAddress, atState -> AcctMode.OFFERING)));
 
+				// Remember these are trade ATs
+				TradeAtInfo tradeAtInfo = new TradeAtInfo(blockchain, acct);
+				for (ATStateData atState : initialAtStates)
+					tradeAtInfoByAddress.put(atState.getATAddress(), tradeAtInfo);
+
 				// Convert to offer summaries
 				cachedInfo.currentSummaries.putAll(produceSummaries(repository, acct, initialAtStates, null).stream()
 										.collect(Collectors.toMap(CrossChainOfferSummary::getQortalAtAddress, offerSummary -> offerSummary)));
@@ -281,14 +452,12 @@ public class TradeOffersWebSocket extends ApiWebSocket implements Listener {
 		}
 	}
 
-	private static void populateHistoricSummaries(Repository repository) throws DataException {
+	private static void populateHistoricSummaries(Repository repository, Map<String, CachedOfferInfo> infoByBlockchain) throws DataException {
 		// We want REDEEMED/REFUNDED/CANCELLED trades over the last 24 hours
 		long timestamp = System.currentTimeMillis() - 24 * 60 * 60 * 1000L;
+		// Zero if all blocks are more recent, e.g. new chain, in which case we want them all
 		int minimumFinalHeight = repository.getBlockRepository().getHeightFromTimestamp(timestamp);
 
-		if (minimumFinalHeight == 0)
-			throw new DataException("Couldn't fetch block timestamp from repository");
-
 		Boolean isFinished = Boolean.TRUE;
 		Integer dataByteOffset = null;
 		Long expectedValue = null;
@@ -297,7 +466,7 @@ public class TradeOffersWebSocket extends ApiWebSocket implements Listener {
 		for (SupportedBlockchain blockchain : SupportedBlockchain.values()) {
 			Map<ByteArray, Supplier<ACCT>> acctsByCodeHash = SupportedBlockchain.getFilteredAcctMap(blockchain);
 
-			CachedOfferInfo cachedInfo = cachedInfoByBlockchain.computeIfAbsent(blockchain.name(), k -> new CachedOfferInfo());
+			CachedOfferInfo cachedInfo = infoByBlockchain.computeIfAbsent(blockchain.name(), k -> new CachedOfferInfo());
 
 			for (Map.Entry<ByteArray, Supplier<ACCT>> acctInfo : acctsByCodeHash.entrySet()) {
 				byte[] codeHash = acctInfo.getKey().value;
@@ -11,6 +11,8 @@ import java.io.IOException;
 public class ArbitraryDataBuildQueueItem extends ArbitraryDataResource {
 
     private final Long creationTimestamp;
+    /** Written by requesting threads, read by build manager thread */
+    private volatile Long lastRequestTimestamp;
     private Long buildStartTimestamp = null;
     private Long buildEndTimestamp = null;
     private Integer priority = 0;
@@ -23,11 +25,21 @@ public class ArbitraryDataBuildQueueItem extends ArbitraryDataResource {
     public static long BUILD_TIMEOUT = 60*1000L; // 60 seconds
     /* The amount of time to remember that a build has failed, to avoid retries */
     public static long FAILURE_TIMEOUT = 5*60*1000L; // 5 minutes
+    /* The amount of time a high priority build can wait without being requested again, before it is cancelled */
+    public static long ABANDONED_TIMEOUT = 15*1000L; // 15 seconds
 
     public ArbitraryDataBuildQueueItem(String resourceId, ResourceIdType resourceIdType, Service service, String identifier) {
         super(resourceId, resourceIdType, service, identifier);
 
         this.creationTimestamp = NTP.getTime();
+        this.lastRequestTimestamp = this.creationTimestamp;
+    }
+
+    /**
+     * Records that this build is still wanted, e.g. because a user is waiting for it
+     */
+    public void markRequested() {
+        this.lastRequestTimestamp = NTP.getTime();
     }
 
     public void prepareForBuild() {
@@ -69,6 +81,18 @@ public class ArbitraryDataBuildQueueItem extends ArbitraryDataResource {
         return now - this.creationTimestamp > BUILD_TIMEOUT;
     }
 
+    /**
+     * High priority builds are requested on behalf of a user, who is expected to keep checking on them.
+     * If they stop asking before the build has started, they have most likely gone away.
+     */
+    public boolean hasBeenAbandoned(Long now) {
+        Long lastRequestTimestamp = this.lastRequestTimestamp;
+        if (now == null || lastRequestTimestamp == null) {
+            return true;
+        }
+        return this.isQueued() && this.isHighPriority() && now - lastRequestTimestamp > ABANDONED_TIMEOUT;
+    }
+
     public boolean hasReachedFailureTimeout(Long now) {
         if (now == null || this.buildStartTimestamp == null) {
             return true;
@@ -76,6 +100,10 @@ public class ArbitraryDataBuildQueueItem extends ArbitraryDataResource {
         return now - this.buildStartTimestamp > FAILURE_TIMEOUT;
     }
 
+    public Long getCreationTimestamp() {
+        return this.creationTimestamp;
+    }
+
     public Long getBuildStartTimestamp() {
         return this.buildStartTimestamp;
     }
@@ -92,7 +120,7 @@ public class ArbitraryDataBuildQueueItem extends ArbitraryDataResource {
     }
 
     public boolean isHighPriority() {
-        return this.priority >= HIGH_PRIORITY_THRESHOLD;
+        return this.getPriority() >= HIGH_PRIORITY_THRESHOLD;
     }
 
     public void setFailed(boolean failed) {
@@ -16,6 +16,7 @@ import org.qortal.utils.Base58;
 import org.qortal.utils.NTP;
 
 import java.io.IOException;
+import java.io.InvalidObjectException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
@@ -35,6 +36,9 @@ public class ArbitraryDataBuilder {
     private List<ArbitraryTransactionData> transactions;
     private ArbitraryTransactionData latestPutTransaction;
     private final List<Path> paths;
+    // Index of transaction whose state is in paths.get(0), which is later than the PUT if a cached layer is used
+    private int firstLayerIndex;
+    private boolean usedCachedLayer;
     private byte[] latestSignature;
     private Path finalPath;
     private int layerCount;
@@ -138,6 +142,21 @@ public class ArbitraryDataBuilder {
     private void processTransactions() throws IOException, DataException, MissingDataException {
         List<ArbitraryTransactionData> transactionDataList = new ArrayList<>(this.transactions);
 
+        // Start from the most recent layer with a cached state, if any, as earlier layers aren't needed
+        this.firstLayerIndex = 0;
+        this.usedCachedLayer = false;
+        for (int i = transactionDataList.size() - 1; i > 0; i--) {
+            Path cachedPath = ArbitraryDataLayerCache.checkout(transactionDataList.get(i).getSignature());
+            if (cachedPath != null) {
+                LOGGER.trace("Using cached layer {}", Base58.encode(transactionDataList.get(i).getSignature()));
+                this.firstLayerIndex = i;
+                this.usedCachedLayer = true;
+                paths.add(cachedPath);
+                transactionDataList = transactionDataList.subList(i + 1, transactionDataList.size());
+                break;
+            }
+        }
+
         int count = 0;
         for (ArbitraryTransactionData transactionData : transactionDataList) {
             LOGGER.trace("Found arbitrary transaction {}", Base58.encode(transactionData.getSignature()));
@@ -215,22 +234,39 @@ public class ArbitraryDataBuilder {
         // Loop from the second path onwards
         for (int i=1; i<paths.size(); i++) {
             String identifierPrefix = this.identifier != null ? String.format("[%s]", this.identifier) : "";
-            LOGGER.debug(String.format("[%s][%s]%s Applying layer %d...", this.service, this.name, identifierPrefix, i));
+            LOGGER.debug(String.format("[%s][%s]%s Applying layer %d...", this.service, this.name, identifierPrefix, this.firstLayerIndex + i));
 
             // Create an instance of ArbitraryDataCombiner
             Path pathAfter = this.paths.get(i);
-            byte[] signatureBefore = this.transactions.get(i-1).getSignature();
+            byte[] signatureBefore = this.transactions.get(this.firstLayerIndex + i - 1).getSignature();
+            byte[] signatureAfter = this.transactions.get(this.firstLayerIndex + i).getSignature();
             ArbitraryDataCombiner combiner = new ArbitraryDataCombiner(pathBefore, pathAfter, signatureBefore);
 
             // We only want to validate this layer's hash if it's the final layer, or if the settings
             // indicate that we should validate interim layers too
             boolean isFinalLayer = (i == paths.size() - 1);
-            combiner.setShouldValidateHashes(isFinalLayer || validateAllLayers);
+            boolean shouldValidateHashes = isFinalLayer || validateAllLayers;
+            combiner.setShouldValidateHashes(shouldValidateHashes);
 
             // Now combine this layer with the last, and set the output path to the "before" path for the next cycle
-            combiner.combine();
+            try {
+                combiner.combine();
+            } catch (InvalidObjectException e) {
+                // Hash mismatch - don't use the cached layer that we started from again
+                if (this.usedCachedLayer) {
+                    ArbitraryDataLayerCache.remove(this.transactions.get(this.firstLayerIndex).getSignature());
+                }
+                throw e;
+            }
             combiner.cleanup();
             pathBefore = combiner.getFinalPath();
+
+            // Cache validated states, so that future PATCHes can be applied to them directly.
+            // Only the latest is needed, so the previous layer's state can be dropped.
+            if (shouldValidateHashes) {
+                ArbitraryDataLayerCache.put(signatureAfter, pathBefore);
+                ArbitraryDataLayerCache.remove(signatureBefore);
+            }
         }
         this.finalPath = pathBefore;
     }
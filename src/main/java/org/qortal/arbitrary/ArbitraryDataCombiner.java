@@ -124,6 +124,7 @@ public class ArbitraryDataCombiner {
         }
 
         ArbitraryDataDigest digest = new ArbitraryDataDigest(this.pathBefore);
+        digest.setParallel(true);
         digest.compute();
         boolean valid = digest.isHashValid(previousHash);
         if (!valid) {
@@ -150,6 +151,7 @@ public class ArbitraryDataCombiner {
         }
 
         ArbitraryDataDigest digest = new ArbitraryDataDigest(this.finalPath);
+        digest.setParallel(true);
         digest.compute();
         boolean valid = digest.isHashValid(currentHash);
         if (!valid) {
@@ -2,29 +2,57 @@ package org.qortal.arbitrary;
 
 import org.qortal.repository.DataException;
 import org.qortal.utils.Base58;
+import org.qortal.utils.NamedThreadFactory;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+/**
+ * Computes a single SHA-256 hash of a directory's files, each file's relative path followed by its contents,
+ * in sorted path order, excluding the <tt>.qortal</tt> folder.
+ * <p>
+ * Files are streamed through fixed-size buffers, so large files aren't loaded onto the heap.
+ * In parallel mode, a separate thread reads ahead while the current data is being hashed.
+ * Both modes produce the same hash.
+ */
 public class ArbitraryDataDigest {
 
+    /** Size of each buffer used to read file contents */
+    private static final int BUFFER_SIZE = 128 * 1024; // bytes
+    /** Number of buffers the read-ahead thread can fill before waiting for hashing to catch up */
+    private static final int READ_AHEAD_BUFFERS = 16;
+
+    /** Marks end of data from read-ahead thread */
+    private static final ByteBuffer END_OF_DATA = ByteBuffer.allocate(0);
+
     private final Path path;
     private byte[] hash;
+    private boolean parallel = false;
 
     public ArbitraryDataDigest(Path path) {
         this.path = path;
     }
 
     public void compute() throws IOException, DataException {
-        List<Path> allPaths = Files.walk(path).filter(Files::isRegularFile).sorted().collect(Collectors.toList());
-        Path basePathAbsolute = this.path.toAbsolutePath();
+        List<Path> allPaths = this.getPathsToHash();
 
         MessageDigest sha256;
         try {
@@ -33,6 +61,24 @@ public class ArbitraryDataDigest {
             throw new DataException("SHA-256 hashing algorithm unavailable");
         }
 
+        if (this.parallel) {
+            this.computeParallel(allPaths, sha256);
+        } else {
+            this.computeSequential(allPaths, sha256);
+        }
+
+        this.hash = sha256.digest();
+    }
+
+    private List<Path> getPathsToHash() throws IOException {
+        Path basePathAbsolute = this.path.toAbsolutePath();
+
+        List<Path> allPaths;
+        try (Stream<Path> pathStream = Files.walk(path)) {
+            allPaths = pathStream.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+
+        List<Path> pathsToHash = new ArrayList<>(allPaths.size());
         for (Path path : allPaths) {
             // We need to work with paths relative to the base path, to ensure the same hash
             // is generated on different systems
@@ -44,21 +90,119 @@ public class ArbitraryDataDigest {
                 continue;
             }
 
+            pathsToHash.add(path);
+        }
+        return pathsToHash;
+    }
+
+    private byte[] getRelativePathBytes(Path path) {
+        Path relativePath = this.path.toAbsolutePath().relativize(path.toAbsolutePath());
+        return relativePath.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void computeSequential(List<Path> allPaths, MessageDigest sha256) throws IOException {
+        // Heap buffer, as MessageDigest would only copy out of a direct buffer anyway
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        for (Path path : allPaths) {
             // Hash path
-            byte[] filePathBytes = relativePath.toString().getBytes(StandardCharsets.UTF_8);
-            sha256.update(filePathBytes);
+            sha256.update(this.getRelativePathBytes(path));
 
             // Hash contents
-            byte[] fileContent = Files.readAllBytes(path);
-            sha256.update(fileContent);
+            try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+                while (fileChannel.read(buffer) != -1) {
+                    buffer.flip();
+                    sha256.update(buffer);
+                    buffer.clear();
+                }
+            }
+        }
+    }
+
+    private void computeParallel(List<Path> allPaths, MessageDigest sha256) throws IOException {
+        // Empty buffers available for reading into
+        BlockingQueue<ByteBuffer> freeBuffers = new ArrayBlockingQueue<>(READ_AHEAD_BUFFERS);
+        for (int i = 0; i < READ_AHEAD_BUFFERS; ++i) {
+            freeBuffers.add(ByteBuffer.allocate(BUFFER_SIZE));
+        }
+
+        // Paths and file contents, in the order they need to be hashed.
+        // Big enough for all buffers plus a path before each, and end marker.
+        BlockingQueue<ByteBuffer> filledBuffers = new ArrayBlockingQueue<>(READ_AHEAD_BUFFERS * 2 + 1);
+
+        ExecutorService readAheadExecutor = Executors.newSingleThreadExecutor(new NamedThreadFactory("Digest-ReadAhead"));
+        try {
+            Future<?> readAhead = readAheadExecutor.submit(() -> {
+                try {
+                    for (Path path : allPaths) {
+                        // Read-only, to tell it apart from reusable file content buffers
+                        filledBuffers.put(ByteBuffer.wrap(this.getRelativePathBytes(path)).asReadOnlyBuffer());
+
+                        try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+                            while (true) {
+                                ByteBuffer buffer = freeBuffers.take();
+
+                                if (fileChannel.read(buffer) == -1) {
+                                    freeBuffers.put(buffer);
+                                    break;
+                                }
+
+                                buffer.flip();
+                                filledBuffers.put(buffer);
+                            }
+                        }
+                    }
+                } finally {
+                    // Always signal end of data, even on failure, so hashing doesn't wait forever
+                    try {
+                        filledBuffers.put(END_OF_DATA);
+                    } catch (InterruptedException e) {
+                        // Hashing gave up
+                    }
+                }
+
+                return null;
+            });
+
+            while (true) {
+                ByteBuffer buffer = filledBuffers.take();
+                if (buffer == END_OF_DATA) {
+                    break;
+                }
+
+                sha256.update(buffer);
+
+                // Only file content buffers are reused
+                if (!buffer.isReadOnly()) {
+                    buffer.clear();
+                    freeBuffers.put(buffer);
+                }
+            }
+
+            // Read-ahead has finished, but might have failed part way through
+            readAhead.get();
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while computing digest");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(String.format("Unable to read files to hash: %s", cause.getMessage()), cause);
+        } finally {
+            readAheadExecutor.shutdownNow();
         }
-        this.hash = sha256.digest();
     }
 
     public boolean isHashValid(byte[] hash) {
         return Arrays.equals(hash, this.hash);
     }
 
+    /** Sets whether to read ahead using a separate thread while hashing. Resulting hash is the same either way. */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
     public byte[] getHash() {
         return this.hash;
     }
@@ -3,6 +3,8 @@ package org.qortal.arbitrary;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.qortal.arbitrary.metadata.ArbitraryDataTransactionMetadata;
+import org.qortal.controller.arbitrary.ArbitraryDataStorageLedger;
+import org.qortal.controller.arbitrary.ArbitraryDataStorageManager;
 import org.qortal.crypto.Crypto;
 import org.qortal.repository.DataException;
 import org.qortal.settings.Settings;
@@ -10,11 +12,17 @@ import org.qortal.utils.Base58;
 import org.qortal.utils.FilesystemUtils;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static java.util.Arrays.stream;
@@ -55,6 +63,7 @@ public class ArbitraryDataFile {
     public static final long MAX_FILE_SIZE = 500 * 1024 * 1024; // 500MiB
     protected static final int MAX_CHUNK_SIZE = 1 * 1024 * 1024; // 1MiB
     public static final int CHUNK_SIZE = 512 * 1024; // 0.5MiB
+    private static final int DIGEST_BUFFER_SIZE = 64 * 1024; // bytes
     public static int SHORT_DIGEST_LENGTH = 8;
 
     protected Path filePath;
@@ -91,6 +100,7 @@ public class ArbitraryDataFile {
 
         Path outputFilePath = getOutputFilePath(this.hash58, signature, true);
         File outputFile = outputFilePath.toFile();
+        long previousSize = outputFile.length();
         try (FileOutputStream outputStream = new FileOutputStream(outputFile)) {
             outputStream.write(fileContent);
             this.filePath = outputFilePath;
@@ -98,6 +108,7 @@ public class ArbitraryDataFile {
             this.delete();
             throw new DataException(String.format("Unable to write data with hash %s: %s", this.hash58, e.getMessage()));
         }
+        getStorageLedger().fileWritten(outputFilePath, previousSize, fileContent.length);
     }
 
     public static ArbitraryDataFile fromHash58(String hash58, byte[] signature) throws DataException {
@@ -129,7 +140,9 @@ public class ArbitraryDataFile {
                 else if (!path.equals(arbitraryDataFile.getFilePath())) {
                     // Wrong path, so relocate (but don't cleanup, as the source folder may still be needed by the caller)
                     Path dest = arbitraryDataFile.getFilePath();
+                    long size = file.length();
                     FilesystemUtils.moveFile(path, dest, false);
+                    getStorageLedger().fileMoved(path, dest, size);
                 }
                 return arbitraryDataFile;
 
@@ -152,12 +165,19 @@ public class ArbitraryDataFile {
         sourcePath = sourcePath.toAbsolutePath();
         Path destPath = outputFilePath.toAbsolutePath();
         try {
-            return Files.copy(sourcePath, destPath, StandardCopyOption.REPLACE_EXISTING);
+            long previousSize = destPath.toFile().length();
+            Files.copy(sourcePath, destPath, StandardCopyOption.REPLACE_EXISTING);
+            getStorageLedger().fileWritten(destPath, previousSize, Files.size(destPath));
+            return destPath;
         } catch (IOException e) {
             throw new DataException(String.format("Unable to copy file %s to data directory %s", sourcePath, destPath));
         }
     }
 
+    private static ArbitraryDataStorageLedger getStorageLedger() {
+        return ArbitraryDataStorageManager.getInstance().getStorageLedger();
+    }
+
     public static Path getOutputFilePath(String hash58, byte[] signature, boolean createDirectories) throws DataException {
         Path directory;
 
@@ -256,27 +276,57 @@ public class ArbitraryDataFile {
         try {
 
             File file = this.getFile();
-            byte[] buffer = new byte[chunkSize];
             this.chunks = new ArrayList<>();
 
             if (file != null) {
-                try (FileInputStream fileInputStream = new FileInputStream(file);
-                     BufferedInputStream bis = new BufferedInputStream(fileInputStream)) {
-
-                    int numberOfBytes;
-                    while ((numberOfBytes = bis.read(buffer)) > 0) {
-                        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-                            out.write(buffer, 0, numberOfBytes);
-                            out.flush();
-
-                            ArbitraryDataFileChunk chunk = new ArbitraryDataFileChunk(out.toByteArray(), this.signature);
-                            ValidationResult validationResult = chunk.isValid();
-                            if (validationResult == ValidationResult.OK) {
-                                this.chunks.add(chunk);
-                            } else {
-                                throw new DataException(String.format("Chunk %s is invalid", chunk));
+                try (FileChannel inputChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                    final long fileSize = inputChannel.size();
+                    final int chunkCount = (int) ((fileSize + chunkSize - 1) / chunkSize);
+
+                    // Hash chunks in parallel, using positional reads so threads don't share file position
+                    String[] chunkHashes = new String[chunkCount];
+                    try {
+                        IntStream.range(0, chunkCount).parallel().forEach(i -> {
+                            final long chunkOffset = (long) i * chunkSize;
+                            final long chunkLength = Math.min(fileSize - chunkOffset, chunkSize);
+
+                            try {
+                                chunkHashes[i] = Base58.encode(digest(inputChannel, chunkOffset, chunkLength));
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        });
+                    } catch (UncheckedIOException e) {
+                        throw e.getCause();
+                    }
+
+                    // Write chunk files straight from input file
+                    for (int i = 0; i < chunkCount; ++i) {
+                        final long chunkOffset = (long) i * chunkSize;
+                        final long chunkLength = Math.min(fileSize - chunkOffset, chunkSize);
+
+                        Path chunkPath = getOutputFilePath(chunkHashes[i], this.signature, true);
+                        long previousSize = chunkPath.toFile().length();
+                        try (FileChannel chunkChannel = FileChannel.open(chunkPath,
+                                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                            long transferred = 0;
+                            while (transferred < chunkLength) {
+                                long count = inputChannel.transferTo(chunkOffset + transferred, chunkLength - transferred, chunkChannel);
+                                if (count <= 0) {
+                                    throw new IOException(String.format("Unexpected end of file while writing chunk %s", chunkHashes[i]));
+                                }
+                                transferred += count;
                             }
                         }
+                        getStorageLedger().fileWritten(chunkPath, previousSize, chunkLength);
+
+                        ArbitraryDataFileChunk chunk = ArbitraryDataFileChunk.fromHash58(chunkHashes[i], this.signature);
+                        ValidationResult validationResult = chunk.isValid();
+                        if (validationResult == ValidationResult.OK) {
+                            this.chunks.add(chunk);
+                        } else {
+                            throw new DataException(String.format("Chunk %s is invalid", chunk));
+                        }
                     }
                 }
             }
@@ -303,19 +353,27 @@ public class ArbitraryDataFile {
 
             // Join the chunks
             Path outputPath = Paths.get(tempDir.toString(), this.chunks.get(0).digest58());
-            File outputFile = new File(outputPath.toString());
-            try (BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(outputFile))) {
-                for (ArbitraryDataFileChunk chunk : this.chunks) {
-                    File sourceFile = chunk.filePath.toFile();
-                    BufferedInputStream in = new BufferedInputStream(new FileInputStream(sourceFile));
-                    byte[] buffer = new byte[2048];
-                    int inSize;
-                    while ((inSize = in.read(buffer)) != -1) {
-                        out.write(buffer, 0, inSize);
+            try {
+                try (FileChannel outputChannel = FileChannel.open(outputPath,
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    long position = 0;
+                    for (ArbitraryDataFileChunk chunk : this.chunks) {
+                        try (FileChannel chunkChannel = FileChannel.open(chunk.filePath, StandardOpenOption.READ)) {
+                            final long chunkLength = chunkChannel.size();
+
+                            long transferred = 0;
+                            while (transferred < chunkLength) {
+                                long count = outputChannel.transferFrom(chunkChannel, position + transferred, chunkLength - transferred);
+                                if (count <= 0) {
+                                    throw new IOException(String.format("Unexpected end of chunk %s", chunk));
+                                }
+                                transferred += count;
+                            }
+
+                            position += chunkLength;
+                        }
                     }
-                    in.close();
                 }
-                out.close();
 
                 // Copy temporary file to data directory
                 this.filePath = this.copyToDataDirectory(outputPath, this.signature);
@@ -324,8 +382,6 @@ public class ArbitraryDataFile {
                 }
 
                 return true;
-            } catch (FileNotFoundException e) {
-                return false;
             } catch (IOException | DataException e) {
                 return false;
             }
@@ -333,13 +389,45 @@ public class ArbitraryDataFile {
         return false;
     }
 
+    /** Returns SHA-256 digest of part of channel's file, read without changing channel's position. */
+    private static byte[] digest(FileChannel fileChannel, long offset, long length) throws IOException {
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 message digest not available");
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(length, DIGEST_BUFFER_SIZE));
+        long position = offset;
+        final long end = offset + length;
+
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+
+            int count = fileChannel.read(buffer, position);
+            if (count < 0) {
+                throw new EOFException("Unexpected end of file while hashing chunk");
+            }
+
+            buffer.flip();
+            sha256.update(buffer);
+            position += count;
+        }
+
+        return sha256.digest();
+    }
+
     public boolean delete() {
         // Delete the complete file
         // ... but only if it's inside the Qortal data or temp directory
         if (FilesystemUtils.pathInsideDataOrTempPath(this.filePath)) {
             if (Files.exists(this.filePath)) {
                 try {
+                    long size = this.filePath.toFile().length();
                     Files.delete(this.filePath);
+                    getStorageLedger().fileDeleted(this.filePath, size);
                     this.cleanupFilesystem();
                     LOGGER.debug("Deleted file {}", this.filePath);
                     return true;
@@ -0,0 +1,121 @@
+package org.qortal.arbitrary;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.qortal.settings.Settings;
+import org.qortal.utils.Base58;
+import org.qortal.utils.FilesystemUtils;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.UUID;
+
+/**
+ * ArbitraryDataLayerCache
+ *
+ * Keeps fully built states of a resource, keyed by the signature of the layer (PUT or PATCH)
+ * that produced them. A layer's signature covers its previous signature, so it identifies
+ * the complete state, and a later PATCH only needs to be applied to the cached state
+ * of its previous layer, instead of rebuilding from the original PUT.
+ *
+ * Files are hard-linked in and out of the cache where possible, so checking out a cached
+ * state is quick, and unchanged files aren't duplicated on disk.
+ */
+public class ArbitraryDataLayerCache {
+
+    private static final Logger LOGGER = LogManager.getLogger(ArbitraryDataLayerCache.class);
+
+    private ArbitraryDataLayerCache() {
+    }
+
+    private static Path getLayersPath() {
+        // Use the user-specified temp dir, as it is deterministic, and is more likely to be located on reusable storage hardware
+        return Paths.get(Settings.getInstance().getTempDataPath(), "layers");
+    }
+
+    private static Path getLayerPath(byte[] signature) {
+        return Paths.get(getLayersPath().toString(), Base58.encode(signature));
+    }
+
+    public static boolean isCached(byte[] signature) {
+        return Files.isDirectory(getLayerPath(signature));
+    }
+
+    /**
+     * Adds state built by layer with given signature.
+     * The state at statePath is left untouched.
+     *
+     * @param signature - the signature of the layer that produced this state
+     * @param statePath - the built state
+     */
+    public static void put(byte[] signature, Path statePath) {
+        Path layerPath = getLayerPath(signature);
+        Path tempLayerPath = Paths.get(getLayersPath().toString(), String.format("%s.%s", Base58.encode(signature), UUID.randomUUID()));
+
+        try {
+            // Build in a temporary location then move into place, so a partial state is never used
+            FilesystemUtils.linkOrCopyDirectory(statePath, tempLayerPath);
+
+            try {
+                Files.move(tempLayerPath, layerPath, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempLayerPath, layerPath);
+            }
+
+            LOGGER.trace("Cached layer {}", Base58.encode(signature));
+
+        } catch (IOException e) {
+            // Most likely already cached by another build
+            LOGGER.debug("Unable to cache layer {}: {}", Base58.encode(signature), e.getMessage());
+            remove(tempLayerPath);
+        }
+    }
+
+    /**
+     * Creates a copy of the state cached for given signature, which the caller is free to modify or delete.
+     *
+     * @param signature - the signature of the layer that produced the state
+     * @return path of copy, or null if state isn't cached
+     */
+    public static Path checkout(byte[] signature) {
+        Path layerPath = getLayerPath(signature);
+        if (!Files.isDirectory(layerPath)) {
+            return null;
+        }
+
+        Path checkoutPath = Paths.get(Settings.getInstance().getTempDataPath(), "merge", UUID.randomUUID().toString());
+
+        try {
+            FilesystemUtils.linkOrCopyDirectory(layerPath, checkoutPath);
+
+            // Keep track of when this layer was last used, so that unused layers can be cleaned up
+            Files.setLastModifiedTime(layerPath, FileTime.fromMillis(System.currentTimeMillis()));
+
+            return checkoutPath;
+
+        } catch (IOException e) {
+            LOGGER.debug("Unable to check out layer {}: {}", Base58.encode(signature), e.getMessage());
+            remove(checkoutPath);
+            return null;
+        }
+    }
+
+    public static void remove(byte[] signature) {
+        remove(getLayerPath(signature));
+    }
+
+    private static void remove(Path path) {
+        try {
+            FilesystemUtils.safeDeleteDirectory(path, false);
+        } catch (IOException e) {
+            // This will eventually be cleaned up by a maintenance process, so log the error and continue
+            LOGGER.debug("Unable to delete cached layer directory {}", path);
+        }
+    }
+
+}
@@ -70,7 +70,9 @@ public class ArbitraryDataMerge {
     }
 
     private void copyPreviousStateToMergePath() throws IOException {
-        ArbitraryDataMerge.copyDirPathToBaseDir(this.pathBefore, this.mergePath, Paths.get(""));
+        // Hard-link rather than copy, where possible, as most files are usually unchanged by a patch.
+        // Files that are changed are always replaced, rather than modified, so the previous state is unaffected.
+        FilesystemUtils.linkOrCopyDirectory(this.pathBefore, this.mergePath);
     }
 
     private void loadMetadata() throws IOException, DataException {
@@ -142,16 +144,6 @@ public class ArbitraryDataMerge {
         }
     }
 
-    private static void copyDirPathToBaseDir(Path source, Path base, Path relativePath) throws IOException {
-        if (!Files.exists(source)) {
-            throw new IOException(String.format("File not found: %s", source.toString()));
-        }
-
-        Path dest = Paths.get(base.toString(), relativePath.toString());
-        LOGGER.trace("Copying {} to {}", source, dest);
-        FilesystemUtils.copyAndReplaceDirectory(source.toString(), dest.toString());
-    }
-
     private static void deletePathInBaseDir(Path base, Path relativePath) throws IOException {
         Path dest = Paths.get(base.toString(), relativePath.toString());
         File file = new File(dest.toString());
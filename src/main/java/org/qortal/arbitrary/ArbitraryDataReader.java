@@ -108,7 +108,11 @@ public class ArbitraryDataReader {
     }
 
     public boolean isBuilding() {
-        return ArbitraryDataBuildManager.getInstance().isInBuildQueue(this.createQueueItem());
+        // Whoever is asking is still waiting for this resource, so make sure its build isn't cancelled
+        ArbitraryDataBuildQueueItem queueItem = this.createQueueItem();
+        ArbitraryDataBuildManager.getInstance().refreshBuildRequest(queueItem);
+
+        return ArbitraryDataBuildManager.getInstance().isInBuildQueue(queueItem);
     }
 
     private ArbitraryDataBuildQueueItem createQueueItem() {
@@ -7,23 +7,30 @@ import org.apache.logging.log4j.Logger;
 import org.qortal.api.HTMLParser;
 import org.qortal.arbitrary.ArbitraryDataFile.*;
 import org.qortal.arbitrary.exception.MissingDataException;
+import org.qortal.arbitrary.metadata.ArbitraryDataMetadataCache;
 import org.qortal.arbitrary.misc.Service;
 import org.qortal.controller.Controller;
+import org.qortal.repository.DataException;
 import org.qortal.settings.Settings;
+import org.qortal.utils.Base58;
 
 import javax.servlet.ServletContext;
+import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -113,11 +120,28 @@ public class ArbitraryDataRenderer {
 
         try {
             String filename = this.getFilename(unzippedPath, inPath);
-            String filePath = Paths.get(unzippedPath, filename).toString();
+            Path filePath = Paths.get(unzippedPath, filename);
+
+            if (!Files.isRegularFile(filePath)) {
+                throw new NoSuchFileException(filePath.toString());
+            }
+
+            // Content can only change when a new transaction is published, so its signature identifies this version
+            String eTag = this.getETag(arbitraryDataReader, path);
+            if (eTag != null) {
+                response.setHeader("ETag", eTag);
+                // Browsers can cache, but must check with us before reusing
+                response.setHeader("Cache-Control", "no-cache");
+
+                if (ArbitraryDataRenderer.matchesETag(request.getHeader("If-None-Match"), eTag)) {
+                    response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                    return response;
+                }
+            }
 
             if (HTMLParser.isHtmlFile(filename)) {
                 // HTML file - needs to be parsed
-                byte[] data = Files.readAllBytes(Paths.get(filePath)); // TODO: limit file size that can be read into memory
+                byte[] data = Files.readAllBytes(filePath); // TODO: limit file size that can be read into memory
                 HTMLParser htmlParser = new HTMLParser(resourceId, inPath, prefix, usePrefix, data);
                 htmlParser.addAdditionalHeaderTags();
                 response.addHeader("Content-Security-Policy", "default-src 'self' 'unsafe-inline' 'unsafe-eval'; media-src 'self' blob:; img-src 'self' data: blob:;");
@@ -126,19 +150,37 @@ public class ArbitraryDataRenderer {
                 response.getOutputStream().write(htmlParser.getData());
             }
             else {
-                // Regular file - can be streamed directly
-                File file = new File(filePath);
-                FileInputStream inputStream = new FileInputStream(file);
+                // Regular file - can be sent directly, or partially if a range was requested
+                long fileLength = Files.size(filePath);
+                long start = 0;
+                long length = fileLength;
+
                 response.addHeader("Content-Security-Policy", "default-src 'self'");
                 response.setContentType(context.getMimeType(filename));
-                int bytesRead, length = 0;
-                byte[] buffer = new byte[10240];
-                while ((bytesRead = inputStream.read(buffer)) != -1) {
-                    response.getOutputStream().write(buffer, 0, bytesRead);
-                    length += bytesRead;
+                response.setHeader("Accept-Ranges", "bytes");
+
+                String rangeHeader = request.getHeader("Range");
+                String ifRangeHeader = request.getHeader("If-Range");
+                // Only honour range if client's copy is the same version, otherwise send everything
+                if (rangeHeader != null && (ifRangeHeader == null || ifRangeHeader.equals(eTag))) {
+                    long[] range = ArbitraryDataRenderer.parseRange(rangeHeader, fileLength);
+
+                    if (range == null) {
+                        response.setHeader("Content-Range", String.format("bytes */%d", fileLength));
+                        return ArbitraryDataRenderer.getResponse(response, HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, "Error 416: Range Not Satisfiable");
+                    }
+
+                    if (range.length == 2) {
+                        start = range[0];
+                        length = range[1] - range[0] + 1;
+
+                        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                        response.setHeader("Content-Range", String.format("bytes %d-%d/%d", range[0], range[1], fileLength));
+                    }
                 }
-                response.setContentLength(length);
-                inputStream.close();
+
+                response.setContentLengthLong(length);
+                this.sendFile(filePath, start, length);
             }
             return response;
         } catch (FileNotFoundException | NoSuchFileException e) {
@@ -158,6 +200,142 @@ public class ArbitraryDataRenderer {
         return ArbitraryDataRenderer.getResponse(response, 404, "Error 404: File Not Found");
     }
 
+    /**
+     * Sends <tt>length</tt> bytes of file, starting at <tt>start</tt>, to response.
+     * <p>
+     * File is streamed in chunks, rather than memory-mapped, as mapped files can't be deleted
+     * on Windows, and crash the JVM if truncated while being sent.
+     */
+    private void sendFile(Path filePath, long start, long length) throws IOException {
+        ServletOutputStream outputStream = response.getOutputStream();
+
+        try (FileChannel fileChannel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            WritableByteChannel outputChannel = Channels.newChannel(outputStream);
+            long position = start;
+            long end = start + length;
+            while (position < end) {
+                long bytesTransferred = fileChannel.transferTo(position, end - position, outputChannel);
+                if (bytesTransferred <= 0) {
+                    // File must have shrunk
+                    break;
+                }
+                position += bytesTransferred;
+            }
+        }
+    }
+
+    /**
+     * Returns ETag for resource's current version, based on its latest transaction's signature,
+     * or null if not known.
+     */
+    private String getETag(ArbitraryDataReader arbitraryDataReader, Path path) {
+        byte[] signature = arbitraryDataReader.getLatestSignature();
+
+        if (signature == null) {
+            // Built previously, so use signature recorded in cache metadata
+            try {
+                ArbitraryDataMetadataCache cache = new ArbitraryDataMetadataCache(path);
+                cache.read();
+                signature = cache.getSignature();
+            } catch (IOException | DataException e) {
+                // Fall-through
+            }
+        }
+
+        if (signature != null) {
+            return String.format("\"%s\"", Base58.encode(signature));
+        }
+
+        // Signatures and file hashes always refer to the same data
+        if (resourceIdType == ResourceIdType.SIGNATURE || resourceIdType == ResourceIdType.FILE_HASH) {
+            return String.format("\"%s\"", resourceId);
+        }
+
+        return null;
+    }
+
+    /** Returns whether <tt>If-None-Match</tt> header value matches <tt>eTag</tt>. */
+    public static boolean matchesETag(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null || eTag == null) {
+            return false;
+        }
+
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+
+            // Weak comparison is fine for If-None-Match
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+
+            if (candidate.equals("*") || candidate.equals(eTag)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Parses HTTP <tt>Range</tt> header value for a file of <tt>fileLength</tt> bytes.
+     * <p>
+     * Only single byte ranges are supported; anything else is ignored, so whole file is sent.
+     *
+     * @return { first byte, last byte } (inclusive), an empty array if whole file should be sent,
+     * or null if range can't be satisfied
+     */
+    public static long[] parseRange(String rangeHeader, long fileLength) {
+        if (!rangeHeader.startsWith("bytes=") || rangeHeader.contains(",")) {
+            return new long[0];
+        }
+
+        String range = rangeHeader.substring("bytes=".length()).trim();
+        int dashIndex = range.indexOf('-');
+        if (dashIndex < 0) {
+            return new long[0];
+        }
+
+        long start;
+        long end;
+
+        try {
+            if (dashIndex == 0) {
+                // Suffix range, e.g. last 500 bytes
+                long suffixLength = Long.parseLong(range.substring(1));
+                if (suffixLength <= 0 || fileLength == 0) {
+                    return null;
+                }
+
+                start = Math.max(0, fileLength - suffixLength);
+                end = fileLength - 1;
+            } else {
+                start = Long.parseLong(range.substring(0, dashIndex));
+
+                String endString = range.substring(dashIndex + 1);
+                if (endString.isEmpty()) {
+                    end = fileLength - 1;
+                } else {
+                    end = Long.parseLong(endString);
+
+                    // Last byte before first byte is syntactically invalid, so ignored (RFC 7233 section 2.1)
+                    if (end < start) {
+                        return new long[0];
+                    }
+
+                    end = Math.min(end, fileLength - 1);
+                }
+            }
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+
+        if (start < 0 || start >= fileLength) {
+            return null;
+        }
+
+        return new long[] { start, end };
+    }
+
     private String getFilename(String directory, String userPath) {
         if (userPath == null || userPath.endsWith("/") || userPath.equals("")) {
             // Locate index file
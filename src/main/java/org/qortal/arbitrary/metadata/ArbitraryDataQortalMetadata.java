@@ -68,6 +68,10 @@ public class ArbitraryDataQortalMetadata extends ArbitraryDataMetadata {
         this.createQortalDirectory();
 
         Path patchPath = Paths.get(this.qortalDirectoryPath.toString(), this.fileName());
+
+        // Replace, rather than overwrite, as existing file might be hard-linked to a cached layer
+        Files.deleteIfExists(patchPath);
+
         BufferedWriter writer = new BufferedWriter(new FileWriter(patchPath.toString()));
         writer.write(this.jsonString);
         writer.newLine();
@@ -117,7 +117,7 @@ public class AT {
 			throw new IllegalStateException("No previous AT state data found");
 
 		// [Re]create AT machine state using AT state data or from scratch as applicable
-		byte[] codeBytes = this.atData.getCodeBytes();
+		byte[] codeBytes = ATCodeCache.getCodeBytes(this.repository, this.atData);
 		MachineState state = MachineState.fromBytes(api, loggerFactory, latestAtStateData.getStateData(), codeBytes);
 		try {
 			api.preExecute(state);
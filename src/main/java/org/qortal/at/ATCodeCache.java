@@ -0,0 +1,76 @@
+package org.qortal.at;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.qortal.crypto.Crypto;
+import org.qortal.data.at.ATData;
+import org.qortal.repository.DataException;
+import org.qortal.repository.Repository;
+import org.qortal.utils.ByteArray;
+
+/**
+ * Cache of AT code bytes, keyed by code hash.
+ * <p>
+ * AT code never changes once deployed, and many ATs share the same code, e.g. cross-chain trade ATs,
+ * so there is no need to load every AT's code from the repository for every block.
+ * <p>
+ * As entries are keyed by the hash of their contents, they stay valid regardless of
+ * which blocks are processed or orphaned.
+ */
+public class ATCodeCache {
+
+	private static final int MAX_ENTRIES = 1000;
+
+	private static final Map<ByteArray, byte[]> CACHE = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<ByteArray, byte[]> eldest) {
+			return this.size() > MAX_ENTRIES;
+		}
+	});
+
+	private ATCodeCache() {
+	}
+
+	/**
+	 * Returns AT's code bytes, using <tt>atData</tt>'s code bytes if present,
+	 * otherwise from cache, otherwise from repository.
+	 * <p>
+	 * Returned array is shared, so must not be modified.
+	 */
+	public static byte[] getCodeBytes(Repository repository, ATData atData) throws DataException {
+		if (atData.getCodeBytes() != null)
+			return atData.getCodeBytes();
+
+		byte[] codeHash = atData.getCodeHash();
+		ByteArray key = codeHash != null ? ByteArray.wrap(codeHash) : null;
+
+		if (key != null) {
+			byte[] codeBytes = CACHE.get(key);
+			if (codeBytes != null)
+				return codeBytes;
+		}
+
+		ATData fullAtData = repository.getATRepository().fromATAddress(atData.getATAddress());
+		if (fullAtData == null)
+			throw new DataException(String.format("Can't find AT %s to load its code", atData.getATAddress()));
+
+		byte[] codeBytes = fullAtData.getCodeBytes();
+
+		// Only cache code that really has this hash, in case of inconsistent repository data
+		if (key != null && Arrays.equals(Crypto.digest(codeBytes), codeHash))
+			CACHE.put(key, codeBytes);
+
+		return codeBytes;
+	}
+
+	/** Empties cache, e.g. for testing. */
+	public static void clear() {
+		CACHE.clear();
+	}
+
+}
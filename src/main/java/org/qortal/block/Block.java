@@ -1150,69 +1150,12 @@ public class Block {
 			// Create repository savepoint here so we can rollback to it after testing transactions
 			repository.setSavepoint();
 
-			if (this.blockData.getHeight() == 212937) {
-				// Apply fix for block 212937 but fix will be rolled back before we exit method
-				Block212937.processFix(this);
-			}
-			else if (InvalidNameRegistrationBlocks.isAffectedBlock(this.blockData.getHeight())) {
-				// Apply fix for affected name registration blocks, but fix will be rolled back before we exit method
-				InvalidNameRegistrationBlocks.processFix(this);
-			}
+			this.processValidationFixes();
 
 			for (Transaction transaction : this.getTransactions()) {
-				TransactionData transactionData = transaction.getTransactionData();
-
-				// Skip AT transactions as they are covered by prior call to Block.areAtsValid()
-				if (transactionData.getType() == TransactionType.AT)
-					continue;
-
-				// GenesisTransactions are not allowed (GenesisBlock overrides isValid() to allow them)
-				if (transactionData.getType() == TransactionType.GENESIS || transactionData.getType() == TransactionType.ACCOUNT_FLAGS)
-					return ValidationResult.GENESIS_TRANSACTIONS_INVALID;
-
-				// Check timestamp and deadline
-				if (transactionData.getTimestamp() > this.blockData.getTimestamp()
-						|| transaction.getDeadline() <= this.blockData.getTimestamp())
-					return ValidationResult.TRANSACTION_TIMESTAMP_INVALID;
-
-				// Check transaction isn't already included in a block
-				if (this.repository.getTransactionRepository().isConfirmed(transactionData.getSignature()))
-					return ValidationResult.TRANSACTION_ALREADY_PROCESSED;
-
-				// Check transaction has correct reference, etc.
-				if (!transaction.hasValidReference()) {
-					LOGGER.debug(String.format("Error during transaction validation, tx %s: INVALID_REFERENCE", Base58.encode(transactionData.getSignature())));
-					return ValidationResult.TRANSACTION_INVALID;
-				}
-
-				// Check transaction is even valid
-				// NOTE: in Gen1 there was an extra block height passed to DeployATTransaction.isValid
-				Transaction.ValidationResult validationResult = transaction.isValid();
-				if (validationResult != Transaction.ValidationResult.OK) {
-					LOGGER.debug(String.format("Error during transaction validation, tx %s: %s", Base58.encode(transactionData.getSignature()), validationResult.name()));
-					return ValidationResult.TRANSACTION_INVALID;
-				}
-
-				// Check transaction can even be processed
-				validationResult = transaction.isProcessable();
-				if (validationResult != Transaction.ValidationResult.OK) {
-					LOGGER.info(String.format("Error during transaction validation, tx %s: %s", Base58.encode(transactionData.getSignature()), validationResult.name()));
-					return ValidationResult.TRANSACTION_INVALID;
-				}
-
-				// Process transaction to make sure other transactions validate properly
-				try {
-					// Only process transactions that don't require group-approval.
-					// Group-approval transactions are dealt with later.
-					if (transactionData.getApprovalStatus() == ApprovalStatus.NOT_REQUIRED)
-						transaction.process();
-
-					// Regardless of group-approval, update relevant info for creator (e.g. lastReference)
-					transaction.processReferencesAndFees();
-				} catch (Exception e) {
-					LOGGER.error(String.format("Exception during transaction validation, tx %s", Base58.encode(transactionData.getSignature())), e);
-					return ValidationResult.TRANSACTION_PROCESSING_FAILED;
-				}
+				ValidationResult validationResult = this.isTransactionValid(transaction);
+				if (validationResult != ValidationResult.OK)
+					return validationResult;
 			}
 		} catch (DataException e) {
 			return ValidationResult.TRANSACTION_INVALID;
@@ -1230,6 +1173,89 @@ public class Block {
 		return ValidationResult.OK;
 	}
 
+	/**
+	 * Applies any height-specific fixes needed before test-processing block's transactions.
+	 * <p>
+	 * Caller is expected to have set a repository savepoint so fixes can be rolled back afterwards.
+	 */
+	/*package*/ void processValidationFixes() throws DataException {
+		if (this.blockData.getHeight() == 212937) {
+			// Apply fix for block 212937 but fix will be rolled back by caller
+			Block212937.processFix(this);
+		}
+		else if (InvalidNameRegistrationBlocks.isAffectedBlock(this.blockData.getHeight())) {
+			// Apply fix for affected name registration blocks, but fix will be rolled back by caller
+			InvalidNameRegistrationBlocks.processFix(this);
+		}
+	}
+
+	/**
+	 * Validates, then test-processes, a single transaction from this block.
+	 * <p>
+	 * Transaction is checked against repository state as left by test-processing prior transactions,
+	 * so caller is expected to have an {@link AccountRefCache} and repository savepoint in effect.
+	 * <p>
+	 * On <tt>TRANSACTION_PROCESSING_FAILED</tt>, repository state and account reference cache
+	 * may contain partial changes from this transaction.
+	 */
+	/*package*/ ValidationResult isTransactionValid(Transaction transaction) throws DataException {
+		TransactionData transactionData = transaction.getTransactionData();
+
+		// Skip AT transactions as they are covered by prior call to Block.areAtsValid()
+		if (transactionData.getType() == TransactionType.AT)
+			return ValidationResult.OK;
+
+		// GenesisTransactions are not allowed (GenesisBlock overrides isValid() to allow them)
+		if (transactionData.getType() == TransactionType.GENESIS || transactionData.getType() == TransactionType.ACCOUNT_FLAGS)
+			return ValidationResult.GENESIS_TRANSACTIONS_INVALID;
+
+		// Check timestamp and deadline
+		if (transactionData.getTimestamp() > this.blockData.getTimestamp()
+				|| transaction.getDeadline() <= this.blockData.getTimestamp())
+			return ValidationResult.TRANSACTION_TIMESTAMP_INVALID;
+
+		// Check transaction isn't already included in a block
+		if (this.repository.getTransactionRepository().isConfirmed(transactionData.getSignature()))
+			return ValidationResult.TRANSACTION_ALREADY_PROCESSED;
+
+		// Check transaction has correct reference, etc.
+		if (!transaction.hasValidReference()) {
+			LOGGER.debug(String.format("Error during transaction validation, tx %s: INVALID_REFERENCE", Base58.encode(transactionData.getSignature())));
+			return ValidationResult.TRANSACTION_INVALID;
+		}
+
+		// Check transaction is even valid
+		// NOTE: in Gen1 there was an extra block height passed to DeployATTransaction.isValid
+		Transaction.ValidationResult validationResult = transaction.isValid();
+		if (validationResult != Transaction.ValidationResult.OK) {
+			LOGGER.debug(String.format("Error during transaction validation, tx %s: %s", Base58.encode(transactionData.getSignature()), validationResult.name()));
+			return ValidationResult.TRANSACTION_INVALID;
+		}
+
+		// Check transaction can even be processed
+		validationResult = transaction.isProcessable();
+		if (validationResult != Transaction.ValidationResult.OK) {
+			LOGGER.info(String.format("Error during transaction validation, tx %s: %s", Base58.encode(transactionData.getSignature()), validationResult.name()));
+			return ValidationResult.TRANSACTION_INVALID;
+		}
+
+		// Process transaction to make sure other transactions validate properly
+		try {
+			// Only process transactions that don't require group-approval.
+			// Group-approval transactions are dealt with later.
+			if (transactionData.getApprovalStatus() == ApprovalStatus.NOT_REQUIRED)
+				transaction.process();
+
+			// Regardless of group-approval, update relevant info for creator (e.g. lastReference)
+			transaction.processReferencesAndFees();
+		} catch (Exception e) {
+			LOGGER.error(String.format("Exception during transaction validation, tx %s", Base58.encode(transactionData.getSignature())), e);
+			return ValidationResult.TRANSACTION_PROCESSING_FAILED;
+		}
+
+		return ValidationResult.OK;
+	}
+
 	/**
 	 * Returns whether blocks' ATs are valid.
 	 * <p>
@@ -1328,8 +1354,8 @@ public class Block {
 		this.ourAtStates = new ArrayList<>();
 		this.ourAtFees = 0;
 
-		// Find all executable ATs, ordered by earliest creation date first
-		List<ATData> executableATs = this.repository.getATRepository().getAllExecutableATs();
+		// Find executable ATs, ordered by earliest creation date first, skipping those sleeping until a later height
+		List<ATData> executableATs = this.repository.getATRepository().getExecutableATs(this.blockData.getHeight());
 
 		// Run each AT, appends AT-Transactions and corresponding AT states, to our lists
 		for (ATData atData : executableATs) {
@@ -0,0 +1,164 @@
+package org.qortal.block;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.qortal.account.AccountRefCache;
+import org.qortal.block.Block.ValidationResult;
+import org.qortal.data.transaction.TransactionData;
+import org.qortal.repository.DataException;
+import org.qortal.repository.Repository;
+import org.qortal.transaction.Transaction;
+import org.qortal.utils.Base58;
+
+/**
+ * Adds unconfirmed transactions to a newly minted block, validating each against the state left by those already accepted.
+ * <p>
+ * Calling {@link Block#isValid()} after each addition re-validates, and test-processes, every transaction
+ * already in the block, making block assembly quadratic in the number of transactions.
+ * <p>
+ * Instead, this builder holds an {@link AccountRefCache} and a repository savepoint for its lifetime,
+ * keeping the test-processed changes of every accepted transaction. Each new transaction is validated and
+ * test-processed inside its own nested savepoint, which is released if the transaction is accepted,
+ * or rolled back if not, so only that transaction's changes are undone.
+ * <p>
+ * Transactions must be offered in block order, i.e. sorted by {@link Transaction#getDataComparator()},
+ * as returned by {@link Transaction#getUnconfirmedTransactions(Repository)}. If a transaction arrives
+ * out of order, or test-processing fails part-way, accumulated state is rebuilt from scratch.
+ * <p>
+ * All test-processed changes are rolled back on {@link #close()}. Block-level checks are not performed here
+ * so caller should still call {@link Block#isValid()} once assembly is complete.
+ * <p>
+ * <tt>IncrementalBlockBuilder</tt> implements <tt>AutoCloseable</tt> for (typical) use in a try-with-resources block.
+ */
+public class IncrementalBlockBuilder implements AutoCloseable {
+
+	private static final Logger LOGGER = LogManager.getLogger(IncrementalBlockBuilder.class);
+
+	private static final Comparator<TransactionData> TRANSACTION_ORDER = Transaction.getDataComparator();
+
+	private final Repository repository;
+	private final Block block;
+
+	/** Transactions accepted so far, in the order they were test-processed */
+	private final List<TransactionData> acceptedTransactions = new ArrayList<>();
+
+	private AccountRefCache accountRefCache;
+
+	public IncrementalBlockBuilder(Repository repository, Block block) throws DataException {
+		this.repository = repository;
+		this.block = block;
+
+		this.open();
+	}
+
+	/**
+	 * Attempts to add transaction to block.
+	 *
+	 * @return true if there was room in block, regardless of whether transaction was valid,
+	 * or false if block is full
+	 * @throws DataException
+	 */
+	public boolean addTransaction(TransactionData transactionData) throws DataException {
+		// Already accepted? Block would otherwise silently ignore it anyway
+		if (this.acceptedTransactions.stream().anyMatch(accepted -> Arrays.equals(accepted.getSignature(), transactionData.getSignature())))
+			return true;
+
+		if (!this.block.addTransaction(transactionData))
+			return false;
+
+		if (!this.acceptedTransactions.isEmpty()
+				&& TRANSACTION_ORDER.compare(this.acceptedTransactions.get(this.acceptedTransactions.size() - 1), transactionData) > 0) {
+			// Accumulated state no longer matches block order
+			LOGGER.debug(() -> String.format("Transaction %s added out of order during block minting - rebuilding state", Base58.encode(transactionData.getSignature())));
+
+			this.acceptedTransactions.add(transactionData);
+			this.acceptedTransactions.sort(TRANSACTION_ORDER);
+			this.rebuild();
+			return true;
+		}
+
+		ValidationResult validationResult = this.testProcess(transactionData);
+		if (validationResult == ValidationResult.OK) {
+			this.acceptedTransactions.add(transactionData);
+			return true;
+		}
+
+		LOGGER.debug(() -> String.format("Skipping invalid transaction %s during block minting", Base58.encode(transactionData.getSignature())));
+		this.block.deleteTransaction(transactionData);
+
+		if (validationResult == ValidationResult.TRANSACTION_PROCESSING_FAILED)
+			// Account reference cache might contain partial changes from failed transaction
+			this.rebuild();
+
+		return true;
+	}
+
+	/** Rolls back all test-processed changes. */
+	@Override
+	public void close() throws DataException {
+		this.accountRefCache.close();
+		this.repository.rollbackToSavepoint();
+	}
+
+	private void open() throws DataException {
+		this.accountRefCache = new AccountRefCache(this.repository);
+
+		// Savepoint for all test-processed changes, rolled back on close()
+		this.repository.setSavepoint();
+
+		this.block.processValidationFixes();
+	}
+
+	/** Validates and test-processes transaction, keeping changes only if valid. */
+	private ValidationResult testProcess(TransactionData transactionData) throws DataException {
+		this.repository.setSavepoint();
+
+		ValidationResult validationResult;
+		try {
+			validationResult = this.block.isTransactionValid(Transaction.fromData(this.repository, transactionData));
+		} catch (DataException e) {
+			validationResult = ValidationResult.TRANSACTION_INVALID;
+		}
+
+		if (validationResult == ValidationResult.OK)
+			this.repository.releaseSavepoint();
+		else
+			this.repository.rollbackToSavepoint();
+
+		return validationResult;
+	}
+
+	/** Discards accumulated state, then re-test-processes accepted transactions, dropping any that are no longer valid. */
+	private void rebuild() throws DataException {
+		this.close();
+		this.open();
+
+		List<TransactionData> previouslyAccepted = new ArrayList<>(this.acceptedTransactions);
+		this.acceptedTransactions.clear();
+
+		for (TransactionData transactionData : previouslyAccepted) {
+			ValidationResult validationResult = this.testProcess(transactionData);
+
+			if (validationResult == ValidationResult.OK) {
+				this.acceptedTransactions.add(transactionData);
+				continue;
+			}
+
+			LOGGER.debug(() -> String.format("Skipping invalid transaction %s during block minting", Base58.encode(transactionData.getSignature())));
+			this.block.deleteTransaction(transactionData);
+
+			if (validationResult == ValidationResult.TRANSACTION_PROCESSING_FAILED) {
+				// Start again without the failed transaction
+				this.acceptedTransactions.addAll(previouslyAccepted.subList(previouslyAccepted.indexOf(transactionData) + 1, previouslyAccepted.size()));
+				this.rebuild();
+				return;
+			}
+		}
+	}
+
+}
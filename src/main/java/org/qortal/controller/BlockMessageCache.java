@@ -0,0 +1,160 @@
+package org.qortal.controller;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.qortal.network.message.Message;
+import org.qortal.network.message.MessageType;
+import org.qortal.settings.Settings;
+import org.qortal.utils.ByteArray;
+
+/**
+ * Cache of serialized BLOCK and BLOCK_V2 messages, for answering peers' GET_BLOCK requests,
+ * indexed by block signature and message type.
+ * <p>
+ * Blocks can come from the repository or the archive. Serializing a block, and generating its message checksum,
+ * is the expensive part of sending it, so cached messages are sent again by cloning with a new message ID.
+ * <p>
+ * The cache is bounded by total size of serialized data, rather than block count, as block size varies widely.
+ * Least recently used messages are evicted first.
+ */
+public class BlockMessageCache {
+
+	private static class Key {
+		private final ByteArray signature;
+		private final MessageType type;
+
+		Key(byte[] signature, MessageType type) {
+			this.signature = ByteArray.wrap(signature);
+			this.type = type;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (other == this)
+				return true;
+
+			if (!(other instanceof Key))
+				return false;
+
+			Key otherKey = (Key) other;
+
+			return this.type == otherKey.type && this.signature.equals(otherKey.signature);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.signature.hashCode() ^ this.type.hashCode();
+		}
+	}
+
+	/** Cached messages, in access order, so eldest is least recently used */
+	private final LinkedHashMap<Key, Message> cache = new LinkedHashMap<>(16, 0.75f, true);
+	/** Total size of cached messages' data, guarded by cache */
+	private long cachedBytes = 0;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong fills = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/** Snapshot of cache activity since startup, for API */
+	public static class Stats {
+		public long hits;
+		public long misses;
+		public long fills;
+		public long evictions;
+		public int entries;
+		public long bytes;
+
+		public Stats() {
+		}
+	}
+
+	/**
+	 * Returns cached block message for <tt>signature</tt>, or null if not cached.
+	 * <p>
+	 * Caller must not modify returned message, e.g. by setting its ID, but should use {@link Message#cloneWithNewId(Message, int)}.
+	 *
+	 * @param allowV2 whether a BLOCK_V2 message is acceptable, otherwise only a BLOCK message will be returned
+	 */
+	public Message get(byte[] signature, boolean allowV2) {
+		Message message = null;
+
+		synchronized (this.cache) {
+			if (allowV2)
+				message = this.cache.get(new Key(signature, MessageType.BLOCK_V2));
+
+			if (message == null)
+				message = this.cache.get(new Key(signature, MessageType.BLOCK));
+		}
+
+		if (message == null)
+			this.misses.incrementAndGet();
+		else
+			this.hits.incrementAndGet();
+
+		return message;
+	}
+
+	/**
+	 * Adds BLOCK or BLOCK_V2 message for <tt>signature</tt>, evicting least recently used messages to stay within size limit.
+	 * <p>
+	 * Caller must not modify message afterwards.
+	 */
+	public void put(byte[] signature, Message blockMessage) {
+		final long maxBytes = Settings.getInstance().getBlockMessageCacheSize();
+		final int messageBytes = blockMessage.getDataLength();
+
+		// Don't let one huge block flush everything else
+		if (messageBytes > maxBytes / 2)
+			return;
+
+		synchronized (this.cache) {
+			Message previousMessage = this.cache.put(new Key(signature, blockMessage.getType()), blockMessage);
+			if (previousMessage != null)
+				this.cachedBytes -= previousMessage.getDataLength();
+
+			this.cachedBytes += messageBytes;
+
+			Iterator<Map.Entry<Key, Message>> iterator = this.cache.entrySet().iterator();
+			while (this.cachedBytes > maxBytes && iterator.hasNext()) {
+				this.cachedBytes -= iterator.next().getValue().getDataLength();
+				iterator.remove();
+				this.evictions.incrementAndGet();
+			}
+		}
+
+		this.fills.incrementAndGet();
+	}
+
+	/** Removes any cached messages for <tt>signature</tt>, e.g. when block is orphaned. */
+	public void invalidate(byte[] signature) {
+		synchronized (this.cache) {
+			for (MessageType type : new MessageType[] { MessageType.BLOCK, MessageType.BLOCK_V2 }) {
+				Message message = this.cache.remove(new Key(signature, type));
+				if (message != null)
+					this.cachedBytes -= message.getDataLength();
+			}
+		}
+	}
+
+	public Stats getStats() {
+		Stats stats = new Stats();
+
+		stats.hits = this.hits.get();
+		stats.misses = this.misses.get();
+		stats.fills = this.fills.get();
+		stats.evictions = this.evictions.get();
+
+		synchronized (this.cache) {
+			stats.entries = this.cache.size();
+			stats.bytes = this.cachedBytes;
+		}
+
+		return stats;
+	}
+
+}
@@ -18,6 +18,7 @@ import org.qortal.account.PrivateKeyAccount;
 import org.qortal.block.Block;
 import org.qortal.block.Block.ValidationResult;
 import org.qortal.block.BlockChain;
+import org.qortal.block.IncrementalBlockBuilder;
 import org.qortal.data.account.MintingAccountData;
 import org.qortal.data.account.RewardShareData;
 import org.qortal.data.block.BlockData;
@@ -26,6 +27,7 @@ import org.qortal.data.block.CommonBlockData;
 import org.qortal.data.transaction.TransactionData;
 import org.qortal.network.Network;
 import org.qortal.network.Peer;
+import org.qortal.network.message.Message;
 import org.qortal.repository.BlockRepository;
 import org.qortal.repository.DataException;
 import org.qortal.repository.Repository;
@@ -437,7 +439,8 @@ public class BlockMinter extends Thread {
 						BlockData newBlockData = newBlock.getBlockData();
 
 						Network network = Network.getInstance();
-						network.broadcast(broadcastPeer -> network.buildHeightMessage(broadcastPeer, newBlockData));
+						Message heightMessage = network.buildHeightMessage(newBlockData);
+						network.broadcast(broadcastPeer -> heightMessage);
 					}
 				} catch (DataException e) {
 					LOGGER.warn("Repository issue while running block minter", e);
@@ -478,17 +481,12 @@ public class BlockMinter extends Thread {
 		newBlock.sign();
 
 		// Attempt to add transactions until block is full, or we run out
-		// If a transaction makes the block invalid then skip it and it'll either expire or be in next block.
-		for (TransactionData transactionData : unconfirmedTransactions) {
-			if (!newBlock.addTransaction(transactionData))
-				break;
-
-			// If newBlock is no longer valid then we can't use transaction
-			ValidationResult validationResult = newBlock.isValid();
-			if (validationResult != ValidationResult.OK) {
-				LOGGER.debug(() -> String.format("Skipping invalid transaction %s during block minting", Base58.encode(transactionData.getSignature())));
-				newBlock.deleteTransaction(transactionData);
-			}
+		// If a transaction is invalid, given those already added, then skip it and it'll either expire or be in next block.
+		// Only newly added transactions are validated, with caller's final Block.isValid() call covering the whole block.
+		try (IncrementalBlockBuilder blockBuilder = new IncrementalBlockBuilder(repository, newBlock)) {
+			for (TransactionData transactionData : unconfirmedTransactions)
+				if (!blockBuilder.addTransaction(transactionData))
+					break;
 		}
 	}
 
@@ -49,6 +49,7 @@ import org.qortal.data.network.PeerChainTipData;
 import org.qortal.data.network.PeerData;
 import org.qortal.data.transaction.ChatTransactionData;
 import org.qortal.data.transaction.TransactionData;
+import org.qortal.event.CoalescableEvent;
 import org.qortal.event.Event;
 import org.qortal.event.EventBus;
 import org.qortal.globalization.Translator;
@@ -58,6 +59,7 @@ import org.qortal.network.Network;
 import org.qortal.network.Peer;
 import org.qortal.network.message.*;
 import org.qortal.repository.*;
+import org.qortal.repository.hsqldb.HSQLDBCheckpointLock;
 import org.qortal.repository.hsqldb.HSQLDBRepositoryFactory;
 import org.qortal.settings.Settings;
 import org.qortal.transaction.Transaction;
@@ -101,14 +103,8 @@ public class Controller extends Thread {
 	/** Latest blocks on our chain. Note: tail/last is the latest block. */
 	private final Deque<BlockData> latestBlocks = new LinkedList<>();
 
-	/** Cache of BlockMessages, indexed by block signature */
-	@SuppressWarnings("serial")
-	private final LinkedHashMap<ByteArray, CachedBlockMessage> blockMessageCache = new LinkedHashMap<>() {
-		@Override
-		protected boolean removeEldestEntry(Map.Entry<ByteArray, CachedBlockMessage> eldest) {
-			return this.size() > Settings.getInstance().getBlockCacheSize();
-		}
-	};
+	/** Cache of serialized BLOCK/BLOCK_V2 messages, indexed by block signature */
+	private final BlockMessageCache blockMessageCache = new BlockMessageCache();
 
 	private long repositoryBackupTimestamp = startTime; // ms
 	private long repositoryMaintenanceTimestamp = startTime; // ms
@@ -147,6 +143,16 @@ public class Controller extends Thread {
 		}
 		public GetBlockSummariesStats getBlockSummariesStats = new GetBlockSummariesStats();
 
+		public static class GetBlocksMessageStats {
+			public AtomicLong requests = new AtomicLong();
+			public AtomicLong blocksSent = new AtomicLong();
+			public AtomicLong emptyResponses = new AtomicLong();
+
+			public GetBlocksMessageStats() {
+			}
+		}
+		public GetBlocksMessageStats getBlocksMessageStats = new GetBlocksMessageStats();
+
 		public static class GetBlockSignaturesV2Stats {
 			public AtomicLong requests = new AtomicLong();
 			public AtomicLong cacheHits = new AtomicLong();
@@ -230,6 +236,64 @@ public class Controller extends Thread {
 		}
 		public GetNameMessageStats getNameMessageStats = new GetNameMessageStats();
 
+		public static class PeerBlockFetchStats {
+			public String peer;
+			public long blocks;
+			public long failures;
+			public long averageResponseTime; // ms
+			public double blocksPerSecond;
+
+			public PeerBlockFetchStats() {
+			}
+
+			public PeerBlockFetchStats(String peer, long blocks, long failures, long totalResponseTime) {
+				this.peer = peer;
+				this.blocks = blocks;
+				this.failures = failures;
+				this.averageResponseTime = blocks > 0 ? totalResponseTime / blocks : 0;
+				this.blocksPerSecond = totalResponseTime > 0 ? blocks * 1000.0 / totalResponseTime : 0;
+			}
+		}
+
+		public static class SyncBlockFetchStats {
+			public AtomicLong requests = new AtomicLong();
+			public AtomicLong blocksReceived = new AtomicLong();
+			public AtomicLong failures = new AtomicLong();
+			public AtomicLong helperFallbacks = new AtomicLong();
+			public AtomicLong multiBlockRequests = new AtomicLong();
+			public AtomicLong blocksVerified = new AtomicLong();
+			public AtomicLong verificationTime = new AtomicLong(); // ms
+			public List<PeerBlockFetchStats> peers = new ArrayList<>();
+
+			public SyncBlockFetchStats() {
+			}
+		}
+		public SyncBlockFetchStats syncBlockFetchStats = new SyncBlockFetchStats();
+
+		public static class TransactionImporterStats {
+			public int queueSize;
+			public AtomicLong verificationRounds = new AtomicLong();
+			public AtomicLong signaturesVerified = new AtomicLong();
+			public AtomicLong invalidSignatures = new AtomicLong();
+			public AtomicLong verificationTime = new AtomicLong(); // ms
+			public AtomicLong transactionsImported = new AtomicLong();
+			public AtomicLong importTime = new AtomicLong(); // ms
+
+			public TransactionImporterStats() {
+			}
+		}
+		public TransactionImporterStats transactionImporterStats = new TransactionImporterStats();
+
+		public HSQLDBCheckpointLock.Stats repositoryCheckpointLockStats = new HSQLDBCheckpointLock.Stats();
+
+		public BlockMessageCache.Stats blockMessageCacheStats = new BlockMessageCache.Stats();
+
+		public List<EventBus.ListenerStats> eventListenerStats = new ArrayList<>();
+
+		public ArbitraryDataBuildManager.Stats arbitraryDataBuildStats = new ArbitraryDataBuildManager.Stats();
+
+		public ArbitraryDataFileManager.Stats arbitraryDataFetchStats = new ArbitraryDataFileManager.Stats();
+
 		public AtomicLong latestBlocksCacheRefills = new AtomicLong();
 
 		public StatsSnapshot() {
@@ -772,7 +836,7 @@ public class Controller extends Thread {
 	}
 
 
-	public static class StatusChangeEvent implements Event {
+	public static class StatusChangeEvent implements CoalescableEvent {
 		public StatusChangeEvent() {
 		}
 	}
@@ -890,6 +954,9 @@ public class Controller extends Thread {
 				LOGGER.info("Shutting down API");
 				ApiService.getInstance().stop();
 
+				LOGGER.info("Shutting down event listeners");
+				EventBus.INSTANCE.shutdown();
+
 				if (Settings.getInstance().isAutoUpdateEnabled()) {
 					LOGGER.info("Shutting down auto-update");
 					AutoUpdate.getInstance().shutdown();
@@ -998,11 +1065,13 @@ public class Controller extends Thread {
 		Network network = Network.getInstance();
 
 		// Send (if outbound) / Request peer lists
-		network.broadcast(peer -> peer.isOutbound() ? network.buildPeersMessage(peer) : new GetPeersMessage());
+		Message getPeersMessage = new GetPeersMessage();
+		network.broadcast(peer -> peer.isOutbound() ? network.buildPeersMessage(peer) : getPeersMessage);
 
 		// Send our current height
 		BlockData latestBlockData = getChainTip();
-		network.broadcast(peer -> network.buildHeightMessage(peer, latestBlockData));
+		Message heightMessage = network.buildHeightMessage(latestBlockData);
+		network.broadcast(peer -> heightMessage);
 
 		// Request unconfirmed transaction signatures, but only if we're up-to-date.
 		// If we're NOT up-to-date then priority is synchronizing first
@@ -1015,7 +1084,7 @@ public class Controller extends Thread {
 		requestSysTrayUpdate = true;
 	}
 
-	public static class NewBlockEvent implements Event {
+	public static class NewBlockEvent implements CoalescableEvent {
 		private final BlockData blockData;
 
 		public NewBlockEvent(BlockData blockData) {
@@ -1099,6 +1168,9 @@ public class Controller extends Thread {
 			if (cachedChainTip != null && Arrays.equals(cachedChainTip.getReference(), blockDataCopy.getSignature())) {
 				// Chain tip was parent for new latest block that has been orphaned, so we're good
 
+				// Orphaned block is no longer ours to serve
+				this.blockMessageCache.invalidate(cachedChainTip.getSignature());
+
 				// However, if we've emptied the cache then we will need to refill it
 				refillNeeded = this.latestBlocks.isEmpty();
 			} else {
@@ -1205,6 +1277,10 @@ public class Controller extends Thread {
 				onNetworkGetSignaturesV2Message(peer, message);
 				break;
 
+			case GET_BLOCKS:
+				onNetworkGetBlocksMessage(peer, message);
+				break;
+
 			case HEIGHT_V2:
 				onNetworkHeightV2Message(peer, message);
 				break;
@@ -1245,6 +1321,10 @@ public class Controller extends Thread {
 				OnlineAccountsManager.getInstance().onNetworkGetOnlineAccountsV3Message(peer, message);
 				break;
 
+			case GET_ONLINE_ACCOUNTS_V4:
+				OnlineAccountsManager.getInstance().onNetworkGetOnlineAccountsV4Message(peer, message);
+				break;
+
 			case GET_ARBITRARY_DATA:
 				// Not currently supported
 				break;
@@ -1312,17 +1392,16 @@ public class Controller extends Thread {
 		byte[] signature = getBlockMessage.getSignature();
 		this.stats.getBlockMessageStats.requests.incrementAndGet();
 
-		ByteArray signatureAsByteArray = ByteArray.wrap(signature);
+		final boolean peerSupportsV2 = peer.getPeersVersion() >= BlockV2Message.MIN_PEER_VERSION;
 
-		CachedBlockMessage cachedBlockMessage = this.blockMessageCache.get(signatureAsByteArray);
-		int blockCacheSize = Settings.getInstance().getBlockCacheSize();
+		Message cachedBlockMessage = this.blockMessageCache.get(signature, peerSupportsV2);
 
-		// Check cached latest block message
+		// Check cached block message
 		if (cachedBlockMessage != null) {
 			this.stats.getBlockMessageStats.cacheHits.incrementAndGet();
 
 			// We need to duplicate it to prevent multiple threads setting ID on the same message
-			CachedBlockMessage clonedBlockMessage = Message.cloneWithNewId(cachedBlockMessage, message.getId());
+			Message clonedBlockMessage = Message.cloneWithNewId(cachedBlockMessage, message.getId());
 
 			if (!peer.sendMessage(clonedBlockMessage))
 				peer.disconnect("failed to send block");
@@ -1355,7 +1434,8 @@ public class Controller extends Thread {
 							return;
 						}
 
-						// Sent successfully from archive, so nothing more to do
+						// Sent successfully from archive, so cache it too
+						this.cacheBlockMessage(signature, blockMessage);
 						return;
 					}
 				}
@@ -1379,18 +1459,9 @@ public class Controller extends Thread {
 			Block block = new Block(repository, blockData);
 
 			// V2 support
-			if (peer.getPeersVersion() >= BlockV2Message.MIN_PEER_VERSION) {
-				Message blockMessage = new BlockV2Message(block);
-				blockMessage.setId(message.getId());
-				if (!peer.sendMessage(blockMessage)) {
-					peer.disconnect("failed to send block");
-					// Don't fall-through to caching because failure to send might be from failure to build message
-					return;
-				}
-				return;
-			}
-
-			CachedBlockMessage blockMessage = new CachedBlockMessage(block);
+			Message blockMessage = peerSupportsV2
+					? new BlockV2Message(block)
+					: new CachedBlockMessage(block);
 			blockMessage.setId(message.getId());
 
 			if (!peer.sendMessage(blockMessage)) {
@@ -1399,12 +1470,7 @@ public class Controller extends Thread {
 				return;
 			}
 
-			// If request is for a recent block, cache it
-			if (getChainHeight() - blockData.getHeight() <= blockCacheSize) {
-				this.stats.getBlockMessageStats.cacheFills.incrementAndGet();
-
-				this.blockMessageCache.put(ByteArray.wrap(blockData.getSignature()), blockMessage);
-			}
+			this.cacheBlockMessage(signature, blockMessage);
 		} catch (DataException e) {
 			LOGGER.error(String.format("Repository issue while sending block %s to peer %s", Base58.encode(signature), peer), e);
 		} catch (TransformationException e) {
@@ -1412,6 +1478,12 @@ public class Controller extends Thread {
 		}
 	}
 
+	private void cacheBlockMessage(byte[] signature, Message blockMessage) {
+		this.stats.getBlockMessageStats.cacheFills.incrementAndGet();
+
+		this.blockMessageCache.put(signature, blockMessage);
+	}
+
 	private void onNetworkGetBlockSummariesMessage(Peer peer, Message message) {
 		GetBlockSummariesMessage getBlockSummariesMessage = (GetBlockSummariesMessage) message;
 		final byte[] parentSignature = getBlockSummariesMessage.getParentSignature();
@@ -1484,6 +1556,80 @@ public class Controller extends Thread {
 			peer.disconnect("failed to send block summaries");
 	}
 
+	private void onNetworkGetBlocksMessage(Peer peer, Message message) {
+		GetBlocksMessage getBlocksMessage = (GetBlocksMessage) message;
+		final byte[] parentSignature = getBlocksMessage.getParentSignature();
+		this.stats.getBlocksMessageStats.requests.incrementAndGet();
+
+		List<byte[]> serializedBlocks = new ArrayList<>();
+
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			collectBlocksForResponse(repository, parentSignature, getBlocksMessage.getNumberRequested(),
+					BlocksMessage.getMaxBlocksLength(), serializedBlocks);
+		} catch (DataException e) {
+			LOGGER.error(String.format("Repository issue while sending blocks after %s to peer %s", Base58.encode(parentSignature), peer), e);
+		} catch (TransformationException e) {
+			LOGGER.error(String.format("Serialization issue while sending blocks after %s to peer %s", Base58.encode(parentSignature), peer), e);
+		}
+
+		// Send whatever we have, even if nothing, so peer's synchronizer doesn't have to wait for timeout
+		if (serializedBlocks.isEmpty())
+			this.stats.getBlocksMessageStats.emptyResponses.incrementAndGet();
+		else
+			this.stats.getBlocksMessageStats.blocksSent.addAndGet(serializedBlocks.size());
+
+		Message blocksMessage = new BlocksMessage(serializedBlocks);
+		blocksMessage.setId(message.getId());
+		if (!peer.sendMessage(blocksMessage))
+			peer.disconnect("failed to send blocks");
+	}
+
+	/**
+	 * Appends serialized blocks following <tt>parentSignature</tt>, ready for a BLOCKS reply, to <tt>serializedBlocks</tt>.
+	 * <p>
+	 * Blocks come from the repository, or from the archive if pruned or archived. Stops after <tt>numberRequested</tt>
+	 * blocks (capped by <tt>maxBlocksPerResponse</tt> setting), at the first block we don't have, or before the first
+	 * block that would take combined length of serialized blocks beyond <tt>maxBlocksLength</tt>.
+	 * <p>
+	 * Blocks collected before any exception remain in <tt>serializedBlocks</tt>, so can still be sent.
+	 */
+	public static void collectBlocksForResponse(Repository repository, byte[] parentSignature, int numberRequested,
+			int maxBlocksLength, List<byte[]> serializedBlocks) throws DataException, TransformationException {
+		numberRequested = Math.min(Settings.getInstance().getMaxBlocksPerResponse(), numberRequested);
+
+		int blocksLength = 0;
+		byte[] previousSignature = parentSignature;
+
+		for (int blockCount = 0; blockCount < numberRequested; ++blockCount) {
+			byte[] serializedBlock = null;
+			byte[] signature = null;
+
+			BlockData blockData = repository.getBlockRepository().fromReference(previousSignature);
+			if (blockData != null && !PruneManager.getInstance().isBlockPruned(blockData.getHeight())) {
+				serializedBlock = BlocksMessage.serializeBlock(new Block(repository, blockData));
+				signature = blockData.getSignature();
+			} else if (Settings.getInstance().isArchiveEnabled()) {
+				// Pruned blocks likely only have partial data, so these need to come from the archive too
+				BlockData archivedBlockData = repository.getBlockArchiveRepository().fromReference(previousSignature);
+				if (archivedBlockData != null) {
+					byte[] blockBytes = BlockArchiveReader.getInstance().fetchSerializedBlockBytesForHeight(archivedBlockData.getHeight());
+					if (blockBytes != null) {
+						serializedBlock = BlocksMessage.serializeArchivedBlock(archivedBlockData.getHeight(), blockBytes);
+						signature = archivedBlockData.getSignature();
+					}
+				}
+			}
+
+			// Stop at first block we don't have, or that won't fit, as peer can ask again from there
+			if (serializedBlock == null || blocksLength + serializedBlock.length > maxBlocksLength)
+				break;
+
+			serializedBlocks.add(serializedBlock);
+			blocksLength += serializedBlock.length;
+			previousSignature = signature;
+		}
+	}
+
 	private void onNetworkGetSignaturesV2Message(Peer peer, Message message) {
 		GetSignaturesV2Message getSignaturesMessage = (GetSignaturesV2Message) message;
 		final byte[] parentSignature = getSignaturesMessage.getParentSignature();
@@ -1865,6 +2011,14 @@ public class Controller extends Thread {
 	}
 
 	public StatsSnapshot getStatsSnapshot() {
+		this.stats.syncBlockFetchStats.peers = PipelinedBlockFetcher.getPeerFetchStats();
+		this.stats.transactionImporterStats.queueSize = TransactionImporter.getInstance().getIncomingTransactionsCount();
+		this.stats.repositoryCheckpointLockStats = HSQLDBCheckpointLock.getStats();
+		this.stats.blockMessageCacheStats = this.blockMessageCache.getStats();
+		this.stats.eventListenerStats = EventBus.INSTANCE.getListenerStats();
+		this.stats.arbitraryDataBuildStats = ArbitraryDataBuildManager.getInstance().getStats();
+		this.stats.arbitraryDataFetchStats = ArbitraryDataFileManager.getInstance().getStats();
+
 		return this.stats;
 	}
 
@@ -1,6 +1,5 @@
 package org.qortal.controller;
 
-import com.google.common.hash.HashCode;
 import com.google.common.primitives.Longs;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -19,7 +18,10 @@ import org.qortal.network.message.*;
 import org.qortal.repository.DataException;
 import org.qortal.repository.Repository;
 import org.qortal.repository.RepositoryManager;
+import org.qortal.transform.Transformer;
 import org.qortal.utils.Base58;
+import org.qortal.utils.ByteArray;
+import org.qortal.utils.InvertibleBloomLookupTable;
 import org.qortal.utils.NTP;
 import org.qortal.utils.NamedThreadFactory;
 
@@ -55,6 +57,13 @@ public class OnlineAccountsManager {
 
     private static final long ONLINE_ACCOUNTS_V2_PEER_VERSION = 0x0300020000L; // v3.2.0
     private static final long ONLINE_ACCOUNTS_V3_PEER_VERSION = 0x03000300cbL; // v3.3.203
+    private static final long ONLINE_ACCOUNTS_V4_PEER_VERSION = 0x0300050000L; // v3.5.0
+
+    /**
+     * Number of cells in each timestamp's lookup table, sent to V4 peers.
+     * Enough to reliably list differences of up to about 30 accounts, beyond which peers fall back to leading-byte hashes.
+     */
+    private static final int ONLINE_ACCOUNTS_TABLE_CELL_COUNT = 60;
 
     private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(4, new NamedThreadFactory("OnlineAccounts"));
     private volatile boolean isStopping = false;
@@ -69,6 +78,10 @@ public class OnlineAccountsManager {
      * Cache of hash-summary of 'current' online accounts, keyed by timestamp, then leading byte of public key.
      */
     private final Map<Long, Map<Byte, byte[]>> currentOnlineAccountsHashes = new ConcurrentHashMap<>();
+    /**
+     * Cache of lookup tables of 'current' online accounts' public keys, keyed by timestamp.
+     */
+    private final Map<Long, InvertibleBloomLookupTable> currentOnlineAccountsTables = new ConcurrentHashMap<>();
 
     /**
      * Cache of online accounts for latest blocks - not necessarily 'current' / now.
@@ -146,6 +159,8 @@ public class OnlineAccountsManager {
         }
 
         this.currentOnlineAccounts.clear();
+        this.currentOnlineAccountsHashes.clear();
+        this.currentOnlineAccountsTables.clear();
         addAccounts(replacementAccounts);
     }
 
@@ -236,48 +251,31 @@ public class OnlineAccountsManager {
         return true;
     }
 
-    /** Adds accounts, maybe rebuilds hashes, returns whether any new accounts were added / hashes rebuilt. */
+    /** Adds accounts, updating hashes, returns whether any new accounts were added / hashes updated. */
     private boolean addAccounts(Collection<OnlineAccountData> onlineAccountsToAdd) {
-        // For keeping track of which hashes to rebuild
-        Map<Long, Set<Byte>> hashesToRebuild = new HashMap<>();
+        // For keeping track of which hashes were updated
+        Map<Long, Set<Byte>> hashesUpdated = new HashMap<>();
 
         for (OnlineAccountData onlineAccountData : onlineAccountsToAdd) {
             boolean isNewEntry = this.addAccount(onlineAccountData);
 
-            if (isNewEntry)
-                hashesToRebuild.computeIfAbsent(onlineAccountData.getTimestamp(), k -> new HashSet<>()).add(onlineAccountData.getPublicKey()[0]);
+            if (isNewEntry) {
+                this.addAccountToHashes(onlineAccountData);
+                hashesUpdated.computeIfAbsent(onlineAccountData.getTimestamp(), k -> new HashSet<>()).add(onlineAccountData.getPublicKey()[0]);
+            }
         }
 
-        if (hashesToRebuild.isEmpty())
+        if (hashesUpdated.isEmpty())
             return false;
 
-        for (var entry : hashesToRebuild.entrySet()) {
+        for (var entry : hashesUpdated.entrySet()) {
             Long timestamp = entry.getKey();
 
-            LOGGER.debug(() -> String.format("Rehashing for timestamp %d and leading bytes %s",
+            LOGGER.debug(() -> String.format("Updated hashes for timestamp %d and leading bytes %s",
                             timestamp,
                             entry.getValue().stream().sorted(Byte::compareUnsigned).map(leadingByte -> String.format("%02x", leadingByte)).collect(Collectors.joining(", "))
                     )
             );
-
-            for (Byte leadingByte : entry.getValue()) {
-                byte[] pubkeyHash = currentOnlineAccounts.get(timestamp).stream()
-                        .map(OnlineAccountData::getPublicKey)
-                        .filter(publicKey -> leadingByte == publicKey[0])
-                        .reduce(null, OnlineAccountsManager::xorByteArrayInPlace);
-
-                currentOnlineAccountsHashes.computeIfAbsent(timestamp, k -> new ConcurrentHashMap<>()).put(leadingByte, pubkeyHash);
-
-                LOGGER.trace(() -> String.format("Rebuilt hash %s for timestamp %d and leading byte %02x using %d public keys",
-                        HashCode.fromBytes(pubkeyHash),
-                        timestamp,
-                        leadingByte,
-                        currentOnlineAccounts.get(timestamp).stream()
-                                .map(OnlineAccountData::getPublicKey)
-                                .filter(publicKey -> leadingByte == publicKey[0])
-                                .count()
-                ));
-            }
         }
 
         LOGGER.debug(String.format("we have online accounts for timestamps: %s", String.join(", ", this.currentOnlineAccounts.keySet().stream().map(l -> Long.toString(l)).collect(Collectors.joining(", ")))));
@@ -300,6 +298,24 @@ public class OnlineAccountsManager {
         return isNewEntry;
     }
 
+    /**
+     * Folds newly added account into its timestamp's hashes.
+     * <p>
+     * XOR is self-inverse and order-independent, so each new public key only needs XORing
+     * into its leading byte's hash, rather than rebuilding the hash from every public key.
+     */
+    private void addAccountToHashes(OnlineAccountData onlineAccountData) {
+        Long timestamp = onlineAccountData.getTimestamp();
+        byte[] publicKey = onlineAccountData.getPublicKey();
+
+        // Replace, rather than modify, existing hash, as it might be in the middle of being sent to a peer
+        this.currentOnlineAccountsHashes.computeIfAbsent(timestamp, k -> new ConcurrentHashMap<>())
+                .compute(publicKey[0], (leadingByte, pubkeyHash) -> xorByteArrayInPlace(pubkeyHash != null ? pubkeyHash.clone() : null, publicKey));
+
+        this.currentOnlineAccountsTables.computeIfAbsent(timestamp, k -> new InvertibleBloomLookupTable(ONLINE_ACCOUNTS_TABLE_CELL_COUNT, Transformer.PUBLIC_KEY_LENGTH))
+                .insert(publicKey);
+    }
+
     /**
      * Expire old entries.
      */
@@ -311,6 +327,7 @@ public class OnlineAccountsManager {
         final long cutoffThreshold = now - MAX_CACHED_TIMESTAMP_SETS * ONLINE_TIMESTAMP_MODULUS;
         this.currentOnlineAccounts.keySet().removeIf(timestamp -> timestamp < cutoffThreshold);
         this.currentOnlineAccountsHashes.keySet().removeIf(timestamp -> timestamp < cutoffThreshold);
+        this.currentOnlineAccountsTables.keySet().removeIf(timestamp -> timestamp < cutoffThreshold);
     }
 
     /**
@@ -349,9 +366,12 @@ public class OnlineAccountsManager {
             return;
 
         Message messageV3 = new GetOnlineAccountsV3Message(currentOnlineAccountsHashes);
+        Message messageV4 = new GetOnlineAccountsV4Message(currentOnlineAccountsHashes, currentOnlineAccountsTables);
 
         Network.getInstance().broadcast(peer ->
-                peer.getPeersVersion() >= ONLINE_ACCOUNTS_V3_PEER_VERSION
+                peer.getPeersVersion() >= ONLINE_ACCOUNTS_V4_PEER_VERSION
+                        ? messageV4
+                        : peer.getPeersVersion() >= ONLINE_ACCOUNTS_V3_PEER_VERSION
                         ? messageV3
                         : null
         );
@@ -649,49 +669,50 @@ public class OnlineAccountsManager {
 
         // Warning: no double-checking/fetching - we must be ConcurrentMap compatible!
         // So no contains()-then-get() or multiple get()s on the same key/map.
-        // We also use getOrDefault() with emptySet() on currentOnlineAccounts in case corresponding timestamp entry isn't there.
         for (var ourOuterMapEntry : currentOnlineAccountsHashes.entrySet()) {
             Long timestamp = ourOuterMapEntry.getKey();
 
-            var ourInnerMap = ourOuterMapEntry.getValue();
+            addAccountsForMismatchedHashes(timestamp, ourOuterMapEntry.getValue(), peersHashes.get(timestamp), outgoingOnlineAccounts);
+        }
+
+        Message onlineAccountsMessage = new OnlineAccountsV2Message(outgoingOnlineAccounts); // TODO: V3 message
+        peer.sendMessage(onlineAccountsMessage);
+
+        LOGGER.debug("Sent {} online accounts to {}", outgoingOnlineAccounts.size(), peer);
+    }
+
+    public void onNetworkGetOnlineAccountsV4Message(Peer peer, Message message) {
+        GetOnlineAccountsV4Message getOnlineAccountsMessage = (GetOnlineAccountsV4Message) message;
+
+        Map<Long, Map<Byte, byte[]>> peersHashes = getOnlineAccountsMessage.getHashesByTimestampThenByte();
+        Map<Long, InvertibleBloomLookupTable> peersTables = getOnlineAccountsMessage.getTablesByTimestamp();
+        List<OnlineAccountData> outgoingOnlineAccounts = new ArrayList<>();
+
+        // Warning: no double-checking/fetching - we must be ConcurrentMap compatible!
+        // So no contains()-then-get() or multiple get()s on the same key/map.
+        for (var ourOuterMapEntry : currentOnlineAccountsHashes.entrySet()) {
+            Long timestamp = ourOuterMapEntry.getKey();
+
             var peersInnerMap = peersHashes.get(timestamp);
+            var peersTable = peersTables.get(timestamp);
 
-            if (peersInnerMap == null) {
-                // Peer doesn't have this timestamp, so if it's valid (i.e. not too old) then we'd have to send all of ours
-                Set<OnlineAccountData> timestampsOnlineAccounts = this.currentOnlineAccounts.getOrDefault(timestamp, Collections.emptySet());
-                outgoingOnlineAccounts.addAll(timestampsOnlineAccounts);
-
-                LOGGER.debug(() -> String.format("Going to send all %d online accounts for timestamp %d", timestampsOnlineAccounts.size(), timestamp));
-            } else {
-                // Quick cache of which leading bytes to send so we only have to filter once
-                Set<Byte> outgoingLeadingBytes = new HashSet<>();
-
-                // We have entries for this timestamp so compare against peer's entries
-                for (var ourInnerMapEntry : ourInnerMap.entrySet()) {
-                    Byte leadingByte = ourInnerMapEntry.getKey();
-                    byte[] peersHash = peersInnerMap.get(leadingByte);
-
-                    if (!Arrays.equals(ourInnerMapEntry.getValue(), peersHash)) {
-                        // For this leading byte: hashes don't match or peer doesn't have entry
-                        // Send all online accounts for this timestamp and leading byte
-                        outgoingLeadingBytes.add(leadingByte);
-                    }
-                }
+            if (peersInnerMap != null && peersTable != null) {
+                // Try to send only the accounts that peer is actually missing
+                List<OnlineAccountData> missingOnlineAccounts = this.getAccountsMissingFromTable(timestamp, peersTable);
 
-                int beforeAddSize = outgoingOnlineAccounts.size();
+                if (missingOnlineAccounts != null) {
+                    outgoingOnlineAccounts.addAll(missingOnlineAccounts);
 
-                this.currentOnlineAccounts.getOrDefault(timestamp, Collections.emptySet()).stream()
-                        .filter(account -> outgoingLeadingBytes.contains(account.getPublicKey()[0]))
-                        .forEach(outgoingOnlineAccounts::add);
+                    if (!missingOnlineAccounts.isEmpty())
+                        LOGGER.debug(() -> String.format("Going to send %d missing online accounts for timestamp %d", missingOnlineAccounts.size(), timestamp));
 
-                if (outgoingOnlineAccounts.size() > beforeAddSize)
-                    LOGGER.debug(String.format("Going to send %d online accounts for timestamp %d and leading bytes %s",
-                            outgoingOnlineAccounts.size() - beforeAddSize,
-                            timestamp,
-                            outgoingLeadingBytes.stream().sorted(Byte::compareUnsigned).map(leadingByte -> String.format("%02x", leadingByte)).collect(Collectors.joining(", "))
-                            )
-                    );
+                    continue;
+                }
+
+                LOGGER.debug(() -> String.format("Unable to list differences in online accounts for timestamp %d - comparing leading byte hashes instead", timestamp));
             }
+
+            addAccountsForMismatchedHashes(timestamp, ourOuterMapEntry.getValue(), peersInnerMap, outgoingOnlineAccounts);
         }
 
         Message onlineAccountsMessage = new OnlineAccountsV2Message(outgoingOnlineAccounts); // TODO: V3 message
@@ -699,4 +720,78 @@ public class OnlineAccountsManager {
 
         LOGGER.debug("Sent {} online accounts to {}", outgoingOnlineAccounts.size(), peer);
     }
+
+    /**
+     * Adds our online accounts for timestamp whose leading byte hashes don't match peer's, or all of them if peer has none.
+     */
+    private void addAccountsForMismatchedHashes(Long timestamp, Map<Byte, byte[]> ourInnerMap, Map<Byte, byte[]> peersInnerMap, List<OnlineAccountData> outgoingOnlineAccounts) {
+        // We use getOrDefault() with emptySet() on currentOnlineAccounts in case corresponding timestamp entry isn't there.
+        if (peersInnerMap == null) {
+            // Peer doesn't have this timestamp, so if it's valid (i.e. not too old) then we'd have to send all of ours
+            Set<OnlineAccountData> timestampsOnlineAccounts = this.currentOnlineAccounts.getOrDefault(timestamp, Collections.emptySet());
+            outgoingOnlineAccounts.addAll(timestampsOnlineAccounts);
+
+            LOGGER.debug(() -> String.format("Going to send all %d online accounts for timestamp %d", timestampsOnlineAccounts.size(), timestamp));
+            return;
+        }
+
+        // Quick cache of which leading bytes to send so we only have to filter once
+        Set<Byte> outgoingLeadingBytes = new HashSet<>();
+
+        // We have entries for this timestamp so compare against peer's entries
+        for (var ourInnerMapEntry : ourInnerMap.entrySet()) {
+            Byte leadingByte = ourInnerMapEntry.getKey();
+            byte[] peersHash = peersInnerMap.get(leadingByte);
+
+            if (!Arrays.equals(ourInnerMapEntry.getValue(), peersHash)) {
+                // For this leading byte: hashes don't match or peer doesn't have entry
+                // Send all online accounts for this timestamp and leading byte
+                outgoingLeadingBytes.add(leadingByte);
+            }
+        }
+
+        int beforeAddSize = outgoingOnlineAccounts.size();
+
+        this.currentOnlineAccounts.getOrDefault(timestamp, Collections.emptySet()).stream()
+                .filter(account -> outgoingLeadingBytes.contains(account.getPublicKey()[0]))
+                .forEach(outgoingOnlineAccounts::add);
+
+        if (outgoingOnlineAccounts.size() > beforeAddSize)
+            LOGGER.debug(String.format("Going to send %d online accounts for timestamp %d and leading bytes %s",
+                    outgoingOnlineAccounts.size() - beforeAddSize,
+                    timestamp,
+                    outgoingLeadingBytes.stream().sorted(Byte::compareUnsigned).map(leadingByte -> String.format("%02x", leadingByte)).collect(Collectors.joining(", "))
+                    )
+            );
+    }
+
+    /**
+     * Returns our online accounts for timestamp that aren't in peer's lookup table,
+     * or null if peer's table doesn't match ours, or there are too many differences to work that out.
+     */
+    private List<OnlineAccountData> getAccountsMissingFromTable(Long timestamp, InvertibleBloomLookupTable peersTable) {
+        Set<OnlineAccountData> timestampsOnlineAccounts = this.currentOnlineAccounts.getOrDefault(timestamp, Collections.emptySet());
+
+        InvertibleBloomLookupTable ourTable = this.currentOnlineAccountsTables.get(timestamp);
+        if (ourTable == null || !ourTable.isCompatible(peersTable))
+            // Peer is using a different table size. Rather than build a matching table on peer's behalf,
+            // which costs us more the bigger peer's table, fall back to leading-byte hashes.
+            return null;
+
+        InvertibleBloomLookupTable.Difference difference = ourTable.subtract(peersTable).listDifference();
+        if (difference == null)
+            return null;
+
+        // Accounts that peer has but we don't will arrive when we next request from peer
+        if (difference.getOurKeys().isEmpty())
+            return Collections.emptyList();
+
+        Set<ByteArray> missingPublicKeys = difference.getOurKeys().stream()
+                .map(ByteArray::wrap)
+                .collect(Collectors.toSet());
+
+        return timestampsOnlineAccounts.stream()
+                .filter(account -> missingPublicKeys.contains(ByteArray.wrap(account.getPublicKey())))
+                .collect(Collectors.toList());
+    }
 }
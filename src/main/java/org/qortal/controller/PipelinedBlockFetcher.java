@@ -0,0 +1,517 @@
+package org.qortal.controller;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.qortal.block.Block;
+import org.qortal.network.Network;
+import org.qortal.network.Peer;
+import org.qortal.network.message.*;
+import org.qortal.repository.Repository;
+import org.qortal.transform.block.BlockTransformation;
+import org.qortal.settings.Settings;
+import org.qortal.utils.Base58;
+import org.qortal.utils.DaemonThreadFactory;
+
+/**
+ * Fetches and verifies a run of consecutive blocks from peers, keeping a window of GET_BLOCK requests in flight.
+ * <p>
+ * Without pipelining, synchronization waits a full round-trip per block. Here, up to <tt>windowSize</tt>
+ * requests are outstanding at once, optionally spread across several "helper" peers that share
+ * the same common block as the primary peer. Blocks are handed back to the caller strictly
+ * in the order the signatures were queued, regardless of the order in which they arrive.
+ * <p>
+ * If a helper peer fails to supply a block, that block is re-requested from the primary peer
+ * before the caller sees a failure, so helpers can only speed things up.
+ * <p>
+ * Each block passes through two stages before the caller sees it:
+ * <ol>
+ * <li>download, on the fetch executor, which mostly waits on the network</li>
+ * <li>stateless verification, on a fixed-size verification pool, which builds the {@link Block}
+ * and checks its minter and transactions signatures</li>
+ * </ol>
+ * The caller remains the single writer, performing stateful <tt>isValid()</tt> and <tt>process()</tt>,
+ * while later blocks are still downloading and verifying. The window bounds the number of blocks
+ * across both stages.
+ * <p>
+ * Verification doesn't use the repository, but blocks are constructed using the caller's repository
+ * so they can be validated and processed by the caller afterwards.
+ * <p>
+ * If <tt>blocksPerRequest</tt> is more than 1, runs of consecutive blocks are fetched using GET_BLOCKS,
+ * from peers that support it, instead of one GET_BLOCK per block. Any blocks missing from a
+ * GET_BLOCKS response are then requested individually from the primary peer. Peers that don't reply
+ * to GET_BLOCKS are only sent GET_BLOCK from then on.
+ */
+public class PipelinedBlockFetcher {
+
+	private static final Logger LOGGER = LogManager.getLogger(PipelinedBlockFetcher.class);
+
+	private static final ExecutorService fetchExecutor = Executors.newCachedThreadPool(new DaemonThreadFactory("Synchronizer-Fetch"));
+	private static final ExecutorService verifyExecutor = Executors.newFixedThreadPool(Settings.getInstance().getSyncVerificationPoolSize(), new DaemonThreadFactory("Synchronizer-Verify"));
+
+	/** Per-peer fetch stats, keyed by peer address */
+	private static final Map<String, PeerFetchStats> peerFetchStats = new ConcurrentHashMap<>();
+
+	private static class PeerFetchStats {
+		final AtomicLong blocks = new AtomicLong();
+		final AtomicLong failures = new AtomicLong();
+		final AtomicLong responseTime = new AtomicLong(); // ms
+	}
+
+	private static class PendingFetch {
+		final byte[] signature;
+		final CompletableFuture<VerifiedBlock> future;
+
+		PendingFetch(byte[] signature, CompletableFuture<VerifiedBlock> future) {
+			this.signature = signature;
+			this.future = future;
+		}
+	}
+
+	/** Block that has passed through download and stateless verification stages. */
+	public static class VerifiedBlock {
+		private final Block block;
+		private final boolean isSignatureValid;
+
+		private VerifiedBlock(Block block, boolean isSignatureValid) {
+			this.block = block;
+			this.isSignatureValid = isSignatureValid;
+		}
+
+		public Block getBlock() {
+			return this.block;
+		}
+
+		/** Result of {@link Block#isSignatureValid()}, already evaluated during verification stage. */
+		public boolean isSignatureValid() {
+			return this.isSignatureValid;
+		}
+	}
+
+	private final Repository repository;
+	private final Peer peer;
+	private final List<Peer> helperPeers;
+	private final int windowSize;
+	private final int blocksPerRequest;
+
+	/** Signatures not yet requested, in chain order */
+	private final Deque<byte[]> queuedSignatures = new ArrayDeque<>();
+	/** Requests in flight, in chain order */
+	private final Deque<PendingFetch> inFlight = new ArrayDeque<>();
+	/** Download tasks on fetch executor, so they can be interrupted if cancelled */
+	private final Set<Future<?>> fetchTasks = ConcurrentHashMap.newKeySet();
+	/** Incremented by {@link #clear()}, so downloads requested beforehand can be discarded */
+	private final AtomicInteger generation = new AtomicInteger();
+
+	/** Signature of block before next queued signature, or null if unknown, e.g. after reset */
+	private byte[] previousSignature;
+
+	private int nextPeerIndex = 0;
+
+	/**
+	 * @param parentSignature signature of block that first queued signature builds upon
+	 * @param blocksPerRequest maximum blocks to fetch per GET_BLOCKS request, or 1 to only use GET_BLOCK
+	 */
+	public PipelinedBlockFetcher(Repository repository, Peer peer, List<Peer> helperPeers, int windowSize,
+			byte[] parentSignature, int blocksPerRequest) {
+		this.repository = repository;
+		this.peer = peer;
+		this.previousSignature = parentSignature;
+
+		if (blocksPerRequest > 1 && supportsGetBlocks(peer)) {
+			this.blocksPerRequest = blocksPerRequest;
+			// Keep next run downloading while caller processes current one
+			this.windowSize = Math.max(windowSize, 2 * blocksPerRequest);
+			// Only use helpers that also support GET_BLOCKS
+			this.helperPeers = helperPeers.stream()
+					.filter(PipelinedBlockFetcher::supportsGetBlocks)
+					.collect(Collectors.toList());
+		} else {
+			this.blocksPerRequest = 1;
+			this.windowSize = Math.max(1, windowSize);
+			this.helperPeers = helperPeers;
+		}
+	}
+
+	/** Queues block signatures to be fetched, in chain order, following any already queued. */
+	public void addSignatures(List<byte[]> signatures) {
+		this.queuedSignatures.addAll(signatures);
+		this.fillWindow();
+	}
+
+	/** Returns whether any queued or in-flight signatures remain. */
+	public boolean hasPending() {
+		return !this.inFlight.isEmpty() || !this.queuedSignatures.isEmpty();
+	}
+
+	/**
+	 * Returns next block, in chain order, waiting for it to be downloaded and verified if necessary.
+	 * <p>
+	 * The next request is then issued, keeping the window full.
+	 *
+	 * @param expectedSignature signature of the block the caller expects next, used as a sanity check
+	 * @return verified block for <tt>expectedSignature</tt>, or null if no peer supplied it
+	 */
+	public VerifiedBlock next(byte[] expectedSignature) throws InterruptedException {
+		this.fillWindow();
+
+		PendingFetch pendingFetch = this.inFlight.pollFirst();
+		if (pendingFetch == null || !Arrays.equals(pendingFetch.signature, expectedSignature)) {
+			// Caller and fetcher disagree on what comes next, so start afresh
+			LOGGER.debug(() -> String.format("Block fetch pipeline out of step at sig %.8s - resetting", Base58.encode(expectedSignature)));
+			this.clear();
+			this.queuedSignatures.add(expectedSignature);
+			this.fillWindow();
+			pendingFetch = this.inFlight.pollFirst();
+		}
+
+		VerifiedBlock verifiedBlock;
+		try {
+			verifiedBlock = pendingFetch.future.get();
+		} catch (ExecutionException e) {
+			LOGGER.debug(String.format("Failed to fetch block %.8s: %s", Base58.encode(expectedSignature), e.getCause().getMessage()));
+			verifiedBlock = null;
+		} catch (CancellationException e) {
+			verifiedBlock = null;
+		}
+
+		this.fillWindow();
+
+		return verifiedBlock;
+	}
+
+	/** Discards any queued signatures and cancels requests in flight. */
+	public void clear() {
+		this.generation.incrementAndGet();
+
+		this.queuedSignatures.clear();
+		this.previousSignature = null;
+
+		for (PendingFetch pendingFetch : this.inFlight)
+			pendingFetch.future.cancel(true);
+
+		this.inFlight.clear();
+
+		// Cancelling a CompletableFuture doesn't interrupt its task, so interrupt downloads directly
+		for (Future<?> fetchTask : this.fetchTasks)
+			fetchTask.cancel(true);
+	}
+
+	/** Cancels all outstanding work. Fetcher should not be used after this call. */
+	public void shutdown() {
+		this.clear();
+	}
+
+	private void fillWindow() {
+		while (this.inFlight.size() < this.windowSize && !this.queuedSignatures.isEmpty()) {
+			final Peer requestPeer = this.choosePeer();
+
+			// GET_BLOCKS needs parent signature, so fall back to GET_BLOCK if we don't know it
+			if (this.blocksPerRequest > 1 && this.previousSignature != null && supportsGetBlocks(requestPeer)) {
+				this.fillRun(requestPeer);
+				continue;
+			}
+
+			final byte[] signature = this.queuedSignatures.pollFirst();
+
+			CompletableFuture<VerifiedBlock> future = this.submitFetch(this.generation.get(), () -> this.fetch(requestPeer, signature))
+					.thenApplyAsync(this::verify, verifyExecutor);
+			this.inFlight.addLast(new PendingFetch(signature, future));
+
+			this.previousSignature = signature;
+		}
+	}
+
+	/** Requests next run of queued signatures using GET_BLOCKS. */
+	private void fillRun(Peer requestPeer) {
+		final int runLength = Math.min(this.blocksPerRequest, Math.min(this.windowSize - this.inFlight.size(), this.queuedSignatures.size()));
+
+		final List<byte[]> signatures = new ArrayList<>(runLength);
+		for (int i = 0; i < runLength; ++i)
+			signatures.add(this.queuedSignatures.pollFirst());
+
+		final byte[] parentSignature = this.previousSignature;
+		final int runGeneration = this.generation.get();
+
+		CompletableFuture<List<BlockTransformation>> runFuture = this.submitFetch(runGeneration,
+				() -> this.fetchRun(requestPeer, parentSignature, signatures));
+
+		for (int i = 0; i < runLength; ++i) {
+			final int index = i;
+			final byte[] signature = signatures.get(i);
+
+			CompletableFuture<VerifiedBlock> future = runFuture.thenCompose(blockTransformations -> {
+				if (index < blockTransformations.size())
+					return CompletableFuture.supplyAsync(() -> this.verify(blockTransformations.get(index)), verifyExecutor);
+
+				// Not supplied in run, so request individually
+				return this.submitFetch(runGeneration, () -> this.fetch(this.peer, signature))
+						.thenApplyAsync(this::verify, verifyExecutor);
+			});
+			this.inFlight.addLast(new PendingFetch(signature, future));
+		}
+
+		this.previousSignature = signatures.get(runLength - 1);
+	}
+
+	/**
+	 * Submits download stage to fetch executor.
+	 * <p>
+	 * Unlike <tt>CompletableFuture.supplyAsync()</tt>, the download is tracked so {@link #clear()} can interrupt it,
+	 * instead of leaving it waiting on a peer's response.
+	 *
+	 * @param requestGeneration value of {@link #generation} when download was requested; stale downloads are cancelled
+	 */
+	private <T> CompletableFuture<T> submitFetch(int requestGeneration, Callable<T> task) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+
+		FutureTask<T> fetchTask = new FutureTask<T>(task) {
+			@Override
+			protected void done() {
+				fetchTasks.remove(this);
+
+				try {
+					future.complete(this.get());
+				} catch (CancellationException e) {
+					future.cancel(false);
+				} catch (ExecutionException e) {
+					future.completeExceptionally(e.getCause());
+				} catch (InterruptedException e) {
+					// Not possible, as task is done
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+
+		this.fetchTasks.add(fetchTask);
+
+		// clear() might have been called after this download was requested, e.g. fallback after GET_BLOCKS
+		if (this.generation.get() != requestGeneration) {
+			fetchTask.cancel(true);
+			return future;
+		}
+
+		fetchExecutor.execute(fetchTask);
+
+		return future;
+	}
+
+	/** Round-robin across primary peer and any helper peers. */
+	private Peer choosePeer() {
+		int peerCount = this.helperPeers.size() + 1;
+		int index = this.nextPeerIndex++ % peerCount;
+
+		if (index == 0)
+			return this.peer;
+
+		return this.helperPeers.get(index - 1);
+	}
+
+	/** Download stage */
+	private Message fetch(Peer requestPeer, byte[] signature) {
+		try {
+			Message message = fetchFromPeer(requestPeer, signature);
+
+			if (message == null && requestPeer != this.peer) {
+				LOGGER.trace(() -> String.format("Helper peer %s failed to supply block %.8s - falling back to %s", requestPeer, Base58.encode(signature), this.peer));
+				Controller.getInstance().stats.syncBlockFetchStats.helperFallbacks.incrementAndGet();
+
+				message = fetchFromPeer(this.peer, signature);
+			}
+
+			return message;
+		} catch (InterruptedException e) {
+			// We've been cancelled
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+
+	/** Download stage, for runs of blocks */
+	private List<BlockTransformation> fetchRun(Peer requestPeer, byte[] parentSignature, List<byte[]> signatures) {
+		try {
+			return fetchRunFromPeer(requestPeer, parentSignature, signatures);
+		} catch (InterruptedException e) {
+			// We've been cancelled
+			Thread.currentThread().interrupt();
+			return Collections.emptyList();
+		}
+	}
+
+	/** Stateless verification stage */
+	private VerifiedBlock verify(Message message) {
+		if (message == null)
+			return null;
+
+		final long startTime = System.currentTimeMillis();
+
+		Block block;
+		switch (message.getType()) {
+			case BLOCK: {
+				BlockMessage blockMessage = (BlockMessage) message;
+				block = new Block(this.repository, blockMessage.getBlockData(), blockMessage.getTransactions(), blockMessage.getAtStates());
+				break;
+			}
+
+			case BLOCK_V2: {
+				BlockV2Message blockMessage = (BlockV2Message) message;
+				block = new Block(this.repository, blockMessage.getBlockData(), blockMessage.getTransactions(), blockMessage.getAtStatesHash());
+				break;
+			}
+
+			default:
+				return null;
+		}
+
+		return this.verify(block, startTime);
+	}
+
+	/** Stateless verification stage, for blocks fetched in runs */
+	private VerifiedBlock verify(BlockTransformation blockTransformation) {
+		final long startTime = System.currentTimeMillis();
+
+		// Archived blocks come with AT states, otherwise AT states hash
+		Block block = blockTransformation.getAtStatesHash() != null
+				? new Block(this.repository, blockTransformation.getBlockData(), blockTransformation.getTransactions(), blockTransformation.getAtStatesHash())
+				: new Block(this.repository, blockTransformation.getBlockData(), blockTransformation.getTransactions(), blockTransformation.getAtStates());
+
+		return this.verify(block, startTime);
+	}
+
+	private VerifiedBlock verify(Block block, long startTime) {
+		boolean isSignatureValid = block.isSignatureValid();
+
+		Controller.StatsSnapshot.SyncBlockFetchStats stats = Controller.getInstance().stats.syncBlockFetchStats;
+		stats.blocksVerified.incrementAndGet();
+		stats.verificationTime.addAndGet(System.currentTimeMillis() - startTime);
+
+		return new VerifiedBlock(block, isSignatureValid);
+	}
+
+	private static Message fetchFromPeer(Peer peer, byte[] signature) throws InterruptedException {
+		Controller.StatsSnapshot.SyncBlockFetchStats stats = Controller.getInstance().stats.syncBlockFetchStats;
+		stats.requests.incrementAndGet();
+
+		PeerFetchStats peerStats = peerFetchStats.computeIfAbsent(peer.toString(), k -> new PeerFetchStats());
+
+		final long startTime = System.currentTimeMillis();
+		Message message = peer.getResponse(new GetBlockMessage(signature));
+		final long responseTime = System.currentTimeMillis() - startTime;
+
+		if (!isBlockMessageFor(message, signature)) {
+			stats.failures.incrementAndGet();
+			peerStats.failures.incrementAndGet();
+			return null;
+		}
+
+		stats.blocksReceived.incrementAndGet();
+		peerStats.blocks.incrementAndGet();
+		peerStats.responseTime.addAndGet(responseTime);
+
+		return message;
+	}
+
+	/**
+	 * Fetches run of consecutive blocks following <tt>parentSignature</tt>, repeating GET_BLOCKS
+	 * as necessary, as peer might send fewer blocks than requested.
+	 *
+	 * @return blocks matching leading <tt>signatures</tt>, stopping at first block peer didn't supply
+	 */
+	private static List<BlockTransformation> fetchRunFromPeer(Peer peer, byte[] parentSignature, List<byte[]> signatures) throws InterruptedException {
+		Controller.StatsSnapshot.SyncBlockFetchStats stats = Controller.getInstance().stats.syncBlockFetchStats;
+
+		PeerFetchStats peerStats = peerFetchStats.computeIfAbsent(peer.toString(), k -> new PeerFetchStats());
+
+		List<BlockTransformation> blockTransformations = new ArrayList<>(signatures.size());
+		byte[] requestSignature = parentSignature;
+
+		while (blockTransformations.size() < signatures.size()) {
+			stats.multiBlockRequests.incrementAndGet();
+
+			final long startTime = System.currentTimeMillis();
+			Message message = peer.getResponse(new GetBlocksMessage(requestSignature, signatures.size() - blockTransformations.size()));
+			final long responseTime = System.currentTimeMillis() - startTime;
+
+			if (message == null || message.getType() != MessageType.BLOCKS) {
+				stats.failures.incrementAndGet();
+				peerStats.failures.incrementAndGet();
+
+				// After repeated non-replies, don't wait on this peer for runs for a while
+				if (peer.onGetBlocksFailure())
+					LOGGER.debug(() -> String.format("Peer %s repeatedly didn't reply to GET_BLOCKS - falling back to GET_BLOCK", peer));
+
+				break;
+			}
+
+			peer.onGetBlocksReply();
+
+			int receivedCount = 0;
+			for (BlockTransformation blockTransformation : ((BlocksMessage) message).getBlockTransformations()) {
+				// Ignore anything beyond what we asked for, or that isn't what we expected next
+				if (blockTransformations.size() >= signatures.size()
+						|| !Arrays.equals(blockTransformation.getBlockData().getSignature(), signatures.get(blockTransformations.size())))
+					break;
+
+				blockTransformations.add(blockTransformation);
+				++receivedCount;
+			}
+
+			stats.blocksReceived.addAndGet(receivedCount);
+			peerStats.blocks.addAndGet(receivedCount);
+			peerStats.responseTime.addAndGet(responseTime);
+
+			// Peer doesn't have more, or has different blocks, so remaining blocks will be requested individually
+			if (receivedCount == 0 || receivedCount < ((BlocksMessage) message).getBlockTransformations().size())
+				break;
+
+			requestSignature = signatures.get(blockTransformations.size() - 1);
+		}
+
+		return blockTransformations;
+	}
+
+	/** Returns whether peer can be sent GET_BLOCKS. */
+	private static boolean supportsGetBlocks(Peer peer) {
+		return peer.getPeersVersion() >= BlocksMessage.MIN_PEER_VERSION && peer.isGetBlocksSupported();
+	}
+
+	private static boolean isBlockMessageFor(Message message, byte[] signature) {
+		if (message == null)
+			return false;
+
+		switch (message.getType()) {
+			case BLOCK:
+				return Arrays.equals(((BlockMessage) message).getBlockData().getSignature(), signature);
+
+			case BLOCK_V2:
+				return Arrays.equals(((BlockV2Message) message).getBlockData().getSignature(), signature);
+
+			default:
+				return false;
+		}
+	}
+
+	/** Returns per-peer block fetch stats for currently connected peers, pruning stats for departed peers. */
+	public static List<Controller.StatsSnapshot.PeerBlockFetchStats> getPeerFetchStats() {
+		Set<String> connectedPeers = Network.getInstance().getImmutableHandshakedPeers().stream()
+				.map(Peer::toString)
+				.collect(Collectors.toSet());
+
+		peerFetchStats.keySet().retainAll(connectedPeers);
+
+		List<Controller.StatsSnapshot.PeerBlockFetchStats> snapshot = new ArrayList<>();
+		for (Map.Entry<String, PeerFetchStats> entry : peerFetchStats.entrySet()) {
+			PeerFetchStats peerStats = entry.getValue();
+			snapshot.add(new Controller.StatsSnapshot.PeerBlockFetchStats(entry.getKey(),
+					peerStats.blocks.get(), peerStats.failures.get(), peerStats.responseTime.get()));
+		}
+
+		return snapshot;
+	}
+
+}
@@ -370,7 +370,8 @@ public class Synchronizer extends Thread {
 				inferiorChainSignatures.clear();
 
 				Network network = Network.getInstance();
-				network.broadcast(broadcastPeer -> network.buildHeightMessage(broadcastPeer, newChainTip));
+				Message heightMessage = network.buildHeightMessage(newChainTip);
+				network.broadcast(broadcastPeer -> heightMessage);
 
 				EventBus.INSTANCE.notify(new NewChainTipEvent(priorChainTip, newChainTip));
 			}
@@ -997,13 +998,32 @@ public class Synchronizer extends Thread {
 							return chainCompareResult;
 					}
 
+					// Keep several block requests in flight, possibly spread across peers sharing our common block
+					List<Peer> helperPeers = this.getHelperPeers(peer, commonBlockSig);
+					if (!helperPeers.isEmpty())
+						LOGGER.debug(String.format("Also fetching blocks from %d helper peer%s", helperPeers.size(), (helperPeers.size() != 1 ? "s" : "")));
+
+					// Fetch runs of blocks per request, where allowed and peer supports it
+					final boolean isResolvingFork = commonBlockHeight < ourInitialHeight;
+					final boolean isFastSyncEnabled = isResolvingFork
+							? Settings.getInstance().isFastSyncEnabledWhenResolvingFork()
+							: Settings.getInstance().isFastSyncEnabled();
+					final int blocksPerRequest = isFastSyncEnabled ? Settings.getInstance().getMaxBlocksPerRequest() : 1;
+
+					PipelinedBlockFetcher blockFetcher = new PipelinedBlockFetcher(repository, peer, helperPeers,
+							Settings.getInstance().getSyncBlockFetchWindow(), commonBlockSig, blocksPerRequest);
+
 					SynchronizationResult syncResult = null;
-					if (commonBlockHeight < ourInitialHeight) {
-						// Peer's chain is better, sync to that one
-						syncResult = syncToPeerChain(repository, commonBlockData, ourInitialHeight, peer, peerHeight, peerBlockSummaries);
-					} else {
-						// Simply fetch and apply blocks as they arrive
-						syncResult = applyNewBlocks(repository, commonBlockData, ourInitialHeight, peer, peerHeight, peerBlockSummaries);
+					try {
+						if (commonBlockHeight < ourInitialHeight) {
+							// Peer's chain is better, sync to that one
+							syncResult = syncToPeerChain(repository, commonBlockData, ourInitialHeight, peer, peerHeight, peerBlockSummaries, blockFetcher);
+						} else {
+							// Simply fetch and apply blocks as they arrive
+							syncResult = applyNewBlocks(repository, commonBlockData, ourInitialHeight, peer, peerHeight, peerBlockSummaries, blockFetcher);
+						}
+					} finally {
+						blockFetcher.shutdown();
 					}
 
 					if (syncResult != SynchronizationResult.OK)
@@ -1220,7 +1240,8 @@ public class Synchronizer extends Thread {
 	}
 
 	private SynchronizationResult syncToPeerChain(Repository repository, BlockData commonBlockData, int ourInitialHeight,
-												  Peer peer, final int peerHeight, List<BlockSummaryData> peerBlockSummaries) throws DataException, InterruptedException {
+												  Peer peer, final int peerHeight, List<BlockSummaryData> peerBlockSummaries,
+												  PipelinedBlockFetcher blockFetcher) throws DataException, InterruptedException {
 		final int commonBlockHeight = commonBlockData.getHeight();
 		final byte[] commonBlockSig = commonBlockData.getSignature();
 		String commonBlockSig58 = Base58.encode(commonBlockSig);
@@ -1236,6 +1257,7 @@ public class Synchronizer extends Thread {
 
 		// Convert any leftover (post-common) block summaries into signatures to request from peer
 		List<byte[]> peerBlockSignatures = peerBlockSummaries.stream().map(BlockSummaryData::getSignature).collect(Collectors.toList());
+		blockFetcher.addSignatures(peerBlockSignatures);
 
 		// Keep a list of blocks received so far
 		List<Block> peerBlocks = new ArrayList<>();
@@ -1297,6 +1319,8 @@ public class Synchronizer extends Thread {
 
 				numberSignaturesRequired = peerHeight - height - peerBlockSignatures.size();
 				LOGGER.trace(String.format("Received %s signature%s", peerBlockSignatures.size(), (peerBlockSignatures.size() != 1 ? "s" : "")));
+
+				blockFetcher.addSignatures(peerBlockSignatures);
 			}
 
 			if (peerBlockSignatures.isEmpty()) {
@@ -1324,9 +1348,9 @@ public class Synchronizer extends Thread {
 			int nextHeight = height + 1;
 
 			LOGGER.trace(String.format("Fetching block %d, sig %.8s from %s", nextHeight, Base58.encode(nextPeerSignature), peer));
-			Block newBlock = this.fetchBlock(repository, peer, nextPeerSignature);
+			PipelinedBlockFetcher.VerifiedBlock verifiedBlock = blockFetcher.next(nextPeerSignature);
 
-			if (newBlock == null) {
+			if (verifiedBlock == null) {
 				LOGGER.info(String.format("Peer %s failed to respond with block for height %d, sig %.8s", peer,
 						nextHeight, Base58.encode(nextPeerSignature)));
 
@@ -1359,6 +1383,7 @@ public class Synchronizer extends Thread {
 				} else {
 					// Re-fetch signatures, in case the peer is now on a different fork
 					peerBlockSignatures.clear();
+					blockFetcher.clear();
 					numberSignaturesRequired = peerHeight - height;
 
 					// Retry until retryCount reaches maxRetries
@@ -1374,7 +1399,9 @@ public class Synchronizer extends Thread {
 
 			LOGGER.trace(String.format("Fetched block %d, sig %.8s from %s", nextHeight, Base58.encode(latestPeerSignature), peer));
 
-			if (!newBlock.isSignatureValid()) {
+			// Block signatures were already checked during stateless verification stage
+			Block newBlock = verifiedBlock.getBlock();
+			if (!verifiedBlock.isSignatureValid()) {
 				LOGGER.info(String.format("Peer %s sent block with invalid signature for height %d, sig %.8s", peer,
 						nextHeight, Base58.encode(latestPeerSignature)));
 				return SynchronizationResult.INVALID_DATA;
@@ -1456,7 +1483,8 @@ public class Synchronizer extends Thread {
 	}
 
 	private SynchronizationResult applyNewBlocks(Repository repository, BlockData commonBlockData, int ourInitialHeight,
-												 Peer peer, int peerHeight, List<BlockSummaryData> peerBlockSummaries) throws InterruptedException, DataException {
+												 Peer peer, int peerHeight, List<BlockSummaryData> peerBlockSummaries,
+												 PipelinedBlockFetcher blockFetcher) throws InterruptedException, DataException {
 		LOGGER.debug(String.format("Fetching new blocks from peer %s", peer));
 
 		final int commonBlockHeight = commonBlockData.getHeight();
@@ -1470,6 +1498,7 @@ public class Synchronizer extends Thread {
 
 		// Convert any block summaries from above into signatures to request from peer
 		List<byte[]> peerBlockSignatures = peerBlockSummaries.stream().map(BlockSummaryData::getSignature).collect(Collectors.toList());
+		blockFetcher.addSignatures(peerBlockSignatures);
 
 		while (ourHeight < peerHeight && ourHeight < maxBatchHeight) {
 			if (Controller.isStopping())
@@ -1491,6 +1520,8 @@ public class Synchronizer extends Thread {
 				}
 
 				LOGGER.trace(String.format("Received %s signature%s", peerBlockSignatures.size(), (peerBlockSignatures.size() != 1 ? "s" : "")));
+
+				blockFetcher.addSignatures(peerBlockSignatures);
 			}
 
 			latestPeerSignature = peerBlockSignatures.get(0);
@@ -1498,16 +1529,18 @@ public class Synchronizer extends Thread {
 			++ourHeight;
 
 			LOGGER.trace(String.format("Fetching block %d, sig %.8s from %s", ourHeight, Base58.encode(latestPeerSignature), peer));
-			Block newBlock = this.fetchBlock(repository, peer, latestPeerSignature);
+			PipelinedBlockFetcher.VerifiedBlock verifiedBlock = blockFetcher.next(latestPeerSignature);
 			LOGGER.trace(String.format("Fetched block %d, sig %.8s from %s", ourHeight, Base58.encode(latestPeerSignature), peer));
 
-			if (newBlock == null) {
+			if (verifiedBlock == null) {
 				LOGGER.info(String.format("Peer %s failed to respond with block for height %d, sig %.8s", peer,
 						ourHeight, Base58.encode(latestPeerSignature)));
 				return SynchronizationResult.NO_REPLY;
 			}
 
-			if (!newBlock.isSignatureValid()) {
+			// Block signatures were already checked during stateless verification stage
+			Block newBlock = verifiedBlock.getBlock();
+			if (!verifiedBlock.isSignatureValid()) {
 				LOGGER.info(String.format("Peer %s sent block with invalid signature for height %d, sig %.8s", peer,
 						ourHeight, Base58.encode(latestPeerSignature)));
 				return SynchronizationResult.INVALID_DATA;
@@ -1573,27 +1606,36 @@ public class Synchronizer extends Thread {
 		return signaturesMessage.getSignatures();
 	}
 
-	private Block fetchBlock(Repository repository, Peer peer, byte[] signature) throws InterruptedException {
-		Message getBlockMessage = new GetBlockMessage(signature);
+	/**
+	 * Returns other peers that we can also fetch blocks from, i.e. those sharing the same common block as <tt>peer</tt>.
+	 * <p>
+	 * Helper peers aren't guaranteed to have the blocks we want, but any block they fail to supply
+	 * is re-requested from <tt>peer</tt> by {@link PipelinedBlockFetcher}.
+	 */
+	private List<Peer> getHelperPeers(Peer peer, byte[] commonBlockSig) {
+		final int maxHelperPeers = Settings.getInstance().getMaxSyncHelperPeers();
+		if (maxHelperPeers <= 0)
+			return Collections.emptyList();
 
-		Message message = peer.getResponse(getBlockMessage);
-		if (message == null)
-			return null;
+		// Needs a mutable copy of the unmodifiableList
+		List<Peer> helperPeers = new ArrayList<>(Network.getInstance().getImmutableHandshakedPeers());
+		helperPeers.remove(peer);
 
-		switch (message.getType()) {
-			case BLOCK: {
-				BlockMessage blockMessage = (BlockMessage) message;
-				return new Block(repository, blockMessage.getBlockData(), blockMessage.getTransactions(), blockMessage.getAtStates());
-			}
+		helperPeers.removeIf(Controller.hasMisbehaved);
+		helperPeers.removeIf(Controller.hasOldVersion);
+		helperPeers.removeIf(Controller.hasInferiorChainTip);
 
-			case BLOCK_V2: {
-				BlockV2Message blockMessage = (BlockV2Message) message;
-				return new Block(repository, blockMessage.getBlockData(), blockMessage.getTransactions(), blockMessage.getAtStatesHash());
-			}
+		helperPeers.removeIf(helperPeer -> {
+			CommonBlockData commonBlockData = helperPeer.getCommonBlockData();
+			return commonBlockData == null || !Arrays.equals(commonBlockData.getCommonBlockSummary().getSignature(), commonBlockSig);
+		});
 
-			default:
-				return null;
+		if (helperPeers.size() > maxHelperPeers) {
+			Collections.shuffle(helperPeers);
+			helperPeers = helperPeers.subList(0, maxHelperPeers);
 		}
+
+		return helperPeers;
 	}
 
 	public void populateBlockSummariesMinterLevels(Repository repository, List<BlockSummaryData> blockSummaries) throws DataException {
@@ -17,9 +17,11 @@ import org.qortal.settings.Settings;
 import org.qortal.transaction.Transaction;
 import org.qortal.transform.TransformationException;
 import org.qortal.utils.Base58;
+import org.qortal.utils.DaemonThreadFactory;
 import org.qortal.utils.NTP;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 
@@ -32,6 +34,9 @@ public class TransactionImporter extends Thread {
 
     private static final int MAX_INCOMING_TRANSACTIONS = 5000;
 
+    /** Minimum number of unvalidated transactions before signature verification is spread across worker pool */
+    private static final int MIN_PARALLEL_VERIFICATION_BATCH = 16;
+
     /** Minimum time before considering an invalid unconfirmed transaction as "stale" */
     public static final long INVALID_TRANSACTION_STALE_TIMEOUT = 30 * 60 * 1000L; // ms
     /** Minimum frequency to re-request stale unconfirmed transactions from peers, to recheck validity */
@@ -47,6 +52,18 @@ public class TransactionImporter extends Thread {
     /** Map of recent invalid unconfirmed transactions. Key is base58 transaction signature, value is do-not-request expiry timestamp. */
     private final Map<String, Long> invalidUnconfirmedTransactions = Collections.synchronizedMap(new HashMap<>());
 
+    /** Worker pool for verifying signatures in parallel, or null if verification is single-threaded. */
+    private final ExecutorService verificationExecutor;
+
+
+    private TransactionImporter() {
+        int poolSize = Settings.getInstance().getTransactionVerificationPoolSize();
+
+        if (poolSize > 1)
+            this.verificationExecutor = Executors.newFixedThreadPool(poolSize, new DaemonThreadFactory("Transaction-Verify"));
+        else
+            this.verificationExecutor = null;
+    }
 
     public static synchronized TransactionImporter getInstance() {
         if (instance == null) {
@@ -79,6 +96,13 @@ public class TransactionImporter extends Thread {
     public void shutdown() {
         isStopping = true;
         this.interrupt();
+
+        if (this.verificationExecutor != null)
+            this.verificationExecutor.shutdownNow();
+    }
+
+    public int getIncomingTransactionsCount() {
+        return this.incomingTransactions.size();
     }
 
 
@@ -141,7 +165,10 @@ public class TransactionImporter extends Thread {
             // We need the latest block in order to check for expired transactions
             BlockData latestBlock = Controller.getInstance().getChainTip();
 
-            // Signature validation round - does not require blockchain lock
+            // Transactions still needing signature verification
+            List<Transaction> unvalidatedTransactions = new ArrayList<>();
+
+            // First pass - drop expired transactions and pick out those needing verification
             for (Map.Entry<TransactionData, Boolean> transactionEntry : incomingTransactionsCopy.entrySet()) {
                 // Quick exit?
                 if (isStopping) {
@@ -177,36 +204,63 @@ public class TransactionImporter extends Thread {
                         continue;
                     }
 
-                    if (!transaction.isSignatureValid()) {
-                        LOGGER.debug("Ignoring {} transaction {} with invalid signature", transactionData.getType().name(), signature58);
-                        removeIncomingTransaction(transactionData.getSignature());
-
-                        // Also add to invalidIncomingTransactions map
-                        now = NTP.getTime();
-                        if (now != null) {
-                            Long expiry = now + INVALID_TRANSACTION_RECHECK_INTERVAL;
-                            LOGGER.trace("Adding invalid transaction {} to invalidUnconfirmedTransactions...", signature58);
-                            // Add to invalidUnconfirmedTransactions so that we don't keep requesting it
-                            invalidUnconfirmedTransactions.put(signature58, expiry);
-                        }
+                    unvalidatedTransactions.add(transaction);
+                    continue;
+                }
 
-                        // We're done with this transaction
-                        continue;
-                    }
+                LOGGER.trace(() -> String.format("Transaction %s known to have valid signature", Base58.encode(transactionData.getSignature())));
 
-                    // Count the number that were validated in this round, for logging purposes
-                    validatedCount++;
+                // Signature valid - add to shortlist
+                sigValidTransactions.add(transaction);
+            }
+
+            // Signature validation round - does not require blockchain lock
+            final long verificationStartTime = System.currentTimeMillis();
+            boolean[] sigValidResults = this.verifySignatures(unvalidatedTransactions);
+            if (sigValidResults == null) {
+                // Interrupted or shutting down
+                return;
+            }
 
-                    // Add mark signature as valid if transaction still exists in import queue
-                    incomingTransactions.computeIfPresent(transactionData, (k, v) -> Boolean.TRUE);
+            Controller.StatsSnapshot.TransactionImporterStats stats = Controller.getInstance().stats.transactionImporterStats;
+            if (!unvalidatedTransactions.isEmpty()) {
+                stats.verificationRounds.incrementAndGet();
+                stats.signaturesVerified.addAndGet(unvalidatedTransactions.size());
+                stats.verificationTime.addAndGet(System.currentTimeMillis() - verificationStartTime);
+            }
+
+            for (int i = 0; i < unvalidatedTransactions.size(); ++i) {
+                Transaction transaction = unvalidatedTransactions.get(i);
+                TransactionData transactionData = transaction.getTransactionData();
 
-                    // Signature validated in this round
-                    newlyValidSignatures.add(transactionData.getSignature());
+                if (!sigValidResults[i]) {
+                    String signature58 = Base58.encode(transactionData.getSignature());
+                    LOGGER.debug("Ignoring {} transaction {} with invalid signature", transactionData.getType().name(), signature58);
+                    removeIncomingTransaction(transactionData.getSignature());
+                    stats.invalidSignatures.incrementAndGet();
+
+                    // Also add to invalidIncomingTransactions map
+                    Long now = NTP.getTime();
+                    if (now != null) {
+                        Long expiry = now + INVALID_TRANSACTION_RECHECK_INTERVAL;
+                        LOGGER.trace("Adding invalid transaction {} to invalidUnconfirmedTransactions...", signature58);
+                        // Add to invalidUnconfirmedTransactions so that we don't keep requesting it
+                        invalidUnconfirmedTransactions.put(signature58, expiry);
+                    }
 
-                } else {
-                    LOGGER.trace(() -> String.format("Transaction %s known to have valid signature", Base58.encode(transactionData.getSignature())));
+                    // We're done with this transaction
+                    continue;
                 }
 
+                // Count the number that were validated in this round, for logging purposes
+                validatedCount++;
+
+                // Add mark signature as valid if transaction still exists in import queue
+                incomingTransactions.computeIfPresent(transactionData, (k, v) -> Boolean.TRUE);
+
+                // Signature validated in this round
+                newlyValidSignatures.add(transactionData.getSignature());
+
                 // Signature valid - add to shortlist
                 sigValidTransactions.add(transaction);
             }
@@ -226,6 +280,77 @@ public class TransactionImporter extends Thread {
         }
     }
 
+    /**
+     * Verify signatures (and, where applicable, MemoryPoW nonces) of passed transactions.
+     * <p>
+     * If a verification pool is configured, and there are enough transactions to make it worthwhile,
+     * the transactions are split into contiguous batches, one per pool thread. Each batch uses its own
+     * repository session, as some transaction types consult the repository during verification.
+     *
+     * @return array of results, in same order as <tt>transactions</tt>, or null if interrupted
+     */
+    private boolean[] verifySignatures(List<Transaction> transactions) throws DataException {
+        final int transactionCount = transactions.size();
+        boolean[] results = new boolean[transactionCount];
+
+        if (this.verificationExecutor == null || transactionCount < MIN_PARALLEL_VERIFICATION_BATCH) {
+            for (int i = 0; i < transactionCount; ++i) {
+                if (isStopping)
+                    return null;
+
+                results[i] = transactions.get(i).isSignatureValid();
+            }
+
+            return results;
+        }
+
+        final int poolSize = Settings.getInstance().getTransactionVerificationPoolSize();
+        final int batchSize = (transactionCount + poolSize - 1) / poolSize;
+
+        List<Callable<Void>> batches = new ArrayList<>();
+        for (int batchStart = 0; batchStart < transactionCount; batchStart += batchSize) {
+            final int from = batchStart;
+            final int to = Math.min(batchStart + batchSize, transactionCount);
+
+            batches.add(() -> {
+                try (final Repository batchRepository = RepositoryManager.getRepository()) {
+                    for (int i = from; i < to; ++i) {
+                        if (isStopping)
+                            return null;
+
+                        Transaction transaction = Transaction.fromData(batchRepository, transactions.get(i).getTransactionData());
+                        results[i] = transaction.isSignatureValid();
+                    }
+                }
+
+                return null;
+            });
+        }
+
+        LOGGER.trace("Verifying {} signatures using {} batches", transactionCount, batches.size());
+
+        try {
+            for (Future<Void> future : this.verificationExecutor.invokeAll(batches)) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof DataException)
+                        throw (DataException) e.getCause();
+
+                    throw new DataException("Unable to verify transaction signatures", e.getCause());
+                }
+            }
+        } catch (InterruptedException | RejectedExecutionException e) {
+            return null;
+        }
+
+        if (isStopping)
+            return null;
+
+        // Results written by pool threads are visible here thanks to Future.get()
+        return results;
+    }
+
     /**
      * Import any transactions in the queue that have valid signatures.
      *
@@ -251,6 +376,7 @@ public class TransactionImporter extends Thread {
 
         LOGGER.debug("Importing incoming transactions queue (size {})...", sigValidTransactions.size());
 
+        final long importStartTime = System.currentTimeMillis();
         int processedCount = 0;
         try (final Repository repository = RepositoryManager.getRepository()) {
 
@@ -315,6 +441,10 @@ public class TransactionImporter extends Thread {
                     removeIncomingTransaction(transactionData.getSignature());
                 }
             } finally {
+                Controller.StatsSnapshot.TransactionImporterStats stats = Controller.getInstance().stats.transactionImporterStats;
+                stats.transactionsImported.addAndGet(processedCount);
+                stats.importTime.addAndGet(System.currentTimeMillis() - importStartTime);
+
                 LOGGER.debug("Finished importing {} incoming transaction{}", processedCount, (processedCount == 1 ? "" : "s"));
                 blockchainLock.unlock();
             }
@@ -5,11 +5,13 @@ import org.apache.logging.log4j.Logger;
 import org.qortal.arbitrary.ArbitraryDataBuildQueueItem;
 import org.qortal.utils.NTP;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class ArbitraryDataBuildManager extends Thread {
 
@@ -17,19 +19,58 @@ public class ArbitraryDataBuildManager extends Thread {
 
     private static ArbitraryDataBuildManager instance;
 
+    private static final int BUILD_THREAD_COUNT = 5;
+
     private volatile boolean isStopping = false;
     private boolean buildInProgress = false;
+    private ExecutorService arbitraryDataBuildExecutor;
 
     /**
      * Map to keep track of arbitrary transaction resources currently being built (or queued).
+     * Only modified while holding queueLock.
      */
-    public Map<String, ArbitraryDataBuildQueueItem> arbitraryDataBuildQueue = Collections.synchronizedMap(new HashMap<>());
+    public Map<String, ArbitraryDataBuildQueueItem> arbitraryDataBuildQueue = new ConcurrentHashMap<>();
 
     /**
      * Map to keep track of failed arbitrary transaction builds.
      */
     public Map<String, ArbitraryDataBuildQueueItem> arbitraryDataFailedBuilds = Collections.synchronizedMap(new HashMap<>());
 
+    /**
+     * Builds waiting for a builder thread, by priority (highest first), then by name.
+     * Names take turns within each priority, so one name with many queued resources can't hold up the others.
+     * Guarded by queueLock.
+     */
+    private final TreeMap<Integer, LinkedHashMap<String, Deque<ArbitraryDataBuildQueueItem>>> pendingBuilds = new TreeMap<>(Comparator.reverseOrder());
+    private final ReentrantLock queueLock = new ReentrantLock();
+    private final Condition buildsPending = this.queueLock.newCondition();
+
+    // Stats
+    private final AtomicLong buildsStarted = new AtomicLong();
+    private final AtomicLong buildsCompleted = new AtomicLong();
+    private final AtomicLong buildsFailed = new AtomicLong();
+    private final AtomicLong buildsCancelled = new AtomicLong();
+    private final AtomicLong totalQueueWait = new AtomicLong(); // ms
+    private final AtomicLong maxQueueWait = new AtomicLong(); // ms
+    private final AtomicLong totalBuildTime = new AtomicLong(); // ms
+    private final AtomicLong maxBuildTime = new AtomicLong(); // ms
+
+    /** Snapshot of build activity since startup, for API */
+    public static class Stats {
+        public int queued;
+        public int building;
+        public long completed;
+        public long failed;
+        public long cancelled;
+        public long averageQueueWait; // ms
+        public long maxQueueWait; // ms
+        public long averageBuildTime; // ms
+        public long maxBuildTime; // ms
+
+        public Stats() {
+        }
+    }
+
 
     public ArbitraryDataBuildManager() {
 
@@ -40,12 +81,11 @@ public class ArbitraryDataBuildManager extends Thread {
         Thread.currentThread().setName("Arbitrary Data Build Manager");
 
         try {
-            // Use a fixed thread pool to execute the arbitrary data build actions (currently just a single thread)
-            // This can be expanded to have multiple threads processing the build queue when needed
-            int threadCount = 5;
-            ExecutorService arbitraryDataBuildExecutor = Executors.newFixedThreadPool(threadCount);
-            for (int i = 0; i < threadCount; i++) {
-                arbitraryDataBuildExecutor.execute(new ArbitraryDataBuilderThread());
+            // Use a fixed thread pool to execute the arbitrary data build actions
+            // Each thread waits for the next build from the queue, highest priority first
+            this.arbitraryDataBuildExecutor = Executors.newFixedThreadPool(BUILD_THREAD_COUNT);
+            for (int i = 0; i < BUILD_THREAD_COUNT; i++) {
+                this.arbitraryDataBuildExecutor.execute(new ArbitraryDataBuilderThread());
             }
 
             while (!isStopping) {
@@ -68,6 +108,11 @@ public class ArbitraryDataBuildManager extends Thread {
     public void shutdown() {
         isStopping = true;
         this.interrupt();
+
+        // Wake any builder threads waiting for work
+        if (this.arbitraryDataBuildExecutor != null) {
+            this.arbitraryDataBuildExecutor.shutdownNow();
+        }
     }
 
 
@@ -75,7 +120,24 @@ public class ArbitraryDataBuildManager extends Thread {
         if (now == null) {
             return;
         }
-        arbitraryDataBuildQueue.entrySet().removeIf(entry -> entry.getValue().hasReachedBuildTimeout(now));
+
+        this.queueLock.lock();
+        try {
+            for (ArbitraryDataBuildQueueItem queueItem : new ArrayList<>(arbitraryDataBuildQueue.values())) {
+                if (queueItem.isQueued()) {
+                    if (queueItem.hasReachedBuildTimeout(now) || queueItem.hasBeenAbandoned(now)) {
+                        this.cancelQueuedBuild(queueItem);
+                    }
+                }
+                else if (queueItem.hasReachedBuildTimeout(now)) {
+                    // Stop reporting it as building, although it may still finish
+                    arbitraryDataBuildQueue.remove(queueItem.getUniqueKey(), queueItem);
+                }
+            }
+        } finally {
+            this.queueLock.unlock();
+        }
+
         arbitraryDataFailedBuilds.entrySet().removeIf(entry -> entry.getValue().hasReachedFailureTimeout(now));
     }
 
@@ -101,9 +163,26 @@ public class ArbitraryDataBuildManager extends Thread {
             return false;
         }
 
-        if (this.arbitraryDataBuildQueue.put(key, queueItem) != null) {
-            // Already in queue
-            return true;
+        this.queueLock.lock();
+        try {
+            ArbitraryDataBuildQueueItem existingItem = this.arbitraryDataBuildQueue.get(key);
+            if (existingItem != null) {
+                // Already in queue, but requested again, possibly with a higher priority
+                existingItem.markRequested();
+
+                if (existingItem.isQueued() && queueItem.getPriority() > existingItem.getPriority()) {
+                    this.removePendingBuild(existingItem);
+                    existingItem.setPriority(queueItem.getPriority());
+                    this.addPendingBuild(existingItem);
+                }
+                return true;
+            }
+
+            this.arbitraryDataBuildQueue.put(key, queueItem);
+            this.addPendingBuild(queueItem);
+            this.buildsPending.signal();
+        } finally {
+            this.queueLock.unlock();
         }
 
         log(queueItem, String.format("Added %s to build queue", queueItem));
@@ -131,6 +210,208 @@ public class ArbitraryDataBuildManager extends Thread {
         return false;
     }
 
+    /**
+     * Records that a queued build is still wanted, so that it isn't cancelled as abandoned
+     */
+    public void refreshBuildRequest(ArbitraryDataBuildQueueItem queueItem) {
+        String key = queueItem.getUniqueKey();
+        if (key == null) {
+            return;
+        }
+
+        ArbitraryDataBuildQueueItem existingItem = this.arbitraryDataBuildQueue.get(key);
+        if (existingItem != null) {
+            existingItem.markRequested();
+        }
+    }
+
+    /**
+     * Removes a build from the queue, if it hasn't started yet
+     *
+     * @return true if build was cancelled
+     */
+    public boolean cancelBuild(ArbitraryDataBuildQueueItem queueItem) {
+        String key = queueItem.getUniqueKey();
+        if (key == null) {
+            return false;
+        }
+
+        this.queueLock.lock();
+        try {
+            ArbitraryDataBuildQueueItem existingItem = this.arbitraryDataBuildQueue.get(key);
+            if (existingItem == null || !existingItem.isQueued()) {
+                return false;
+            }
+
+            this.cancelQueuedBuild(existingItem);
+            return true;
+        } finally {
+            this.queueLock.unlock();
+        }
+    }
+
+    /**
+     * Waits for the next build, highest priority first, and marks it as started
+     *
+     * @return the build, which the caller must pass to buildFinished() when done
+     * @throws InterruptedException
+     */
+    public ArbitraryDataBuildQueueItem takeNextBuild() throws InterruptedException {
+        this.queueLock.lockInterruptibly();
+        try {
+            while (true) {
+                ArbitraryDataBuildQueueItem queueItem = this.pollPendingBuild();
+                if (queueItem == null) {
+                    this.buildsPending.await();
+                    continue;
+                }
+
+                // Ignore builds that have failed recently
+                if (this.isInFailedBuildsList(queueItem)) {
+                    this.arbitraryDataBuildQueue.remove(queueItem.getUniqueKey(), queueItem);
+                    continue;
+                }
+
+                // Set the start timestamp, so the build is no longer considered queued
+                queueItem.prepareForBuild();
+
+                Long creationTimestamp = queueItem.getCreationTimestamp();
+                Long buildStartTimestamp = queueItem.getBuildStartTimestamp();
+                if (creationTimestamp != null && buildStartTimestamp != null) {
+                    long queueWait = buildStartTimestamp - creationTimestamp;
+                    this.buildsStarted.incrementAndGet();
+                    this.totalQueueWait.addAndGet(queueWait);
+                    this.maxQueueWait.accumulateAndGet(queueWait, Math::max);
+                }
+
+                return queueItem;
+            }
+        } finally {
+            this.queueLock.unlock();
+        }
+    }
+
+    /**
+     * Removes a build, previously returned by takeNextBuild(), from the queue
+     */
+    public void buildFinished(ArbitraryDataBuildQueueItem queueItem, boolean success) {
+        if (queueItem == null || queueItem.getUniqueKey() == null) {
+            return;
+        }
+
+        this.queueLock.lock();
+        try {
+            this.arbitraryDataBuildQueue.remove(queueItem.getUniqueKey(), queueItem);
+        } finally {
+            this.queueLock.unlock();
+        }
+
+        if (success) {
+            this.buildsCompleted.incrementAndGet();
+        } else {
+            this.buildsFailed.incrementAndGet();
+        }
+
+        Long now = NTP.getTime();
+        Long buildStartTimestamp = queueItem.getBuildStartTimestamp();
+        if (now != null && buildStartTimestamp != null) {
+            long buildTime = now - buildStartTimestamp;
+            this.totalBuildTime.addAndGet(buildTime);
+            this.maxBuildTime.accumulateAndGet(buildTime, Math::max);
+        }
+    }
+
+    public Stats getStats() {
+        Stats stats = new Stats();
+
+        this.queueLock.lock();
+        try {
+            for (ArbitraryDataBuildQueueItem queueItem : this.arbitraryDataBuildQueue.values()) {
+                if (queueItem.isQueued()) {
+                    stats.queued++;
+                } else {
+                    stats.building++;
+                }
+            }
+        } finally {
+            this.queueLock.unlock();
+        }
+
+        stats.completed = this.buildsCompleted.get();
+        stats.failed = this.buildsFailed.get();
+        stats.cancelled = this.buildsCancelled.get();
+
+        long started = this.buildsStarted.get();
+        stats.averageQueueWait = started > 0 ? this.totalQueueWait.get() / started : 0;
+        stats.maxQueueWait = this.maxQueueWait.get();
+
+        long finished = stats.completed + stats.failed;
+        stats.averageBuildTime = finished > 0 ? this.totalBuildTime.get() / finished : 0;
+        stats.maxBuildTime = this.maxBuildTime.get();
+
+        return stats;
+    }
+
+    // Must hold queueLock for the following
+
+    private void cancelQueuedBuild(ArbitraryDataBuildQueueItem queueItem) {
+        this.removePendingBuild(queueItem);
+        this.arbitraryDataBuildQueue.remove(queueItem.getUniqueKey(), queueItem);
+        this.buildsCancelled.incrementAndGet();
+
+        log(queueItem, String.format("Cancelled build of %s", queueItem));
+    }
+
+    private void addPendingBuild(ArbitraryDataBuildQueueItem queueItem) {
+        this.pendingBuilds.computeIfAbsent(queueItem.getPriority(), k -> new LinkedHashMap<>())
+                .computeIfAbsent(queueItem.getResourceId(), k -> new ArrayDeque<>())
+                .add(queueItem);
+    }
+
+    private void removePendingBuild(ArbitraryDataBuildQueueItem queueItem) {
+        LinkedHashMap<String, Deque<ArbitraryDataBuildQueueItem>> buildsByName = this.pendingBuilds.get(queueItem.getPriority());
+        if (buildsByName == null) {
+            return;
+        }
+
+        Deque<ArbitraryDataBuildQueueItem> builds = buildsByName.get(queueItem.getResourceId());
+        if (builds == null) {
+            return;
+        }
+
+        builds.remove(queueItem);
+
+        if (builds.isEmpty()) {
+            buildsByName.remove(queueItem.getResourceId());
+        }
+        if (buildsByName.isEmpty()) {
+            this.pendingBuilds.remove(queueItem.getPriority());
+        }
+    }
+
+    private ArbitraryDataBuildQueueItem pollPendingBuild() {
+        Map.Entry<Integer, LinkedHashMap<String, Deque<ArbitraryDataBuildQueueItem>>> highestPriority = this.pendingBuilds.firstEntry();
+        if (highestPriority == null) {
+            return null;
+        }
+
+        LinkedHashMap<String, Deque<ArbitraryDataBuildQueueItem>> buildsByName = highestPriority.getValue();
+        String name = buildsByName.keySet().iterator().next();
+        Deque<ArbitraryDataBuildQueueItem> builds = buildsByName.remove(name);
+
+        ArbitraryDataBuildQueueItem queueItem = builds.poll();
+
+        // Send this name to the back of the line, if it has more builds at this priority
+        if (!builds.isEmpty()) {
+            buildsByName.put(name, builds);
+        }
+        if (buildsByName.isEmpty()) {
+            this.pendingBuilds.remove(highestPriority.getKey());
+        }
+
+        return queueItem;
+    }
+
 
     // Failed builds
 
@@ -420,8 +420,10 @@ public class ArbitraryDataCleanupManager extends Thread {
 				}
 
 				LOGGER.info("Deleting random file {} because we have reached max storage capacity...", randomItem.toString());
+				long size = randomItem.length();
 				boolean success = randomItem.delete();
 				if (success) {
+					ArbitraryDataStorageManager.getInstance().getStorageLedger().fileDeleted(randomItem.toPath(), size);
 					try {
 						FilesystemUtils.safeDeleteEmptyParentDirectories(randomItem.toPath().getParent());
 					} catch (IOException e) {
@@ -539,6 +541,9 @@ public class ArbitraryDataCleanupManager extends Thread {
 		this.cleanupTempDirectory("merge",  now, STALE_FILE_TIMEOUT);
 		this.cleanupTempDirectory("writer",  now, STALE_FILE_TIMEOUT);
 
+		// Cached layers are only worth keeping while their resources are being used
+		this.cleanupTempDirectory("layers", now, Settings.getInstance().getBuiltDataExpiryInterval());
+
 		// Built resources are served out of the "reader" directory so these
 		// need to be kept around for much longer.
 		// Purging currently disabled, as it's not very helpful. Will revisit
@@ -551,6 +556,7 @@ public class ArbitraryDataCleanupManager extends Thread {
 		LOGGER.info("Deleting directory {} due to reason: {}", directory, reason);
 		try {
 			FilesystemUtils.safeDeleteDirectory(directory.toPath(), true);
+			ArbitraryDataStorageManager.getInstance().getStorageLedger().directoryDeleted(directory.toPath());
 			return true;
 		} catch (IOException e) {
 			LOGGER.debug("Unable to delete directory: {}", directory);
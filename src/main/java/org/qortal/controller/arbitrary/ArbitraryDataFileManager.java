@@ -6,7 +6,6 @@ import org.apache.logging.log4j.Logger;
 import org.qortal.arbitrary.ArbitraryDataFile;
 import org.qortal.controller.Controller;
 import org.qortal.data.arbitrary.ArbitraryDirectConnectionInfo;
-import org.qortal.data.arbitrary.ArbitraryFileListResponseInfo;
 import org.qortal.data.arbitrary.ArbitraryRelayInfo;
 import org.qortal.data.network.PeerData;
 import org.qortal.data.transaction.ArbitraryTransactionData;
@@ -23,8 +22,10 @@ import org.qortal.utils.NTP;
 
 import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 public class ArbitraryDataFileManager extends Thread {
@@ -33,6 +34,7 @@ public class ArbitraryDataFileManager extends Thread {
 
     private static ArbitraryDataFileManager instance;
     private volatile boolean isStopping = false;
+    private ExecutorService arbitraryDataFileRequestExecutor;
 
 
     /**
@@ -46,9 +48,9 @@ public class ArbitraryDataFileManager extends Thread {
     public List<ArbitraryRelayInfo> arbitraryRelayMap = Collections.synchronizedList(new ArrayList<>());
 
     /**
-     * List to keep track of any arbitrary data file hash responses
+     * Queue of arbitrary data file hash responses, for the file request threads to fetch
      */
-    public final List<ArbitraryFileListResponseInfo> arbitraryDataFileHashResponses = Collections.synchronizedList(new ArrayList<>());
+    public final ArbitraryDataFileRequestQueue arbitraryDataFileHashResponses = new ArbitraryDataFileRequestQueue(MAX_FILE_HASH_RESPONSES);
 
     /**
      * List to keep track of peers potentially available for direct connections, based on recent requests
@@ -65,6 +67,46 @@ public class ArbitraryDataFileManager extends Thread {
 
     public static int MAX_FILE_HASH_RESPONSES = 1000;
 
+    private static class PeerFetchCounters {
+        final AtomicLong chunks = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicLong responseTime = new AtomicLong(); // ms
+    }
+
+    /** Chunk fetch counters, keyed by peer address string */
+    private final Map<String, PeerFetchCounters> peerFetchCounters = new ConcurrentHashMap<>();
+
+    public static class PeerFetchStats {
+        public String peer;
+        public long chunks;
+        public long failures;
+        public long bytes;
+        public long averageResponseTime; // ms
+        public double bytesPerSecond;
+
+        public PeerFetchStats() {
+        }
+
+        public PeerFetchStats(String peer, long chunks, long failures, long bytes, long totalResponseTime) {
+            this.peer = peer;
+            this.chunks = chunks;
+            this.failures = failures;
+            this.bytes = bytes;
+            this.averageResponseTime = chunks + failures > 0 ? totalResponseTime / (chunks + failures) : 0;
+            this.bytesPerSecond = totalResponseTime > 0 ? bytes * 1000.0 / totalResponseTime : 0;
+        }
+    }
+
+    public static class Stats {
+        public int queuedHashes;
+        public int requestsInProgress;
+        public List<PeerFetchStats> peers = new ArrayList<>();
+
+        public Stats() {
+        }
+    }
+
 
     private ArbitraryDataFileManager() {
     }
@@ -83,7 +125,7 @@ public class ArbitraryDataFileManager extends Thread {
         try {
             // Use a fixed thread pool to execute the arbitrary data file requests
             int threadCount = 10;
-            ExecutorService arbitraryDataFileRequestExecutor = Executors.newFixedThreadPool(threadCount);
+            arbitraryDataFileRequestExecutor = Executors.newFixedThreadPool(threadCount);
             for (int i = 0; i < threadCount; i++) {
                 arbitraryDataFileRequestExecutor.execute(new ArbitraryDataFileRequestThread());
             }
@@ -100,6 +142,11 @@ public class ArbitraryDataFileManager extends Thread {
     public void shutdown() {
         isStopping = true;
         this.interrupt();
+
+        // Request threads wait for hashes to fetch, so need interrupting too
+        if (arbitraryDataFileRequestExecutor != null) {
+            arbitraryDataFileRequestExecutor.shutdownNow();
+        }
     }
 
 
@@ -112,7 +159,7 @@ public class ArbitraryDataFileManager extends Thread {
 
         final long relayMinimumTimestamp = now - ArbitraryDataManager.getInstance().ARBITRARY_RELAY_TIMEOUT;
         arbitraryRelayMap.removeIf(entry -> entry == null || entry.getTimestamp() == null || entry.getTimestamp() < relayMinimumTimestamp);
-        arbitraryDataFileHashResponses.removeIf(entry -> entry.getTimestamp() < relayMinimumTimestamp);
+        arbitraryDataFileHashResponses.removeExpired(relayMinimumTimestamp);
 
         final long directConnectionInfoMinimumTimestamp = now - ArbitraryDataManager.getInstance().ARBITRARY_DIRECT_CONNECTION_INFO_TIMEOUT;
         directConnectionInfo.removeIf(entry -> entry.getTimestamp() < directConnectionInfoMinimumTimestamp);
@@ -121,6 +168,27 @@ public class ArbitraryDataFileManager extends Thread {
         recentDataRequests.entrySet().removeIf(entry -> entry.getValue() < recentDataRequestMinimumTimestamp);
     }
 
+    /** Returns file request queue stats, and per-peer chunk fetch stats for currently connected peers, pruning stats for departed peers. */
+    public Stats getStats() {
+        Set<String> connectedPeers = Network.getInstance().getImmutableHandshakedPeers().stream()
+                .map(Peer::toString)
+                .collect(Collectors.toSet());
+
+        peerFetchCounters.keySet().retainAll(connectedPeers);
+
+        Stats stats = new Stats();
+        stats.queuedHashes = arbitraryDataFileHashResponses.getQueuedHashCount();
+        stats.requestsInProgress = arbitraryDataFileHashResponses.getRequestingCount();
+
+        for (Map.Entry<String, PeerFetchCounters> entry : peerFetchCounters.entrySet()) {
+            PeerFetchCounters counters = entry.getValue();
+            stats.peers.add(new PeerFetchStats(entry.getKey(), counters.chunks.get(), counters.failures.get(),
+                    counters.bytes.get(), counters.responseTime.get()));
+        }
+
+        return stats;
+    }
+
 
 
     // Fetch data files by hash
@@ -150,18 +218,22 @@ public class ArbitraryDataFileManager extends Thread {
                     Long startTime = NTP.getTime();
                     ArbitraryDataFileMessage receivedArbitraryDataFileMessage = fetchArbitraryDataFile(peer, null, signature, hash, null);
                     Long endTime = NTP.getTime();
+                    PeerFetchCounters counters = peerFetchCounters.computeIfAbsent(peer.toString(), k -> new PeerFetchCounters());
+                    if (startTime != null && endTime != null) {
+                        counters.responseTime.addAndGet(endTime - startTime);
+                    }
                     if (receivedArbitraryDataFileMessage != null && receivedArbitraryDataFileMessage.getArbitraryDataFile() != null) {
                         LOGGER.debug("Received data file {} from peer {}. Time taken: {} ms", receivedArbitraryDataFileMessage.getArbitraryDataFile().getHash58(), peer, (endTime-startTime));
                         receivedAtLeastOneFile = true;
+                        counters.chunks.incrementAndGet();
+                        counters.bytes.addAndGet(receivedArbitraryDataFileMessage.getArbitraryDataFile().size());
 
                         // Remove this hash from arbitraryDataFileHashResponses now that we have received it
                         arbitraryDataFileHashResponses.remove(hash58);
                     }
                     else {
                         LOGGER.debug("Peer {} didn't respond with data file {} for signature {}. Time taken: {} ms", peer, Base58.encode(hash), Base58.encode(signature), (endTime-startTime));
-
-                        // Remove this hash from arbitraryDataFileHashResponses now that we have failed to receive it
-                        arbitraryDataFileHashResponses.remove(hash58);
+                        counters.failures.incrementAndGet();
 
                         // Stop asking for files from this peer
                         break;
@@ -181,6 +253,9 @@ public class ArbitraryDataFileManager extends Thread {
             // Invalidate the hosted transactions cache as we are now hosting something new
             ArbitraryDataStorageManager.getInstance().invalidateHostedTransactionsCache();
 
+            // Make sure the new files count towards this name's storage usage
+            ArbitraryDataStorageManager.getInstance().getStorageLedger().setName(Base58.encode(signature), arbitraryTransactionData.getName());
+
             // Check if we have all the files we need for this transaction
             if (arbitraryDataFile.allFilesExist()) {
 
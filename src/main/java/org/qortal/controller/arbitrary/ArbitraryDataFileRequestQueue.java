@@ -0,0 +1,330 @@
+package org.qortal.controller.arbitrary;
+
+import org.qortal.data.arbitrary.ArbitraryFileListResponseInfo;
+import org.qortal.network.Peer;
+import org.qortal.utils.NTP;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Queue of data file hashes that peers have told us they can supply, for the file request threads to fetch.
+ * <p>
+ * Each hash is queued once, along with every peer that offered it. Hashes are handed out
+ * lowest number of hops first, from whichever offering peer has the fewest hops and isn't already
+ * busy with {@link #MAX_REQUESTS_PER_PEER} of our requests. If a peer fails to supply a hash,
+ * it goes back into the queue to be fetched from one of the remaining peers.
+ */
+public class ArbitraryDataFileRequestQueue {
+
+    /** Maximum number of concurrent file requests to any one peer */
+    public static final int MAX_REQUESTS_PER_PEER = 3;
+
+    /** How long to wait before rechecking queued hashes that couldn't be handed out */
+    private static final long RECHECK_INTERVAL = 1000L; // ms
+
+    private static class PendingHash {
+        final String hash58;
+        final long sequence;
+        /** Peers offering this hash, lowest hops first */
+        final List<ArbitraryFileListResponseInfo> responses = new ArrayList<>();
+        boolean isRequesting = false;
+
+        PendingHash(String hash58, long sequence) {
+            this.hash58 = hash58;
+            this.sequence = sequence;
+        }
+
+        int getLowestHops() {
+            return this.responses.get(0).getRequestHops();
+        }
+
+        boolean addResponse(ArbitraryFileListResponseInfo responseInfo) {
+            for (ArbitraryFileListResponseInfo existingResponse : this.responses) {
+                if (existingResponse.getPeer() == responseInfo.getPeer()) {
+                    return false;
+                }
+            }
+
+            // Insert after any responses with the same number of hops, so earlier responses are tried first
+            int index = 0;
+            while (index < this.responses.size() && this.responses.get(index).getRequestHops() <= responseInfo.getRequestHops()) {
+                ++index;
+            }
+            this.responses.add(index, responseInfo);
+            return true;
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = this.lock.newCondition();
+
+    /** Hashes waiting to be requested, lowest hops first, then oldest first */
+    private final TreeSet<PendingHash> queue = new TreeSet<>(
+            Comparator.comparingInt(PendingHash::getLowestHops).thenComparingLong(pendingHash -> pendingHash.sequence));
+    /** Every hash we know about, including those currently being requested */
+    private final Map<String, PendingHash> pendingHashes = new HashMap<>();
+    /** Number of our requests currently in progress with each peer */
+    private final Map<Peer, Integer> requestsByPeer = new HashMap<>();
+
+    private final int maxResponses;
+    private int responseCount = 0;
+    private long nextSequence = 0;
+
+    public ArbitraryDataFileRequestQueue(int maxResponses) {
+        this.maxResponses = maxResponses;
+    }
+
+    /**
+     * Adds a peer's offer of a hash.
+     *
+     * @return false if the queue is full, or this peer has already offered this hash
+     */
+    public boolean add(ArbitraryFileListResponseInfo responseInfo) {
+        if (responseInfo == null || !responseInfo.isValid()) {
+            return false;
+        }
+
+        this.lock.lock();
+        try {
+            if (this.responseCount >= this.maxResponses) {
+                return false;
+            }
+
+            PendingHash pendingHash = this.pendingHashes.get(responseInfo.getHash58());
+            if (pendingHash == null) {
+                pendingHash = new PendingHash(responseInfo.getHash58(), this.nextSequence++);
+                pendingHash.addResponse(responseInfo);
+                this.pendingHashes.put(pendingHash.hash58, pendingHash);
+                this.queue.add(pendingHash);
+            } else {
+                // Ordering might change, so re-insert if queued
+                boolean wasQueued = !pendingHash.isRequesting && this.queue.remove(pendingHash);
+
+                boolean isAdded = pendingHash.addResponse(responseInfo);
+
+                if (wasQueued) {
+                    this.queue.add(pendingHash);
+                }
+
+                if (!isAdded) {
+                    return false;
+                }
+            }
+
+            ++this.responseCount;
+            this.changed.signal();
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for, then returns, the next hash to request, along with the peer to request it from.
+     * <p>
+     * Expired offers are discarded, as are hashes that are being requested elsewhere.
+     * Callers must call {@link #requestFinished(ArbitraryFileListResponseInfo, boolean)} once done.
+     *
+     * @param hashesRequestedElsewhere hashes currently being requested outside of this queue, left queued for later
+     */
+    public ArbitraryFileListResponseInfo take(Map<String, Long> hashesRequestedElsewhere) throws InterruptedException {
+        this.lock.lockInterruptibly();
+        try {
+            while (true) {
+                ArbitraryFileListResponseInfo responseInfo = this.pollAvailable(hashesRequestedElsewhere);
+                if (responseInfo != null) {
+                    return responseInfo;
+                }
+
+                if (this.queue.isEmpty()) {
+                    this.changed.await();
+                } else {
+                    // Hashes are queued, but expiry or requests elsewhere can change without us being signalled
+                    this.changed.await(RECHECK_INTERVAL, TimeUnit.MILLISECONDS);
+                }
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private ArbitraryFileListResponseInfo pollAvailable(Map<String, Long> hashesRequestedElsewhere) {
+        Long now = NTP.getTime();
+        if (now == null) {
+            return null;
+        }
+        final long minimumTimestamp = now - ArbitraryDataManager.ARBITRARY_RELAY_TIMEOUT;
+
+        // Pending hashes whose responses changed, so need re-inserting into correct place in queue
+        List<PendingHash> reinsert = new ArrayList<>();
+        ArbitraryFileListResponseInfo chosenResponse = null;
+
+        Iterator<PendingHash> iterator = this.queue.iterator();
+        while (iterator.hasNext()) {
+            PendingHash pendingHash = iterator.next();
+
+            if (pendingHash.responses.stream().anyMatch(response -> response.getTimestamp() < minimumTimestamp)) {
+                iterator.remove();
+                this.removeExpiredResponses(pendingHash, minimumTimestamp);
+
+                if (pendingHash.responses.isEmpty()) {
+                    this.pendingHashes.remove(pendingHash.hash58);
+                    continue;
+                }
+
+                reinsert.add(pendingHash);
+                // Might be out of order now, so leave until next time
+                continue;
+            }
+
+            // Skip if already requesting, but don't remove, as we might want to retry later
+            if (hashesRequestedElsewhere != null && hashesRequestedElsewhere.containsKey(pendingHash.hash58)) {
+                continue;
+            }
+
+            for (ArbitraryFileListResponseInfo responseInfo : pendingHash.responses) {
+                if (this.requestsByPeer.getOrDefault(responseInfo.getPeer(), 0) < MAX_REQUESTS_PER_PEER) {
+                    chosenResponse = responseInfo;
+                    break;
+                }
+            }
+
+            if (chosenResponse != null) {
+                iterator.remove();
+                pendingHash.responses.remove(chosenResponse);
+                --this.responseCount;
+                pendingHash.isRequesting = true;
+                this.requestsByPeer.merge(chosenResponse.getPeer(), 1, Integer::sum);
+                break;
+            }
+        }
+
+        this.queue.addAll(reinsert);
+
+        return chosenResponse;
+    }
+
+    /**
+     * Records that a request, previously returned by {@link #take(Map)}, has finished.
+     *
+     * @param isReceived whether the peer supplied the file, otherwise the hash will be requested from another peer
+     */
+    public void requestFinished(ArbitraryFileListResponseInfo responseInfo, boolean isReceived) {
+        this.lock.lock();
+        try {
+            this.requestsByPeer.computeIfPresent(responseInfo.getPeer(), (peer, count) -> count > 1 ? count - 1 : null);
+
+            PendingHash pendingHash = this.pendingHashes.get(responseInfo.getHash58());
+            if (pendingHash != null && pendingHash.isRequesting) {
+                pendingHash.isRequesting = false;
+
+                if (isReceived || pendingHash.responses.isEmpty()) {
+                    this.pendingHashes.remove(pendingHash.hash58);
+                    this.responseCount -= pendingHash.responses.size();
+                } else {
+                    this.queue.add(pendingHash);
+                }
+            }
+
+            // Peer now has capacity for another request, or hash can be requested from another peer
+            this.changed.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Removes hash, e.g. because we now have it locally. Hashes currently being requested are
+     * removed once their request finishes, if not received.
+     */
+    public void remove(String hash58) {
+        this.lock.lock();
+        try {
+            PendingHash pendingHash = this.pendingHashes.get(hash58);
+            if (pendingHash == null) {
+                return;
+            }
+
+            // Remove from queue first, as queue ordering needs responses
+            if (!pendingHash.isRequesting) {
+                this.queue.remove(pendingHash);
+                this.pendingHashes.remove(hash58);
+            }
+
+            this.responseCount -= pendingHash.responses.size();
+            pendingHash.responses.clear();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /** Removes offers received before minimumTimestamp */
+    public void removeExpired(long minimumTimestamp) {
+        this.lock.lock();
+        try {
+            Iterator<PendingHash> iterator = this.pendingHashes.values().iterator();
+            while (iterator.hasNext()) {
+                PendingHash pendingHash = iterator.next();
+                if (pendingHash.responses.stream().noneMatch(response -> response.getTimestamp() < minimumTimestamp)) {
+                    continue;
+                }
+
+                boolean wasQueued = !pendingHash.isRequesting && this.queue.remove(pendingHash);
+
+                this.removeExpiredResponses(pendingHash, minimumTimestamp);
+
+                if (pendingHash.isRequesting) {
+                    continue;
+                }
+
+                if (pendingHash.responses.isEmpty()) {
+                    iterator.remove();
+                } else if (wasQueued) {
+                    this.queue.add(pendingHash);
+                }
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void removeExpiredResponses(PendingHash pendingHash, long minimumTimestamp) {
+        int previousSize = pendingHash.responses.size();
+        pendingHash.responses.removeIf(response -> response.getTimestamp() < minimumTimestamp);
+        this.responseCount -= previousSize - pendingHash.responses.size();
+    }
+
+    /** Returns number of peer offers held, across all hashes */
+    public int size() {
+        this.lock.lock();
+        try {
+            return this.responseCount;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /** Returns number of hashes waiting to be requested */
+    public int getQueuedHashCount() {
+        this.lock.lock();
+        try {
+            return this.queue.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /** Returns number of requests currently in progress */
+    public int getRequestingCount() {
+        this.lock.lock();
+        try {
+            return this.requestsByPeer.values().stream().mapToInt(Integer::intValue).sum();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+}
@@ -11,10 +11,8 @@ import org.qortal.repository.Repository;
 import org.qortal.repository.RepositoryManager;
 import org.qortal.utils.ArbitraryTransactionUtils;
 import org.qortal.utils.Base58;
-import org.qortal.utils.NTP;
 
-import java.util.*;
-import java.util.stream.Collectors;
+import java.util.Arrays;
 
 public class ArbitraryDataFileRequestThread implements Runnable {
 
@@ -30,95 +28,55 @@ public class ArbitraryDataFileRequestThread implements Runnable {
 
         try {
             while (!Controller.isStopping()) {
-                Long now = NTP.getTime();
-                this.processFileHashes(now);
+                this.processFileHashes();
             }
         } catch (InterruptedException e) {
             // Fall-through to exit thread...
         }
     }
 
-    private void processFileHashes(Long now) throws InterruptedException {
-		if (Controller.isStopping()) {
-            return;
-        }
-
+    private void processFileHashes() throws InterruptedException {
         ArbitraryDataFileManager arbitraryDataFileManager = ArbitraryDataFileManager.getInstance();
-        String signature58 = null;
-        String hash58 = null;
-        Peer peer = null;
-        boolean shouldProcess = false;
-
-        synchronized (arbitraryDataFileManager.arbitraryDataFileHashResponses) {
-            if (!arbitraryDataFileManager.arbitraryDataFileHashResponses.isEmpty()) {
-
-                // Sort by lowest number of node hops first
-                Comparator<ArbitraryFileListResponseInfo> lowestHopsFirstComparator =
-                        Comparator.comparingInt(ArbitraryFileListResponseInfo::getRequestHops);
-                arbitraryDataFileManager.arbitraryDataFileHashResponses.sort(lowestHopsFirstComparator);
-
-                Iterator iterator = arbitraryDataFileManager.arbitraryDataFileHashResponses.iterator();
-                while (iterator.hasNext()) {
-                    if (Controller.isStopping()) {
-                        return;
-                    }
-
-                    ArbitraryFileListResponseInfo responseInfo = (ArbitraryFileListResponseInfo) iterator.next();
-                    if (responseInfo == null) {
-                        iterator.remove();
-                        continue;
-                    }
-
-                    hash58 = responseInfo.getHash58();
-                    peer = responseInfo.getPeer();
-                    signature58 = responseInfo.getSignature58();
-                    Long timestamp = responseInfo.getTimestamp();
-
-                    if (now - timestamp >= ArbitraryDataManager.ARBITRARY_RELAY_TIMEOUT || signature58 == null || peer == null) {
-                        // Ignore - to be deleted
-                        iterator.remove();
-                        continue;
-                    }
-
-                    // Skip if already requesting, but don't remove, as we might want to retry later
-                    if (arbitraryDataFileManager.arbitraryDataFileRequests.containsKey(hash58)) {
-                        // Already requesting - leave this attempt for later
-                        continue;
-                    }
-
-                    // We want to process this file
-                    shouldProcess = true;
-                    iterator.remove();
-                    break;
-                }
-            }
-        }
 
-        if (!shouldProcess) {
-            // Nothing to do
-            Thread.sleep(1000L);
-            return;
+        // Wait for a hash to fetch, lowest number of hops first
+        ArbitraryFileListResponseInfo responseInfo = arbitraryDataFileManager.arbitraryDataFileHashResponses
+                .take(arbitraryDataFileManager.arbitraryDataFileRequests);
+
+        boolean isReceived = false;
+        try {
+            isReceived = this.fetchFile(arbitraryDataFileManager, responseInfo);
+        } finally {
+            arbitraryDataFileManager.arbitraryDataFileHashResponses.requestFinished(responseInfo, isReceived);
         }
+    }
+
+    private boolean fetchFile(ArbitraryDataFileManager arbitraryDataFileManager, ArbitraryFileListResponseInfo responseInfo) {
+        String hash58 = responseInfo.getHash58();
+        Peer peer = responseInfo.getPeer();
 
         byte[] hash = Base58.decode(hash58);
-        byte[] signature = Base58.decode(signature58);
+        byte[] signature = Base58.decode(responseInfo.getSignature58());
+
+        if (signature == null || hash == null || peer == null) {
+            arbitraryDataFileManager.arbitraryDataFileHashResponses.remove(hash58);
+            return false;
+        }
 
         // Fetch the transaction data
         try (final Repository repository = RepositoryManager.getRepository()) {
             ArbitraryTransactionData arbitraryTransactionData = ArbitraryTransactionUtils.fetchTransactionData(repository, signature);
             if (arbitraryTransactionData == null) {
-                return;
-            }
-
-            if (signature == null || hash == null || peer == null || arbitraryTransactionData == null) {
-                return;
+                // No other peer will be any more use
+                arbitraryDataFileManager.arbitraryDataFileHashResponses.remove(hash58);
+                return false;
             }
 
             LOGGER.debug("Fetching file {} from peer {} via request thread...", hash58, peer);
-            arbitraryDataFileManager.fetchArbitraryDataFiles(repository, peer, signature, arbitraryTransactionData, Arrays.asList(hash));
+            return arbitraryDataFileManager.fetchArbitraryDataFiles(repository, peer, signature, arbitraryTransactionData, Arrays.asList(hash));
 
         } catch (DataException e) {
             LOGGER.debug("Unable to process file hashes: {}", e.getMessage());
+            return false;
         }
     }
 }
@@ -0,0 +1,302 @@
+package org.qortal.controller.arbitrary;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.qortal.data.transaction.ArbitraryTransactionData;
+import org.qortal.data.transaction.TransactionData;
+import org.qortal.repository.DataException;
+import org.qortal.repository.Repository;
+import org.qortal.repository.RepositoryManager;
+import org.qortal.settings.Settings;
+import org.qortal.utils.Base58;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps running totals of the bytes used by data files in the data directory, overall,
+ * per transaction signature, and per name, so that storage limits can be checked
+ * without walking the data directory.
+ * <p>
+ * Totals are updated as data files are written, moved and deleted. Anything changed
+ * on disk by other means is picked up by {@link #reconcile()}, which walks the data
+ * directory and replaces the running totals. Until the first reconciliation, updates
+ * are ignored, as there is nothing to add them to.
+ * <p>
+ * The temp directory isn't included, even if it is inside the data directory.
+ */
+public class ArbitraryDataStorageLedger {
+
+    private static final Logger LOGGER = LogManager.getLogger(ArbitraryDataStorageLedger.class);
+
+    private final Map<String, Long> bytesBySignature = new HashMap<>();
+    private final Map<String, String> namesBySignature = new HashMap<>();
+    private final Map<String, Long> bytesByName = new HashMap<>();
+    private long totalBytes = 0L;
+    private boolean isReconciled = false;
+
+    public ArbitraryDataStorageLedger() {
+    }
+
+    public synchronized void fileWritten(Path path, long previousSize, long newSize) {
+        this.adjust(path, newSize - previousSize);
+    }
+
+    public synchronized void fileDeleted(Path path, long size) {
+        this.adjust(path, -size);
+    }
+
+    public synchronized void fileMoved(Path oldPath, Path newPath, long size) {
+        this.adjust(oldPath, -size);
+        this.adjust(newPath, size);
+    }
+
+    /** Removes everything recorded for a transaction's directory, e.g. after deleting it */
+    public synchronized void directoryDeleted(Path directory) {
+        if (!this.isReconciled) {
+            return;
+        }
+
+        Path relativePath = getDataRelativePath(directory);
+        String signature58 = getSignature58(relativePath, 3);
+        if (signature58 == null) {
+            return;
+        }
+
+        Long bytes = this.bytesBySignature.remove(signature58);
+        if (bytes == null) {
+            return;
+        }
+
+        this.totalBytes = Math.max(0L, this.totalBytes - bytes);
+
+        String name = this.namesBySignature.get(signature58);
+        if (name != null) {
+            addBytes(this.bytesByName, name, -bytes);
+        }
+    }
+
+    /** Records which name a transaction's data belongs to, so it counts towards that name's usage */
+    public synchronized void setName(String signature58, String name) {
+        if (signature58 == null || name == null) {
+            return;
+        }
+
+        String previousName = this.namesBySignature.put(signature58, name);
+        if (name.equals(previousName)) {
+            return;
+        }
+
+        Long bytes = this.bytesBySignature.get(signature58);
+        if (bytes == null) {
+            return;
+        }
+
+        if (previousName != null) {
+            addBytes(this.bytesByName, previousName, -bytes);
+        }
+        addBytes(this.bytesByName, name, bytes);
+    }
+
+    private void adjust(Path path, long delta) {
+        if (!this.isReconciled || delta == 0) {
+            return;
+        }
+
+        Path relativePath = getDataRelativePath(path);
+        if (relativePath == null) {
+            // Not in the data directory
+            return;
+        }
+
+        this.totalBytes = Math.max(0L, this.totalBytes + delta);
+
+        String signature58 = getSignature58(relativePath, 4);
+        if (signature58 == null) {
+            return;
+        }
+
+        addBytes(this.bytesBySignature, signature58, delta);
+
+        String name = this.namesBySignature.get(signature58);
+        if (name != null) {
+            addBytes(this.bytesByName, name, delta);
+        }
+    }
+
+    private static void addBytes(Map<String, Long> map, String key, long delta) {
+        map.compute(key, (k, bytes) -> {
+            long newBytes = (bytes != null ? bytes : 0L) + delta;
+            return newBytes > 0 ? newBytes : null;
+        });
+    }
+
+    private static Path getDataPath() {
+        return Paths.get(Settings.getInstance().getDataPath()).toAbsolutePath().normalize();
+    }
+
+    private static Path getTempPath() {
+        return Paths.get(Settings.getInstance().getTempDataPath()).toAbsolutePath().normalize();
+    }
+
+    /** Returns path relative to data directory, or null if not in data directory, or in temp directory */
+    private static Path getDataRelativePath(Path path) {
+        if (path == null) {
+            return null;
+        }
+
+        Path absolutePath = path.toAbsolutePath().normalize();
+        Path dataPath = getDataPath();
+        if (!absolutePath.startsWith(dataPath) || absolutePath.startsWith(getTempPath())) {
+            return null;
+        }
+
+        return dataPath.relativize(absolutePath);
+    }
+
+    /**
+     * Returns signature of transaction that relative path belongs to, based on the layout used by
+     * ArbitraryDataFile, i.e. <tt>xx/yy/signature58</tt> for directories (depth 3) and
+     * <tt>xx/yy/signature58/hash58</tt> for files (depth 4).
+     */
+    private static String getSignature58(Path relativePath, int depth) {
+        if (relativePath == null || relativePath.getNameCount() != depth) {
+            return null;
+        }
+
+        if (relativePath.getName(0).toString().equals("_misc")) {
+            // Not yet associated with a transaction
+            return null;
+        }
+
+        return relativePath.getName(2).toString();
+    }
+
+
+    // Reconciliation
+
+    /**
+     * Walks the data directory and replaces the running totals with what is actually on disk.
+     * <p>
+     * Changes made during the walk might be missed, or counted twice,
+     * but will be corrected by the next reconciliation.
+     */
+    public void reconcile() throws IOException {
+        final Path dataPath = getDataPath();
+        final Path tempPath = getTempPath();
+
+        Map<String, Long> walkedBytesBySignature = new HashMap<>();
+        long[] walkedTotalBytes = new long[1];
+
+        if (Files.isDirectory(dataPath)) {
+            Files.walkFileTree(dataPath, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    return dir.equals(tempPath) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (!attrs.isRegularFile()) {
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    walkedTotalBytes[0] += attrs.size();
+
+                    String signature58 = getSignature58(dataPath.relativize(file), 4);
+                    if (signature58 != null) {
+                        walkedBytesBySignature.merge(signature58, attrs.size(), Long::sum);
+                    }
+
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    // Most likely deleted during walk
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+
+        // Find names for any transactions we don't already know about
+        Map<String, String> walkedNamesBySignature = new HashMap<>();
+        synchronized (this) {
+            for (String signature58 : walkedBytesBySignature.keySet()) {
+                String name = this.namesBySignature.get(signature58);
+                if (name != null) {
+                    walkedNamesBySignature.put(signature58, name);
+                }
+            }
+        }
+        this.lookUpNames(walkedBytesBySignature, walkedNamesBySignature);
+
+        Map<String, Long> walkedBytesByName = new HashMap<>();
+        for (Map.Entry<String, String> entry : walkedNamesBySignature.entrySet()) {
+            walkedBytesByName.merge(entry.getValue(), walkedBytesBySignature.get(entry.getKey()), Long::sum);
+        }
+
+        synchronized (this) {
+            if (this.isReconciled && this.totalBytes != walkedTotalBytes[0]) {
+                LOGGER.debug("Storage ledger was out by {} bytes", walkedTotalBytes[0] - this.totalBytes);
+            }
+
+            this.bytesBySignature.clear();
+            this.bytesBySignature.putAll(walkedBytesBySignature);
+            this.namesBySignature.clear();
+            this.namesBySignature.putAll(walkedNamesBySignature);
+            this.bytesByName.clear();
+            this.bytesByName.putAll(walkedBytesByName);
+            this.totalBytes = walkedTotalBytes[0];
+            this.isReconciled = true;
+        }
+    }
+
+    private void lookUpNames(Map<String, Long> bytesBySignature, Map<String, String> namesBySignature) {
+        try (final Repository repository = RepositoryManager.getRepository()) {
+            for (String signature58 : bytesBySignature.keySet()) {
+                if (namesBySignature.containsKey(signature58)) {
+                    continue;
+                }
+
+                byte[] signature;
+                try {
+                    signature = Base58.decode(signature58);
+                } catch (NumberFormatException e) {
+                    // Not a transaction directory
+                    continue;
+                }
+                if (signature == null) {
+                    continue;
+                }
+
+                TransactionData transactionData = repository.getTransactionRepository().fromSignature(signature);
+                if (transactionData instanceof ArbitraryTransactionData) {
+                    String name = ((ArbitraryTransactionData) transactionData).getName();
+                    if (name != null) {
+                        namesBySignature.put(signature58, name);
+                    }
+                }
+            }
+        } catch (DataException e) {
+            // Names will be filled in as data is fetched, or at next reconciliation
+            LOGGER.debug("Unable to look up names for hosted data: {}", e.getMessage());
+        }
+    }
+
+    public synchronized boolean isReconciled() {
+        return this.isReconciled;
+    }
+
+    public synchronized long getTotalBytes() {
+        return this.totalBytes;
+    }
+
+    public synchronized long getBytesForName(String name) {
+        return this.bytesByName.getOrDefault(name, 0L);
+    }
+
+}
@@ -12,7 +12,6 @@ import org.qortal.settings.Settings;
 import org.qortal.transaction.Transaction;
 import org.qortal.utils.ArbitraryTransactionUtils;
 import org.qortal.utils.Base58;
-import org.qortal.utils.FilesystemUtils;
 import org.qortal.utils.NTP;
 
 import java.io.IOException;
@@ -42,8 +41,11 @@ public class ArbitraryDataStorageManager extends Thread {
     private volatile boolean isStopping = false;
 
     private Long storageCapacity = null;
-    private long totalDirectorySize = 0L;
+    private long tempDirectorySize = 0L;
     private long lastDirectorySizeCheck = 0;
+    private long lastLedgerReconciliation = 0;
+
+    private final ArbitraryDataStorageLedger storageLedger = new ArbitraryDataStorageLedger();
 
     private List<ArbitraryTransactionData> hostedTransactions;
 
@@ -51,6 +53,10 @@ public class ArbitraryDataStorageManager extends Thread {
     private List<ArbitraryTransactionData> searchResultsTransactions;
 
     private static final long DIRECTORY_SIZE_CHECK_INTERVAL = 10 * 60 * 1000L; // 10 minutes
+    /** How often to walk the data directory to correct the storage ledger.
+     * The ledger is kept up to date as files are written and deleted, so this only needs to
+     * catch changes made by other means. */
+    private static final long LEDGER_RECONCILIATION_INTERVAL = 6 * 60 * 60 * 1000L; // 6 hours
 
     /** Treat storage as full at 90% usage, to reduce risk of going over the limit.
      * This is necessary because we don't calculate total storage values before every write.
@@ -442,7 +448,6 @@ public class ArbitraryDataStorageManager extends Thread {
             return;
         }
 
-        long totalSize = 0;
         long remainingCapacity = 0;
 
         // Calculate remaining capacity
@@ -453,28 +458,36 @@ public class ArbitraryDataStorageManager extends Thread {
             return;
         }
 
-        // Calculate total size of data directory
-        LOGGER.trace("Calculating data directory size...");
-        Path dataDirectoryPath = Paths.get(Settings.getInstance().getDataPath());
-        if (dataDirectoryPath.toFile().exists()) {
-            totalSize += FileUtils.sizeOfDirectory(dataDirectoryPath.toFile());
-        }
+        // Size of data directory is kept up to date by the storage ledger,
+        // but needs reconciling with what's actually on disk once in a while
+        if (!this.storageLedger.isReconciled() || now - this.lastLedgerReconciliation > LEDGER_RECONCILIATION_INTERVAL) {
+            LOGGER.trace("Calculating data directory size...");
+            try {
+                this.storageLedger.reconcile();
+            } catch (IOException e) {
+                LOGGER.info("Unable to calculate data directory size: {}", e.getMessage());
+                return;
+            }
 
-        // Add total size of temp directory, if it's not already inside the data directory
-        Path tempDirectoryPath = Paths.get(Settings.getInstance().getTempDataPath());
-        if (tempDirectoryPath.toFile().exists()) {
-            if (!FilesystemUtils.isChild(tempDirectoryPath, dataDirectoryPath)) {
+            // Temp directory, which includes built resources and cached layers, isn't tracked by the ledger,
+            // so walking it is just as expensive and is only done when reconciling
+            long tempSize = 0;
+            Path tempDirectoryPath = Paths.get(Settings.getInstance().getTempDataPath());
+            if (tempDirectoryPath.toFile().exists()) {
                 LOGGER.trace("Calculating temp directory size...");
-                totalSize += FileUtils.sizeOfDirectory(dataDirectoryPath.toFile());
+                tempSize = FileUtils.sizeOfDirectory(tempDirectoryPath.toFile());
             }
+
+            this.tempDirectorySize = tempSize;
+            this.lastLedgerReconciliation = now;
         }
 
-        this.totalDirectorySize = totalSize;
         this.lastDirectorySizeCheck = now;
 
-        // It's essential that used space (this.totalDirectorySize) is included in the storage capacity
+        // It's essential that used space is included in the storage capacity
         LOGGER.trace("Calculating total storage capacity...");
-        long storageCapacity = remainingCapacity + this.totalDirectorySize;
+        long totalDirectorySize = this.getTotalDirectorySize();
+        long storageCapacity = remainingCapacity + totalDirectorySize;
 
         // Make sure to limit the storage capacity if the user is overriding it in the settings
         if (Settings.getInstance().getMaxStorageCapacity() != null) {
@@ -482,7 +495,7 @@ public class ArbitraryDataStorageManager extends Thread {
         }
         this.storageCapacity = storageCapacity;
 
-        LOGGER.info("Total used: {} bytes, Total capacity: {} bytes", this.totalDirectorySize, this.storageCapacity);
+        LOGGER.info("Total used: {} bytes, Total capacity: {} bytes", totalDirectorySize, this.storageCapacity);
     }
 
     private long getRemainingUsableStorageCapacity() throws IOException {
@@ -496,7 +509,11 @@ public class ArbitraryDataStorageManager extends Thread {
     }
 
     public long getTotalDirectorySize() {
-        return this.totalDirectorySize;
+        return this.storageLedger.getTotalBytes() + this.tempDirectorySize;
+    }
+
+    public ArbitraryDataStorageLedger getStorageLedger() {
+        return this.storageLedger;
     }
 
     public boolean isStorageSpaceAvailable(double threshold) {
@@ -505,7 +522,7 @@ public class ArbitraryDataStorageManager extends Thread {
         }
 
         long maxStorageCapacity = (long)((double)this.storageCapacity * threshold);
-        if (this.totalDirectorySize >= maxStorageCapacity) {
+        if (this.getTotalDirectorySize() >= maxStorageCapacity) {
             return false;
         }
         return true;
@@ -528,21 +545,9 @@ public class ArbitraryDataStorageManager extends Thread {
             return true;
         }
 
-        long totalSizeForName = 0;
+        long totalSizeForName = this.storageLedger.getBytesForName(name);
         long maxStoragePerName = this.storageCapacityPerName(threshold);
 
-        // Fetch all hosted transactions
-        List<ArbitraryTransactionData> hostedTransactions = this.listAllHostedTransactions(repository, null, null);
-        for (ArbitraryTransactionData transactionData : hostedTransactions) {
-            String transactionName = transactionData.getName();
-            if (!Objects.equals(name, transactionName)) {
-                // Transaction relates to a different name
-                continue;
-            }
-
-            totalSizeForName += transactionData.getSize();
-        }
-
         // Have we reached the limit for this name?
         if (totalSizeForName > maxStoragePerName) {
             return false;
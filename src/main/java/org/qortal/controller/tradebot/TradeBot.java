@@ -115,7 +115,7 @@ public class TradeBot implements Listener {
 	private long nextTradePresenceBroadcastTimestamp = 0L;
 
 	private TradeBot() {
-		EventBus.INSTANCE.addListener(event -> TradeBot.getInstance().listen(event));
+		EventBus.INSTANCE.addAsyncListener("TradeBot", event -> TradeBot.getInstance().listen(event), false);
 	}
 
 	public static synchronized TradeBot getInstance() {
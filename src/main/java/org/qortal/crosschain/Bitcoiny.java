@@ -254,6 +254,25 @@ public abstract class Bitcoiny implements ForeignBlockchain {
 		throw(e2);
 	}
 
+	/**
+	 * Returns transactions for each passed script, in the same order, looked up together where possible.
+	 * <p>
+	 * @throws ForeignBlockchainException if error occurs
+	 */
+	public List<List<TransactionHash>> getAddressTransactions(List<byte[]> scriptPubKeys, boolean includeUnconfirmed) throws ForeignBlockchainException {
+		int retries = 0;
+		ForeignBlockchainException e2 = null;
+		while (retries <= 3) {
+			try {
+				return this.blockchain.getAddressTransactions(scriptPubKeys, includeUnconfirmed);
+			} catch (ForeignBlockchainException e) {
+				e2 = e;
+				retries++;
+			}
+		}
+		throw(e2);
+	}
+
 	/**
 	 * Returns list of transaction hashes pertaining to passed address.
 	 * <p>
@@ -417,17 +436,18 @@ public abstract class Bitcoiny implements ForeignBlockchain {
 			do {
 				boolean areAllKeysUnused = true;
 
+				List<byte[]> scripts = new ArrayList<>();
 				for (; ki < keys.size(); ++ki) {
 					DeterministicKey dKey = keys.get(ki);
 
 					// Check for transactions
 					Address address = Address.fromKey(this.params, dKey, ScriptType.P2PKH);
 					keySet.add(address.toString());
-					byte[] script = ScriptBuilder.createOutputScript(address).getProgram();
-
-					// Ask for transaction history - if it's empty then key has never been used
-					List<TransactionHash> historicTransactionHashes = this.getAddressTransactions(script, false);
+					scripts.add(ScriptBuilder.createOutputScript(address).getProgram());
+				}
 
+				// Ask for transaction histories of whole batch of keys at once - if a history is empty then that key has never been used
+				for (List<TransactionHash> historicTransactionHashes : this.getAddressTransactions(scripts, false)) {
 					if (!historicTransactionHashes.isEmpty()) {
 						areAllKeysUnused = false;
 
@@ -1,5 +1,6 @@
 package org.qortal.crosschain;
 
+import java.util.ArrayList;
 import java.util.List;
 
 public abstract class BitcoinyBlockchainProvider {
@@ -31,6 +32,20 @@ public abstract class BitcoinyBlockchainProvider {
 	/** Returns list of transaction hashes (and heights) for address represented by <tt>scriptPubKey</tt>, optionally including unconfirmed transactions. */
 	public abstract List<TransactionHash> getAddressTransactions(byte[] scriptPubKey, boolean includeUnconfirmed) throws ForeignBlockchainException;
 
+	/**
+	 * Returns lists of transaction hashes (and heights) for each address represented by <tt>scriptPubKeys</tt>, in the same order.
+	 * <p>
+	 * Providers that can look up several addresses at once should override this.
+	 */
+	public List<List<TransactionHash>> getAddressTransactions(List<byte[]> scriptPubKeys, boolean includeUnconfirmed) throws ForeignBlockchainException {
+		List<List<TransactionHash>> addressTransactions = new ArrayList<>(scriptPubKeys.size());
+
+		for (byte[] scriptPubKey : scriptPubKeys)
+			addressTransactions.add(this.getAddressTransactions(scriptPubKey, includeUnconfirmed));
+
+		return addressTransactions;
+	}
+
 	/** Returns list of unspent transaction outputs for address represented by <tt>scriptPubKey</tt>, optionally including unconfirmed transactions. */
 	public abstract List<UnspentOutput> getUnspentOutputs(byte[] scriptPubKey, boolean includeUnconfirmed) throws ForeignBlockchainException;
 
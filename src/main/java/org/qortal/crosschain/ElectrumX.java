@@ -2,28 +2,30 @@ package org.qortal.crosschain;
 
 import java.io.IOException;
 import java.math.BigDecimal;
-import java.net.InetSocketAddress;
-import java.net.Socket;
-import java.net.SocketAddress;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-
-import javax.net.ssl.SSLSocketFactory;
+import java.util.stream.Collectors;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
-import org.json.simple.JSONValue;
 import org.qortal.crypto.Crypto;
-import org.qortal.crypto.TrustlessSSLSocketFactory;
 
 import com.google.common.hash.HashCode;
 import com.google.common.primitives.Bytes;
 import org.qortal.utils.BitTwiddling;
 
-/** ElectrumX network support for querying Bitcoiny-related info like block headers, transaction outputs, etc. */
+/**
+ * ElectrumX network support for querying Bitcoiny-related info like block headers, transaction outputs, etc.
+ * <p>
+ * Requests from concurrent callers share a small pool of connections, each able to carry many requests at once.
+ * Requests go to the connection with the best mix of recent response time and outstanding requests.
+ * Another server is only connected when all connections are busy. Consistently slow servers are dropped.
+ */
 public class ElectrumX extends BitcoinyBlockchainProvider {
 
 	private static final Logger LOGGER = LogManager.getLogger(ElectrumX.class);
@@ -41,6 +43,11 @@ public class ElectrumX extends BitcoinyBlockchainProvider {
 	private static final int RESPONSE_TIME_READINGS = 5;
 	private static final long MAX_AVG_RESPONSE_TIME = 500L; // ms
 
+	/** Maximum number of servers connected at once */
+	private static final int MAX_CONNECTIONS = 3;
+	/** Maximum number of requests sent in one JSON-RPC batch */
+	private static final int MAX_BATCH_SIZE = 50;
+
 	public static class Server {
 		String hostname;
 
@@ -56,14 +63,14 @@ public class ElectrumX extends BitcoinyBlockchainProvider {
 			this.port = port;
 		}
 
-		public void addResponseTime(long responseTime) {
+		public synchronized void addResponseTime(long responseTime) {
 			while (this.responseTimes.size() > RESPONSE_TIME_READINGS) {
 				this.responseTimes.remove(0);
 			}
 			this.responseTimes.add(responseTime);
 		}
 
-		public long averageResponseTime() {
+		public synchronized long averageResponseTime() {
 			if (this.responseTimes.size() < RESPONSE_TIME_READINGS) {
 				// Not enough readings yet
 				return 0L;
@@ -108,11 +115,22 @@ public class ElectrumX extends BitcoinyBlockchainProvider {
 	private final String expectedGenesisHash;
 	private final Map<Server.ConnectionType, Integer> defaultPorts = new EnumMap<>(Server.ConnectionType.class);
 
+	/** Guards servers and remainingServers */
 	private final Object serverLock = new Object();
-	private Server currentServer;
-	private Socket socket;
-	private Scanner scanner;
-	private int nextId = 1;
+	private final List<ElectrumXConnection> connections = new CopyOnWriteArrayList<>();
+	/** Only one thread connects to a new server at a time */
+	private final ReentrantLock connectLock = new ReentrantLock();
+
+	/** Result of RPC call, along with server that supplied it */
+	private static class ServerResponse {
+		final Server server;
+		final Object result;
+
+		ServerResponse(Server server, Object result) {
+			this.server = server;
+			this.result = result;
+		}
+	}
 
 	private static final int TX_CACHE_SIZE = 1000;
 	@SuppressWarnings("serial")
@@ -334,11 +352,11 @@ public class ElectrumX extends BitcoinyBlockchainProvider {
 		if (transaction != null)
 			return transaction;
 
-		Object transactionObj = null;
+		ServerResponse response = null;
 
 		do {
 			try {
-				transactionObj = this.rpc("blockchain.transaction.get", txHash, true);
+				response = this.serverRpc("blockchain.transaction.get", txHash, true);
 			} catch (ForeignBlockchainException.NetworkException e) {
 				// DaemonError({'code': -5, 'message': 'No such mempool or blockchain transaction. Use gettransaction for wallet transactions.'})
 				if (Integer.valueOf(-5).equals(e.getDaemonErrorCode()))
@@ -357,7 +375,9 @@ public class ElectrumX extends BitcoinyBlockchainProvider {
 
 				throw e;
 			}
-		} while (transactionObj == null);
+		} while (response == null);
+
+		Object transactionObj = response.result;
 
 		if (!(transactionObj instanceof JSONObject))
 			throw new ForeignBlockchainException.NetworkException("Expected JSONObject as response from ElectrumX blockchain.transaction.get RPC");
@@ -425,10 +445,8 @@ public class ElectrumX extends BitcoinyBlockchainProvider {
 				// Update: it turns out that they were just using a different key - "address" instead of "addresses"
 				// The code below can remain in place, just in case a peer returns a missing address in the future
 				if (addresses == null || addresses.isEmpty()) {
-					if (this.currentServer != null) {
-						this.uselessServers.add(this.currentServer);
-						this.closeServer(this.currentServer);
-					}
+					this.uselessServers.add(response.server);
+					this.closeServer(response.server);
 					LOGGER.info("No output addresses returned for transaction {}", txHash);
 					throw new ForeignBlockchainException(String.format("No output addresses returned for transaction %s", txHash));
 				}
@@ -461,6 +479,39 @@ public class ElectrumX extends BitcoinyBlockchainProvider {
 		Bytes.reverse(scriptHash);
 
 		Object transactionsJson = this.rpc("blockchain.scripthash.get_history", HashCode.fromBytes(scriptHash).toString());
+
+		return parseAddressTransactions(transactionsJson, includeUnconfirmed);
+	}
+
+	/**
+	 * Returns lists of transactions, relating to each passed payment script, using JSON-RPC batches.
+	 * <p>
+	 * @return list of related transactions for each script, in same order as <tt>scripts</tt>
+	 * @throws ForeignBlockchainException if error occurs
+	 */
+	@Override
+	public List<List<TransactionHash>> getAddressTransactions(List<byte[]> scripts, boolean includeUnconfirmed) throws ForeignBlockchainException {
+		List<List<TransactionHash>> addressTransactions = new ArrayList<>(scripts.size());
+
+		for (int batchStart = 0; batchStart < scripts.size(); batchStart += MAX_BATCH_SIZE) {
+			List<byte[]> batchScripts = scripts.subList(batchStart, Math.min(batchStart + MAX_BATCH_SIZE, scripts.size()));
+
+			List<Object[]> paramsList = new ArrayList<>(batchScripts.size());
+			for (byte[] script : batchScripts) {
+				byte[] scriptHash = Crypto.digest(script);
+				Bytes.reverse(scriptHash);
+
+				paramsList.add(new Object[] { HashCode.fromBytes(scriptHash).toString() });
+			}
+
+			for (Object transactionsJson : this.rpcBatch("blockchain.scripthash.get_history", paramsList))
+				addressTransactions.add(parseAddressTransactions(transactionsJson, includeUnconfirmed));
+		}
+
+		return addressTransactions;
+	}
+
+	private static List<TransactionHash> parseAddressTransactions(Object transactionsJson, boolean includeUnconfirmed) throws ForeignBlockchainException {
 		if (!(transactionsJson instanceof JSONArray))
 			throw new ForeignBlockchainException.NetworkException("Expected array output from ElectrumX blockchain.scripthash.get_history RPC");
 
@@ -499,15 +550,15 @@ public class ElectrumX extends BitcoinyBlockchainProvider {
 	// Class-private utility methods
 
 	/**
-	 * Query current server for its list of peer servers, and return those we can parse.
+	 * Query server for its list of peer servers, and return those we can parse.
 	 * <p>
 	 * @throws ForeignBlockchainException
 	 * @throws ClassCastException to be handled by caller
 	 */
-	private Set<Server> serverPeersSubscribe() throws ForeignBlockchainException {
+	private Set<Server> serverPeersSubscribe(ElectrumXConnection connection) throws ForeignBlockchainException {
 		Set<Server> newServers = new HashSet<>();
 
-		Object peers = this.connectedRpc("server.peers.subscribe");
+		Object peers = this.connectedRpc(connection, "server.peers.subscribe");
 
 		for (Object rawPeer : (JSONArray) peers) {
 			JSONArray peer = (JSONArray) rawPeer;
@@ -567,155 +618,259 @@ public class ElectrumX extends BitcoinyBlockchainProvider {
 	 * @throws ForeignBlockchainException if server returns error or something goes wrong
 	 */
 	private Object rpc(String method, Object...params) throws ForeignBlockchainException {
+		return this.serverRpc(method, params).result;
+	}
+
+	/**
+	 * Performs RPC call, with automatic reconnection to different server if needed.
+	 * <p>
+	 * @return "result" object from within JSON output, along with server that supplied it
+	 * @throws ForeignBlockchainException if server returns error or something goes wrong
+	 */
+	private ServerResponse serverRpc(String method, Object...params) throws ForeignBlockchainException {
+		this.refillRemainingServers();
+
+		ElectrumXConnection connection;
+		while ((connection = this.getConnection()) != null) {
+			Object response = this.connectedRpc(connection, method, params);
+
+			this.closeIfSlow(connection);
+
+			if (response != null)
+				return new ServerResponse(connection.getServer(), response);
+
+			// Didn't work, try another server...
+			this.closeConnection(connection);
+		}
+
+		// Failed to perform RPC - maybe lack of servers?
+		LOGGER.info("Error: No connected Electrum servers when trying to make RPC call");
+		throw new ForeignBlockchainException.NetworkException(String.format("Failed to perform ElectrumX RPC %s", method));
+	}
+
+	/**
+	 * Performs RPC calls as one JSON-RPC batch, with automatic reconnection to different server if needed.
+	 * <p>
+	 * @return "result" object from within JSON output for each entry in <tt>paramsList</tt>, in the same order
+	 * @throws ForeignBlockchainException if server returns error for any call, or something goes wrong
+	 */
+	private List<Object> rpcBatch(String method, List<Object[]> paramsList) throws ForeignBlockchainException {
+		this.refillRemainingServers();
+
+		ElectrumXConnection connection;
+		while ((connection = this.getConnection()) != null) {
+			List<JSONObject> responses = connection.batchRequest(method, paramsList);
+
+			if (responses != null) {
+				List<Object> results = new ArrayList<>(responses.size());
+
+				for (JSONObject responseJson : responses) {
+					Object result = this.extractResult(connection.getServer(), method, responseJson);
+					if (result == null)
+						break;
+
+					results.add(result);
+				}
+
+				if (results.size() == responses.size())
+					return results;
+			}
+
+			// Didn't work, try another server...
+			this.closeConnection(connection);
+		}
+
+		// Failed to perform RPC - maybe lack of servers?
+		LOGGER.info("Error: No connected Electrum servers when trying to make batch RPC call");
+		throw new ForeignBlockchainException.NetworkException(String.format("Failed to perform ElectrumX batch RPC %s", method));
+	}
+
+	private void refillRemainingServers() {
 		synchronized (this.serverLock) {
 			if (this.remainingServers.isEmpty())
 				this.remainingServers.addAll(this.servers);
+		}
+	}
 
-			while (haveConnection()) {
-				Object response = connectedRpc(method, params);
+	/**
+	 * Returns connection to use for next request, connecting to another server if needed, or null if no servers are available.
+	 * <p>
+	 * Another server is only connected if there are no connections, or all are busy and the pool isn't full.
+	 */
+	private ElectrumXConnection getConnection() {
+		ElectrumXConnection connection = this.chooseConnection();
+		if (connection != null && (connection.getInFlightCount() == 0 || this.connections.size() >= MAX_CONNECTIONS))
+			return connection;
 
-				// If we have more servers and this one replied slowly, try another
-				if (!this.remainingServers.isEmpty()) {
-					long averageResponseTime = this.currentServer.averageResponseTime();
-					if (averageResponseTime > MAX_AVG_RESPONSE_TIME) {
-						LOGGER.info("Slow average response time {}ms from {} - trying another server...", averageResponseTime, this.currentServer.hostname);
-						this.closeServer();
-						break;
-					}
-				}
+		if (connection == null)
+			this.connectLock.lock();
+		else if (!this.connectLock.tryLock())
+			// Another thread is already connecting, so make do with what we have
+			return connection;
+
+		try {
+			// Another thread might have connected while we were waiting
+			connection = this.chooseConnection();
+			if (connection != null && (connection.getInFlightCount() == 0 || this.connections.size() >= MAX_CONNECTIONS))
+				return connection;
+
+			ElectrumXConnection newConnection = this.connectNewServer();
+			return newConnection != null ? newConnection : connection;
+		} finally {
+			this.connectLock.unlock();
+		}
+	}
 
-				if (response != null)
-					return response;
+	/** Returns open connection with lowest expected wait, based on average response time and outstanding requests, or null if none. */
+	private ElectrumXConnection chooseConnection() {
+		ElectrumXConnection bestConnection = null;
+		long bestScore = Long.MAX_VALUE;
 
-				// Didn't work, try another server...
-				this.closeServer();
+		for (ElectrumXConnection connection : this.connections) {
+			if (connection.isClosed()) {
+				this.connections.remove(connection);
+				continue;
 			}
 
-			// Failed to perform RPC - maybe lack of servers?
-			LOGGER.info("Error: No connected Electrum servers when trying to make RPC call");
-			throw new ForeignBlockchainException.NetworkException(String.format("Failed to perform ElectrumX RPC %s", method));
+			// Unknown response time counts as fast, so new connections are given the requests needed to measure it
+			long score = (connection.getServer().averageResponseTime() + 1) * (connection.getInFlightCount() + 1);
+			if (score < bestScore) {
+				bestConnection = connection;
+				bestScore = score;
+			}
 		}
+
+		return bestConnection;
 	}
 
-	/** Returns true if we have, or create, a connection to an ElectrumX server. */
-	private boolean haveConnection() throws ForeignBlockchainException {
-		if (this.currentServer != null)
-			return true;
+	/** Returns new connection to an ElectrumX server not already connected, or null if none are available. */
+	private ElectrumXConnection connectNewServer() {
+		Server server;
+		while ((server = this.nextServer()) != null) {
+			ElectrumXConnection connection = this.connect(server);
 
-		while (!this.remainingServers.isEmpty()) {
-			Server server = this.remainingServers.remove(RANDOM.nextInt(this.remainingServers.size()));
-			LOGGER.trace(() -> String.format("Connecting to %s", server));
+			if (connection != null) {
+				this.connections.add(connection);
+				return connection;
+			}
+		}
 
-			try {
-				SocketAddress endpoint = new InetSocketAddress(server.hostname, server.port);
-				int timeout = 5000; // ms
+		return null;
+	}
 
-				this.socket = new Socket();
-				this.socket.connect(endpoint, timeout);
-				this.socket.setTcpNoDelay(true);
+	/** Removes, and returns, next server to try connecting to, or null if none remain. */
+	private Server nextServer() {
+		Set<Server> connectedServers = this.connections.stream().map(ElectrumXConnection::getServer).collect(Collectors.toSet());
 
-				if (server.connectionType == Server.ConnectionType.SSL) {
-					SSLSocketFactory factory = TrustlessSSLSocketFactory.getSocketFactory();
-					this.socket = factory.createSocket(this.socket, server.hostname, server.port, true);
-				}
+		synchronized (this.serverLock) {
+			this.remainingServers.removeIf(server -> this.uselessServers.contains(server) || connectedServers.contains(server));
 
-				this.scanner = new Scanner(this.socket.getInputStream());
-				this.scanner.useDelimiter("\n");
+			if (this.remainingServers.isEmpty())
+				return null;
 
-				// Check connection is suitable by asking for server features, including genesis block hash
-				JSONObject featuresJson = (JSONObject) this.connectedRpc("server.features");
+			// Prefer server that has been fast before...
+			Optional<Server> fastestServer = this.remainingServers.stream()
+					.filter(server -> server.averageResponseTime() > 0 && server.averageResponseTime() <= MAX_AVG_RESPONSE_TIME)
+					.min(Comparator.comparingLong(Server::averageResponseTime));
 
-				if (featuresJson == null || Double.valueOf((String) featuresJson.get("protocol_min")) < MIN_PROTOCOL_VERSION)
-					continue;
+			Server server;
+			if (fastestServer.isPresent()) {
+				server = fastestServer.get();
+			} else {
+				// ...otherwise pick any server that isn't known to be slow, if possible
+				List<Server> candidates = this.remainingServers.stream()
+						.filter(candidate -> candidate.averageResponseTime() <= MAX_AVG_RESPONSE_TIME)
+						.collect(Collectors.toList());
 
-				if (this.expectedGenesisHash != null && !((String) featuresJson.get("genesis_hash")).equals(this.expectedGenesisHash))
-					continue;
+				if (candidates.isEmpty())
+					candidates = this.remainingServers;
+
+				server = candidates.get(RANDOM.nextInt(candidates.size()));
+			}
+
+			this.remainingServers.remove(server);
+			return server;
+		}
+	}
+
+	/** Returns connection to <tt>server</tt> if it is suitable, or null otherwise. */
+	private ElectrumXConnection connect(Server server) {
+		LOGGER.trace(() -> String.format("Connecting to %s", server));
+
+		ElectrumXConnection connection = null;
+		try {
+			connection = ElectrumXConnection.connect(server, String.format("ElectrumX %s %s", this.netId, server));
+
+			// Check connection is suitable by asking for server features, including genesis block hash
+			JSONObject featuresJson = (JSONObject) this.connectedRpc(connection, "server.features");
+
+			if (featuresJson == null || Double.valueOf((String) featuresJson.get("protocol_min")) < MIN_PROTOCOL_VERSION) {
+				connection.close();
+				return null;
+			}
+
+			if (this.expectedGenesisHash != null && !((String) featuresJson.get("genesis_hash")).equals(this.expectedGenesisHash)) {
+				connection.close();
+				return null;
+			}
+
+			// Ask for more servers
+			Set<Server> moreServers = serverPeersSubscribe(connection);
 
-				// Ask for more servers
-				Set<Server> moreServers = serverPeersSubscribe();
+			synchronized (this.serverLock) {
 				// Discard duplicate servers we already know
 				moreServers.removeAll(this.servers);
 				// Add to both lists
 				this.remainingServers.addAll(moreServers);
 				this.servers.addAll(moreServers);
-
-				LOGGER.debug(() -> String.format("Connected to %s", server));
-				this.currentServer = server;
-				return true;
-			} catch (IOException | ForeignBlockchainException | ClassCastException | NullPointerException e) {
-				// Didn't work, try another server...
-				closeServer();
 			}
-		}
 
-		return false;
+			LOGGER.debug(() -> String.format("Connected to %s", server));
+			return connection;
+		} catch (IOException | ForeignBlockchainException | ClassCastException | NullPointerException e) {
+			// Didn't work, try another server...
+			if (connection != null)
+				connection.close();
+
+			return null;
+		}
 	}
 
 	/**
-	 * Perform RPC using currently connected server.
+	 * Perform RPC using passed connection.
 	 * <p>
+	 * @param connection
 	 * @param method
 	 * @param params
 	 * @return response Object, or null if server fails to respond
 	 * @throws ForeignBlockchainException if server returns error
 	 */
-	@SuppressWarnings("unchecked")
-	private Object connectedRpc(String method, Object...params) throws ForeignBlockchainException {
-		JSONObject requestJson = new JSONObject();
-		requestJson.put("id", this.nextId++);
-		requestJson.put("method", method);
-		requestJson.put("jsonrpc", "2.0");
-
-		JSONArray requestParams = new JSONArray();
-		requestParams.addAll(Arrays.asList(params));
-		requestJson.put("params", requestParams);
-
-		String request = requestJson.toJSONString() + "\n";
-		LOGGER.trace(() -> String.format("Request: %s", request));
-
-		long startTime = System.currentTimeMillis();
-		final String response;
-
-		try {
-			this.socket.getOutputStream().write(request.getBytes());
-			response = scanner.next();
-		} catch (IOException | NoSuchElementException e) {
+	private Object connectedRpc(ElectrumXConnection connection, String method, Object...params) throws ForeignBlockchainException {
+		JSONObject responseJson = connection.request(method, params);
+		if (responseJson == null)
 			// Unable to send, or receive -- try another server?
 			return null;
-		}
-
-		long endTime = System.currentTimeMillis();
-		long responseTime = endTime-startTime;
 
-		LOGGER.trace(() -> String.format("Response: %s", response));
-		LOGGER.trace(() -> String.format("Time taken: %dms", endTime-startTime));
-
-		if (response.isEmpty())
-			// Empty response - try another server?
-			return null;
-
-		Object responseObj = JSONValue.parse(response);
-		if (!(responseObj instanceof JSONObject))
-			// Unexpected response - try another server?
-			return null;
-
-		// Keep track of response times
-		if (this.currentServer != null) {
-			this.currentServer.addResponseTime(responseTime);
-		}
-
-		JSONObject responseJson = (JSONObject) responseObj;
+		return this.extractResult(connection.getServer(), method, responseJson);
+	}
 
+	/**
+	 * Extracts "result" from <tt>server</tt>'s response to RPC call.
+	 * <p>
+	 * @return result Object, or null if response is unusable
+	 * @throws ForeignBlockchainException if server returns error
+	 */
+	private Object extractResult(Server server, String method, JSONObject responseJson) throws ForeignBlockchainException {
 		Object errorObj = responseJson.get("error");
 		if (errorObj != null) {
 			if (errorObj instanceof String) {
-				LOGGER.debug(String.format("Unexpected error message from ElectrumX server %s for RPC method %s: %s", this.currentServer, method, (String) errorObj));
+				LOGGER.debug(String.format("Unexpected error message from ElectrumX server %s for RPC method %s: %s", server, method, (String) errorObj));
 				// Try another server
 				return null;
 			}
 
 			if (!(errorObj instanceof JSONObject)) {
-				LOGGER.debug(String.format("Unexpected error response from ElectrumX server %s for RPC method %s", this.currentServer, method));
+				LOGGER.debug(String.format("Unexpected error response from ElectrumX server %s for RPC method %s", server, method));
 				// Try another server
 				return null;
 			}
@@ -725,7 +880,7 @@ public class ElectrumX extends BitcoinyBlockchainProvider {
 			Object messageObj = errorJson.get("message");
 
 			if (!(messageObj instanceof String)) {
-				LOGGER.debug(String.format("Missing/invalid message in error response from ElectrumX server %s for RPC method %s", this.currentServer, method));
+				LOGGER.debug(String.format("Missing/invalid message in error response from ElectrumX server %s for RPC method %s", server, method));
 				// Try another server
 				return null;
 			}
@@ -739,44 +894,48 @@ public class ElectrumX extends BitcoinyBlockchainProvider {
 			if (messageMatcher.find())
 				try {
 					int daemonErrorCode = Integer.parseInt(messageMatcher.group(1));
-					throw new ForeignBlockchainException.NetworkException(daemonErrorCode, message, this.currentServer);
+					throw new ForeignBlockchainException.NetworkException(daemonErrorCode, message, server);
 				} catch (NumberFormatException e) {
 					// We couldn't parse the error code integer? Fall-through to generic exception...
 				}
 
-			throw new ForeignBlockchainException.NetworkException(message, this.currentServer);
+			throw new ForeignBlockchainException.NetworkException(message, server);
 		}
 
 		return responseJson.get("result");
 	}
 
-	/**
-	 * Closes connection to <tt>server</tt> if it is currently connected server.
-	 * @param server
-	 */
-	private void closeServer(Server server) {
-		synchronized (this.serverLock) {
-			if (this.currentServer == null || !this.currentServer.equals(server))
-				return;
+	/** Closes <tt>connection</tt> if its server has been replying slowly and we have other servers to use instead. */
+	private void closeIfSlow(ElectrumXConnection connection) {
+		long averageResponseTime = connection.getServer().averageResponseTime();
+		if (averageResponseTime <= MAX_AVG_RESPONSE_TIME)
+			return;
 
-			if (this.socket != null && !this.socket.isClosed())
-				try {
-					this.socket.close();
-				} catch (IOException e) {
-					// We did try...
-				}
+		boolean haveOtherServers;
+		synchronized (this.serverLock) {
+			haveOtherServers = this.connections.size() > 1
+					|| this.remainingServers.stream().anyMatch(server -> !server.equals(connection.getServer()) && !this.uselessServers.contains(server));
+		}
 
-			this.socket = null;
-			this.scanner = null;
-			this.currentServer = null;
+		if (haveOtherServers && this.connections.contains(connection)) {
+			LOGGER.info("Slow average response time {}ms from {} - trying another server...", averageResponseTime, connection.getServer().hostname);
+			this.closeConnection(connection);
 		}
 	}
 
-	/** Closes connection to currently connected server (if any). */
-	private void closeServer() {
-		synchronized (this.serverLock) {
-			this.closeServer(this.currentServer);
-		}
+	private void closeConnection(ElectrumXConnection connection) {
+		this.connections.remove(connection);
+		connection.close();
+	}
+
+	/**
+	 * Closes any connections to <tt>server</tt>.
+	 * @param server
+	 */
+	private void closeServer(Server server) {
+		for (ElectrumXConnection connection : this.connections)
+			if (connection.getServer().equals(server))
+				this.closeConnection(connection);
 	}
 
 }
@@ -0,0 +1,305 @@
+package org.qortal.crosschain;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLSocketFactory;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.qortal.crypto.TrustlessSSLSocketFactory;
+
+/**
+ * Single connection to an ElectrumX server, shared by many callers at once.
+ * <p>
+ * Each request is tagged with a connection-unique JSON-RPC id and written straight away, without waiting
+ * for earlier requests to be answered. A reader thread matches responses, which can arrive in any order,
+ * back to waiting callers by id. Server notifications, which have no id, are ignored.
+ * <p>
+ * Several requests can also be sent as one JSON-RPC batch, costing a single round-trip.
+ */
+/* package */ class ElectrumXConnection {
+
+	private static final Logger LOGGER = LogManager.getLogger(ElectrumXConnection.class);
+
+	private static final int CONNECT_TIMEOUT = 5000; // ms
+	private static final long RESPONSE_TIMEOUT = 30_000L; // ms
+
+	private final ElectrumX.Server server;
+	private final Socket socket;
+	private final OutputStream outputStream;
+	private final BufferedReader reader;
+
+	private final AtomicLong nextId = new AtomicLong(1);
+	private final Map<Long, CompletableFuture<JSONObject>> pendingResponses = new ConcurrentHashMap<>();
+	private final AtomicInteger inFlightCount = new AtomicInteger();
+
+	private volatile boolean isClosed = false;
+
+	private ElectrumXConnection(ElectrumX.Server server, Socket socket) throws IOException {
+		this.server = server;
+		this.socket = socket;
+		this.outputStream = socket.getOutputStream();
+		this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Opens connection to <tt>server</tt> and starts reading responses.
+	 * <p>
+	 * No requests are sent, so caller should check the server is suitable.
+	 */
+	/* package */ static ElectrumXConnection connect(ElectrumX.Server server, String threadName) throws IOException {
+		SocketAddress endpoint = new InetSocketAddress(server.hostname, server.port);
+
+		Socket socket = new Socket();
+		try {
+			socket.connect(endpoint, CONNECT_TIMEOUT);
+			socket.setTcpNoDelay(true);
+
+			if (server.connectionType == ElectrumX.Server.ConnectionType.SSL) {
+				SSLSocketFactory factory = TrustlessSSLSocketFactory.getSocketFactory();
+				socket = factory.createSocket(socket, server.hostname, server.port, true);
+			}
+
+			ElectrumXConnection connection = new ElectrumXConnection(server, socket);
+
+			Thread readerThread = new Thread(connection::readResponses, threadName);
+			readerThread.setDaemon(true);
+			readerThread.start();
+
+			return connection;
+		} catch (IOException e) {
+			try {
+				socket.close();
+			} catch (IOException e2) {
+				// We did try...
+			}
+
+			throw e;
+		}
+	}
+
+	/* package */ ElectrumX.Server getServer() {
+		return this.server;
+	}
+
+	/* package */ boolean isClosed() {
+		return this.isClosed;
+	}
+
+	/** Returns number of callers currently waiting for a response on this connection. */
+	/* package */ int getInFlightCount() {
+		return this.inFlightCount.get();
+	}
+
+	/**
+	 * Sends request and waits for response.
+	 * <p>
+	 * @return response JSON, or null if server fails to respond
+	 */
+	@SuppressWarnings("unchecked")
+	/* package */ JSONObject request(String method, Object... params) {
+		JSONObject requestJson = buildRequest(method, params);
+		long id = (Long) requestJson.get("id");
+
+		CompletableFuture<JSONObject> future = new CompletableFuture<>();
+		this.pendingResponses.put(id, future);
+
+		this.inFlightCount.incrementAndGet();
+		try {
+			long startTime = System.currentTimeMillis();
+
+			if (!this.send(requestJson.toJSONString()))
+				return null;
+
+			JSONObject responseJson = this.awaitResponse(future, RESPONSE_TIMEOUT);
+			if (responseJson == null)
+				return null;
+
+			long responseTime = System.currentTimeMillis() - startTime;
+			LOGGER.trace(() -> String.format("Time taken: %dms", responseTime));
+
+			// Keep track of response times
+			this.server.addResponseTime(responseTime);
+
+			return responseJson;
+		} finally {
+			this.pendingResponses.remove(id);
+			this.inFlightCount.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Sends JSON-RPC batch of <tt>method</tt> requests, one per entry in <tt>paramsList</tt>, and waits for all responses.
+	 * <p>
+	 * @return response JSON for each request, in same order as <tt>paramsList</tt>, or null if server fails to respond
+	 */
+	@SuppressWarnings("unchecked")
+	/* package */ List<JSONObject> batchRequest(String method, List<Object[]> paramsList) {
+		JSONArray batchJson = new JSONArray();
+		List<Long> ids = new ArrayList<>(paramsList.size());
+		List<CompletableFuture<JSONObject>> futures = new ArrayList<>(paramsList.size());
+
+		for (Object[] params : paramsList) {
+			JSONObject requestJson = buildRequest(method, params);
+			long id = (Long) requestJson.get("id");
+
+			CompletableFuture<JSONObject> future = new CompletableFuture<>();
+			this.pendingResponses.put(id, future);
+
+			batchJson.add(requestJson);
+			ids.add(id);
+			futures.add(future);
+		}
+
+		this.inFlightCount.incrementAndGet();
+		try {
+			if (!this.send(batchJson.toJSONString()))
+				return null;
+
+			// Batch responses arrive together, so one deadline covers the whole batch.
+			// Batch timings aren't recorded as they aren't comparable with single request response times.
+			long deadline = System.currentTimeMillis() + RESPONSE_TIMEOUT;
+
+			List<JSONObject> responses = new ArrayList<>(futures.size());
+			for (CompletableFuture<JSONObject> future : futures) {
+				JSONObject responseJson = this.awaitResponse(future, Math.max(1L, deadline - System.currentTimeMillis()));
+				if (responseJson == null)
+					return null;
+
+				responses.add(responseJson);
+			}
+
+			return responses;
+		} finally {
+			ids.forEach(this.pendingResponses::remove);
+			this.inFlightCount.decrementAndGet();
+		}
+	}
+
+	/** Closes connection. Any callers waiting for a response are given null. */
+	/* package */ void close() {
+		this.isClosed = true;
+
+		try {
+			this.socket.close();
+		} catch (IOException e) {
+			// We did try...
+		}
+
+		for (CompletableFuture<JSONObject> future : this.pendingResponses.values())
+			future.complete(null);
+	}
+
+	@SuppressWarnings("unchecked")
+	private JSONObject buildRequest(String method, Object... params) {
+		JSONObject requestJson = new JSONObject();
+		requestJson.put("id", this.nextId.getAndIncrement());
+		requestJson.put("method", method);
+		requestJson.put("jsonrpc", "2.0");
+
+		JSONArray requestParams = new JSONArray();
+		requestParams.addAll(Arrays.asList(params));
+		requestJson.put("params", requestParams);
+
+		return requestJson;
+	}
+
+	/** Writes request line to server. Returns false if unable to send. */
+	private boolean send(String request) {
+		if (this.isClosed)
+			return false;
+
+		LOGGER.trace(() -> String.format("Request to %s: %s", this.server, request));
+
+		byte[] requestBytes = (request + "\n").getBytes(StandardCharsets.UTF_8);
+
+		try {
+			// Requests from different callers mustn't interleave
+			synchronized (this.outputStream) {
+				this.outputStream.write(requestBytes);
+				this.outputStream.flush();
+			}
+
+			return true;
+		} catch (IOException e) {
+			// Unable to send -- try another server?
+			this.close();
+			return false;
+		}
+	}
+
+	private JSONObject awaitResponse(CompletableFuture<JSONObject> future, long timeout) {
+		try {
+			return future.get(timeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			return null;
+		} catch (TimeoutException e) {
+			LOGGER.debug(() -> String.format("Timed out waiting for response from ElectrumX server %s", this.server));
+			return null;
+		}
+	}
+
+	/** Reader thread: hands each response to the caller waiting for matching id. */
+	private void readResponses() {
+		try {
+			String line;
+			while ((line = this.reader.readLine()) != null) {
+				final String response = line;
+				LOGGER.trace(() -> String.format("Response from %s: %s", this.server, response));
+
+				if (response.isEmpty())
+					continue;
+
+				Object responseObj = JSONValue.parse(response);
+
+				if (responseObj instanceof JSONObject) {
+					this.dispatchResponse((JSONObject) responseObj);
+				} else if (responseObj instanceof JSONArray) {
+					// Batch response
+					for (Object entryObj : (JSONArray) responseObj)
+						if (entryObj instanceof JSONObject)
+							this.dispatchResponse((JSONObject) entryObj);
+				} else {
+					// Unexpected response - we can't tell who it's for, so give up on this server
+					LOGGER.debug(() -> String.format("Unexpected response from ElectrumX server %s", this.server));
+					break;
+				}
+			}
+		} catch (IOException e) {
+			// Connection lost, or closed by us
+		} finally {
+			this.close();
+		}
+	}
+
+	private void dispatchResponse(JSONObject responseJson) {
+		Object idObj = responseJson.get("id");
+
+		if (!(idObj instanceof Long)) {
+			// Notification (e.g. new block header following blockchain.headers.subscribe) that nobody is waiting for
+			return;
+		}
+
+		CompletableFuture<JSONObject> future = this.pendingResponses.get(idObj);
+		if (future != null)
+			future.complete(responseJson);
+	}
+
+}
@@ -0,0 +1,11 @@
+package org.qortal.event;
+
+/**
+ * Event that supersedes any older event of the same type.
+ * <p>
+ * Asynchronous listeners that only need the latest of these events can have older,
+ * still queued, events replaced by the newest, instead of processing each in turn.
+ */
+public interface CoalescableEvent extends Event {
+
+}
@@ -2,6 +2,9 @@ package org.qortal.event;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -11,18 +14,151 @@ public enum EventBus {
 
 	private static final Logger LOGGER = LogManager.getLogger(EventBus.class);
 
+	/** Maximum number of events waiting for each asynchronous listener */
+	private static final int ASYNC_QUEUE_SIZE = 1000;
+
 	private static final List<Listener> LISTENERS = new ArrayList<>();
+	private static final List<AsyncListener> ASYNC_LISTENERS = new ArrayList<>();
+
+	/** Listener with its own queue of events and thread to process them. */
+	private static class AsyncListener implements Runnable {
+		private final String name;
+		private final Listener listener;
+		private final boolean coalesceEvents;
+		private final BlockingQueue<Event> queue = new LinkedBlockingQueue<>(ASYNC_QUEUE_SIZE);
+		private final Thread thread;
+
+		private final AtomicLong eventsProcessed = new AtomicLong();
+		private final AtomicLong eventsCoalesced = new AtomicLong();
+		private final AtomicLong eventsDropped = new AtomicLong();
+		private final AtomicLong listenTime = new AtomicLong(); // ms
+		private final AtomicLong maxListenTime = new AtomicLong(); // ms
+
+		AsyncListener(String name, Listener listener, boolean coalesceEvents) {
+			this.name = name;
+			this.listener = listener;
+			this.coalesceEvents = coalesceEvents;
+
+			this.thread = new Thread(this, "EventBus " + name);
+			this.thread.setDaemon(true);
+		}
+
+		void enqueue(Event event) {
+			if (this.coalesceEvents && event instanceof CoalescableEvent) {
+				// Any older, still waiting, event of same type is superseded by this one
+				Class<? extends Event> eventClass = event.getClass();
+
+				if (this.queue.removeIf(queuedEvent -> queuedEvent.getClass() == eventClass))
+					this.eventsCoalesced.incrementAndGet();
+			}
+
+			if (!this.queue.offer(event)) {
+				// Don't hold up caller because listener can't keep up
+				this.eventsDropped.incrementAndGet();
+				LOGGER.debug(() -> String.format("Dropped %s for slow listener %s", event.getClass().getSimpleName(), this.name));
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (!Thread.currentThread().isInterrupted()) {
+					Event event = this.queue.take();
 
+					final long startTime = System.currentTimeMillis();
+					dispatch(this.listener, event);
+					final long duration = System.currentTimeMillis() - startTime;
+
+					this.eventsProcessed.incrementAndGet();
+					this.listenTime.addAndGet(duration);
+					this.maxListenTime.accumulateAndGet(duration, Math::max);
+				}
+			} catch (InterruptedException e) {
+				// Fall-through to exit
+			}
+		}
+
+		ListenerStats getStats() {
+			ListenerStats stats = new ListenerStats();
+
+			stats.name = this.name;
+			stats.queueSize = this.queue.size();
+			stats.eventsProcessed = this.eventsProcessed.get();
+			stats.eventsCoalesced = this.eventsCoalesced.get();
+			stats.eventsDropped = this.eventsDropped.get();
+			stats.averageListenTime = stats.eventsProcessed > 0 ? this.listenTime.get() / stats.eventsProcessed : 0;
+			stats.maxListenTime = this.maxListenTime.get();
+
+			return stats;
+		}
+	}
+
+	/** Snapshot of an asynchronous listener's activity since startup, for API */
+	public static class ListenerStats {
+		public String name;
+		public int queueSize;
+		public long eventsProcessed;
+		public long eventsCoalesced;
+		public long eventsDropped;
+		public long averageListenTime; // ms
+		public long maxListenTime; // ms
+
+		public ListenerStats() {
+		}
+	}
+
+	/** Adds listener that is called synchronously, by the thread calling {@link #notify(Event)}. */
 	public void addListener(Listener newListener) {
 		synchronized (LISTENERS) {
 			LISTENERS.add(newListener);
 		}
 	}
 
+	/**
+	 * Adds listener that is called asynchronously, by its own thread, so slow listeners don't hold up callers.
+	 * <p>
+	 * Events are passed to listener in the order they were notified, but if listener falls too far behind, newer events are dropped.
+	 *
+	 * @param name used to name listener's thread and in stats
+	 * @param coalesceEvents whether a {@link CoalescableEvent} can replace any older event of the same type still waiting,
+	 * i.e. whether listener only needs the latest of these events
+	 */
+	public void addAsyncListener(String name, Listener newListener, boolean coalesceEvents) {
+		AsyncListener asyncListener = new AsyncListener(name, newListener, coalesceEvents);
+
+		synchronized (ASYNC_LISTENERS) {
+			ASYNC_LISTENERS.add(asyncListener);
+		}
+
+		asyncListener.thread.start();
+	}
+
 	public void removeListener(Listener listener) {
 		synchronized (LISTENERS) {
 			LISTENERS.remove(listener);
 		}
+
+		synchronized (ASYNC_LISTENERS) {
+			ASYNC_LISTENERS.removeIf(asyncListener -> {
+				if (asyncListener.listener != listener)
+					return false;
+
+				asyncListener.thread.interrupt();
+				return true;
+			});
+		}
+	}
+
+	/** Stops all asynchronous listeners, discarding any events still waiting. */
+	public void shutdown() {
+		synchronized (ASYNC_LISTENERS) {
+			for (AsyncListener asyncListener : ASYNC_LISTENERS) {
+				asyncListener.thread.interrupt();
+				asyncListener.queue.clear();
+			}
+
+			ASYNC_LISTENERS.clear();
+		}
 	}
 
 	/**
@@ -46,6 +182,7 @@ public enum EventBus {
 	 * <li>New repository sessions are blocked pending completion of CHECKPOINT</li>
 	 * <li>Caller is blocked so never has a chance to close (SQL) transaction - hence deadlock</li>
 	 * </ul>
+	 * Asynchronous listeners are only queued the event here, so they don't add to caller's latency.
 	 */
 	public void notify(Event event) {
 		List<Listener> clonedListeners;
@@ -55,11 +192,32 @@ public enum EventBus {
 		}
 
 		for (Listener listener : clonedListeners)
-			try {
-				listener.listen(event);
-			} catch (Exception e) {
-				// We don't want one listener to break other listeners, or caller
-				LOGGER.warn(() -> String.format("Caught %s from a listener processing %s", e.getClass().getSimpleName(), event.getClass().getSimpleName()), e);
-			}
+			dispatch(listener, event);
+
+		synchronized (ASYNC_LISTENERS) {
+			for (AsyncListener asyncListener : ASYNC_LISTENERS)
+				asyncListener.enqueue(event);
+		}
+	}
+
+	/** Returns stats for each asynchronous listener. */
+	public List<ListenerStats> getListenerStats() {
+		List<ListenerStats> listenerStats = new ArrayList<>();
+
+		synchronized (ASYNC_LISTENERS) {
+			for (AsyncListener asyncListener : ASYNC_LISTENERS)
+				listenerStats.add(asyncListener.getStats());
+		}
+
+		return listenerStats;
+	}
+
+	private static void dispatch(Listener listener, Event event) {
+		try {
+			listener.listen(event);
+		} catch (Exception e) {
+			// We don't want one listener to break other listeners, or caller
+			LOGGER.warn(() -> String.format("Caught %s from a listener processing %s", e.getClass().getSimpleName(), event.getClass().getSimpleName()), e);
+		}
 	}
 }
@@ -1165,6 +1165,11 @@ public class Network {
     }
 
     public Message buildHeightMessage(Peer peer, BlockData blockData) {
+        return this.buildHeightMessage(blockData);
+    }
+
+    /** Builds height message suitable for all peers, so it can be serialized once when broadcast. */
+    public Message buildHeightMessage(BlockData blockData) {
         // HEIGHT_V2 contains way more useful info
         return new HeightV2Message(blockData.getHeight(), blockData.getSignature(),
                 blockData.getTimestamp(), blockData.getMinterPublicKey());
@@ -1496,6 +1501,13 @@ public class Network {
         }
     }
 
+    /**
+     * Sends message built by <tt>peerMessageBuilder</tt> to each handshaked peer, skipping peers for which it returns null.
+     * <p>
+     * Message data is serialized when the message is constructed and isn't copied when sent,
+     * so builders should return the same message instance for all peers where possible,
+     * e.g. <tt>peer -> message</tt>, so broadcasting serializes and checksums the message only once.
+     */
     public void broadcast(Function<Peer, Message> peerMessageBuilder) {
         for (Peer peer : getImmutableHandshakedPeers()) {
             if (this.isShuttingDown)
@@ -27,6 +27,7 @@ import java.nio.channels.SocketChannel;
 import java.security.SecureRandom;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -56,6 +57,16 @@ public class Peer {
      */
     private static final int PING_INTERVAL = 20_000; // ms
 
+    /**
+     * Number of consecutive unanswered GET_BLOCKS requests before we stop asking peer for runs of blocks.
+     */
+    private static final int MAX_GET_BLOCKS_FAILURES = 3;
+
+    /**
+     * Time to wait before trying GET_BLOCKS again with a peer that stopped answering them. (ms)
+     */
+    private static final long GET_BLOCKS_RETRY_INTERVAL = 5 * 60 * 1000L; // ms
+
     private volatile boolean isStopping = false;
 
     private SocketChannel socketChannel = null;
@@ -72,12 +83,17 @@ public class Peer {
 
     private final UUID peerConnectionId = UUID.randomUUID();
     private final Object byteBufferLock = new Object();
+    /** Inbound bytes, taken from {@link ReadBufferPool} unless a large message is being received */
     private ByteBuffer byteBuffer;
+    /** Total length of message at front of byteBuffer, once its header has arrived, otherwise -1 */
+    private int expectedMessageLength = -1;
     private Map<Integer, BlockingQueue<Message>> replyQueues;
     private LinkedBlockingQueue<Message> pendingMessages;
 
     private TransferQueue<Message> sendQueue;
-    private ByteBuffer outputBuffer;
+    /** Serialized message being sent: header then data, written using gathering writes */
+    private ByteBuffer[] outputBuffers;
+    private int outputMessageLength;
     private String outputMessageType;
     private int outputMessageId;
 
@@ -110,6 +126,15 @@ public class Peer {
 
     private boolean syncInProgress = false;
 
+    /**
+     * Consecutive GET_BLOCKS requests that peer failed to reply to, so we don't keep asking it for runs of blocks.
+     */
+    private final AtomicInteger getBlocksFailures = new AtomicInteger();
+    /**
+     * When peer last failed to reply to GET_BLOCKS. (ms)
+     */
+    private volatile long lastGetBlocksFailure = 0;
+
 
     /* Pending signature requests */
     private List<byte[]> pendingSignatureRequests = Collections.synchronizedList(new ArrayList<>());
@@ -373,6 +398,26 @@ public class Peer {
         this.syncInProgress = syncInProgress;
     }
 
+    /**
+     * Returns whether peer can be asked for runs of blocks using GET_BLOCKS.
+     * <p>
+     * False after several consecutive unanswered requests, until {@link #GET_BLOCKS_RETRY_INTERVAL} has passed.
+     */
+    public boolean isGetBlocksSupported() {
+        return this.getBlocksFailures.get() < MAX_GET_BLOCKS_FAILURES
+                || System.currentTimeMillis() - this.lastGetBlocksFailure >= GET_BLOCKS_RETRY_INTERVAL;
+    }
+
+    public void onGetBlocksReply() {
+        this.getBlocksFailures.set(0);
+    }
+
+    /** Records that peer failed to reply to GET_BLOCKS, returning whether we should stop sending GET_BLOCKS for now. */
+    public boolean onGetBlocksFailure() {
+        this.lastGetBlocksFailure = System.currentTimeMillis();
+        return this.getBlocksFailures.incrementAndGet() == MAX_GET_BLOCKS_FAILURES;
+    }
+
 
     // Pending signature requests
 
@@ -470,22 +515,29 @@ public class Peer {
         synchronized (this.byteBufferLock) {
             while (true) {
                 if (!this.socketChannel.isOpen() || this.socketChannel.socket().isClosed()) {
+                    this.releaseByteBuffer();
                     return;
                 }
 
                 // Do we need to allocate byteBuffer?
                 if (this.byteBuffer == null) {
-                    this.byteBuffer = ByteBuffer.allocate(Network.getInstance().getMaxMessageSize());
+                    this.byteBuffer = ReadBufferPool.acquire();
+                }
+
+                // Make room for whole of partially received message, now we know its length from its header
+                if (this.expectedMessageLength > this.byteBuffer.capacity()) {
+                    this.growByteBuffer(this.expectedMessageLength);
                 }
 
                 final int priorPosition = this.byteBuffer.position();
-                final int bytesRead = this.socketChannel.read(this.byteBuffer);
+                final int bytesRead = this.readIntoByteBuffer();
                 if (bytesRead == -1) {
                     if (priorPosition > 0) {
                         this.disconnect("EOF - read " + priorPosition + " bytes");
                     } else {
                         this.disconnect("EOF - failed to read any data");
                     }
+                    this.releaseByteBuffer();
                     return;
                 }
 
@@ -504,78 +556,164 @@ public class Peer {
                 }
                 final boolean wasByteBufferFull = !this.byteBuffer.hasRemaining();
 
+                // Read-only view of received bytes; position marks start of next unprocessed message
+                ByteBuffer readOnlyBuffer = this.byteBuffer.asReadOnlyBuffer().flip();
+
                 while (true) {
                     final Message message;
 
-                    // Can we build a message from buffer now?
-                    ByteBuffer readOnlyBuffer = this.byteBuffer.asReadOnlyBuffer().flip();
                     try {
-                        message = Message.fromByteBuffer(readOnlyBuffer);
-                    } catch (MessageException e) {
-                        LOGGER.debug("[{}] {}, from peer {}", this.peerConnectionId, e.getMessage(), this);
-                        this.disconnect(e.getMessage());
-                        return;
-                    }
-
-                    if (message == null && bytesRead == 0 && !wasByteBufferFull) {
-                        // No complete message in buffer, no more bytes to read from socket
-                        // even though there was room to read bytes
+                        // Only header is examined until whole message has arrived
+                        if (this.expectedMessageLength == -1) {
+                            this.expectedMessageLength = Message.getMessageLength(readOnlyBuffer);
+
+                            if (this.expectedMessageLength > Network.getInstance().getMaxMessageSize()) {
+                                throw new MessageException(String.format("Declared message length %d larger than max allowed %d",
+                                        this.expectedMessageLength, Network.getInstance().getMaxMessageSize()));
+                            }
+                        }
 
-                        /* DISABLED
-                        // If byteBuffer is empty then we can deallocate it, to save memory, albeit costing GC
-                        if (this.byteBuffer.remaining() == this.byteBuffer.capacity()) {
-                            this.byteBuffer = null;
+                        if (this.expectedMessageLength == -1 || readOnlyBuffer.remaining() < this.expectedMessageLength) {
+                            // No complete message in buffer
+                            break;
                         }
-                        */
 
+                        ByteBuffer messageBuffer = readOnlyBuffer.slice();
+                        messageBuffer.limit(this.expectedMessageLength);
+                        message = Message.fromByteBuffer(messageBuffer);
+
+                        if (message == null) {
+                            throw new MessageException("Unable to decode complete message");
+                        }
+                    } catch (MessageException e) {
+                        LOGGER.debug("[{}] {}, from peer {}", this.peerConnectionId, e.getMessage(), this);
+                        this.disconnect(e.getMessage());
+                        this.releaseByteBuffer();
                         return;
                     }
 
-                    if (message == null) {
-                        // No complete message in buffer, but maybe more bytes to read from socket
-                        break;
-                    }
+                    readOnlyBuffer.position(readOnlyBuffer.position() + this.expectedMessageLength);
+                    this.expectedMessageLength = -1;
 
                     LOGGER.trace("[{}] Received {} message with ID {} from peer {}", this.peerConnectionId,
                             message.getType().name(), message.getId(), this);
 
-                    // Tidy up buffers:
-                    this.byteBuffer.flip();
-                    // Read-only, flipped buffer's position will be after end of message, so copy that
-                    this.byteBuffer.position(readOnlyBuffer.position());
-                    // Copy bytes after read message to front of buffer,
-                    // adjusting position accordingly, reset limit to capacity
-                    this.byteBuffer.compact();
-
-                    // Unsupported message type? Discard with no further processing
-                    if (message.getType() == MessageType.UNSUPPORTED)
-                        continue;
-
-                    BlockingQueue<Message> queue = this.replyQueues.get(message.getId());
-                    if (queue != null) {
-                        // Adding message to queue will unblock thread waiting for response
-                        this.replyQueues.get(message.getId()).add(message);
-                        // Consumed elsewhere
-                        continue;
+                    if (!this.dispatchMessage(message)) {
+                        this.discardProcessedBytes(readOnlyBuffer.position());
+                        return;
                     }
+                }
 
-                    // No thread waiting for message so we need to pass it up to network layer
+                // Copy bytes of any partially received message to front of buffer, once per read
+                this.discardProcessedBytes(readOnlyBuffer.position());
 
-                    // Add message to pending queue
-                    if (!this.pendingMessages.offer(message)) {
-                        LOGGER.info("[{}] No room to queue message from peer {} - discarding",
-                                this.peerConnectionId, this);
-                        return;
+                if (bytesRead == 0 && !wasByteBufferFull) {
+                    // No complete message in buffer, no more bytes to read from socket
+                    // even though there was room to read bytes
+
+                    // If byteBuffer is empty then give it back to pool, to save memory while we're idle
+                    if (this.byteBuffer.position() == 0) {
+                        this.releaseByteBuffer();
                     }
 
-                    // Prematurely end any blocking channel select so that new messages can be processed.
-                    // This might cause this.socketChannel.read() above to return zero into bytesRead.
-                    Network.getInstance().wakeupChannelSelector();
+                    return;
                 }
+
+                // Maybe more bytes to read from socket
             }
         }
     }
 
+    /**
+     * Passes received message to thread waiting for it, or to network layer.
+     *
+     * @return false if message had to be discarded due to full pending queue
+     */
+    private boolean dispatchMessage(Message message) {
+        // Unsupported message type? Discard with no further processing
+        if (message.getType() == MessageType.UNSUPPORTED)
+            return true;
+
+        BlockingQueue<Message> queue = this.replyQueues.get(message.getId());
+        if (queue != null) {
+            // Adding message to queue will unblock thread waiting for response
+            queue.add(message);
+            // Consumed elsewhere
+            return true;
+        }
+
+        // No thread waiting for message so we need to pass it up to network layer
+
+        // Add message to pending queue
+        if (!this.pendingMessages.offer(message)) {
+            LOGGER.info("[{}] No room to queue message from peer {} - discarding",
+                    this.peerConnectionId, this);
+            return false;
+        }
+
+        // Prematurely end any blocking channel select so that new messages can be processed.
+        // This might cause this.socketChannel.read() above to return zero into bytesRead.
+        Network.getInstance().wakeupChannelSelector();
+        return true;
+    }
+
+    /** Removes <tt>processedLength</tt> bytes from front of byteBuffer, leaving it ready for more reads. */
+    private void discardProcessedBytes(int processedLength) {
+        if (processedLength == 0)
+            return;
+
+        this.byteBuffer.flip();
+        this.byteBuffer.position(processedLength);
+        this.byteBuffer.compact();
+
+        // Go back to a pooled buffer once a large message has been dealt with
+        if (this.byteBuffer.capacity() > ReadBufferPool.BUFFER_SIZE
+                && this.byteBuffer.position() <= ReadBufferPool.BUFFER_SIZE
+                && this.expectedMessageLength <= ReadBufferPool.BUFFER_SIZE) {
+            ByteBuffer largeBuffer = this.byteBuffer.flip();
+            this.byteBuffer = ReadBufferPool.acquire();
+            this.byteBuffer.put(largeBuffer);
+        }
+    }
+
+    /**
+     * Reads from socket into byteBuffer.
+     * <p>
+     * The JDK reads into heap buffers via a temporary direct buffer of the same size, which it caches per thread,
+     * so reads into large heap buffers are done in pooled-buffer-sized pieces.
+     */
+    private int readIntoByteBuffer() throws IOException {
+        if (this.byteBuffer.isDirect()) {
+            return this.socketChannel.read(this.byteBuffer);
+        }
+
+        final int limit = this.byteBuffer.limit();
+        this.byteBuffer.limit(Math.min(limit, this.byteBuffer.position() + ReadBufferPool.BUFFER_SIZE));
+        try {
+            return this.socketChannel.read(this.byteBuffer);
+        } finally {
+            this.byteBuffer.limit(limit);
+        }
+    }
+
+    private void growByteBuffer(int minimumCapacity) {
+        int newCapacity = Math.min(Math.max(minimumCapacity, this.byteBuffer.capacity() * 2), Network.getInstance().getMaxMessageSize());
+
+        // Large buffers are on the heap, as direct memory is only reclaimed on GC,
+        // so allocating one per large message from hundreds of peers could exhaust it
+        ByteBuffer oldBuffer = this.byteBuffer.flip();
+        this.byteBuffer = ByteBuffer.allocate(newCapacity);
+        this.byteBuffer.put(oldBuffer);
+
+        ReadBufferPool.release(oldBuffer);
+    }
+
+    private void releaseByteBuffer() {
+        ReadBufferPool.release(this.byteBuffer);
+        this.byteBuffer = null;
+        this.expectedMessageLength = -1;
+    }
+
     /** Maybe send some pending outgoing messages.
      *
      * @return true if more data is pending to be sent
@@ -584,8 +722,8 @@ public class Peer {
         // It is the responsibility of ChannelWriteTask's producer to produce only one call to writeChannel() at a time
 
         while (true) {
-            // If output byte buffer is null, fetch next message from queue (if any)
-            while (this.outputBuffer == null) {
+            // If output byte buffers are null, fetch next message from queue (if any)
+            while (this.outputBuffers == null) {
                 Message message;
 
                 try {
@@ -603,7 +741,11 @@ public class Peer {
                     return false;
 
                 try {
-                    this.outputBuffer = ByteBuffer.wrap(message.toBytes());
+                    // Message's data isn't copied, so broadcasting the same message to many peers only serializes it once
+                    this.outputBuffers = message.toByteBuffers();
+                    this.outputMessageLength = 0;
+                    for (ByteBuffer outputBuffer : this.outputBuffers)
+                        this.outputMessageLength += outputBuffer.remaining();
                     this.outputMessageType = message.getType().name();
                     this.outputMessageId = message.getId();
 
@@ -616,22 +758,23 @@ public class Peer {
                 }
             }
 
-            // If output byte buffer is not null, send from that
-            int bytesWritten = this.socketChannel.write(outputBuffer);
+            // If output byte buffers are not null, send from those
+            long bytesWritten = this.socketChannel.write(this.outputBuffers);
 
             LOGGER.trace("[{}] Sent {} bytes of {} message with ID {} to peer {} ({} total)", this.peerConnectionId,
-                    bytesWritten, this.outputMessageType, this.outputMessageId, this, outputBuffer.limit());
+                    bytesWritten, this.outputMessageType, this.outputMessageId, this, this.outputMessageLength);
 
             // If we've sent 0 bytes then socket buffer is full so we need to wait until it's empty again
             if (bytesWritten == 0) {
                 return true;
             }
 
-            // If we then exhaust the byte buffer, set it to null (otherwise loop and try to send more)
-            if (!this.outputBuffer.hasRemaining()) {
+            // If we then exhaust the byte buffers, set them to null (otherwise loop and try to send more)
+            if (!this.outputBuffers[this.outputBuffers.length - 1].hasRemaining()) {
                 this.outputMessageType = null;
                 this.outputMessageId = 0;
-                this.outputBuffer = null;
+                this.outputMessageLength = 0;
+                this.outputBuffers = null;
             }
         }
     }
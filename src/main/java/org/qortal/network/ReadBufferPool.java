@@ -0,0 +1,53 @@
+package org.qortal.network;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared pool of direct buffers for reading inbound peer messages.
+ * <p>
+ * Most messages are small, so peers read into a {@link #BUFFER_SIZE} buffer taken from this pool,
+ * only switching to a larger, unpooled, heap buffer when a message header announces a larger payload.
+ * <p>
+ * Buffers are given back when a peer has no partially received message, so idle peers hold no buffer at all.
+ */
+/* package */ class ReadBufferPool {
+
+	/** Size of pooled buffers, enough for nearly all messages apart from blocks and data chunks */
+	/* package */ static final int BUFFER_SIZE = 64 * 1024; // bytes
+
+	/** Maximum number of idle buffers kept for reuse */
+	private static final int MAX_POOLED_BUFFERS = 64;
+
+	private static final ConcurrentLinkedDeque<ByteBuffer> pool = new ConcurrentLinkedDeque<>();
+	private static final AtomicInteger pooledCount = new AtomicInteger();
+
+	private ReadBufferPool() {
+	}
+
+	/** Returns cleared buffer of {@link #BUFFER_SIZE} bytes. */
+	/* package */ static ByteBuffer acquire() {
+		ByteBuffer buffer = pool.pollFirst();
+		if (buffer == null)
+			return ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+		pooledCount.decrementAndGet();
+		return buffer;
+	}
+
+	/** Returns buffer to pool, unless it isn't a pooled size or pool is full. Caller must not use buffer afterwards. */
+	/* package */ static void release(ByteBuffer buffer) {
+		if (buffer == null || buffer.capacity() != BUFFER_SIZE || !buffer.isDirect())
+			return;
+
+		if (pooledCount.incrementAndGet() > MAX_POOLED_BUFFERS) {
+			pooledCount.decrementAndGet();
+			return;
+		}
+
+		buffer.clear();
+		pool.offerFirst(buffer);
+	}
+
+}
@@ -0,0 +1,150 @@
+package org.qortal.network.message;
+
+import com.google.common.primitives.Ints;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.qortal.block.Block;
+import org.qortal.block.BlockChain;
+import org.qortal.transform.TransformationException;
+import org.qortal.transform.Transformer;
+import org.qortal.transform.block.BlockTransformation;
+import org.qortal.transform.block.BlockTransformer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Consecutive blocks, in response to GET_BLOCKS.
+ * <p>
+ * Each block is preceded by its height, serialization format and length.
+ * Blocks from the repository are sent in V2 format (AT states hash), same as BLOCK_V2,
+ * whereas blocks from the archive are sent as stored, in V1 format (AT states), same as BLOCK.
+ */
+public class BlocksMessage extends Message {
+
+	private static final Logger LOGGER = LogManager.getLogger(BlocksMessage.class);
+	public static final long MIN_PEER_VERSION = 0x300050000L; // 3.5.0
+
+	private static final byte FORMAT_V1 = 1;
+	private static final byte FORMAT_V2 = 2;
+
+	private static final int COUNT_LENGTH = Transformer.INT_LENGTH;
+	private static final int ENTRY_HEADER_LENGTH = Transformer.INT_LENGTH + Transformer.BYTE_LENGTH + Transformer.INT_LENGTH;
+
+	/** Message header bytes not already allowed for by Network's max message size */
+	private static final int MESSAGE_HEADER_ALLOWANCE = 12;
+
+	private List<BlockTransformation> blockTransformations;
+
+	/**
+	 * @param serializedBlocks blocks from {@link #serializeBlock(Block)} or {@link #serializeArchivedBlock(int, byte[])}
+	 */
+	public BlocksMessage(List<byte[]> serializedBlocks) {
+		super(MessageType.BLOCKS);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		try {
+			bytes.write(Ints.toByteArray(serializedBlocks.size()));
+
+			for (byte[] serializedBlock : serializedBlocks)
+				bytes.write(serializedBlock);
+		} catch (IOException e) {
+			throw new AssertionError("IOException shouldn't occur with ByteArrayOutputStream");
+		}
+
+		this.dataBytes = bytes.toByteArray();
+		this.checksumBytes = Message.generateChecksum(this.dataBytes);
+	}
+
+	private BlocksMessage(int id, List<BlockTransformation> blockTransformations) {
+		super(id, MessageType.BLOCKS);
+
+		this.blockTransformations = blockTransformations;
+	}
+
+	/** Returns blocks, in chain order, with heights set. */
+	public List<BlockTransformation> getBlockTransformations() {
+		return this.blockTransformations;
+	}
+
+	/** Serializes block from repository, ready for inclusion in outgoing message. */
+	public static byte[] serializeBlock(Block block) throws TransformationException {
+		return serializeEntry(block.getBlockData().getHeight(), FORMAT_V2, BlockTransformer.toBytesV2(block));
+	}
+
+	/** Serializes block bytes from archive, ready for inclusion in outgoing message. */
+	public static byte[] serializeArchivedBlock(int height, byte[] blockBytes) {
+		return serializeEntry(height, FORMAT_V1, blockBytes);
+	}
+
+	private static byte[] serializeEntry(int height, byte format, byte[] blockBytes) {
+		ByteBuffer entry = ByteBuffer.allocate(ENTRY_HEADER_LENGTH + blockBytes.length);
+
+		entry.putInt(height);
+		entry.put(format);
+		entry.putInt(blockBytes.length);
+		entry.put(blockBytes);
+
+		return entry.array();
+	}
+
+	/** Returns max combined length of serialized blocks that will fit into one message. */
+	public static int getMaxBlocksLength() {
+		return BlockChain.getInstance().getMaxBlockSize() - MESSAGE_HEADER_ALLOWANCE - COUNT_LENGTH;
+	}
+
+	public static Message fromByteBuffer(int id, ByteBuffer byteBuffer) throws MessageException {
+		try {
+			int count = byteBuffer.getInt();
+
+			// Every block needs at least its entry header, so don't trust count beyond that
+			if (count < 0 || count > byteBuffer.remaining() / ENTRY_HEADER_LENGTH)
+				throw new MessageException(String.format("Invalid block count %d", count));
+
+			List<BlockTransformation> blockTransformations = new ArrayList<>(count);
+
+			for (int i = 0; i < count; ++i) {
+				int height = byteBuffer.getInt();
+				byte format = byteBuffer.get();
+				int length = byteBuffer.getInt();
+
+				if (length < 0 || length > byteBuffer.remaining())
+					throw new MessageException(String.format("Invalid block length %d", length));
+
+				ByteBuffer blockBuffer = byteBuffer.slice();
+				blockBuffer.limit(length);
+
+				BlockTransformation blockTransformation;
+				switch (format) {
+					case FORMAT_V1:
+						blockTransformation = BlockTransformer.fromByteBuffer(blockBuffer);
+						break;
+
+					case FORMAT_V2:
+						blockTransformation = BlockTransformer.fromByteBufferV2(blockBuffer);
+						break;
+
+					default:
+						throw new MessageException(String.format("Unknown block format %d", format));
+				}
+
+				blockTransformation.getBlockData().setHeight(height);
+				blockTransformations.add(blockTransformation);
+
+				byteBuffer.position(byteBuffer.position() + length);
+			}
+
+			return new BlocksMessage(id, Collections.unmodifiableList(blockTransformations));
+		} catch (TransformationException | BufferUnderflowException e) {
+			LOGGER.info(String.format("Received garbled BLOCKS message: %s", e.getMessage()));
+			throw new MessageException(e.getMessage(), e);
+		}
+	}
+
+}
@@ -0,0 +1,146 @@
+package org.qortal.network.message;
+
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+import org.qortal.transform.Transformer;
+import org.qortal.utils.InvertibleBloomLookupTable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * For requesting online accounts info from remote peer, given our list of online accounts.
+ * <p></p>
+ * Same as V3, with the addition of an invertible Bloom lookup table of public keys per timestamp,
+ * so that peer can work out exactly which accounts we're missing, rather than sending every account
+ * with the same leading byte. Peer falls back to V3-style leading-byte hashes if the difference is too large.
+ * <p></p>
+ * V4 is: groups of: timestamp, number of entries (one per leading byte), then hash(pubkeys) for each entry,
+ * then number of table cells (0 if none), then count + XOR(pubkeys) + XOR(pubkey hashes) for each cell
+ * <p></p>
+ * End
+ */
+public class GetOnlineAccountsV4Message extends Message {
+
+	/**
+	 * Twice the size of the tables we send, to avoid peers making us allocate lots of memory,
+	 * or spend lots of time listing differences, as that can cost O(cells&sup2;) digests.
+	 */
+	private static final int MAX_CELL_COUNT = 120;
+
+	private static final Map<Long, Map<Byte, byte[]>> EMPTY_ONLINE_ACCOUNTS = Collections.emptyMap();
+	private static final Map<Long, InvertibleBloomLookupTable> EMPTY_TABLES = Collections.emptyMap();
+
+	private Map<Long, Map<Byte, byte[]>> hashesByTimestampThenByte;
+	private Map<Long, InvertibleBloomLookupTable> tablesByTimestamp;
+
+	public GetOnlineAccountsV4Message(Map<Long, Map<Byte, byte[]>> hashesByTimestampThenByte, Map<Long, InvertibleBloomLookupTable> tablesByTimestamp) {
+		super(MessageType.GET_ONLINE_ACCOUNTS_V4);
+
+		// If we don't have ANY online accounts then it's an easier construction...
+		if (hashesByTimestampThenByte.isEmpty()) {
+			this.dataBytes = EMPTY_DATA_BYTES;
+			return;
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		// Warning: no double-checking/fetching! We must be ConcurrentMap compatible.
+		// So no contains() then get() or multiple get()s on the same key/map.
+		try {
+			for (var outerMapEntry : hashesByTimestampThenByte.entrySet()) {
+				Long timestamp = outerMapEntry.getKey();
+				bytes.write(Longs.toByteArray(timestamp));
+
+				var innerMap = outerMapEntry.getValue();
+
+				// Number of entries: 1 - 256, where 256 is represented by 0
+				bytes.write(innerMap.size() & 0xFF);
+
+				for (byte[] hashBytes : innerMap.values()) {
+					bytes.write(hashBytes);
+				}
+
+				InvertibleBloomLookupTable table = tablesByTimestamp.get(timestamp);
+				if (table == null || table.getKeyLength() != Transformer.PUBLIC_KEY_LENGTH) {
+					bytes.write(Ints.toByteArray(0));
+					continue;
+				}
+
+				bytes.write(Ints.toByteArray(table.getCellCount()));
+				bytes.write(table.toBytes());
+			}
+		} catch (IOException e) {
+			throw new AssertionError("IOException shouldn't occur with ByteArrayOutputStream");
+		}
+
+		this.dataBytes = bytes.toByteArray();
+		this.checksumBytes = Message.generateChecksum(this.dataBytes);
+	}
+
+	private GetOnlineAccountsV4Message(int id, Map<Long, Map<Byte, byte[]>> hashesByTimestampThenByte, Map<Long, InvertibleBloomLookupTable> tablesByTimestamp) {
+		super(id, MessageType.GET_ONLINE_ACCOUNTS_V4);
+
+		this.hashesByTimestampThenByte = hashesByTimestampThenByte;
+		this.tablesByTimestamp = tablesByTimestamp;
+	}
+
+	public Map<Long, Map<Byte, byte[]>> getHashesByTimestampThenByte() {
+		return this.hashesByTimestampThenByte;
+	}
+
+	/** Returns peer's lookup tables, keyed by timestamp. Timestamps without a table are omitted. */
+	public Map<Long, InvertibleBloomLookupTable> getTablesByTimestamp() {
+		return this.tablesByTimestamp;
+	}
+
+	public static Message fromByteBuffer(int id, ByteBuffer bytes) throws MessageException {
+		// 'empty' case
+		if (!bytes.hasRemaining()) {
+			return new GetOnlineAccountsV4Message(id, EMPTY_ONLINE_ACCOUNTS, EMPTY_TABLES);
+		}
+
+		Map<Long, Map<Byte, byte[]>> hashesByTimestampThenByte = new HashMap<>();
+		Map<Long, InvertibleBloomLookupTable> tablesByTimestamp = new HashMap<>();
+
+		try {
+			while (bytes.hasRemaining()) {
+				long timestamp = bytes.getLong();
+
+				int hashCount = bytes.get();
+				if (hashCount <= 0)
+					// 256 is represented by 0.
+					// Also converts negative signed value (e.g. -1) to proper positive unsigned value (255)
+					hashCount += 256;
+
+				Map<Byte, byte[]> hashesByByte = new HashMap<>();
+
+				for (int i = 0; i < hashCount; ++i) {
+					byte[] publicKeyHash = new byte[Transformer.PUBLIC_KEY_LENGTH];
+					bytes.get(publicKeyHash);
+
+					hashesByByte.put(publicKeyHash[0], publicKeyHash);
+				}
+
+				hashesByTimestampThenByte.put(timestamp, hashesByByte);
+
+				int cellCount = bytes.getInt();
+				if (cellCount == 0)
+					continue;
+
+				if (cellCount < 0 || cellCount > MAX_CELL_COUNT || cellCount % InvertibleBloomLookupTable.HASH_COUNT != 0)
+					throw new MessageException(String.format("Invalid lookup table cell count %d", cellCount));
+
+				tablesByTimestamp.put(timestamp, InvertibleBloomLookupTable.fromByteBuffer(bytes, cellCount, Transformer.PUBLIC_KEY_LENGTH));
+			}
+		} catch (BufferUnderflowException e) {
+			throw new MessageException("Truncated online accounts lookup tables", e);
+		}
+
+		return new GetOnlineAccountsV4Message(id, hashesByTimestampThenByte, tablesByTimestamp);
+	}
+
+}
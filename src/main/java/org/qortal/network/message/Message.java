@@ -3,10 +3,6 @@ package org.qortal.network.message;
 import org.qortal.crypto.Crypto;
 import org.qortal.network.Network;
 
-import com.google.common.primitives.Ints;
-
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
@@ -83,6 +79,66 @@ public abstract class Message {
 		return this.type;
 	}
 
+	/** Returns length of message's serialized data, excluding header. */
+	public int getDataLength() {
+		return this.dataBytes.length;
+	}
+
+	/**
+	 * Returns total length of message at buffer's position, using only message's header.
+	 * <p>
+	 * This allows caller to wait until whole message has arrived, without repeatedly trying
+	 * to decode an incomplete message. Buffer's position is not changed.
+	 * 
+	 * @param readOnlyBuffer ByteBuffer containing bytes read from network
+	 * @return total length of message, including header, or -1 if buffer doesn't contain complete header yet
+	 * @throws MessageException if header is invalid
+	 */
+	public static int getMessageLength(ByteBuffer readOnlyBuffer) throws MessageException {
+		final int start = readOnlyBuffer.position();
+		int offset = start;
+
+		if (readOnlyBuffer.limit() - offset < MAGIC_LENGTH + TYPE_LENGTH + HAS_ID_LENGTH)
+			return -1;
+
+		byte[] messageMagic = Network.getInstance().getMessageMagic();
+		for (int i = 0; i < MAGIC_LENGTH; ++i)
+			if (readOnlyBuffer.get(offset + i) != messageMagic[i])
+				// Didn't receive correct Message "magic"
+				throw new MessageException("Received incorrect message 'magic'");
+
+		offset += MAGIC_LENGTH + TYPE_LENGTH;
+
+		byte hasId = readOnlyBuffer.get(offset);
+		offset += HAS_ID_LENGTH;
+
+		if (hasId != 0) {
+			if (readOnlyBuffer.limit() - offset < ID_LENGTH)
+				return -1;
+
+			if (readOnlyBuffer.getInt(offset) <= 0)
+				// Invalid ID
+				throw new MessageException("Invalid negative ID");
+
+			offset += ID_LENGTH;
+		}
+
+		if (readOnlyBuffer.limit() - offset < DATA_SIZE_LENGTH)
+			return -1;
+
+		int dataSize = readOnlyBuffer.getInt(offset);
+		offset += DATA_SIZE_LENGTH;
+
+		if (dataSize > MAX_DATA_SIZE)
+			// Too large
+			throw new MessageException(String.format("Declared data length %d larger than max allowed %d", dataSize, MAX_DATA_SIZE));
+
+		if (dataSize > 0)
+			offset += CHECKSUM_LENGTH + dataSize;
+
+		return offset - start;
+	}
+
 	/**
 	 * Attempt to read a message from byte buffer.
 	 * 
@@ -171,43 +227,65 @@ public abstract class Message {
 	}
 
 	public byte[] toBytes() throws MessageException {
+		ByteBuffer[] byteBuffers = this.toByteBuffers();
+
+		int messageLength = 0;
+		for (ByteBuffer byteBuffer : byteBuffers)
+			messageLength += byteBuffer.remaining();
+
+		ByteBuffer bytes = ByteBuffer.allocate(messageLength);
+		for (ByteBuffer byteBuffer : byteBuffers)
+			bytes.put(byteBuffer);
+
+		return bytes.array();
+	}
+
+	/**
+	 * Returns serialized message as header buffer, followed by data buffer if message has data, suitable for gathering writes.
+	 * <p>
+	 * Only the small header, which includes the message ID, is built per call.
+	 * The data buffer is a read-only view of this message's already serialized, and checksummed, data.
+	 * So the same message instance can be sent to many peers, e.g. when broadcasting,
+	 * without serializing or copying its data again.
+	 * <p>
+	 * Each call returns new buffers, so they can be consumed independently.
+	 */
+	public ByteBuffer[] toByteBuffers() throws MessageException {
 		checkValidOutgoing();
 
 		// We can calculate exact length
-		int messageLength = MAGIC_LENGTH + TYPE_LENGTH + HAS_ID_LENGTH;
-		messageLength += this.hasId() ? ID_LENGTH : 0;
-		messageLength += DATA_SIZE_LENGTH + this.dataBytes.length > 0 ? CHECKSUM_LENGTH + this.dataBytes.length : 0;
+		int headerLength = MAGIC_LENGTH + TYPE_LENGTH + HAS_ID_LENGTH;
+		headerLength += this.hasId() ? ID_LENGTH : 0;
+		headerLength += DATA_SIZE_LENGTH;
+		headerLength += this.dataBytes.length > 0 ? CHECKSUM_LENGTH : 0;
 
+		int messageLength = headerLength + this.dataBytes.length;
 		if (messageLength > MAX_DATA_SIZE)
 			throw new MessageException(String.format("About to send message with length %d larger than allowed %d", messageLength, MAX_DATA_SIZE));
 
-		try {
-			ByteArrayOutputStream bytes = new ByteArrayOutputStream(messageLength);
+		ByteBuffer header = ByteBuffer.allocate(headerLength);
 
-			// Magic
-			bytes.write(Network.getInstance().getMessageMagic());
+		// Magic
+		header.put(Network.getInstance().getMessageMagic());
 
-			bytes.write(Ints.toByteArray(this.type.value));
+		header.putInt(this.type.value);
 
-			if (this.hasId()) {
-				bytes.write(1);
+		if (this.hasId()) {
+			header.put((byte) 1);
 
-				bytes.write(Ints.toByteArray(this.id));
-			} else {
-				bytes.write(0);
-			}
+			header.putInt(this.id);
+		} else {
+			header.put((byte) 0);
+		}
 
-			bytes.write(Ints.toByteArray(this.dataBytes.length));
+		header.putInt(this.dataBytes.length);
 
-			if (this.dataBytes.length > 0) {
-				bytes.write(this.checksumBytes);
-				bytes.write(this.dataBytes);
-			}
+		if (this.dataBytes.length == 0)
+			return new ByteBuffer[] { header.flip() };
 
-			return bytes.toByteArray();
-		} catch (IOException e) {
-			throw new MessageException("Failed to serialize message", e);
-		}
+		header.put(this.checksumBytes);
+
+		return new ByteBuffer[] { header.flip(), ByteBuffer.wrap(this.dataBytes).asReadOnlyBuffer() };
 	}
 
 	public static <M extends Message> M cloneWithNewId(M message, int newId) {
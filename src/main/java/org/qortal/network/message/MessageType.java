@@ -48,12 +48,13 @@ public enum MessageType {
     GET_ONLINE_ACCOUNTS_V2(83, GetOnlineAccountsV2Message::fromByteBuffer),
     // ONLINE_ACCOUNTS_V3(84, OnlineAccountsV3Message::fromByteBuffer),
     GET_ONLINE_ACCOUNTS_V3(85, GetOnlineAccountsV3Message::fromByteBuffer),
+    GET_ONLINE_ACCOUNTS_V4(86, GetOnlineAccountsV4Message::fromByteBuffer),
 
     ARBITRARY_DATA(90, ArbitraryDataMessage::fromByteBuffer),
     GET_ARBITRARY_DATA(91, GetArbitraryDataMessage::fromByteBuffer),
 
-    BLOCKS(100, null), // unsupported
-    GET_BLOCKS(101, null), // unsupported
+    BLOCKS(100, BlocksMessage::fromByteBuffer),
+    GET_BLOCKS(101, GetBlocksMessage::fromByteBuffer),
 
     ARBITRARY_DATA_FILE(110, ArbitraryDataFileMessage::fromByteBuffer),
     GET_ARBITRARY_DATA_FILE(111, GetArbitraryDataFileMessage::fromByteBuffer),
@@ -25,6 +25,16 @@ public interface ATRepository {
 	/** Returns list of executable ATs, empty if none found */
 	public List<ATData> getAllExecutableATs() throws DataException;
 
+	/**
+	 * Returns list of executable ATs that could run at passed block height, ordered by creation, empty if none found.
+	 * <p>
+	 * Omits ATs that are sleeping until a later height, and aren't frozen or waiting for a message,
+	 * as running them would leave their state unchanged.
+	 * <p>
+	 * Code bytes are <b>not</b> loaded, only code hashes. Use {@link org.qortal.at.ATCodeCache} to obtain code bytes.
+	 */
+	public List<ATData> getExecutableATs(int blockHeight) throws DataException;
+
 	/** Returns list of ATs with matching code hash, optionally executable only. */
 	public List<ATData> getATsByFunctionality(byte[] codeHash, Boolean isExecutable, Integer limit, Integer offset, Boolean reverse) throws DataException;
 
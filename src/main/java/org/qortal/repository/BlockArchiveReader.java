@@ -17,17 +17,126 @@ import static org.qortal.transform.Transformer.INT_LENGTH;
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class BlockArchiveReader {
 
     private static BlockArchiveReader instance;
-    private Map<String, Triple<Integer, Integer, Integer>> fileListCache;
+    /** Archive files keyed by start height; values are filename, start height, end height */
+    private volatile NavigableMap<Integer, Triple<String, Integer, Integer>> fileListCache;
+
+    /** Memory-mapped archive files, keyed by filename */
+    private final Map<String, MappedArchiveFile> mappedFiles = new ConcurrentHashMap<>();
 
     private static final Logger LOGGER = LogManager.getLogger(BlockArchiveReader.class);
 
+    /**
+     * Archive file mapped into memory once, with its block index parsed up front.
+     * <p>
+     * File layout, as written by {@link BlockArchiveWriter}:
+     * <ul>
+     * <li>fixed length header: version, start height, end height, block count, variable header length</li>
+     * <li>variable length header: offset of each block within data segment</li>
+     * <li>data segment length, followed by data segment: height, length and serialized bytes for each block</li>
+     * </ul>
+     */
+    private static class MappedArchiveFile {
+        private static final int FIXED_HEADER_LENGTH = 5 * INT_LENGTH;
+
+        private final String filename;
+        private final BasicFileAttributes fileAttributes;
+        private final ByteBuffer buffer;
+        private final int startHeight;
+        private final int endHeight;
+        private final int[] blockOffsets;
+        private final int dataSegmentStart;
+        /** Used to evict least-recently-used mapping when cache is full */
+        private volatile long lastAccessed;
+
+        private MappedArchiveFile(String filename, BasicFileAttributes fileAttributes, ByteBuffer buffer) throws IOException {
+            this.filename = filename;
+            this.fileAttributes = fileAttributes;
+            this.buffer = buffer.asReadOnlyBuffer();
+
+            try {
+                final int version = this.buffer.getInt(0);
+                if (version != 1)
+                    throw new IOException(String.format("unknown version in file %s: %d", filename, version));
+
+                this.startHeight = this.buffer.getInt(INT_LENGTH);
+                this.endHeight = this.buffer.getInt(2 * INT_LENGTH);
+                final int blockCount = this.buffer.getInt(3 * INT_LENGTH);
+                final int variableHeaderLength = this.buffer.getInt(4 * INT_LENGTH);
+
+                if (blockCount != this.endHeight - this.startHeight + 1 || variableHeaderLength != blockCount * INT_LENGTH)
+                    throw new IOException(String.format("inconsistent header in file %s", filename));
+
+                this.blockOffsets = new int[blockCount];
+                for (int i = 0; i < blockCount; ++i)
+                    this.blockOffsets[i] = this.buffer.getInt(FIXED_HEADER_LENGTH + i * INT_LENGTH);
+
+                this.dataSegmentStart = FIXED_HEADER_LENGTH + variableHeaderLength + INT_LENGTH;
+            } catch (IndexOutOfBoundsException e) {
+                throw new IOException(String.format("truncated header in file %s", filename), e);
+            }
+        }
+
+        /**
+         * Returns read-only slice of mapped file containing block's serialized bytes, or null if not available.
+         * <p>
+         * Reading from the slice can throw {@link InternalError} if the file is truncated in the meantime.
+         */
+        private ByteBuffer getBlock(int height) {
+            if (height < this.startHeight || height > this.endHeight) {
+                LOGGER.info("Error: requested height {} but the range of file {} is {}-{}",
+                        height, this.filename, this.startHeight, this.endHeight);
+                return null;
+            }
+
+            try {
+                final int blockStart = this.dataSegmentStart + this.blockOffsets[height - this.startHeight];
+
+                // Read the block metadata
+                final int blockHeight = this.buffer.getInt(blockStart);
+                final int blockLength = this.buffer.getInt(blockStart + INT_LENGTH);
+
+                // Ensure the block height matches the one requested
+                if (blockHeight != height) {
+                    LOGGER.info("Error: height {} does not match requested: {}", blockHeight, height);
+                    return null;
+                }
+
+                ByteBuffer blockBuffer = this.buffer.duplicate();
+                blockBuffer.position(blockStart + 2 * INT_LENGTH);
+                blockBuffer.limit(blockStart + 2 * INT_LENGTH + blockLength);
+                return blockBuffer.slice();
+            } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+                LOGGER.info("Unable to read block {} from archive file {}: corrupt index", height, this.filename);
+                return null;
+            } catch (InternalError e) {
+                // File was truncated since it was mapped
+                LOGGER.info("Unable to read block {} from archive file {}: file changed", height, this.filename);
+                return null;
+            }
+        }
+
+        /** Returns whether file on disk is still the one that was mapped. */
+        private boolean isUnchanged(BasicFileAttributes currentAttributes) {
+            return currentAttributes != null
+                    && currentAttributes.size() == this.fileAttributes.size()
+                    && currentAttributes.lastModifiedTime().equals(this.fileAttributes.lastModifiedTime())
+                    && Objects.equals(currentAttributes.fileKey(), this.fileAttributes.fileKey());
+        }
+    }
+
     public BlockArchiveReader() {
 
     }
@@ -40,11 +149,11 @@ public class BlockArchiveReader {
         return instance;
     }
 
-    private void fetchFileList() {
+    private NavigableMap<Integer, Triple<String, Integer, Integer>> fetchFileList() {
         Path archivePath = Paths.get(Settings.getInstance().getRepositoryPath(), "archive").toAbsolutePath();
         File archiveDirFile = archivePath.toFile();
         String[] files = archiveDirFile.list();
-        Map<String, Triple<Integer, Integer, Integer>> map = new HashMap<>();
+        NavigableMap<Integer, Triple<String, Integer, Integer>> map = new TreeMap<>();
 
         if (files != null) {
             for (String file : files) {
@@ -60,24 +169,28 @@ public class BlockArchiveReader {
                 String[] parts = filename.substring(0, filename.lastIndexOf('.')).split("-");
                 Integer startHeight = Integer.parseInt(parts[0]);
                 Integer endHeight = Integer.parseInt(parts[1]);
-                Integer range = endHeight - startHeight;
-                map.put(filename, new Triple(startHeight, endHeight, range));
+                map.put(startHeight, new Triple<>(filename, startHeight, endHeight));
             }
         }
-        this.fileListCache = Map.copyOf(map);
+
+        // Drop mappings of any files that have gone away, or have been replaced or truncated in place,
+        // e.g. by a bootstrap import, as reading from a stale mapping of a truncated file would fault
+        Set<String> filenames = new HashSet<>();
+        map.values().forEach(fileInfo -> filenames.add(fileInfo.getA()));
+        this.mappedFiles.keySet().retainAll(filenames);
+        this.mappedFiles.values().removeIf(mappedFile -> !mappedFile.isUnchanged(this.readFileAttributes(mappedFile.filename)));
+
+        NavigableMap<Integer, Triple<String, Integer, Integer>> fileList = Collections.unmodifiableNavigableMap(map);
+        this.fileListCache = fileList;
+        return fileList;
     }
 
     public BlockTransformation fetchBlockAtHeight(int height) {
-        if (this.fileListCache == null) {
-            this.fetchFileList();
-        }
-
-        byte[] serializedBytes = this.fetchSerializedBlockBytesForHeight(height);
-        if (serializedBytes == null) {
+        ByteBuffer byteBuffer = this.fetchSerializedBlockBufferForHeight(height);
+        if (byteBuffer == null) {
             return null;
         }
 
-        ByteBuffer byteBuffer = ByteBuffer.wrap(serializedBytes);
         BlockTransformation blockInfo = null;
         try {
             blockInfo = BlockTransformer.fromByteBuffer(byteBuffer);
@@ -88,16 +201,15 @@ public class BlockArchiveReader {
             }
         } catch (TransformationException e) {
             return null;
+        } catch (InternalError e) {
+            // Mapped archive file was truncated while we were reading it
+            LOGGER.info("Unable to read block {} from archive: file changed", height);
+            return null;
         }
         return blockInfo;
     }
 
     public BlockTransformation fetchBlockWithSignature(byte[] signature, Repository repository) {
-
-        if (this.fileListCache == null) {
-            this.fetchFileList();
-        }
-
         Integer height = this.fetchHeightForSignature(signature, repository);
         if (height != null) {
             return this.fetchBlockAtHeight(height);
@@ -144,69 +256,162 @@ public class BlockArchiveReader {
     }
 
     private String getFilenameForHeight(int height) {
-        if (this.fileListCache == null) {
-            this.fetchFileList();
+        NavigableMap<Integer, Triple<String, Integer, Integer>> fileList = this.fileListCache;
+        if (fileList == null) {
+            fileList = this.fetchFileList();
         }
 
-        Iterator it = this.fileListCache.entrySet().iterator();
-        while (it.hasNext()) {
-            Map.Entry pair = (Map.Entry) it.next();
-            if (pair == null && pair.getKey() == null && pair.getValue() == null) {
-                continue;
-            }
-            Triple<Integer, Integer, Integer> heightInfo = (Triple<Integer, Integer, Integer>) pair.getValue();
-            Integer startHeight = heightInfo.getA();
-            Integer endHeight = heightInfo.getB();
-
-            if (height >= startHeight && height <= endHeight) {
-                // Found the correct file
-                String filename = (String) pair.getKey();
-                return filename;
-            }
+        // Find file with highest start height not above requested height
+        Map.Entry<Integer, Triple<String, Integer, Integer>> entry = fileList.floorEntry(height);
+        if (entry == null || height > entry.getValue().getC()) {
+            return null;
         }
 
-        return null;
+        return entry.getValue().getA();
     }
 
     public byte[] fetchSerializedBlockBytesForSignature(byte[] signature, boolean includeHeightPrefix, Repository repository) {
-        if (this.fileListCache == null) {
-            this.fetchFileList();
-        }
-
         Integer height = this.fetchHeightForSignature(signature, repository);
         if (height != null) {
-            byte[] blockBytes = this.fetchSerializedBlockBytesForHeight(height);
-            if (blockBytes == null) {
+            ByteBuffer blockBuffer = this.fetchSerializedBlockBufferForHeight(height);
+            if (blockBuffer == null) {
                 return null;
             }
 
             // When responding to a peer with a BLOCK message, we must prefix the byte array with the block height
             // This mimics the toData() method in BlockMessage and CachedBlockMessage
+            int prefixLength = includeHeightPrefix ? INT_LENGTH : 0;
+            byte[] bytes = new byte[prefixLength + blockBuffer.remaining()];
             if (includeHeightPrefix) {
-                ByteArrayOutputStream bytes = new ByteArrayOutputStream(blockBytes.length + INT_LENGTH);
-                try {
-                    bytes.write(Ints.toByteArray(height));
-                    bytes.write(blockBytes);
-                    return bytes.toByteArray();
-
-                } catch (IOException e) {
-                    return null;
-                }
+                System.arraycopy(Ints.toByteArray(height), 0, bytes, 0, INT_LENGTH);
             }
-            return blockBytes;
+            return copyBlockBytes(blockBuffer, bytes, prefixLength, height);
         }
         return null;
     }
 
     public byte[] fetchSerializedBlockBytesForHeight(int height) {
+        ByteBuffer blockBuffer = this.fetchSerializedBlockBufferForHeight(height);
+        if (blockBuffer == null) {
+            return null;
+        }
+
+        byte[] blockBytes = new byte[blockBuffer.remaining()];
+        return copyBlockBytes(blockBuffer, blockBytes, 0, height);
+    }
+
+    /** Copies remaining bytes from block buffer into <tt>bytes</tt> at <tt>offset</tt>, returning <tt>bytes</tt>, or null if mapped file changed. */
+    private static byte[] copyBlockBytes(ByteBuffer blockBuffer, byte[] bytes, int offset, int height) {
+        try {
+            blockBuffer.get(bytes, offset, blockBuffer.remaining());
+            return bytes;
+        } catch (InternalError e) {
+            // Mapped archive file was truncated while we were reading it
+            LOGGER.info("Unable to read block {} from archive: file changed", height);
+            return null;
+        }
+    }
+
+    /**
+     * Returns block's serialized bytes as a read-only buffer.
+     * <p>
+     * When archive memory-mapping is enabled, the buffer is a slice of the mapped archive file, so no bytes are copied.
+     * Reading from such a buffer throws {@link InternalError} if the archive file is truncated meanwhile,
+     * so the buffer must not escape this class.
+     *
+     * @return read-only buffer positioned at start of block's serialized bytes, or null if block not in archive
+     */
+    private ByteBuffer fetchSerializedBlockBufferForHeight(int height) {
         String filename = this.getFilenameForHeight(height);
         if (filename == null) {
             // We don't have this block in the archive
-            // Invalidate the file list cache in case it is out of date
-            this.invalidateFileListCache();
+            // Rescan archive directory next time in case file list is out of date.
+            // Existing mappings are still valid so leave those alone.
+            this.fileListCache = null;
+            return null;
+        }
+
+        if (!Settings.getInstance().isArchiveMemoryMapped()) {
+            byte[] blockBytes = this.readSerializedBlockBytes(filename, height);
+            return blockBytes != null ? ByteBuffer.wrap(blockBytes).asReadOnlyBuffer() : null;
+        }
+
+        MappedArchiveFile mappedFile = this.getMappedFile(filename);
+        if (mappedFile == null) {
             return null;
         }
 
+        return mappedFile.getBlock(height);
+    }
+
+    private MappedArchiveFile getMappedFile(String filename) {
+        // Fast path: file already mapped. Mappings are checked against files on disk whenever archive is rescanned.
+        MappedArchiveFile mappedFile = this.mappedFiles.get(filename);
+        if (mappedFile == null) {
+            mappedFile = this.mappedFiles.computeIfAbsent(filename, this::mapFile);
+            if (mappedFile == null) {
+                return null;
+            }
+
+            this.evictMappedFiles();
+        }
+
+        mappedFile.lastAccessed = System.nanoTime();
+        return mappedFile;
+    }
+
+    private MappedArchiveFile mapFile(String filename) {
+        Path filePath = Paths.get(Settings.getInstance().getRepositoryPath(), "archive", filename).toAbsolutePath();
+
+        BasicFileAttributes fileAttributes = this.readFileAttributes(filename);
+        if (fileAttributes == null) {
+            return null;
+        }
+
+        try (FileChannel fileChannel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            // Mapping remains valid after channel is closed
+            ByteBuffer buffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+            return new MappedArchiveFile(filename, fileAttributes, buffer);
+        } catch (NoSuchFileException e) {
+            LOGGER.info("File {} not found: {}", filename, e.getMessage());
+            return null;
+        } catch (IOException e) {
+            LOGGER.info("Unable to map archive file {}: {}", filename, e.getMessage());
+            return null;
+        }
+    }
+
+    private BasicFileAttributes readFileAttributes(String filename) {
+        Path filePath = Paths.get(Settings.getInstance().getRepositoryPath(), "archive", filename).toAbsolutePath();
+
+        try {
+            return Files.readAttributes(filePath, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            LOGGER.info("File {} not found: {}", filename, e.getMessage());
+            return null;
+        } catch (IOException e) {
+            LOGGER.info("Unable to read attributes of archive file {}: {}", filename, e.getMessage());
+            return null;
+        }
+    }
+
+    /** Drops least-recently-used mappings while there are more than configured maximum. */
+    private void evictMappedFiles() {
+        final int maxMappedFiles = Settings.getInstance().getArchiveMappedFileCacheSize();
+
+        while (this.mappedFiles.size() > maxMappedFiles) {
+            Optional<MappedArchiveFile> eldest = this.mappedFiles.values().stream()
+                    .min(Comparator.comparingLong(mappedFile -> mappedFile.lastAccessed));
+            if (!eldest.isPresent()) {
+                return;
+            }
+
+            // Evicted mappings are released when garbage collected
+            this.mappedFiles.remove(eldest.get().filename, eldest.get());
+        }
+    }
+
+    private byte[] readSerializedBlockBytes(String filename, int height) {
         Path filePath = Paths.get(Settings.getInstance().getRepositoryPath(), "archive", filename).toAbsolutePath();
         RandomAccessFile file = null;
         try {
@@ -279,8 +484,16 @@ public class BlockArchiveReader {
         }
     }
 
+    /**
+     * Forces archive directory to be rescanned, and archive files to be re-mapped, on next access.
+     * <p>
+     * Should be called whenever archive files are written or replaced.
+     */
     public void invalidateFileListCache() {
         this.fileListCache = null;
+
+        // Files may have been replaced, so drop mappings too
+        this.mappedFiles.clear();
     }
 
 }
@@ -1,5 +1,6 @@
 package org.qortal.repository;
 
+import com.google.common.hash.HashCode;
 import org.apache.commons.io.FileUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -14,16 +15,21 @@ import org.qortal.network.Network;
 import org.qortal.repository.hsqldb.HSQLDBImportExport;
 import org.qortal.repository.hsqldb.HSQLDBRepositoryFactory;
 import org.qortal.settings.Settings;
+import org.qortal.utils.FilesystemUtils;
 import org.qortal.utils.NTP;
 import org.qortal.utils.SevenZ;
 
-import java.io.BufferedInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.List;
 import java.util.UUID;
@@ -47,6 +53,15 @@ public class Bootstrap {
     /** The maximum number of unpruned blocks allowed to be included in a bootstrap, beyond the prune threshold */
     private static final int MAXIMUM_UNPRUNED_BLOCKS = 100;
 
+    /** The maximum number of attempts to download a bootstrap, each resuming from where the last one failed */
+    private static final int MAX_DOWNLOAD_ATTEMPTS = 5;
+
+    /** The time to wait between download attempts */
+    private static final long DOWNLOAD_RETRY_INTERVAL = 5 * 1000L;
+
+    /** Connect and read timeout when downloading, so that stalled connections are resumed */
+    private static final int DOWNLOAD_TIMEOUT = 30 * 1000;
+
 
     public Bootstrap() {
     }
@@ -220,50 +235,73 @@ public class Bootstrap {
         Path outputPath = null;
 
         try {
+            try {
+                LOGGER.info("Exporting local data...");
+                repository.exportNodeLocalData();
 
-            LOGGER.info("Exporting local data...");
-            repository.exportNodeLocalData();
+                LOGGER.info("Deleting trade bot states...");
+                List<TradeBotData> allTradeBotData = repository.getCrossChainRepository().getAllTradeBotData();
+                for (TradeBotData tradeBotData : allTradeBotData) {
+                    repository.getCrossChainRepository().delete(tradeBotData.getTradePrivateKey());
+                }
 
-            LOGGER.info("Deleting trade bot states...");
-            List<TradeBotData> allTradeBotData = repository.getCrossChainRepository().getAllTradeBotData();
-            for (TradeBotData tradeBotData : allTradeBotData) {
-                repository.getCrossChainRepository().delete(tradeBotData.getTradePrivateKey());
-            }
+                LOGGER.info("Deleting minting accounts...");
+                List<MintingAccountData> mintingAccounts = repository.getAccountRepository().getMintingAccounts();
+                for (MintingAccountData mintingAccount : mintingAccounts) {
+                    repository.getAccountRepository().delete(mintingAccount.getPrivateKey());
+                }
 
-            LOGGER.info("Deleting minting accounts...");
-            List<MintingAccountData> mintingAccounts = repository.getAccountRepository().getMintingAccounts();
-            for (MintingAccountData mintingAccount : mintingAccounts) {
-                repository.getAccountRepository().delete(mintingAccount.getPrivateKey());
-            }
+                repository.saveChanges();
 
-            repository.saveChanges();
+                LOGGER.info("Deleting peers list...");
+                repository.getNetworkRepository().deleteAllPeers();
+                repository.saveChanges();
 
-            LOGGER.info("Deleting peers list...");
-            repository.getNetworkRepository().deleteAllPeers();
-            repository.saveChanges();
+                LOGGER.info("Adding initial peers...");
+                Network.installInitialPeers(repository);
 
-            LOGGER.info("Adding initial peers...");
-            Network.installInitialPeers(repository);
+                LOGGER.info("Creating bootstrap...");
+                // Timeout if the database isn't ready for backing up after 10 seconds
+                long timeout = 10 * 1000L;
+                repository.backup(false, "bootstrap", timeout);
 
-            LOGGER.info("Creating bootstrap...");
-            // Timeout if the database isn't ready for backing up after 10 seconds
-            long timeout = 10 * 1000L;
-            repository.backup(false, "bootstrap", timeout);
+                LOGGER.info("Moving files to output directory...");
+                inputPath = Paths.get(Settings.getInstance().getRepositoryPath(), "bootstrap");
+                outputPath = Paths.get(this.createTempDirectory().toString(), "bootstrap");
 
-            LOGGER.info("Moving files to output directory...");
-            inputPath = Paths.get(Settings.getInstance().getRepositoryPath(), "bootstrap");
-            outputPath = Paths.get(this.createTempDirectory().toString(), "bootstrap");
 
+                // Move the db backup to a "bootstrap" folder in the root directory
+                Files.move(inputPath, outputPath, REPLACE_EXISTING);
 
-            // Move the db backup to a "bootstrap" folder in the root directory
-            Files.move(inputPath, outputPath, REPLACE_EXISTING);
+                // If in archive mode, link the archive folder to inside the bootstrap folder
+                // Archive files aren't modified once written, so the links stay consistent with the db backup
+                // after the blockchain lock is released
+                if (!Settings.getInstance().isTopOnly() && Settings.getInstance().isArchiveEnabled()) {
+                    FilesystemUtils.linkOrCopyDirectory(
+                            Paths.get(Settings.getInstance().getRepositoryPath(), "archive"),
+                            Paths.get(outputPath.toString(), "archive")
+                    );
+                }
 
-            // If in archive mode, copy the archive folder to inside the bootstrap folder
-            if (!Settings.getInstance().isTopOnly() && Settings.getInstance().isArchiveEnabled()) {
-                FileUtils.copyDirectory(
-                        Paths.get(Settings.getInstance().getRepositoryPath(), "archive").toFile(),
-                        Paths.get(outputPath.toString(), "archive").toFile()
-                );
+            }
+            catch (TimeoutException e) {
+                throw new DataException(String.format("Unable to create bootstrap due to timeout: %s", e.getMessage()));
+            }
+            finally {
+                try {
+                    LOGGER.info("Re-importing local data...");
+                    Path exportPath = HSQLDBImportExport.getExportDirectory(false);
+                    repository.importDataFromFile(Paths.get(exportPath.toString(), "TradeBotStates.json").toString());
+                    repository.importDataFromFile(Paths.get(exportPath.toString(), "MintingAccounts.json").toString());
+                    repository.saveChanges();
+
+                } catch (IOException e) {
+                    LOGGER.info("Unable to re-import local data, but created bootstrap is still valid. {}", e);
+                }
+
+                // Snapshot is complete, so the node can carry on while we compress it
+                LOGGER.info("Unlocking blockchain...");
+                blockchainLock.unlock();
             }
 
             LOGGER.info("Preparing output path...");
@@ -275,7 +313,8 @@ public class Bootstrap {
             }
 
             LOGGER.info("Compressing...");
-            SevenZ.compress(compressedOutputPath.toString(), outputPath.toFile());
+            int threadCount = Settings.getInstance().getBootstrapCompressionPoolSize();
+            SevenZ.compress(compressedOutputPath.toString(), threadCount, outputPath.toFile());
 
             LOGGER.info("Generating checksum file...");
             String checksum = Crypto.digestHexString(compressedOutputPath.toFile(), 1024*1024);
@@ -287,24 +326,7 @@ public class Bootstrap {
             return compressedOutputPath.toAbsolutePath().toString();
 
         }
-        catch (TimeoutException e) {
-            throw new DataException(String.format("Unable to create bootstrap due to timeout: %s", e.getMessage()));
-        }
         finally {
-            try {
-                LOGGER.info("Re-importing local data...");
-                Path exportPath = HSQLDBImportExport.getExportDirectory(false);
-                repository.importDataFromFile(Paths.get(exportPath.toString(), "TradeBotStates.json").toString());
-                repository.importDataFromFile(Paths.get(exportPath.toString(), "MintingAccounts.json").toString());
-                repository.saveChanges();
-
-            } catch (IOException e) {
-                LOGGER.info("Unable to re-import local data, but created bootstrap is still valid. {}", e);
-            }
-
-            LOGGER.info("Unlocking blockchain...");
-            blockchainLock.unlock();
-
             // Cleanup
             LOGGER.info("Cleaning up...");
             Thread.sleep(5000L);
@@ -374,10 +396,19 @@ public class Bootstrap {
         }
     }
 
-    private void downloadToPath(Path path) throws DataException {
+    private void downloadToPath(Path path) throws DataException, InterruptedException {
         String bootstrapHost = this.getRandomHost();
         String bootstrapFilename = this.getFilename();
         String bootstrapUrl = String.format("%s/%s", bootstrapHost, bootstrapFilename);
+
+        this.downloadToPath(bootstrapUrl, path);
+    }
+
+    /**
+     * Downloads bootstrap from URL, resuming using range requests if the connection fails,
+     * and verifying the published SHA-256 checksum, if there is one, while the file is written.
+     */
+    public void downloadToPath(String bootstrapUrl, Path path) throws DataException, InterruptedException {
         String type = Settings.getInstance().isTopOnly() ? "top-only" : "full node";
 
         SplashFrame.getInstance().updateStatus(String.format("Downloading %s bootstrap...", type));
@@ -390,42 +421,133 @@ public class Bootstrap {
             // No need to do anything
         }
 
-        // Get the total file size
         URL url;
-        long fileSize;
         try {
             url = new URL(bootstrapUrl);
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("HEAD");
-            connection.connect();
-            fileSize = connection.getContentLengthLong();
-            connection.disconnect();
-
         } catch (MalformedURLException e) {
             throw new DataException(String.format("Malformed URL when downloading bootstrap: %s", e.getMessage()));
-        } catch (IOException e) {
-            throw new DataException(String.format("Unable to get bootstrap file size from %s. " +
-                    "Please check your internet connection.", e.getMessage()));
-        }
-
-        // Download the file and update the status with progress
-        try (BufferedInputStream in = new BufferedInputStream(url.openStream());
-             FileOutputStream fileOutputStream = new FileOutputStream(path.toFile())) {
-            byte[] buffer = new byte[1024 * 1024];
-            long downloaded = 0;
-            int bytesRead;
-            while ((bytesRead = in.read(buffer, 0, 1024)) != -1) {
-                fileOutputStream.write(buffer, 0, bytesRead);
-                downloaded += bytesRead;
-
-                if (fileSize > 0) {
-                    double progress = (double)downloaded / (double)fileSize * 100;
-                    SplashFrame.getInstance().updateStatus(String.format("Downloading %s bootstrap... (%.1f%%)", type, progress));
+        }
+
+        String expectedChecksum = this.fetchChecksum(bootstrapUrl);
+        if (expectedChecksum == null) {
+            LOGGER.info("No checksum available for bootstrap, so it won't be verified");
+        }
+
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 message digest not available");
+        }
+
+        long downloaded = 0;
+        long fileSize = -1;
+        String validator = null;
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+                connection.setConnectTimeout(DOWNLOAD_TIMEOUT);
+                connection.setReadTimeout(DOWNLOAD_TIMEOUT);
+
+                if (downloaded > 0) {
+                    connection.setRequestProperty("Range", String.format("bytes=%d-", downloaded));
+
+                    // Host sends the whole file instead if it has changed since we started
+                    if (validator != null) {
+                        connection.setRequestProperty("If-Range", validator);
+                    }
+                }
+
+                int responseCode = connection.getResponseCode();
+                if (responseCode == HttpURLConnection.HTTP_OK) {
+                    // Whole file, so (re)start from the beginning
+                    downloaded = 0;
+                    sha256.reset();
+                    fileSize = connection.getContentLengthLong();
+                    validator = connection.getHeaderField("ETag");
+                    if (validator == null) {
+                        validator = connection.getHeaderField("Last-Modified");
+                    }
                 }
+                else if (responseCode != HttpURLConnection.HTTP_PARTIAL || downloaded == 0) {
+                    throw new DataException(String.format("Unable to download bootstrap: HTTP response code %d", responseCode));
+                }
+
+                try (InputStream in = connection.getInputStream();
+                     FileChannel out = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+
+                    // Discard anything written, but not checksummed, by a failed attempt
+                    out.truncate(downloaded);
+                    out.position(downloaded);
+
+                    byte[] buffer = new byte[1024 * 1024];
+                    int bytesRead;
+                    while ((bytesRead = in.read(buffer)) != -1) {
+                        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, bytesRead);
+                        while (byteBuffer.hasRemaining()) {
+                            out.write(byteBuffer);
+                        }
+
+                        sha256.update(buffer, 0, bytesRead);
+                        downloaded += bytesRead;
+
+                        if (fileSize > 0) {
+                            double progress = (double)downloaded / (double)fileSize * 100;
+                            SplashFrame.getInstance().updateStatus(String.format("Downloading %s bootstrap... (%.1f%%)", type, progress));
+                        }
+                    }
+                }
+
+                if (fileSize > 0 && downloaded < fileSize) {
+                    throw new IOException(String.format("connection closed after %d of %d bytes", downloaded, fileSize));
+                }
+
+                break;
+
+            } catch (IOException e) {
+                if (attempt >= MAX_DOWNLOAD_ATTEMPTS) {
+                    throw new DataException(String.format("Unable to download bootstrap: %s", e.getMessage()));
+                }
+
+                LOGGER.info("Bootstrap download failed after {} bytes, resuming in {} seconds: {}",
+                        downloaded, DOWNLOAD_RETRY_INTERVAL / 1000L, e.getMessage());
+                Thread.sleep(DOWNLOAD_RETRY_INTERVAL);
+            }
+        }
+
+        if (expectedChecksum != null) {
+            String checksum = HashCode.fromBytes(sha256.digest()).toString();
+            if (!checksum.equals(expectedChecksum)) {
+                throw new DataException(String.format("Downloaded bootstrap checksum %s doesn't match expected checksum %s", checksum, expectedChecksum));
+            }
+
+            LOGGER.info("Downloaded bootstrap checksum verified");
+        }
+    }
+
+    /**
+     * Returns SHA-256 checksum published alongside bootstrap, as lowercase hex, or null if unavailable.
+     */
+    private String fetchChecksum(String bootstrapUrl) {
+        try {
+            URL url = new URL(String.format("%s.sha256", bootstrapUrl));
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setConnectTimeout(DOWNLOAD_TIMEOUT);
+            connection.setReadTimeout(DOWNLOAD_TIMEOUT);
+
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                return null;
+            }
+
+            try (InputStream in = connection.getInputStream()) {
+                // Allow for sha256sum-style output, i.e. checksum followed by filename
+                String checksum = new String(in.readNBytes(1024), StandardCharsets.UTF_8).trim().split("\\s+")[0].toLowerCase();
+                return checksum.matches("[0-9a-f]{64}") ? checksum : null;
             }
 
         } catch (IOException e) {
-            throw new DataException(String.format("Unable to download bootstrap: %s", e.getMessage()));
+            return null;
         }
     }
 
@@ -459,7 +581,7 @@ public class Bootstrap {
             FileUtils.deleteDirectory(outputPath.toFile());
 
             this.updateStatus("Extracting bootstrap...");
-            SevenZ.decompress(input.toString(), output.toFile());
+            SevenZ.decompress(input.toString(), output.toFile(), Settings.getInstance().getBootstrapExtractionPoolSize());
 
             if (!inputPath.toFile().exists()) {
                 throw new DataException("Extracted bootstrap doesn't exist");
@@ -475,6 +597,9 @@ public class Bootstrap {
             RepositoryFactory repositoryFactory = new HSQLDBRepositoryFactory(Controller.getRepositoryUrl());
             RepositoryManager.setRepositoryFactory(repositoryFactory);
 
+            // Archive files have been replaced, so don't serve blocks from old ones
+            BlockArchiveReader.getInstance().invalidateFileListCache();
+
             blockchainLock.unlock();
         }
     }
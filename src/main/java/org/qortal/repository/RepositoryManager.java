@@ -17,7 +17,7 @@ public abstract class RepositoryManager {
 	private static RepositoryFactory repositoryFactory = null;
 
 	/** null if no checkpoint requested, TRUE for quick checkpoint, false for slow/full checkpoint. */
-	private static Boolean quickCheckpointRequested = null;
+	private static volatile Boolean quickCheckpointRequested = null;
 
 	public static RepositoryFactory getRepositoryFactory() {
 		return repositoryFactory;
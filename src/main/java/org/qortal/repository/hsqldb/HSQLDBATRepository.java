@@ -151,6 +151,64 @@ public class HSQLDBATRepository implements ATRepository {
 		}
 	}
 
+	@Override
+	public List<ATData> getExecutableATs(int blockHeight) throws DataException {
+		String sql = "SELECT AT_address, creator, created_when, version, asset_id, code_hash, "
+				+ "is_sleeping, sleep_until_height, had_fatal_error, "
+				+ "is_frozen, frozen_balance, sleep_until_message_timestamp "
+				+ "FROM ATs "
+				+ "WHERE is_finished = false "
+				// Skip ATs that would only wake up, find it's too early, and go back to sleep
+				+ "AND (is_sleeping = false OR sleep_until_height IS NULL OR sleep_until_height <= ? "
+				+ "OR is_frozen = true OR sleep_until_message_timestamp IS NOT NULL) "
+				+ "ORDER BY created_when ASC";
+
+		List<ATData> executableATs = new ArrayList<>();
+
+		try (ResultSet resultSet = this.repository.checkedExecute(sql, blockHeight)) {
+			if (resultSet == null)
+				return executableATs;
+
+			boolean isFinished = false;
+
+			do {
+				String atAddress = resultSet.getString(1);
+				byte[] creatorPublicKey = resultSet.getBytes(2);
+				long created = resultSet.getLong(3);
+				int version = resultSet.getInt(4);
+				long assetId = resultSet.getLong(5);
+				byte[] codeHash = resultSet.getBytes(6);
+				boolean isSleeping = resultSet.getBoolean(7);
+
+				Integer sleepUntilHeight = resultSet.getInt(8);
+				if (sleepUntilHeight == 0 && resultSet.wasNull())
+					sleepUntilHeight = null;
+
+				boolean hadFatalError = resultSet.getBoolean(9);
+				boolean isFrozen = resultSet.getBoolean(10);
+
+				Long frozenBalance = resultSet.getLong(11);
+				if (frozenBalance == 0 && resultSet.wasNull())
+					frozenBalance = null;
+
+				Long sleepUntilMessageTimestamp = resultSet.getLong(12);
+				if (sleepUntilMessageTimestamp == 0 && resultSet.wasNull())
+					sleepUntilMessageTimestamp = null;
+
+				// Code bytes not loaded - see ATCodeCache
+				ATData atData = new ATData(atAddress, creatorPublicKey, created, version, assetId, null, codeHash,
+						isSleeping, sleepUntilHeight, isFinished, hadFatalError, isFrozen, frozenBalance,
+						sleepUntilMessageTimestamp);
+
+				executableATs.add(atData);
+			} while (resultSet.next());
+
+			return executableATs;
+		} catch (SQLException e) {
+			throw new DataException("Unable to fetch executable ATs from repository", e);
+		}
+	}
+
 	@Override
 	public List<ATData> getATsByFunctionality(byte[] codeHash, Boolean isExecutable, Integer limit, Integer offset, Boolean reverse) throws DataException {
 		StringBuilder sql = new StringBuilder(512);
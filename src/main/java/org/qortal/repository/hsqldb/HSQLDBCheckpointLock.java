@@ -0,0 +1,105 @@
+package org.qortal.repository.hsqldb;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Gate between normal repository activity and CHECKPOINT / BACKUP / maintenance.
+ * <p>
+ * Statement execution and session creation take the <b>shared</b> side, so they don't block each other.
+ * CHECKPOINT, BACKUP and periodic maintenance take the <b>exclusive</b> side, blocking new statements
+ * until they complete, as a global monitor used to.
+ * <p>
+ * The exclusive holder may also take the shared side, e.g. to run queries while checking other sessions' status,
+ * but a shared holder must not try to take the exclusive side.
+ * <p>
+ * Typical usage:
+ * <pre>
+ * HSQLDBCheckpointLock.lockShared();
+ * try {
+ *     ...
+ * } finally {
+ *     HSQLDBCheckpointLock.unlockShared();
+ * }
+ * </pre>
+ */
+public abstract class HSQLDBCheckpointLock {
+
+	private static final ReentrantReadWriteLock LOCK = new ReentrantReadWriteLock();
+
+	private static final AtomicLong sharedAcquisitions = new AtomicLong();
+	private static final AtomicLong sharedContended = new AtomicLong();
+	private static final AtomicLong sharedWaitTime = new AtomicLong(); // ns
+
+	private static final AtomicLong exclusiveAcquisitions = new AtomicLong();
+	private static final AtomicLong exclusiveWaitTime = new AtomicLong(); // ns
+	private static final AtomicLong exclusiveHoldTime = new AtomicLong(); // ns
+
+	/** When current exclusive hold began, only accessed by exclusive holder */
+	private static long exclusiveStartTime;
+
+	/** Snapshot of lock activity since startup, for API */
+	public static class Stats {
+		public long sharedAcquisitions;
+		public long sharedContended;
+		public long sharedWaitTime; // ms
+		public long exclusiveAcquisitions;
+		public long exclusiveWaitTime; // ms
+		public long exclusiveHoldTime; // ms
+
+		public Stats() {
+		}
+	}
+
+	public static void lockShared() {
+		sharedAcquisitions.incrementAndGet();
+
+		// Uncontended fast path, without timing. Don't barge ahead of any queued exclusive request.
+		if (!LOCK.hasQueuedThreads() && LOCK.readLock().tryLock())
+			return;
+
+		sharedContended.incrementAndGet();
+
+		final long startTime = System.nanoTime();
+		LOCK.readLock().lock();
+		sharedWaitTime.addAndGet(System.nanoTime() - startTime);
+	}
+
+	public static void unlockShared() {
+		LOCK.readLock().unlock();
+	}
+
+	public static void lockExclusive() {
+		final long startTime = System.nanoTime();
+		LOCK.writeLock().lock();
+
+		// Reentrant acquisition only counts once
+		if (LOCK.getWriteHoldCount() > 1)
+			return;
+
+		exclusiveStartTime = System.nanoTime();
+		exclusiveAcquisitions.incrementAndGet();
+		exclusiveWaitTime.addAndGet(exclusiveStartTime - startTime);
+	}
+
+	public static void unlockExclusive() {
+		if (LOCK.getWriteHoldCount() == 1)
+			exclusiveHoldTime.addAndGet(System.nanoTime() - exclusiveStartTime);
+
+		LOCK.writeLock().unlock();
+	}
+
+	public static Stats getStats() {
+		Stats stats = new Stats();
+
+		stats.sharedAcquisitions = sharedAcquisitions.get();
+		stats.sharedContended = sharedContended.get();
+		stats.sharedWaitTime = sharedWaitTime.get() / 1_000_000L;
+		stats.exclusiveAcquisitions = exclusiveAcquisitions.get();
+		stats.exclusiveWaitTime = exclusiveWaitTime.get() / 1_000_000L;
+		stats.exclusiveHoldTime = exclusiveHoldTime.get() / 1_000_000L;
+
+		return stats;
+	}
+
+}
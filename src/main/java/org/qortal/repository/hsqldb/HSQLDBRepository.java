@@ -34,8 +34,6 @@ public class HSQLDBRepository implements Repository {
 
 	private static final Logger LOGGER = LogManager.getLogger(HSQLDBRepository.class);
 
-	public static final Object CHECKPOINT_LOCK = new Object();
-
 	// "serialization failure"
 	private static final Integer DEADLOCK_ERROR_CODE = Integer.valueOf(-4861);
 
@@ -90,9 +88,12 @@ public class HSQLDBRepository implements Repository {
 			throw new DataException("Unable to fetch session ID from repository", e);
 		}
 
-		// synchronize to block new connections if checkpointing in progress 
-		synchronized (CHECKPOINT_LOCK) {
+		// block new connections if checkpointing in progress
+		HSQLDBCheckpointLock.lockShared();
+		try {
 			assertEmptyTransaction("connection creation");
+		} finally {
+			HSQLDBCheckpointLock.unlockShared();
 		}
 	}
 
@@ -261,6 +262,23 @@ public class HSQLDBRepository implements Repository {
 		}
 	}
 
+	@Override
+	public void releaseSavepoint() throws DataException {
+		if (this.savepoints.isEmpty())
+			throw new DataException("no savepoint to release");
+
+		Savepoint savepoint = this.savepoints.pop();
+
+		try {
+			if (this.sqlStatements != null)
+				this.sqlStatements.add("RELEASE SAVEPOINT [" + savepoint.getSavepointId() + "]");
+
+			this.connection.releaseSavepoint(savepoint);
+		} catch (SQLException e) {
+			throw new DataException("savepoint release error", e);
+		}
+	}
+
 	// Close / backup / rebuild / restore
 
 	@Override
@@ -291,8 +309,13 @@ public class HSQLDBRepository implements Repository {
 	}
 
 	private void maybeCheckpoint() throws DataException {
+		// Quick check, without blocking other sessions, as this is called every time a repository is closed
+		if (RepositoryManager.getRequestedCheckpoint() == null)
+			return;
+
 		// To serialize checkpointing and to block new sessions when checkpointing in progress
-		synchronized (CHECKPOINT_LOCK) {
+		HSQLDBCheckpointLock.lockExclusive();
+		try {
 			Boolean quickCheckpointRequest = RepositoryManager.getRequestedCheckpoint();
 			if (quickCheckpointRequest == null)
 				return;
@@ -339,6 +362,8 @@ public class HSQLDBRepository implements Repository {
 			} catch (SQLException e) {
 				throw new DataException("Unable to check repository session status", e);
 			}
+		} finally {
+			HSQLDBCheckpointLock.unlockExclusive();
 		}
 	}
 
@@ -380,7 +405,8 @@ public class HSQLDBRepository implements Repository {
 
 	@Override
 	public void backup(boolean quick, String name, Long timeout) throws DataException, TimeoutException {
-		synchronized (CHECKPOINT_LOCK) {
+		HSQLDBCheckpointLock.lockExclusive();
+		try {
 
 			// We can only perform a CHECKPOINT if no other HSQLDB session is mid-transaction,
 			// otherwise the CHECKPOINT blocks for COMMITs and other threads can't open HSQLDB sessions
@@ -442,12 +468,15 @@ public class HSQLDBRepository implements Repository {
 				throw new DataException("Unable to backup repository");
 			}
 
+		} finally {
+			HSQLDBCheckpointLock.unlockExclusive();
 		}
 	}
 
 	@Override
 	public void performPeriodicMaintenance(Long timeout) throws DataException, TimeoutException {
-		synchronized (CHECKPOINT_LOCK) {
+		HSQLDBCheckpointLock.lockExclusive();
+		try {
 
 			// We can only perform a CHECKPOINT if no other HSQLDB session is mid-transaction,
 			// otherwise the CHECKPOINT blocks for COMMITs and other threads can't open HSQLDB sessions
@@ -465,6 +494,8 @@ public class HSQLDBRepository implements Repository {
 			} catch (SQLException e) {
 				throw new DataException("Unable to defrag repository");
 			}
+		} finally {
+			HSQLDBCheckpointLock.unlockExclusive();
 		}
 	}
 
@@ -660,10 +691,13 @@ public class HSQLDBRepository implements Repository {
 	private ResultSet checkedExecuteResultSet(PreparedStatement preparedStatement, Object... objects) throws SQLException {
 		bindStatementParams(preparedStatement, objects);
 
-		// synchronize to block new executions if checkpointing in progress
-		synchronized (CHECKPOINT_LOCK) {
+		// block new executions if checkpointing in progress
+		HSQLDBCheckpointLock.lockShared();
+		try {
 			if (!preparedStatement.execute())
 				throw new SQLException("Fetching from database produced no results");
+		} finally {
+			HSQLDBCheckpointLock.unlockShared();
 		}
 
 		ResultSet resultSet = preparedStatement.getResultSet();
@@ -128,6 +128,8 @@ public class Settings {
 	private boolean showCheckpointNotification = false;
 	/* How many blocks to cache locally. Defaulted to 10, which covers a typical Synchronizer request + a few spare */
 	private int blockCacheSize = 10;
+	/** Maximum total size of serialized blocks cached for sending to peers (bytes) */
+	private long blockMessageCacheSize = 32 * 1024 * 1024L; // 32MiB
 
 	/** How long to keep old, full, AT state data (ms). */
 	private long atStatesMaxLifetime = 5 * 24 * 60 * 60 * 1000L; // milliseconds
@@ -171,6 +173,10 @@ public class Settings {
 	private boolean archiveEnabled = true;
 	/** How often to attempt archiving (ms). */
 	private long archiveInterval = 7171L; // milliseconds
+	/** Whether to serve archived blocks from memory-mapped archive files, instead of opening a file per block */
+	private boolean archiveMemoryMapped = true;
+	/** Maximum number of archive files to keep memory-mapped at once */
+	private int archiveMappedFileCacheSize = 16;
 
 
 	/** Whether to automatically bootstrap instead of syncing from genesis */
@@ -199,6 +205,8 @@ public class Settings {
 	private int maxNetworkThreadPoolSize = 32;
 	/** Maximum number of threads for network proof-of-work compute, used during handshaking. */
 	private int networkPoWComputePoolSize = 2;
+	/** Number of threads used to verify incoming transaction signatures. 1 means verify on the importer thread only. */
+	private int transactionVerificationPoolSize = 2;
 	/** Maximum number of retry attempts if a peer fails to respond with the requested data */
 	private int maxRetries = 2;
 
@@ -224,6 +232,12 @@ public class Settings {
 	private int maxBlocksPerRequest = 100;
 	/** Maximum number of blocks this node will serve in a single response */
 	private int maxBlocksPerResponse = 200;
+	/** Number of GET_BLOCK requests to keep in flight at once while synchronizing */
+	private int syncBlockFetchWindow = 8;
+	/** Maximum number of additional peers (sharing the same common block) to fetch blocks from while synchronizing */
+	private int maxSyncHelperPeers = 3;
+	/** Number of threads used to verify block signatures while synchronizing, ahead of validation and processing */
+	private int syncVerificationPoolSize = 2;
 
 	// Which blockchains this node is running
 	private String blockchainConfig = null; // use default from resources
@@ -250,6 +264,14 @@ public class Settings {
 
 	// Bootstrap
 	private String bootstrapFilenamePrefix = "";
+	/**
+	 * Number of threads used to compress bootstraps.
+	 * Each thread needs roughly 50MB for its encoder plus 12MB per block, and one more block than threads is buffered,
+	 * so the default of 4 needs roughly 260MB on top of normal usage.
+	 */
+	private int bootstrapCompressionPoolSize = 4;
+	/** Number of threads used to extract bootstraps, each extracting a different file */
+	private int bootstrapExtractionPoolSize = 4;
 
 	// Bootstrap sources
 	private String[] bootstrapHosts = new String[] {
@@ -621,6 +643,10 @@ public class Settings {
 		return this.blockCacheSize;
 	}
 
+	public long getBlockMessageCacheSize() {
+		return this.blockMessageCacheSize;
+	}
+
 	public boolean isTestNet() {
 		return this.isTestNet;
 	}
@@ -668,6 +694,10 @@ public class Settings {
 		return this.networkPoWComputePoolSize;
 	}
 
+	public int getTransactionVerificationPoolSize() {
+		return this.transactionVerificationPoolSize;
+	}
+
 	public int getMaxRetries() { return this.maxRetries; }
 
 	public String getMinPeerVersion() { return this.minPeerVersion; }
@@ -730,6 +760,14 @@ public class Settings {
 		return this.bootstrapFilenamePrefix;
 	}
 
+	public int getBootstrapCompressionPoolSize() {
+		return this.bootstrapCompressionPoolSize;
+	}
+
+	public int getBootstrapExtractionPoolSize() {
+		return this.bootstrapExtractionPoolSize;
+	}
+
 	public boolean isFastSyncEnabled() {
 		return this.fastSyncEnabled;
 	}
@@ -742,6 +780,18 @@ public class Settings {
 
 	public int getMaxBlocksPerResponse() { return this.maxBlocksPerResponse; }
 
+	public int getSyncBlockFetchWindow() {
+		return this.syncBlockFetchWindow;
+	}
+
+	public int getMaxSyncHelperPeers() {
+		return this.maxSyncHelperPeers;
+	}
+
+	public int getSyncVerificationPoolSize() {
+		return this.syncVerificationPoolSize;
+	}
+
 	public boolean isAutoUpdateEnabled() {
 		return this.autoUpdateEnabled;
 	}
@@ -866,6 +916,14 @@ public class Settings {
 		return this.archiveInterval;
 	}
 
+	public boolean isArchiveMemoryMapped() {
+		return this.archiveMemoryMapped;
+	}
+
+	public int getArchiveMappedFileCacheSize() {
+		return this.archiveMappedFileCacheSize;
+	}
+
 
 	public boolean getBootstrap() {
 		return this.bootstrap;
@@ -9,6 +9,7 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.util.stream.Stream;
 
 public class FilesystemUtils {
 
@@ -51,6 +52,56 @@ public class FilesystemUtils {
     }
 
 
+    /**
+     * linkOrCopyDirectory
+     * Duplicates a directory tree by hard-linking each file, which is much quicker than copying,
+     * and needs no extra disk space. Falls back to copying if hard links aren't supported,
+     * e.g. when source and destination are on different filesystems.
+     *
+     * Linked files share their contents, so they must be replaced rather than modified in place.
+     *
+     * @param source
+     * @param dest
+     * @throws IOException
+     */
+    public static void linkOrCopyDirectory(Path source, Path dest) throws IOException {
+        if (!Files.isDirectory(source)) {
+            throw new IOException("Source directory doesn't exist");
+        }
+
+        // If the destination directory isn't empty, delete its contents
+        if (!FilesystemUtils.isDirectoryEmpty(dest)) {
+            FileUtils.deleteDirectory(dest.toFile());
+        }
+        Files.createDirectories(dest);
+
+        boolean canLink = true;
+
+        try (Stream<Path> sourcePaths = Files.walk(source)) {
+            for (Path sourcePath : (Iterable<Path>) sourcePaths::iterator) {
+                Path destPath = dest.resolve(source.relativize(sourcePath).toString());
+
+                if (Files.isDirectory(sourcePath)) {
+                    Files.createDirectories(destPath);
+                    continue;
+                }
+
+                if (canLink) {
+                    try {
+                        Files.createLink(destPath, sourcePath);
+                        continue;
+                    } catch (IOException | UnsupportedOperationException e) {
+                        // No point trying again for remaining files
+                        canLink = false;
+                    }
+                }
+
+                Files.copy(sourcePath, destPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+
     /**
      * moveFile
      * Allows files to be moved between filesystems
@@ -0,0 +1,242 @@
+package org.qortal.utils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.qortal.crypto.Crypto;
+
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+
+/**
+ * Invertible Bloom lookup table of fixed-length keys, e.g. public keys.
+ * <p>
+ * Used to find the difference between two sets of keys, held by different nodes,
+ * by exchanging a table sized by the expected difference, rather than by the sets themselves.
+ * <p>
+ * Each key is added to one cell in each of {@link #HASH_COUNT} equal-sized subtables,
+ * using XOR, so adding and removing keys are cheap and order doesn't matter.
+ * Subtracting a peer's table from ours leaves only the keys that are in one set but not the other,
+ * which are then listed by repeatedly removing keys from cells that hold exactly one key.
+ * Listing fails if the difference is too large for the table, becoming likely beyond about half the cell count.
+ */
+public class InvertibleBloomLookupTable {
+
+	public static final int HASH_COUNT = 3;
+
+	/** Difference between two tables, as returned by {@link #listDifference()} */
+	public static class Difference {
+		private final List<byte[]> ourKeys;
+		private final List<byte[]> theirKeys;
+
+		private Difference(List<byte[]> ourKeys, List<byte[]> theirKeys) {
+			this.ourKeys = ourKeys;
+			this.theirKeys = theirKeys;
+		}
+
+		/** Keys only in table that was subtracted from */
+		public List<byte[]> getOurKeys() {
+			return this.ourKeys;
+		}
+
+		/** Keys only in table that was subtracted */
+		public List<byte[]> getTheirKeys() {
+			return this.theirKeys;
+		}
+	}
+
+	private final int keyLength;
+	private final int[] counts;
+	private final byte[][] keySums;
+	private final long[] hashSums;
+
+	public InvertibleBloomLookupTable(int cellCount, int keyLength) {
+		if (cellCount <= 0 || cellCount % HASH_COUNT != 0)
+			throw new IllegalArgumentException(String.format("Cell count must be a positive multiple of %d", HASH_COUNT));
+
+		this.keyLength = keyLength;
+		this.counts = new int[cellCount];
+		this.keySums = new byte[cellCount][keyLength];
+		this.hashSums = new long[cellCount];
+	}
+
+	public int getCellCount() {
+		return this.counts.length;
+	}
+
+	public int getKeyLength() {
+		return this.keyLength;
+	}
+
+	/** Returns whether this table can be subtracted from, or by, other table. */
+	public boolean isCompatible(InvertibleBloomLookupTable other) {
+		return other != null && other.getCellCount() == this.getCellCount() && other.keyLength == this.keyLength;
+	}
+
+	public synchronized void insert(byte[] key) {
+		this.update(key, 1);
+	}
+
+	public synchronized void delete(byte[] key) {
+		this.update(key, -1);
+	}
+
+	private void update(byte[] key, int delta) {
+		if (key.length != this.keyLength)
+			throw new IllegalArgumentException("Incorrect key length");
+
+		byte[] digest = Crypto.digest(key);
+		long keyHash = Longs.fromByteArray(digest);
+
+		for (int i = 0; i < HASH_COUNT; ++i) {
+			int index = this.getIndex(digest, i);
+
+			this.counts[index] += delta;
+			xorInPlace(this.keySums[index], key);
+			this.hashSums[index] ^= keyHash;
+		}
+	}
+
+	/** Returns cell index for key digest, using 4 bytes of digest (after key hash) per subtable. */
+	private int getIndex(byte[] digest, int subtable) {
+		final int subtableSize = this.counts.length / HASH_COUNT;
+		final int offset = Long.BYTES + subtable * Integer.BYTES;
+
+		int value = Ints.fromBytes(digest[offset], digest[offset + 1], digest[offset + 2], digest[offset + 3]);
+
+		return subtable * subtableSize + Integer.remainderUnsigned(value, subtableSize);
+	}
+
+	private static void xorInPlace(byte[] inplaceArray, byte[] otherArray) {
+		for (int i = 0; i < inplaceArray.length; ++i)
+			inplaceArray[i] ^= otherArray[i];
+	}
+
+	private synchronized InvertibleBloomLookupTable copy() {
+		InvertibleBloomLookupTable copy = new InvertibleBloomLookupTable(this.getCellCount(), this.keyLength);
+
+		for (int i = 0; i < this.counts.length; ++i) {
+			copy.counts[i] = this.counts[i];
+			System.arraycopy(this.keySums[i], 0, copy.keySums[i], 0, this.keyLength);
+			copy.hashSums[i] = this.hashSums[i];
+		}
+
+		return copy;
+	}
+
+	/**
+	 * Returns new table holding difference between this table and other table.
+	 * Neither this table nor other table are modified.
+	 */
+	public InvertibleBloomLookupTable subtract(InvertibleBloomLookupTable other) {
+		if (!this.isCompatible(other))
+			throw new IllegalArgumentException("Incompatible tables");
+
+		// Copy other table first, so we never hold both locks at once
+		InvertibleBloomLookupTable otherCopy = other.copy();
+		InvertibleBloomLookupTable difference = this.copy();
+
+		for (int i = 0; i < difference.counts.length; ++i) {
+			difference.counts[i] -= otherCopy.counts[i];
+			xorInPlace(difference.keySums[i], otherCopy.keySums[i]);
+			difference.hashSums[i] ^= otherCopy.hashSums[i];
+		}
+
+		return difference;
+	}
+
+	/**
+	 * Lists keys held by difference table, as returned by {@link #subtract(InvertibleBloomLookupTable)}.
+	 *
+	 * @return difference, or null if difference was too large to list using this table
+	 */
+	public Difference listDifference() {
+		InvertibleBloomLookupTable table = this.copy();
+
+		List<byte[]> ourKeys = new ArrayList<>();
+		List<byte[]> theirKeys = new ArrayList<>();
+
+		boolean hasRemovedKey = true;
+		while (hasRemovedKey) {
+			hasRemovedKey = false;
+
+			for (int i = 0; i < table.counts.length; ++i) {
+				if (!table.isPure(i))
+					continue;
+
+				byte[] key = table.keySums[i].clone();
+				int count = table.counts[i];
+
+				if (count > 0)
+					ourKeys.add(key);
+				else
+					theirKeys.add(key);
+
+				// Genuine differences can't exceed cell count, so bail out rather than loop on crafted tables
+				if (ourKeys.size() + theirKeys.size() > table.counts.length)
+					return null;
+
+				table.update(key, -count);
+				hasRemovedKey = true;
+			}
+		}
+
+		if (!table.isEmpty())
+			return null;
+
+		return new Difference(Collections.unmodifiableList(ourKeys), Collections.unmodifiableList(theirKeys));
+	}
+
+	/** Returns whether cell holds exactly one key, either added or removed. */
+	private boolean isPure(int index) {
+		if (this.counts[index] != 1 && this.counts[index] != -1)
+			return false;
+
+		return this.hashSums[index] == Longs.fromByteArray(Crypto.digest(this.keySums[index]));
+	}
+
+	private boolean isEmpty() {
+		byte[] emptyKeySum = new byte[this.keyLength];
+
+		for (int i = 0; i < this.counts.length; ++i)
+			if (this.counts[i] != 0 || this.hashSums[i] != 0 || !Arrays.equals(this.keySums[i], emptyKeySum))
+				return false;
+
+		return true;
+	}
+
+	// Serialization
+
+	/** Returns serialized length of each cell: count, then key sum, then hash sum. */
+	public static int getCellLength(int keyLength) {
+		return Integer.BYTES + keyLength + Long.BYTES;
+	}
+
+	public synchronized byte[] toBytes() {
+		ByteBuffer bytes = ByteBuffer.allocate(this.counts.length * getCellLength(this.keyLength));
+
+		for (int i = 0; i < this.counts.length; ++i) {
+			bytes.putInt(this.counts[i]);
+			bytes.put(this.keySums[i]);
+			bytes.putLong(this.hashSums[i]);
+		}
+
+		return bytes.array();
+	}
+
+	public static InvertibleBloomLookupTable fromByteBuffer(ByteBuffer bytes, int cellCount, int keyLength) {
+		InvertibleBloomLookupTable table = new InvertibleBloomLookupTable(cellCount, keyLength);
+
+		for (int i = 0; i < cellCount; ++i) {
+			table.counts[i] = bytes.getInt();
+			bytes.get(table.keySums[i]);
+			table.hashSums[i] = bytes.getLong();
+		}
+
+		return table;
+	}
+
+}
@@ -0,0 +1,487 @@
+package org.qortal.utils;
+
+import org.tukaani.xz.FinishableOutputStream;
+import org.tukaani.xz.FinishableWrapperOutputStream;
+import org.tukaani.xz.LZMA2Options;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+/**
+ * Writes 7z archives, compressing with LZMA2 using multiple threads.
+ * <p>
+ * Each file is split into blocks, which are compressed in parallel. Every LZMA2 stream starts with a
+ * dictionary reset, so the compressed blocks, minus their end markers, join up into one valid LZMA2 stream
+ * per file. This is how 7-Zip's own multithreaded LZMA2 encoder works. Compression is slightly worse than
+ * a single stream, as each block starts with an empty dictionary.
+ * <p>
+ * Blocks are written in order, with only a few in progress at once, so memory use doesn't depend on file size.
+ * With the default options, each thread needs roughly 50MB for its encoder, plus 12MB per uncompressed block,
+ * of which there are at most one more than the number of threads.
+ * <p>
+ * Like SevenZOutputFile, each file is stored separately (non-solid), and archives can be extracted
+ * using {@link SevenZ#decompress(String, File)} or any 7z tool. Directories are stored too, so empty
+ * directories survive extraction.
+ */
+public class ParallelSevenZOutputFile implements Closeable {
+
+    private static final byte[] SIGNATURE = { '7', 'z', (byte) 0xBC, (byte) 0xAF, 0x27, 0x1C };
+    private static final byte FORMAT_MAJOR_VERSION = 0;
+    private static final byte FORMAT_MINOR_VERSION = 4;
+    private static final int START_HEADER_LENGTH = 32;
+
+    private static final byte[] LZMA2_METHOD_ID = { 0x21 };
+    private static final byte[] LZMA2_END_MARKER = { 0x00 };
+    private static final byte LZMA2_MAX_DICT_SIZE_PROPERTY = 40;
+
+    /** Blocks are a few times the dictionary size, as the dictionary is reset at the start of each block */
+    private static final int BLOCK_SIZE_DICTIONARIES = 3;
+
+    /**
+     * Default dictionary size, smaller than LZMA2Options' default of 8MiB to keep encoder memory down,
+     * as compression can run alongside other work, e.g. synchronization during bootstrap creation.
+     */
+    private static final int DEFAULT_DICT_SIZE = 4 * 1024 * 1024;
+
+    /** Difference between 7z timestamps (100ns intervals since 1601) and Java timestamps (ms since 1970) */
+    private static final long NTFS_EPOCH_OFFSET = 11644473600000L;
+
+    // Header property IDs
+    private static final int K_END = 0x00;
+    private static final int K_HEADER = 0x01;
+    private static final int K_MAIN_STREAMS_INFO = 0x04;
+    private static final int K_FILES_INFO = 0x05;
+    private static final int K_PACK_INFO = 0x06;
+    private static final int K_UNPACK_INFO = 0x07;
+    private static final int K_SUB_STREAMS_INFO = 0x08;
+    private static final int K_SIZE = 0x09;
+    private static final int K_CRC = 0x0A;
+    private static final int K_FOLDER = 0x0B;
+    private static final int K_CODERS_UNPACK_SIZE = 0x0C;
+    private static final int K_EMPTY_STREAM = 0x0E;
+    private static final int K_EMPTY_FILE = 0x0F;
+    private static final int K_NAME = 0x11;
+    private static final int K_MTIME = 0x14;
+
+    private static class Entry {
+        private final String name;
+        private final long lastModified;
+        private final boolean isDirectory;
+        private long size;
+        private long crc;
+        private long packedSize;
+        private final CRC32 packedCrc32 = new CRC32();
+
+        private Entry(String name, long lastModified, boolean isDirectory) {
+            this.name = name;
+            this.lastModified = lastModified;
+            this.isDirectory = isDirectory;
+        }
+
+        private boolean hasStream() {
+            return this.size > 0;
+        }
+    }
+
+    private static class PendingBlock {
+        private final Entry entry;
+        private final Future<byte[]> compressedBlock;
+
+        private PendingBlock(Entry entry, Future<byte[]> compressedBlock) {
+            this.entry = entry;
+            this.compressedBlock = compressedBlock;
+        }
+    }
+
+    private final FileChannel channel;
+    private final LZMA2Options options;
+    private final int blockSize;
+    private final ExecutorService executor;
+    private final int maxPendingBlocks;
+
+    private final List<Entry> entries = new ArrayList<>();
+    private final Deque<PendingBlock> pendingBlocks = new ArrayDeque<>();
+    private boolean finished = false;
+    private boolean failed = false;
+
+    public ParallelSevenZOutputFile(Path outputPath, int threadCount) throws IOException {
+        this(outputPath, threadCount, defaultOptions());
+    }
+
+    private static LZMA2Options defaultOptions() {
+        LZMA2Options options = new LZMA2Options();
+        options.setDictSize(DEFAULT_DICT_SIZE);
+        return options;
+    }
+
+    /**
+     * @param options LZMA2 options; block size is a few times the dictionary size
+     */
+    public ParallelSevenZOutputFile(Path outputPath, int threadCount, LZMA2Options options) throws IOException {
+        if (threadCount < 1)
+            throw new IllegalArgumentException("Thread count must be at least 1");
+
+        this.options = options;
+        this.blockSize = BLOCK_SIZE_DICTIONARIES * this.options.getDictSize();
+        // Enough to keep every thread busy while the oldest block is written
+        this.maxPendingBlocks = threadCount + 1;
+
+        this.channel = FileChannel.open(outputPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        // Start header is written last, once we know where the header is
+        this.channel.position(START_HEADER_LENGTH);
+
+        this.executor = Executors.newFixedThreadPool(threadCount, new NamedThreadFactory("SevenZ-Compress"));
+    }
+
+    /** Returns size of uncompressed blocks that files are split into for compression. */
+    public int getBlockSize() {
+        return this.blockSize;
+    }
+
+    /**
+     * Adds file, or directory and its contents, to archive, using same entry naming as {@link SevenZ#compress(String, File...)}.
+     */
+    public void add(File file, String dir) throws IOException, InterruptedException {
+        String name = dir + File.separator + file.getName();
+
+        if (file.isFile()) {
+            this.addFile(file.toPath(), name);
+        } else if (file.isDirectory()) {
+            this.addDirectory(file.toPath(), name);
+
+            File[] children = file.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    this.add(child, name);
+                }
+            }
+        }
+    }
+
+    public void addDirectory(Path path, String name) throws IOException {
+        this.entries.add(new Entry(name, Files.getLastModifiedTime(path).toMillis(), true));
+    }
+
+    public void addFile(Path path, String name) throws IOException, InterruptedException {
+        Entry entry = new Entry(name, Files.getLastModifiedTime(path).toMillis(), false);
+        this.entries.add(entry);
+
+        CRC32 crc32 = new CRC32();
+
+        try (InputStream in = Files.newInputStream(path)) {
+            while (true) {
+                byte[] block = in.readNBytes(this.blockSize);
+                if (block.length == 0)
+                    break;
+
+                crc32.update(block);
+                entry.size += block.length;
+
+                this.queueBlock(entry, this.executor.submit(() -> this.compressBlock(block)));
+
+                if (block.length < this.blockSize)
+                    break;
+            }
+        } catch (IOException | InterruptedException e) {
+            this.failed = true;
+            throw e;
+        }
+
+        entry.crc = crc32.getValue();
+
+        // Terminate this file's LZMA2 stream, once all its blocks have been written
+        if (entry.hasStream())
+            this.queueBlock(entry, CompletableFuture.completedFuture(LZMA2_END_MARKER));
+    }
+
+    private byte[] compressBlock(byte[] block) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(block.length / 2);
+
+        try (FinishableOutputStream out = this.options.getOutputStream(new FinishableWrapperOutputStream(bytes))) {
+            out.write(block);
+            out.finish();
+        }
+
+        // Drop end marker, so that blocks can be joined together
+        byte[] compressed = bytes.toByteArray();
+        return Arrays.copyOf(compressed, compressed.length - 1);
+    }
+
+    private void queueBlock(Entry entry, Future<byte[]> compressedBlock) throws IOException, InterruptedException {
+        this.pendingBlocks.add(new PendingBlock(entry, compressedBlock));
+
+        if (this.pendingBlocks.size() >= this.maxPendingBlocks)
+            this.writeNextBlock();
+    }
+
+    private void writeNextBlock() throws IOException, InterruptedException {
+        PendingBlock pendingBlock = this.pendingBlocks.remove();
+
+        byte[] compressed;
+        try {
+            compressed = pendingBlock.compressedBlock.get();
+        } catch (ExecutionException e) {
+            this.failed = true;
+            throw new IOException("Unable to compress block", e.getCause());
+        } catch (InterruptedException e) {
+            this.failed = true;
+            throw e;
+        }
+
+        this.write(ByteBuffer.wrap(compressed));
+
+        pendingBlock.entry.packedSize += compressed.length;
+        pendingBlock.entry.packedCrc32.update(compressed);
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        try {
+            while (buffer.hasRemaining())
+                this.channel.write(buffer);
+        } catch (IOException e) {
+            this.failed = true;
+            throw e;
+        }
+    }
+
+    /**
+     * Writes remaining blocks, then header, completing archive.
+     */
+    public void finish() throws IOException, InterruptedException {
+        if (this.finished)
+            throw new IOException("Archive has already been finished");
+
+        while (!this.pendingBlocks.isEmpty())
+            this.writeNextBlock();
+
+        long headerPosition = this.channel.position();
+        byte[] header = this.buildHeader();
+        this.write(ByteBuffer.wrap(header));
+
+        CRC32 headerCrc32 = new CRC32();
+        headerCrc32.update(header);
+
+        ByteBuffer startHeader = ByteBuffer.allocate(START_HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        startHeader.put(SIGNATURE);
+        startHeader.put(FORMAT_MAJOR_VERSION);
+        startHeader.put(FORMAT_MINOR_VERSION);
+        startHeader.putInt(0); // start header CRC, filled in below
+        startHeader.putLong(headerPosition - START_HEADER_LENGTH);
+        startHeader.putLong(header.length);
+        startHeader.putInt((int) headerCrc32.getValue());
+
+        CRC32 startHeaderCrc32 = new CRC32();
+        startHeaderCrc32.update(startHeader.array(), 12, START_HEADER_LENGTH - 12);
+        startHeader.putInt(8, (int) startHeaderCrc32.getValue());
+
+        startHeader.flip();
+        this.channel.position(0);
+        this.write(startHeader);
+
+        this.finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!this.finished && !this.failed)
+                this.finish();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while finishing archive");
+        } finally {
+            this.executor.shutdownNow();
+            this.channel.close();
+        }
+    }
+
+    // Header
+
+    private byte[] buildHeader() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(bytes);
+
+        header.write(K_HEADER);
+
+        this.writeStreamsInfo(header);
+        this.writeFilesInfo(header);
+
+        header.write(K_END);
+        header.flush();
+
+        return bytes.toByteArray();
+    }
+
+    private void writeStreamsInfo(DataOutputStream header) throws IOException {
+        List<Entry> streamEntries = this.entries.stream().filter(Entry::hasStream).collect(Collectors.toList());
+
+        header.write(K_MAIN_STREAMS_INFO);
+
+        if (!streamEntries.isEmpty()) {
+            // Packed streams, one per file
+            header.write(K_PACK_INFO);
+            writeNumber(header, 0); // pack position
+            writeNumber(header, streamEntries.size());
+
+            header.write(K_SIZE);
+            for (Entry entry : streamEntries)
+                writeNumber(header, entry.packedSize);
+
+            header.write(K_CRC);
+            header.write(1); // all CRCs defined
+            for (Entry entry : streamEntries)
+                header.writeInt(Integer.reverseBytes((int) entry.packedCrc32.getValue()));
+
+            header.write(K_END);
+
+            // Folders, one per file, each with a single LZMA2 coder
+            byte[] properties = { this.getDictionarySizeProperty() };
+
+            header.write(K_UNPACK_INFO);
+            header.write(K_FOLDER);
+            writeNumber(header, streamEntries.size());
+            header.write(0); // not external
+
+            for (int i = 0; i < streamEntries.size(); ++i) {
+                writeNumber(header, 1); // number of coders
+                header.write(LZMA2_METHOD_ID.length | 0x20); // simple coder, with properties
+                header.write(LZMA2_METHOD_ID);
+                writeNumber(header, properties.length);
+                header.write(properties);
+            }
+
+            header.write(K_CODERS_UNPACK_SIZE);
+            for (Entry entry : streamEntries)
+                writeNumber(header, entry.size);
+
+            header.write(K_CRC);
+            header.write(1); // all CRCs defined
+            for (Entry entry : streamEntries)
+                header.writeInt(Integer.reverseBytes((int) entry.crc));
+
+            header.write(K_END);
+        }
+
+        // One stream per folder, so nothing more to say
+        header.write(K_SUB_STREAMS_INFO);
+        header.write(K_END);
+
+        header.write(K_END);
+    }
+
+    private void writeFilesInfo(DataOutputStream header) throws IOException {
+        header.write(K_FILES_INFO);
+        writeNumber(header, this.entries.size());
+
+        BitSet emptyStreams = new BitSet(this.entries.size());
+        for (int i = 0; i < this.entries.size(); ++i)
+            emptyStreams.set(i, !this.entries.get(i).hasStream());
+
+        if (!emptyStreams.isEmpty()) {
+            header.write(K_EMPTY_STREAM);
+            writeProperty(header, bitsToBytes(emptyStreams, this.entries.size()));
+
+            // Entries without streams are directories, unless marked as empty files
+            int emptyStreamCount = emptyStreams.cardinality();
+            BitSet emptyFiles = new BitSet(emptyStreamCount);
+            int emptyStreamIndex = 0;
+            for (Entry entry : this.entries)
+                if (!entry.hasStream())
+                    emptyFiles.set(emptyStreamIndex++, !entry.isDirectory);
+
+            header.write(K_EMPTY_FILE);
+            writeProperty(header, bitsToBytes(emptyFiles, emptyStreamCount));
+        }
+
+        ByteArrayOutputStream names = new ByteArrayOutputStream();
+        names.write(0); // not external
+        for (Entry entry : this.entries) {
+            names.write(entry.name.getBytes(StandardCharsets.UTF_16LE));
+            names.write(0);
+            names.write(0);
+        }
+        header.write(K_NAME);
+        writeProperty(header, names.toByteArray());
+
+        ByteArrayOutputStream modifiedTimes = new ByteArrayOutputStream();
+        DataOutputStream modifiedTimesOut = new DataOutputStream(modifiedTimes);
+        modifiedTimesOut.write(1); // all defined
+        modifiedTimesOut.write(0); // not external
+        for (Entry entry : this.entries)
+            modifiedTimesOut.writeLong(Long.reverseBytes((entry.lastModified + NTFS_EPOCH_OFFSET) * 10000L));
+        modifiedTimesOut.flush();
+        header.write(K_MTIME);
+        writeProperty(header, modifiedTimes.toByteArray());
+
+        header.write(K_END);
+    }
+
+    /**
+     * Returns LZMA2 dictionary size property, encoding the smallest size of form 2^n or 3*2^n that fits the dictionary.
+     * <p>
+     * Must not be smaller than the encoder's dictionary, or decoders can fail on valid data.
+     */
+    private byte getDictionarySizeProperty() {
+        int dictSize = this.options.getDictSize();
+
+        for (byte property = 0; property < LZMA2_MAX_DICT_SIZE_PROPERTY; ++property) {
+            // Even properties are 2^(p/2 + 12), odd properties are 3 * 2^((p-1)/2 + 11)
+            long propertyDictSize = (long) (2 | (property & 1)) << (property / 2 + 11);
+            if (propertyDictSize >= dictSize)
+                return property;
+        }
+
+        // Means 4GiB - 1
+        return LZMA2_MAX_DICT_SIZE_PROPERTY;
+    }
+
+    private static void writeProperty(DataOutputStream header, byte[] value) throws IOException {
+        writeNumber(header, value.length);
+        header.write(value);
+    }
+
+    private static byte[] bitsToBytes(BitSet bits, int length) {
+        byte[] bytes = new byte[(length + 7) / 8];
+
+        // 7z stores bits most-significant first
+        for (int i = bits.nextSetBit(0); i >= 0 && i < length; i = bits.nextSetBit(i + 1))
+            bytes[i / 8] |= 0x80 >>> (i % 8);
+
+        return bytes;
+    }
+
+    /** Writes number using 7z's variable-length encoding, where leading 1-bits of first byte give number of extra bytes. */
+    private static void writeNumber(DataOutputStream header, long value) throws IOException {
+        int first = 0;
+        int mask = 0x80;
+        int extraBytes;
+
+        for (extraBytes = 0; extraBytes < 8; ++extraBytes) {
+            if (value < (1L << (7 * (extraBytes + 1)))) {
+                first |= (int) (value >>> (8 * extraBytes));
+                break;
+            }
+
+            first |= mask;
+            mask >>>= 1;
+        }
+
+        header.write(first);
+
+        for (; extraBytes > 0; --extraBytes) {
+            header.write((int) (value & 0xFF));
+            value >>>= 8;
+        }
+    }
+
+}
@@ -12,6 +12,14 @@ import org.apache.commons.compress.archivers.sevenz.SevenZOutputFile;
 import org.qortal.gui.SplashFrame;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class SevenZ {
 
@@ -27,14 +35,29 @@ public class SevenZ {
         }
     }
 
+    /**
+     * Same as {@link #compress(String, File...)}, but compressing with multiple threads.
+     * Output is slightly larger, but compresses several times quicker on multi-core machines.
+     */
+    public static void compress(String outputPath, int threadCount, File... files) throws IOException, InterruptedException {
+        try (ParallelSevenZOutputFile out = new ParallelSevenZOutputFile(new File(outputPath).toPath(), threadCount)) {
+            for (File file : files) {
+                out.add(file, ".");
+            }
+            out.finish();
+        }
+    }
+
     public static void decompress(String in, File destination) throws IOException {
         SevenZFile sevenZFile = new SevenZFile(new File(in));
         SevenZArchiveEntry entry;
         while ((entry = sevenZFile.getNextEntry()) != null){
+            File curfile = new File(destination, entry.getName());
             if (entry.isDirectory()){
+                // Could be empty, so wouldn't otherwise be created
+                curfile.mkdirs();
                 continue;
             }
-            File curfile = new File(destination, entry.getName());
             File parent = curfile.getParentFile();
             if (!parent.exists()) {
                 parent.mkdirs();
@@ -57,6 +80,102 @@ public class SevenZ {
         }
     }
 
+    /**
+     * Same as {@link #decompress(String, File)}, but extracting several files at once, each on its own thread.
+     * Archives created by {@link #compress(String, File...)} store each file separately (non-solid),
+     * so files can be read in any order.
+     */
+    public static void decompress(String in, File destination, int threadCount) throws IOException, InterruptedException {
+        List<SevenZArchiveEntry> entries = new ArrayList<>();
+        try (SevenZFile sevenZFile = new SevenZFile(new File(in))) {
+            sevenZFile.getEntries().forEach(entries::add);
+        }
+
+        // Create directories up front, as they could be empty, so wouldn't otherwise be created
+        for (SevenZArchiveEntry entry : entries) {
+            if (entry.isDirectory()) {
+                getDestinationFile(destination, entry).mkdirs();
+            }
+        }
+
+        // Largest files first, so that one big file isn't left extracting on its own at the end
+        Queue<Integer> entryIndexes = IntStream.range(0, entries.size())
+                .filter(i -> !entries.get(i).isDirectory())
+                .boxed()
+                .sorted(Comparator.comparingLong((Integer i) -> entries.get(i).getSize()).reversed())
+                .collect(Collectors.toCollection(ConcurrentLinkedQueue::new));
+
+        long totalSize = entries.stream().filter(entry -> !entry.isDirectory()).mapToLong(SevenZArchiveEntry::getSize).sum();
+        AtomicLong extracted = new AtomicLong();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount, new NamedThreadFactory("SevenZ-Extract"));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threadCount; ++i) {
+                futures.add(executor.submit(() -> {
+                    extractEntries(in, destination, entryIndexes, totalSize, extracted);
+                    return null;
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw new IOException(String.format("Unable to extract %s", in), e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void extractEntries(String in, File destination, Queue<Integer> entryIndexes, long totalSize, AtomicLong extracted) throws IOException {
+        try (SevenZFile sevenZFile = new SevenZFile(new File(in))) {
+            // Entries can only be read by the SevenZFile they came from
+            List<SevenZArchiveEntry> entries = new ArrayList<>();
+            sevenZFile.getEntries().forEach(entries::add);
+
+            Integer entryIndex;
+            while ((entryIndex = entryIndexes.poll()) != null) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Interrupted while extracting");
+                }
+
+                SevenZArchiveEntry entry = entries.get(entryIndex);
+                File curfile = getDestinationFile(destination, entry);
+
+                File parent = curfile.getParentFile();
+                if (!parent.exists()) {
+                    parent.mkdirs();
+                }
+
+                try (InputStream entryIn = sevenZFile.getInputStream(entry);
+                     FileOutputStream out = new FileOutputStream(curfile)) {
+                    byte[] b = new byte[1024 * 1024];
+                    int count;
+
+                    while ((count = entryIn.read(b)) > 0) {
+                        out.write(b, 0, count);
+                        long totalExtracted = extracted.addAndGet(count);
+
+                        int progress = (int)((double)totalExtracted / (double)totalSize * 100);
+                        SplashFrame.getInstance().updateStatus(String.format("Extracting... (%d%%)", progress));
+                    }
+                }
+            }
+        }
+    }
+
+    /** Returns where entry should be extracted to, refusing entries that would end up outside of destination. */
+    private static File getDestinationFile(File destination, SevenZArchiveEntry entry) throws IOException {
+        File curfile = new File(destination, entry.getName());
+        if (!curfile.getCanonicalPath().startsWith(destination.getCanonicalPath() + File.separator)) {
+            throw new IOException(String.format("Entry %s is outside of destination", entry.getName()));
+        }
+        return curfile;
+    }
+
     private static void addToArchiveCompression(SevenZOutputFile out, File file, String dir) throws IOException {
         String name = dir + File.separator + file.getName();
         if (file.isFile()){
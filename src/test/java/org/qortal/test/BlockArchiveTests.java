@@ -1,6 +1,7 @@
 package org.qortal.test;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.reflect.FieldUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -154,6 +155,57 @@ public class BlockArchiveTests extends Common {
 		}
 	}
 
+	@Test
+	public void testMemoryMappedReader() throws DataException, InterruptedException, TransformationException, IOException, IllegalAccessException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+
+			// Mint some blocks so that we are able to archive them later
+			for (int i = 0; i < 1000; i++) {
+				BlockMinter.mintTestingBlock(repository, Common.getTestAccount(repository, "alice-reward-share"));
+			}
+
+			// 900 blocks are trimmed (this specifies the first untrimmed height)
+			repository.getBlockRepository().setOnlineAccountsSignaturesTrimHeight(901);
+			repository.getATRepository().setAtTrimHeight(901);
+
+			// Write blocks 2-900 to the archive
+			final int maximumArchiveHeight = BlockArchiveWriter.getMaxArchiveHeight(repository);
+			BlockArchiveWriter writer = new BlockArchiveWriter(0, maximumArchiveHeight, repository);
+			writer.setShouldEnforceFileSizeTarget(false); // To avoid the need to pre-calculate file sizes
+			BlockArchiveWriter.BlockArchiveWriteResult result = writer.write();
+			assertEquals(BlockArchiveWriter.BlockArchiveWriteResult.OK, result);
+
+			BlockArchiveReader reader = BlockArchiveReader.getInstance();
+
+			try {
+				for (int height = 2; height <= 900; height++) {
+					FieldUtils.writeField(Settings.getInstance(), "archiveMemoryMapped", true, true);
+					byte[] mappedBytes = reader.fetchSerializedBlockBytesForHeight(height);
+
+					FieldUtils.writeField(Settings.getInstance(), "archiveMemoryMapped", false, true);
+					byte[] fileBytes = reader.fetchSerializedBlockBytesForHeight(height);
+
+					assertNotNull(mappedBytes);
+					assertArrayEquals(fileBytes, mappedBytes);
+				}
+			} finally {
+				FieldUtils.writeField(Settings.getInstance(), "archiveMemoryMapped", true, true);
+			}
+
+			// Read range using mapped file
+			List<BlockTransformation> blockInfoList = reader.fetchBlocksFromRange(2, 900);
+			assertEquals(900 - 1, blockInfoList.size());
+			for (BlockTransformation blockInfo : blockInfoList) {
+				BlockData blockRepositoryData = repository.getBlockRepository().fromHeight(blockInfo.getBlockData().getHeight());
+				assertArrayEquals(blockRepositoryData.getSignature(), blockInfo.getBlockData().getSignature());
+			}
+
+			// Heights outside archive
+			assertNull(reader.fetchSerializedBlockBytesForHeight(1));
+			assertNull(reader.fetchSerializedBlockBytesForHeight(901));
+		}
+	}
+
 	@Test
 	public void testArchivedAtStates() throws DataException, InterruptedException, TransformationException, IOException {
 		try (final Repository repository = RepositoryManager.getRepository()) {
@@ -4,20 +4,27 @@ import java.util.Arrays;
 import java.util.Deque;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Random;
 import java.util.stream.Collectors;
 
+import org.apache.commons.lang3.reflect.FieldUtils;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.qortal.account.PrivateKeyAccount;
 import org.qortal.block.Block;
 import org.qortal.block.GenesisBlock;
+import org.qortal.controller.BlockMessageCache;
 import org.qortal.data.at.ATStateData;
 import org.qortal.data.block.BlockData;
 import org.qortal.data.transaction.TransactionData;
+import org.qortal.network.message.BlockV2Message;
+import org.qortal.network.message.CachedBlockMessage;
+import org.qortal.network.message.Message;
 import org.qortal.repository.DataException;
 import org.qortal.repository.Repository;
 import org.qortal.repository.RepositoryManager;
+import org.qortal.settings.Settings;
 import org.qortal.test.common.BlockUtils;
 import org.qortal.test.common.Common;
 import org.qortal.test.common.TransactionUtils;
@@ -263,6 +270,67 @@ public class BlockTests extends Common {
 				.collect(Collectors.toList());
 	}
 
+	@Test
+	public void testBlockMessageCache() throws IllegalAccessException {
+		final int blockLength = 1000; // bytes
+		FieldUtils.writeField(Settings.getInstance(), "blockMessageCacheSize", 10L * blockLength, true);
+
+		Random random = new Random();
+		BlockMessageCache blockMessageCache = new BlockMessageCache();
+
+		byte[] signature = new byte[64];
+		random.nextBytes(signature);
+
+		// Nothing cached yet
+		assertNull(blockMessageCache.get(signature, true));
+
+		Message blockMessage = new CachedBlockMessage(new byte[blockLength]);
+		blockMessageCache.put(signature, blockMessage);
+
+		// BLOCK message is acceptable whether or not peer supports BLOCK_V2
+		assertSame(blockMessage, blockMessageCache.get(signature, false));
+		assertSame(blockMessage, blockMessageCache.get(signature, true));
+
+		// BLOCK_V2 message is only returned when peer supports it
+		Message blockV2Message = new BlockV2Message(new byte[blockLength]);
+		blockMessageCache.put(signature, blockV2Message);
+		assertSame(blockMessage, blockMessageCache.get(signature, false));
+		assertSame(blockV2Message, blockMessageCache.get(signature, true));
+
+		// Cached messages can be cloned with new ID
+		Message clonedMessage = Message.cloneWithNewId(blockV2Message, 1234);
+		assertEquals(1234, clonedMessage.getId());
+		assertEquals(blockV2Message.getDataLength(), clonedMessage.getDataLength());
+
+		// Fill cache with other blocks, while keeping our block recently used
+		for (int i = 0; i < 20; ++i) {
+			byte[] otherSignature = new byte[64];
+			random.nextBytes(otherSignature);
+			blockMessageCache.put(otherSignature, new CachedBlockMessage(new byte[blockLength]));
+
+			assertNotNull(blockMessageCache.get(signature, false));
+		}
+
+		BlockMessageCache.Stats stats = blockMessageCache.getStats();
+		assertTrue("cache should be bounded by size", stats.bytes <= 10L * blockLength);
+		assertEquals(stats.entries * (long) blockLength, stats.bytes);
+		assertTrue(stats.evictions > 0);
+		assertEquals(1, stats.misses);
+
+		// Least recently used BLOCK_V2 message should have been evicted, but not recently used BLOCK message
+		assertSame(blockMessage, blockMessageCache.get(signature, true));
+
+		// Too big to cache
+		byte[] bigSignature = new byte[64];
+		random.nextBytes(bigSignature);
+		blockMessageCache.put(bigSignature, new CachedBlockMessage(new byte[10 * blockLength]));
+		assertNull(blockMessageCache.get(bigSignature, true));
+
+		blockMessageCache.invalidate(signature);
+		assertNull(blockMessageCache.get(signature, true));
+		assertEquals((stats.entries - 1) * (long) blockLength, blockMessageCache.getStats().bytes);
+	}
+
 	@Test
 	public void testCommonBlockSearch() {
 		// Given a list of block summaries, trim all trailing summaries after common block
@@ -1,5 +1,7 @@
 package org.qortal.test;
 
+import com.google.common.hash.HashCode;
+import com.sun.net.httpserver.HttpServer;
 import org.apache.commons.io.FileUtils;
 import org.junit.After;
 import org.junit.Before;
@@ -7,6 +9,7 @@ import org.junit.Test;
 import org.qortal.account.PrivateKeyAccount;
 import org.qortal.controller.BlockMinter;
 import org.qortal.controller.Controller;
+import org.qortal.crypto.Crypto;
 import org.qortal.data.block.BlockData;
 import org.qortal.repository.*;
 import org.qortal.settings.Settings;
@@ -16,9 +19,12 @@ import org.qortal.transform.TransformationException;
 import org.qortal.utils.NTP;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
@@ -26,6 +32,8 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 
@@ -140,6 +148,94 @@ public class BootstrapTests extends Common {
     }
 
 
+    @Test
+    public void testResumeDownload() throws IOException, DataException, InterruptedException {
+        byte[] bootstrapData = new byte[5 * 1024 * 1024];
+        new Random().nextBytes(bootstrapData);
+        String checksum = HashCode.fromBytes(Crypto.digest(bootstrapData)).toString();
+
+        // Local stand-in for a bootstrap host, which drops the first connection halfway through
+        AtomicInteger requestCount = new AtomicInteger();
+        HttpServer server = this.startBootstrapServer(bootstrapData, checksum, requestCount);
+        Path path = Files.createTempFile("bootstrap", ".7z");
+
+        try {
+            String bootstrapUrl = String.format("http://127.0.0.1:%d/bootstrap.7z", server.getAddress().getPort());
+            new Bootstrap().downloadToPath(bootstrapUrl, path);
+
+            // Second request should have resumed, rather than starting again
+            assertEquals(2, requestCount.get());
+            assertArrayEquals(bootstrapData, Files.readAllBytes(path));
+
+        } finally {
+            server.stop(0);
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    public void testDownloadChecksumMismatch() throws IOException, InterruptedException {
+        byte[] bootstrapData = new byte[1024 * 1024];
+        new Random().nextBytes(bootstrapData);
+        String wrongChecksum = HashCode.fromBytes(Crypto.digest(new byte[0])).toString();
+
+        HttpServer server = this.startBootstrapServer(bootstrapData, wrongChecksum, new AtomicInteger());
+        Path path = Files.createTempFile("bootstrap", ".7z");
+
+        try {
+            String bootstrapUrl = String.format("http://127.0.0.1:%d/bootstrap.7z", server.getAddress().getPort());
+            new Bootstrap().downloadToPath(bootstrapUrl, path);
+            fail("Download with mismatched checksum should fail");
+
+        } catch (DataException e) {
+            // Expected
+
+        } finally {
+            server.stop(0);
+            Files.deleteIfExists(path);
+        }
+    }
+
+    private HttpServer startBootstrapServer(byte[] bootstrapData, String checksum, AtomicInteger requestCount) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+
+        server.createContext("/bootstrap.7z.sha256", exchange -> {
+            byte[] response = String.format("%s  bootstrap.7z\n", checksum).getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+
+        server.createContext("/bootstrap.7z", exchange -> {
+            int request = requestCount.incrementAndGet();
+
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            int start = range == null ? 0 : Integer.parseInt(range.replaceAll("bytes=(\\d+)-", "$1"));
+            int length = bootstrapData.length - start;
+
+            if (range != null) {
+                exchange.getResponseHeaders().add("Content-Range", String.format("bytes %d-%d/%d", start, bootstrapData.length - 1, bootstrapData.length));
+            }
+            exchange.sendResponseHeaders(range == null ? 200 : 206, length);
+
+            OutputStream out = exchange.getResponseBody();
+            if (request == 1) {
+                // Drop connection halfway through
+                out.write(bootstrapData, start, length / 2);
+                out.flush();
+                exchange.close();
+                return;
+            }
+
+            out.write(bootstrapData, start, length);
+            out.close();
+        });
+
+        server.start();
+        return server;
+    }
+
     private void buildDummyBlockchain(Repository repository) throws DataException, InterruptedException, TransformationException, IOException {
         // Alice self share online
         List<PrivateKeyAccount> mintingAndOnlineAccounts = new ArrayList<>();
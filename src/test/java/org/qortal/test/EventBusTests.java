@@ -0,0 +1,153 @@
+package org.qortal.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.qortal.event.CoalescableEvent;
+import org.qortal.event.Event;
+import org.qortal.event.EventBus;
+import org.qortal.event.Listener;
+
+public class EventBusTests {
+
+	private static class NumberedEvent implements Event {
+		final int number;
+
+		NumberedEvent(int number) {
+			this.number = number;
+		}
+	}
+
+	private static class LatestEvent implements CoalescableEvent {
+		final int number;
+
+		LatestEvent(int number) {
+			this.number = number;
+		}
+	}
+
+	/** Listener that waits for go-ahead before processing its first event, so events can pile up */
+	private static class BlockedListener implements Listener {
+		final CountDownLatch goAhead = new CountDownLatch(1);
+		final List<Integer> numbers = Collections.synchronizedList(new ArrayList<>());
+		final CountDownLatch finished;
+
+		BlockedListener(int expectedEvents) {
+			this.finished = new CountDownLatch(expectedEvents);
+		}
+
+		@Override
+		public void listen(Event event) {
+			try {
+				this.goAhead.await();
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			if (event instanceof NumberedEvent)
+				this.numbers.add(((NumberedEvent) event).number);
+			else if (event instanceof LatestEvent)
+				this.numbers.add(((LatestEvent) event).number);
+			else
+				return;
+
+			this.finished.countDown();
+		}
+	}
+
+	@Test
+	public void testAsyncListener() throws InterruptedException {
+		final int eventCount = 100;
+		BlockedListener listener = new BlockedListener(eventCount);
+		EventBus.INSTANCE.addAsyncListener("test-async", listener, true);
+
+		try {
+			// Notifying mustn't wait for blocked listener
+			long startTime = System.currentTimeMillis();
+			for (int i = 0; i < eventCount; ++i)
+				EventBus.INSTANCE.notify(new NumberedEvent(i));
+			assertTrue(System.currentTimeMillis() - startTime < 1000L);
+
+			listener.goAhead.countDown();
+			assertTrue(listener.finished.await(10, TimeUnit.SECONDS));
+
+			// Non-coalescable events are all delivered, in order
+			for (int i = 0; i < eventCount; ++i)
+				assertEquals(i, (int) listener.numbers.get(i));
+
+			EventBus.ListenerStats stats = findStats("test-async");
+			assertEquals(0, stats.eventsCoalesced);
+			assertEquals(0, stats.eventsDropped);
+		} finally {
+			EventBus.INSTANCE.removeListener(listener);
+		}
+	}
+
+	@Test
+	public void testCoalescedEvents() throws InterruptedException {
+		// First event is taken by listener's thread straight away, then blocks, so remaining events queue up
+		BlockedListener listener = new BlockedListener(3);
+		EventBus.INSTANCE.addAsyncListener("test-coalesce", listener, true);
+
+		try {
+			EventBus.INSTANCE.notify(new LatestEvent(0));
+			waitForEmptyQueue("test-coalesce");
+
+			for (int i = 1; i <= 10; ++i)
+				EventBus.INSTANCE.notify(new LatestEvent(i));
+
+			EventBus.INSTANCE.notify(new NumberedEvent(99));
+
+			EventBus.ListenerStats stats = findStats("test-coalesce");
+			assertEquals("only latest coalescable event should be waiting, along with other event", 2, stats.queueSize);
+			assertEquals(9, stats.eventsCoalesced);
+
+			listener.goAhead.countDown();
+			assertTrue(listener.finished.await(10, TimeUnit.SECONDS));
+
+			assertEquals(List.of(0, 10, 99), listener.numbers);
+		} finally {
+			EventBus.INSTANCE.removeListener(listener);
+		}
+	}
+
+	@Test
+	public void testNoCoalescing() throws InterruptedException {
+		BlockedListener listener = new BlockedListener(11);
+		EventBus.INSTANCE.addAsyncListener("test-no-coalesce", listener, false);
+
+		try {
+			for (int i = 0; i <= 10; ++i)
+				EventBus.INSTANCE.notify(new LatestEvent(i));
+
+			listener.goAhead.countDown();
+			assertTrue(listener.finished.await(10, TimeUnit.SECONDS));
+
+			assertEquals(11, listener.numbers.size());
+			assertEquals(0, findStats("test-no-coalesce").eventsCoalesced);
+		} finally {
+			EventBus.INSTANCE.removeListener(listener);
+		}
+	}
+
+	private static void waitForEmptyQueue(String name) throws InterruptedException {
+		for (int i = 0; i < 100 && findStats(name).queueSize > 0; ++i)
+			Thread.sleep(10L);
+
+		assertEquals(0, findStats(name).queueSize);
+	}
+
+	private static EventBus.ListenerStats findStats(String name) {
+		return EventBus.INSTANCE.getListenerStats().stream()
+				.filter(stats -> stats.name.equals(name))
+				.findFirst()
+				.orElseThrow();
+	}
+
+}
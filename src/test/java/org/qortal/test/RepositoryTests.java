@@ -12,6 +12,7 @@ import org.qortal.data.account.AccountData;
 import org.qortal.repository.DataException;
 import org.qortal.repository.Repository;
 import org.qortal.repository.RepositoryManager;
+import org.qortal.repository.hsqldb.HSQLDBCheckpointLock;
 import org.qortal.repository.hsqldb.HSQLDBRepository;
 import org.qortal.test.common.BlockUtils;
 import org.qortal.test.common.Common;
@@ -438,6 +439,51 @@ public class RepositoryTests extends Common {
 		}
 	}
 
+	@Test
+	public void testCheckpointLock() throws InterruptedException, ExecutionException, TimeoutException {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+
+		Callable<Integer> query = () -> {
+			try (final Repository repository = RepositoryManager.getRepository()) {
+				return repository.getBlockRepository().getBlockchainHeight();
+			}
+		};
+
+		try {
+			// Shared holders shouldn't block each other
+			HSQLDBCheckpointLock.lockShared();
+			try {
+				assertNotNull(executor.submit(query).get(5, TimeUnit.SECONDS));
+			} finally {
+				HSQLDBCheckpointLock.unlockShared();
+			}
+
+			// Exclusive holder should block queries until released
+			Future<Integer> blockedQuery;
+			HSQLDBCheckpointLock.lockExclusive();
+			try {
+				blockedQuery = executor.submit(query);
+
+				try {
+					blockedQuery.get(500, TimeUnit.MILLISECONDS);
+					fail("Query should be blocked by exclusive checkpoint lock");
+				} catch (TimeoutException e) {
+					// Expected
+				}
+			} finally {
+				HSQLDBCheckpointLock.unlockExclusive();
+			}
+
+			assertNotNull(blockedQuery.get(5, TimeUnit.SECONDS));
+
+			HSQLDBCheckpointLock.Stats stats = HSQLDBCheckpointLock.getStats();
+			assertTrue(stats.exclusiveAcquisitions > 0);
+			assertTrue(stats.sharedContended > 0);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
 	@Test
 	public void testDefrag() throws DataException, TimeoutException {
 		try (final HSQLDBRepository hsqldb = (HSQLDBRepository) RepositoryManager.getRepository()) {
@@ -0,0 +1,182 @@
+package org.qortal.test;
+
+import org.apache.commons.compress.archivers.sevenz.SevenZArchiveEntry;
+import org.apache.commons.compress.archivers.sevenz.SevenZFile;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.qortal.utils.ParallelSevenZOutputFile;
+import org.qortal.utils.SevenZ;
+import org.tukaani.xz.LZMA2Options;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class SevenZTests {
+
+    private Path tempDir;
+    private Path sourceDir;
+    private Path archivePath;
+
+    @Before
+    public void beforeTest() throws IOException {
+        this.tempDir = Files.createTempDirectory("qortal-sevenz-test");
+        this.sourceDir = this.tempDir.resolve("source");
+        this.archivePath = this.tempDir.resolve("archive.7z");
+    }
+
+    @After
+    public void afterTest() throws IOException {
+        FileUtils.deleteDirectory(this.tempDir.toFile());
+    }
+
+    @Test
+    public void testParallelCompressionRoundTrip() throws IOException, InterruptedException {
+        // Smallest dictionary, so files span several blocks without needing to be huge
+        LZMA2Options options = new LZMA2Options();
+        options.setDictSize(LZMA2Options.DICT_SIZE_MIN);
+
+        try (ParallelSevenZOutputFile out = new ParallelSevenZOutputFile(this.archivePath, 3, options)) {
+            int blockSize = out.getBlockSize();
+            Random random = new Random(1234L);
+
+            // Blocks are joined into one LZMA2 stream per file
+            writeFile("multi-block.dat", 3 * blockSize + 1234, random);
+            writeFile("one-block.dat", blockSize, random);
+            writeFile("two-blocks.dat", 2 * blockSize, random);
+            writeFile("single-byte.dat", 1, random);
+            writeFile("empty.dat", 0, random);
+            writeFile("nested/deeper/small.dat", 100, random);
+            writeFile("nested/deeper/empty.dat", 0, random);
+            Files.createDirectories(this.sourceDir.resolve("nested/empty-dir"));
+            Files.createDirectories(this.sourceDir.resolve("empty-dir/empty-subdir"));
+
+            out.add(this.sourceDir.toFile(), ".");
+            out.finish();
+        }
+
+        // Parallel extraction
+        File parallelDestination = this.tempDir.resolve("parallel").toFile();
+        SevenZ.decompress(this.archivePath.toString(), parallelDestination, 2);
+        assertSameTree(this.sourceDir, parallelDestination.toPath().resolve("source"));
+
+        // Sequential extraction
+        File sequentialDestination = this.tempDir.resolve("sequential").toFile();
+        SevenZ.decompress(this.archivePath.toString(), sequentialDestination);
+        assertSameTree(this.sourceDir, sequentialDestination.toPath().resolve("source"));
+
+        // Entries, read directly using commons-compress
+        Map<String, SevenZArchiveEntry> entriesByPath = new HashMap<>();
+        try (SevenZFile sevenZFile = new SevenZFile(this.archivePath.toFile())) {
+            SevenZArchiveEntry entry;
+            while ((entry = sevenZFile.getNextEntry()) != null) {
+                Path path = this.tempDir.resolve(entry.getName()).normalize();
+                entriesByPath.put(this.tempDir.relativize(path).toString(), entry);
+
+                if (entry.isDirectory()) {
+                    assertTrue(String.format("%s should be a directory", entry.getName()), Files.isDirectory(path));
+                    continue;
+                }
+
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = sevenZFile.read(buffer)) > 0) {
+                    content.write(buffer, 0, count);
+                }
+
+                assertEquals(entry.getName(), Files.size(path), entry.getSize());
+                assertArrayEquals(entry.getName(), Files.readAllBytes(path), content.toByteArray());
+            }
+        }
+
+        assertEquals(listTree(this.tempDir, this.sourceDir).size() + 1, entriesByPath.size());
+        assertTrue(entriesByPath.get("source").isDirectory());
+        assertTrue(entriesByPath.get("source/nested/empty-dir").isDirectory());
+        assertTrue(entriesByPath.get("source/empty-dir/empty-subdir").isDirectory());
+        assertFalse(entriesByPath.get("source/empty.dat").isDirectory());
+        assertFalse(entriesByPath.get("source/empty.dat").hasStream());
+    }
+
+    @Test
+    public void testDictionarySizeNotPowerOfTwo() throws IOException, InterruptedException {
+        // 10KiB dictionary isn't of form 2^n or 3*2^n, so archive has to declare the next size up, 12KiB
+        LZMA2Options options = new LZMA2Options();
+        options.setDictSize(10 * 1024);
+
+        // Repeats 9KiB apart, which are only found again with a dictionary larger than 8KiB
+        byte[] chunk = new byte[9 * 1024];
+        new Random(5678L).nextBytes(chunk);
+        byte[] data = new byte[chunk.length * 3];
+        for (int i = 0; i < 3; ++i)
+            System.arraycopy(chunk, 0, data, i * chunk.length, chunk.length);
+
+        Path path = this.sourceDir.resolve("repeats.dat");
+        Files.createDirectories(path.getParent());
+        Files.write(path, data);
+
+        try (ParallelSevenZOutputFile out = new ParallelSevenZOutputFile(this.archivePath, 1, options)) {
+            out.add(this.sourceDir.toFile(), ".");
+            out.finish();
+        }
+
+        // Repeats should have compressed well
+        assertTrue(Files.size(this.archivePath) < 2 * chunk.length);
+
+        File destination = this.tempDir.resolve("extracted").toFile();
+        SevenZ.decompress(this.archivePath.toString(), destination);
+        assertSameTree(this.sourceDir, destination.toPath().resolve("source"));
+    }
+
+    private void writeFile(String name, int length, Random random) throws IOException {
+        // Mix of repetitive and random data, so blocks contain both compressed and uncompressed LZMA2 chunks
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            data[i] = (i / 1000) % 2 == 0 ? (byte) (i % 7) : (byte) random.nextInt();
+        }
+
+        Path path = this.sourceDir.resolve(name);
+        Files.createDirectories(path.getParent());
+        Files.write(path, data);
+    }
+
+    /** Returns paths of everything below <tt>dir</tt>, relative to <tt>base</tt>. */
+    private static List<String> listTree(Path base, Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            return paths.filter(path -> !path.equals(dir))
+                    .map(path -> base.relativize(path).toString())
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static void assertSameTree(Path expectedDir, Path actualDir) throws IOException {
+        List<String> expectedPaths = listTree(expectedDir, expectedDir);
+        assertEquals(expectedPaths, listTree(actualDir, actualDir));
+
+        for (String relativePath : expectedPaths) {
+            Path expected = expectedDir.resolve(relativePath);
+            Path actual = actualDir.resolve(relativePath);
+
+            if (Files.isDirectory(expected)) {
+                assertTrue(String.format("%s should be a directory", actual), Files.isDirectory(actual));
+                continue;
+            }
+
+            assertArrayEquals(relativePath, Files.readAllBytes(expected), Files.readAllBytes(actual));
+        }
+    }
+
+}
@@ -0,0 +1,115 @@
+package org.qortal.test;
+
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.qortal.account.PrivateKeyAccount;
+import org.qortal.controller.TransactionImporter;
+import org.qortal.data.transaction.PaymentTransactionData;
+import org.qortal.data.transaction.TransactionData;
+import org.qortal.network.message.TransactionMessage;
+import org.qortal.repository.Repository;
+import org.qortal.repository.RepositoryManager;
+import org.qortal.settings.Settings;
+import org.qortal.test.common.Common;
+import org.qortal.test.common.transaction.TestTransaction;
+import org.qortal.transaction.Transaction;
+import org.qortal.utils.Base58;
+import org.qortal.utils.NTP;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class TransactionImporterTests extends Common {
+
+    private static final int VERIFICATION_POOL_SIZE = 4;
+    // Needs to be at least TransactionImporter.MIN_PARALLEL_VERIFICATION_BATCH for pool to be used
+    private static final int TRANSACTION_COUNT = 20;
+    private static final int BAD_SIGNATURE_INDEX = 7;
+
+    private TransactionImporter transactionImporter;
+
+    @Before
+    public void beforeTest() throws Exception {
+        // Reference checking disabled so that alice can have many unconfirmed payments
+        Common.useSettings("test-settings-v2-disable-reference.json");
+        NTP.setFixedOffset(Settings.getInstance().getTestNtpOffset());
+        FieldUtils.writeField(Settings.getInstance(), "transactionVerificationPoolSize", VERIFICATION_POOL_SIZE, true);
+
+        // Fresh instance, as verification pool is created by constructor
+        Constructor<TransactionImporter> constructor = TransactionImporter.class.getDeclaredConstructor();
+        constructor.setAccessible(true);
+        this.transactionImporter = constructor.newInstance();
+    }
+
+    @After
+    public void afterTest() {
+        if (this.transactionImporter != null)
+            this.transactionImporter.shutdown();
+    }
+
+    @Test
+    public void testParallelSignatureVerification() throws Exception {
+        List<TransactionData> transactions = new ArrayList<>();
+        String badSignature58;
+
+        try (final Repository repository = RepositoryManager.getRepository()) {
+            PrivateKeyAccount alice = Common.getTestAccount(repository, "alice");
+            PrivateKeyAccount bob = Common.getTestAccount(repository, "bob");
+
+            for (int i = 0; i < TRANSACTION_COUNT; ++i) {
+                // Differing amounts ensure differing signatures
+                TransactionData transactionData = new PaymentTransactionData(TestTransaction.generateBase(alice), bob.getAddress(), 100000L + i);
+                Transaction.fromData(repository, transactionData).sign(alice);
+                transactions.add(transactionData);
+            }
+
+            // Corrupt one signature
+            byte[] badSignature = transactions.get(BAD_SIGNATURE_INDEX).getSignature();
+            badSignature[0] ^= 0x01;
+            badSignature58 = Base58.encode(badSignature);
+
+            for (TransactionData transactionData : transactions)
+                this.transactionImporter.onNetworkTransactionMessage(null, new TransactionMessage(transactionData));
+
+            assertEquals(TRANSACTION_COUNT, this.transactionImporter.getIncomingTransactionsCount());
+
+            invokePrivateMethod("validateTransactionsInQueue");
+
+            // Only the transaction with the bad signature should have been dropped
+            assertEquals(TRANSACTION_COUNT - 1, this.transactionImporter.getIncomingTransactionsCount());
+
+            invokePrivateMethod("importTransactionsInQueue");
+
+            assertEquals(0, this.transactionImporter.getIncomingTransactionsCount());
+        }
+
+        // Fresh repository session to see transactions imported by importer's session
+        try (final Repository repository = RepositoryManager.getRepository()) {
+            Set<String> unconfirmedSignatures = repository.getTransactionRepository().getUnconfirmedTransactions().stream()
+                    .map(transactionData -> Base58.encode(transactionData.getSignature()))
+                    .collect(Collectors.toSet());
+
+            assertEquals(TRANSACTION_COUNT - 1, unconfirmedSignatures.size());
+            assertFalse(unconfirmedSignatures.contains(badSignature58));
+
+            for (int i = 0; i < TRANSACTION_COUNT; ++i)
+                if (i != BAD_SIGNATURE_INDEX)
+                    assertTrue(unconfirmedSignatures.contains(Base58.encode(transactions.get(i).getSignature())));
+        }
+    }
+
+    private void invokePrivateMethod(String methodName) throws Exception {
+        Method method = TransactionImporter.class.getDeclaredMethod(methodName);
+        method.setAccessible(true);
+        method.invoke(this.transactionImporter);
+    }
+
+}
@@ -0,0 +1,194 @@
+package org.qortal.test.api;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.eclipse.jetty.websocket.servlet.WebSocketServletFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.qortal.account.PrivateKeyAccount;
+import org.qortal.api.websocket.TradeOffersWebSocket;
+import org.qortal.asset.Asset;
+import org.qortal.controller.Controller;
+import org.qortal.controller.Synchronizer;
+import org.qortal.crosschain.AcctMode;
+import org.qortal.crosschain.LitecoinACCTv3;
+import org.qortal.crosschain.SupportedBlockchain;
+import org.qortal.data.block.BlockData;
+import org.qortal.data.transaction.BaseTransactionData;
+import org.qortal.data.transaction.DeployAtTransactionData;
+import org.qortal.data.transaction.MessageTransactionData;
+import org.qortal.data.transaction.TransactionData;
+import org.qortal.event.EventBus;
+import org.qortal.group.Group;
+import org.qortal.repository.DataException;
+import org.qortal.repository.Repository;
+import org.qortal.repository.RepositoryManager;
+import org.qortal.test.common.BlockUtils;
+import org.qortal.test.common.Common;
+import org.qortal.test.common.TransactionUtils;
+import org.qortal.transaction.DeployAtTransaction;
+import org.qortal.transaction.MessageTransaction;
+
+import com.google.common.hash.HashCode;
+
+public class TradeOffersWebSocketTests extends Common {
+
+	private static final byte[] litecoinPublicKeyHash = HashCode.fromString("bb00bb11bb22bb33bb44bb55bb66bb77bb88bb99").asBytes();
+	private static final int tradeTimeout = 20; // blocks
+	private static final long redeemAmount = 80_40200000L;
+	private static final long fundingAmount = 123_45600000L;
+	private static final long litecoinAmount = 864200L; // 0.00864200 LTC
+
+	@Before
+	public void beforeTest() throws DataException {
+		Common.useDefaultSettings();
+	}
+
+	@After
+	public void afterTest() {
+		// Discard websocket's event listener
+		EventBus.INSTANCE.shutdown();
+	}
+
+	@Test
+	public void testSkippedEvent() throws DataException, IllegalAccessException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			String atAddress = deployTradeAt(repository);
+
+			TradeOffersWebSocket webSocket = startWebSocket();
+			assertEquals(AcctMode.OFFERING, getCachedMode(atAddress));
+
+			// AT is cancelled in one block...
+			cancelTrade(repository, atAddress);
+			BlockData cancelledBlockData = repository.getBlockRepository().getLastBlock();
+
+			// ...but the event for that block is lost, so we only hear about the following block
+			BlockUtils.mintBlock(repository);
+			BlockData newChainTip = repository.getBlockRepository().getLastBlock();
+
+			webSocket.listen(new Synchronizer.NewChainTipEvent(cancelledBlockData, newChainTip));
+
+			assertEquals(AcctMode.CANCELLED, getCachedMode(atAddress));
+		}
+	}
+
+	@Test
+	public void testLocallyMintedBlock() throws DataException, IllegalAccessException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			String atAddress = deployTradeAt(repository);
+
+			TradeOffersWebSocket webSocket = startWebSocket();
+			assertEquals(AcctMode.OFFERING, getCachedMode(atAddress));
+
+			cancelTrade(repository, atAddress);
+
+			// Blocks we mint ourselves don't come with a NewChainTipEvent
+			webSocket.listen(new Controller.NewBlockEvent(repository.getBlockRepository().getLastBlock()));
+
+			assertEquals(AcctMode.CANCELLED, getCachedMode(atAddress));
+		}
+	}
+
+	@Test
+	public void testOrphanedChainTip() throws DataException, IllegalAccessException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			String atAddress = deployTradeAt(repository);
+
+			TradeOffersWebSocket webSocket = startWebSocket();
+
+			cancelTrade(repository, atAddress);
+			BlockData cancelledBlockData = repository.getBlockRepository().getLastBlock();
+
+			webSocket.listen(new Controller.NewBlockEvent(cancelledBlockData));
+			assertEquals(AcctMode.CANCELLED, getCachedMode(atAddress));
+
+			// Orphan cancel message and its processing, then replace with different blocks at same height
+			BlockUtils.orphanBlocks(repository, 2);
+			TransactionUtils.deleteUnconfirmedTransactions(repository);
+
+			webSocket.listen(new Controller.OrphanedBlockEvent(repository.getBlockRepository().getLastBlock()));
+			assertEquals(AcctMode.OFFERING, getCachedMode(atAddress));
+
+			BlockUtils.mintBlock(repository);
+			BlockUtils.mintBlock(repository);
+			BlockData newChainTip = repository.getBlockRepository().getLastBlock();
+			assertEquals(cancelledBlockData.getHeight(), newChainTip.getHeight());
+
+			webSocket.listen(new Controller.NewBlockEvent(newChainTip));
+			assertEquals(AcctMode.OFFERING, getCachedMode(atAddress));
+
+			// Orphan replacement chain tip without telling websocket, then mint cancellation again
+			BlockUtils.orphanLastBlock(repository);
+			cancelTrade(repository, atAddress);
+
+			webSocket.listen(new Controller.NewBlockEvent(repository.getBlockRepository().getLastBlock()));
+			assertEquals(AcctMode.CANCELLED, getCachedMode(atAddress));
+		}
+	}
+
+	private static TradeOffersWebSocket startWebSocket() {
+		// Factory is only used to register websocket class
+		WebSocketServletFactory factory = (WebSocketServletFactory) Proxy.newProxyInstance(WebSocketServletFactory.class.getClassLoader(),
+				new Class<?>[] { WebSocketServletFactory.class }, (proxy, method, args) -> null);
+
+		TradeOffersWebSocket webSocket = new TradeOffersWebSocket();
+		webSocket.configure(factory);
+
+		return webSocket;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static AcctMode getCachedMode(String atAddress) throws IllegalAccessException {
+		Map<String, ?> cachedInfoByBlockchain = (Map<String, ?>) FieldUtils.readStaticField(TradeOffersWebSocket.class, "cachedInfoByBlockchain", true);
+		Object cachedInfo = cachedInfoByBlockchain.get(SupportedBlockchain.LITECOIN.name());
+
+		// Field is public, but its class is private, so FieldUtils won't force access
+		Field previousAtModesField = FieldUtils.getDeclaredField(cachedInfo.getClass(), "previousAtModes");
+		previousAtModesField.setAccessible(true);
+
+		Map<String, AcctMode> previousAtModes = (Map<String, AcctMode>) previousAtModesField.get(cachedInfo);
+		return previousAtModes.get(atAddress);
+	}
+
+	private static String deployTradeAt(Repository repository) throws DataException {
+		PrivateKeyAccount deployer = Common.getTestAccount(repository, "chloe");
+		// We actually use a known test account with funds to avoid PoW compute
+		PrivateKeyAccount tradeAccount = Common.getTestAccount(repository, "alice");
+
+		byte[] creationBytes = LitecoinACCTv3.buildQortalAT(tradeAccount.getAddress(), litecoinPublicKeyHash, redeemAmount, litecoinAmount, tradeTimeout);
+
+		BaseTransactionData baseTransactionData = new BaseTransactionData(System.currentTimeMillis(), Group.NO_GROUP, deployer.getLastReference(), deployer.getPublicKey(), null, null);
+		TransactionData deployAtTransactionData = new DeployAtTransactionData(baseTransactionData, "QORT-LTC cross-chain trade",
+				"Qortal-Litecoin cross-chain trade", "ACCT", "QORT-LTC ACCT", creationBytes, fundingAmount, Asset.QORT);
+
+		DeployAtTransaction deployAtTransaction = new DeployAtTransaction(repository, deployAtTransactionData);
+		deployAtTransactionData.setFee(deployAtTransaction.calcRecommendedFee());
+
+		TransactionUtils.signAndMint(repository, deployAtTransactionData, deployer);
+
+		return deployAtTransaction.getATAccount().getAddress();
+	}
+
+	/** Sends 'cancel' message to AT, then mints the block where AT processes it. */
+	private static void cancelTrade(Repository repository, String atAddress) throws DataException {
+		PrivateKeyAccount deployer = Common.getTestAccount(repository, "chloe");
+		byte[] messageData = LitecoinACCTv3.getInstance().buildCancelMessage(deployer.getAddress());
+
+		BaseTransactionData baseTransactionData = new BaseTransactionData(System.currentTimeMillis(), Group.NO_GROUP, deployer.getLastReference(), deployer.getPublicKey(), null, null);
+		TransactionData messageTransactionData = new MessageTransactionData(baseTransactionData, 4, 0, atAddress, 0, null, messageData, false, false);
+
+		MessageTransaction messageTransaction = new MessageTransaction(repository, messageTransactionData);
+		messageTransactionData.setFee(messageTransaction.calcRecommendedFee());
+
+		TransactionUtils.signAndMint(repository, messageTransactionData, deployer);
+
+		BlockUtils.mintBlock(repository);
+	}
+
+}
@@ -0,0 +1,147 @@
+package org.qortal.test.arbitrary;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.qortal.arbitrary.ArbitraryDataBuildQueueItem;
+import org.qortal.arbitrary.ArbitraryDataFile.ResourceIdType;
+import org.qortal.arbitrary.misc.Service;
+import org.qortal.controller.arbitrary.ArbitraryDataBuildManager;
+import org.qortal.repository.DataException;
+import org.qortal.test.common.Common;
+import org.qortal.utils.NTP;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class ArbitraryDataBuildQueueTests extends Common {
+
+    @Before
+    public void beforeTest() throws DataException {
+        Common.useDefaultSettings();
+    }
+
+    @Test
+    public void testPriorityOrder() throws InterruptedException {
+        ArbitraryDataBuildManager buildManager = new ArbitraryDataBuildManager();
+
+        assertTrue(buildManager.addToBuildQueue(newQueueItem("background", "a", 1)));
+        assertTrue(buildManager.addToBuildQueue(newQueueItem("render", null, 10)));
+        assertTrue(buildManager.addToBuildQueue(newQueueItem("download", null, 5)));
+
+        assertEquals("render", buildManager.takeNextBuild().getResourceId());
+        assertEquals("download", buildManager.takeNextBuild().getResourceId());
+        assertEquals("background", buildManager.takeNextBuild().getResourceId());
+    }
+
+    @Test
+    public void testDeduplication() throws InterruptedException {
+        ArbitraryDataBuildManager buildManager = new ArbitraryDataBuildManager();
+
+        assertTrue(buildManager.addToBuildQueue(newQueueItem("other", null, 5)));
+        assertTrue(buildManager.addToBuildQueue(newQueueItem("test", null, 1)));
+
+        // Requesting again, with a higher priority, moves existing build ahead rather than adding another
+        assertTrue(buildManager.addToBuildQueue(newQueueItem("test", null, 10)));
+        assertEquals(2, buildManager.getStats().queued);
+
+        ArbitraryDataBuildQueueItem queueItem = buildManager.takeNextBuild();
+        assertEquals("test", queueItem.getResourceId());
+        assertEquals(10, (int) queueItem.getPriority());
+
+        // Requesting a build that has already started doesn't queue it again
+        assertTrue(buildManager.addToBuildQueue(newQueueItem("test", null, 10)));
+        assertEquals(1, buildManager.getStats().queued);
+        assertEquals(1, buildManager.getStats().building);
+
+        buildManager.buildFinished(queueItem, true);
+        assertFalse(buildManager.isInBuildQueue(newQueueItem("test", null, 0)));
+        assertEquals(1, buildManager.getStats().completed);
+    }
+
+    @Test
+    public void testFairnessAcrossNames() throws InterruptedException {
+        ArbitraryDataBuildManager buildManager = new ArbitraryDataBuildManager();
+
+        // One name with many resources, queued before another name's single resource
+        for (int i = 0; i < 5; i++) {
+            buildManager.addToBuildQueue(newQueueItem("busy", "identifier" + i, 1));
+        }
+        buildManager.addToBuildQueue(newQueueItem("quiet", null, 1));
+
+        assertEquals("busy", buildManager.takeNextBuild().getResourceId());
+        assertEquals("quiet", buildManager.takeNextBuild().getResourceId());
+
+        for (int i = 0; i < 4; i++) {
+            assertEquals("busy", buildManager.takeNextBuild().getResourceId());
+        }
+    }
+
+    @Test
+    public void testBlockingHandoff() throws InterruptedException {
+        ArbitraryDataBuildManager buildManager = new ArbitraryDataBuildManager();
+
+        AtomicReference<ArbitraryDataBuildQueueItem> takenItem = new AtomicReference<>();
+        CountDownLatch taken = new CountDownLatch(1);
+
+        Thread builderThread = new Thread(() -> {
+            try {
+                takenItem.set(buildManager.takeNextBuild());
+                taken.countDown();
+            } catch (InterruptedException e) {
+                // Test failed
+            }
+        });
+        builderThread.start();
+
+        // Nothing to build yet
+        assertFalse(taken.await(200, TimeUnit.MILLISECONDS));
+
+        buildManager.addToBuildQueue(newQueueItem("test", null, 10));
+        assertTrue(taken.await(1, TimeUnit.SECONDS));
+        assertEquals("test", takenItem.get().getResourceId());
+        assertTrue(takenItem.get().isBuilding());
+    }
+
+    @Test
+    public void testCancellation() throws InterruptedException {
+        ArbitraryDataBuildManager buildManager = new ArbitraryDataBuildManager();
+
+        ArbitraryDataBuildQueueItem renderItem = newQueueItem("render", null, 10);
+        ArbitraryDataBuildQueueItem backgroundItem = newQueueItem("background", null, 1);
+        buildManager.addToBuildQueue(renderItem);
+        buildManager.addToBuildQueue(backgroundItem);
+
+        // Explicit cancellation
+        ArbitraryDataBuildQueueItem cancelledItem = newQueueItem("cancelled", null, 10);
+        buildManager.addToBuildQueue(cancelledItem);
+        assertTrue(buildManager.cancelBuild(cancelledItem));
+        assertFalse(buildManager.isInBuildQueue(cancelledItem));
+
+        // Nobody has asked about the high priority build for a while, so it is cancelled
+        long later = NTP.getTime() + ArbitraryDataBuildQueueItem.ABANDONED_TIMEOUT + 1000L;
+        buildManager.cleanupQueues(later);
+        assertFalse(buildManager.isInBuildQueue(renderItem));
+
+        // ...but the background build is kept
+        assertTrue(buildManager.isInBuildQueue(backgroundItem));
+        assertEquals(2, buildManager.getStats().cancelled);
+
+        // Cancelled builds are never handed to a builder
+        List<String> builtResourceIds = new ArrayList<>();
+        builtResourceIds.add(buildManager.takeNextBuild().getResourceId());
+        assertEquals(List.of("background"), builtResourceIds);
+        assertEquals(0, buildManager.getStats().queued);
+    }
+
+    private static ArbitraryDataBuildQueueItem newQueueItem(String name, String identifier, int priority) {
+        ArbitraryDataBuildQueueItem queueItem = new ArbitraryDataBuildQueueItem(name, ResourceIdType.NAME, Service.WEBSITE, identifier);
+        queueItem.setPriority(priority);
+        return queueItem;
+    }
+
+}
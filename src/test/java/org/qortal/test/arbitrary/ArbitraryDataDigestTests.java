@@ -1,17 +1,27 @@
 package org.qortal.test.arbitrary;
 
 import org.junit.Before;
+import org.junit.Ignore;
 import org.junit.Test;
 import org.qortal.arbitrary.ArbitraryDataDigest;
 import org.qortal.repository.DataException;
 import org.qortal.test.common.Common;
+import org.qortal.utils.Base58;
+import org.apache.commons.io.FileUtils;
 
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Random;
 import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.Assert.*;
 
@@ -58,4 +68,76 @@ public class ArbitraryDataDigestTests extends Common {
         }
     }
 
+    @Test
+    public void testParallelDirectoryDigest() throws IOException, DataException {
+        Path dataPath = Paths.get("src/test/resources/arbitrary/demo1");
+        String expectedHash58 = "DKyMuonWKoneJqiVHgw26Vk1ytrZG9PGsE9xfBg3GKDp";
+
+        ArbitraryDataDigest digest = new ArbitraryDataDigest(dataPath);
+        digest.setParallel(true);
+        digest.compute();
+        assertEquals(expectedHash58, digest.getHash58());
+    }
+
+    @Ignore(value = "Benchmark only - run manually to compare sequential and parallel digest timings")
+    @Test
+    public void testDigestBenchmark() throws IOException, DataException {
+        Path dataPath = Files.createTempDirectory("qortal-digest-benchmark");
+
+        try {
+            // Mix of large and small files, some in subdirectories, and an empty file
+            Random random = new Random();
+            for (int i = 0; i < 20; i++) {
+                Path filePath = Paths.get(dataPath.toString(), "dir" + (i % 3), "file" + i);
+                Files.createDirectories(filePath.getParent());
+
+                byte[] data = new byte[i % 4 == 0 ? 10 * 1024 * 1024 : random.nextInt(200 * 1024)];
+                random.nextBytes(data);
+                Files.write(filePath, data);
+            }
+            Files.write(Paths.get(dataPath.toString(), "empty"), new byte[0]);
+
+            String expectedHash58 = Base58.encode(legacyDigest(dataPath));
+
+            for (boolean parallel : new boolean[] { false, true }) {
+                long startTime = System.currentTimeMillis();
+                for (int i = 0; i < 5; i++) {
+                    ArbitraryDataDigest digest = new ArbitraryDataDigest(dataPath);
+                    digest.setParallel(parallel);
+                    digest.compute();
+                    assertEquals(expectedHash58, digest.getHash58());
+                }
+                long duration = System.currentTimeMillis() - startTime;
+
+                System.out.println(String.format("%s digest: %dms per directory", parallel ? "Parallel" : "Sequential", duration / 5));
+            }
+        } finally {
+            FileUtils.deleteDirectory(dataPath.toFile());
+        }
+    }
+
+    /** Original, whole-file-in-memory, digest implementation, for comparison */
+    private static byte[] legacyDigest(Path basePath) throws IOException, DataException {
+        List<Path> allPaths;
+        try (Stream<Path> pathStream = Files.walk(basePath)) {
+            allPaths = pathStream.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new DataException("SHA-256 hashing algorithm unavailable");
+        }
+
+        for (Path path : allPaths) {
+            Path relativePath = basePath.toAbsolutePath().relativize(path.toAbsolutePath());
+            sha256.update(relativePath.toString().getBytes(StandardCharsets.UTF_8));
+            sha256.update(Files.readAllBytes(path));
+        }
+
+        return sha256.digest();
+    }
+
+
 }
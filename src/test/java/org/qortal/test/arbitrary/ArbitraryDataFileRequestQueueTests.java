@@ -0,0 +1,181 @@
+package org.qortal.test.arbitrary;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.qortal.controller.arbitrary.ArbitraryDataFileRequestQueue;
+import org.qortal.controller.arbitrary.ArbitraryDataManager;
+import org.qortal.data.arbitrary.ArbitraryFileListResponseInfo;
+import org.qortal.data.network.PeerData;
+import org.qortal.network.Peer;
+import org.qortal.network.PeerAddress;
+import org.qortal.repository.DataException;
+import org.qortal.test.common.Common;
+import org.qortal.utils.NTP;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class ArbitraryDataFileRequestQueueTests extends Common {
+
+    private static final Map<String, Long> NO_OTHER_REQUESTS = Collections.emptyMap();
+
+    @Before
+    public void beforeTest() throws DataException {
+        Common.useDefaultSettings();
+    }
+
+    @Test
+    public void testLowestHopsFirst() throws InterruptedException {
+        ArbitraryDataFileRequestQueue queue = new ArbitraryDataFileRequestQueue(1000);
+        Peer peer = newPeer(1);
+
+        assertTrue(queue.add(newResponse("far", peer, 5)));
+        assertTrue(queue.add(newResponse("near", peer, 0)));
+        assertTrue(queue.add(newResponse("middle", peer, 2)));
+
+        assertEquals("near", queue.take(NO_OTHER_REQUESTS).getHash58());
+        assertEquals("middle", queue.take(NO_OTHER_REQUESTS).getHash58());
+        assertEquals("far", queue.take(NO_OTHER_REQUESTS).getHash58());
+    }
+
+    @Test
+    public void testDeduplication() throws InterruptedException {
+        ArbitraryDataFileRequestQueue queue = new ArbitraryDataFileRequestQueue(1000);
+        Peer farPeer = newPeer(1);
+        Peer nearPeer = newPeer(2);
+
+        assertTrue(queue.add(newResponse("other", farPeer, 3)));
+        assertTrue(queue.add(newResponse("hash", farPeer, 5)));
+        // Same peer offering same hash again is ignored
+        assertFalse(queue.add(newResponse("hash", farPeer, 5)));
+        // Another peer offering same hash with fewer hops moves hash ahead
+        assertTrue(queue.add(newResponse("hash", nearPeer, 1)));
+
+        assertEquals(2, queue.getQueuedHashCount());
+        assertEquals(3, queue.size());
+
+        ArbitraryFileListResponseInfo responseInfo = queue.take(NO_OTHER_REQUESTS);
+        assertEquals("hash", responseInfo.getHash58());
+        assertSame(nearPeer, responseInfo.getPeer());
+
+        // Failed request goes back into queue, to be fetched from remaining peer
+        queue.requestFinished(responseInfo, false);
+        assertEquals(2, queue.getQueuedHashCount());
+
+        assertEquals("other", queue.take(NO_OTHER_REQUESTS).getHash58());
+        responseInfo = queue.take(NO_OTHER_REQUESTS);
+        assertEquals("hash", responseInfo.getHash58());
+        assertSame(farPeer, responseInfo.getPeer());
+
+        // Received, so nothing left to fetch
+        queue.requestFinished(responseInfo, true);
+        assertEquals(0, queue.getQueuedHashCount());
+    }
+
+    @Test
+    public void testPerPeerLimit() throws InterruptedException {
+        ArbitraryDataFileRequestQueue queue = new ArbitraryDataFileRequestQueue(1000);
+        Peer busyPeer = newPeer(1);
+        Peer otherPeer = newPeer(2);
+
+        for (int i = 0; i < ArbitraryDataFileRequestQueue.MAX_REQUESTS_PER_PEER + 1; ++i) {
+            queue.add(newResponse("busy" + i, busyPeer, 0));
+        }
+        queue.add(newResponse("other", otherPeer, 5));
+
+        for (int i = 0; i < ArbitraryDataFileRequestQueue.MAX_REQUESTS_PER_PEER; ++i) {
+            assertSame(busyPeer, queue.take(NO_OTHER_REQUESTS).getPeer());
+        }
+
+        // Busy peer has reached its limit, so its remaining hash is skipped
+        ArbitraryFileListResponseInfo responseInfo = queue.take(NO_OTHER_REQUESTS);
+        assertEquals("other", responseInfo.getHash58());
+        assertEquals(ArbitraryDataFileRequestQueue.MAX_REQUESTS_PER_PEER + 1, queue.getRequestingCount());
+    }
+
+    @Test
+    public void testRequestedElsewhere() throws InterruptedException {
+        ArbitraryDataFileRequestQueue queue = new ArbitraryDataFileRequestQueue(1000);
+        Peer peer = newPeer(1);
+
+        queue.add(newResponse("elsewhere", peer, 0));
+        queue.add(newResponse("hash", peer, 1));
+
+        Map<String, Long> otherRequests = new HashMap<>();
+        otherRequests.put("elsewhere", NTP.getTime());
+
+        assertEquals("hash", queue.take(otherRequests).getHash58());
+
+        // Skipped hash is still queued
+        assertEquals(1, queue.getQueuedHashCount());
+    }
+
+    @Test
+    public void testBlockingTake() throws InterruptedException {
+        ArbitraryDataFileRequestQueue queue = new ArbitraryDataFileRequestQueue(1000);
+
+        AtomicReference<ArbitraryFileListResponseInfo> takenResponse = new AtomicReference<>();
+        CountDownLatch taken = new CountDownLatch(1);
+
+        Thread requestThread = new Thread(() -> {
+            try {
+                takenResponse.set(queue.take(NO_OTHER_REQUESTS));
+                taken.countDown();
+            } catch (InterruptedException e) {
+                // Test failed
+            }
+        });
+        requestThread.start();
+
+        // Nothing to fetch yet
+        assertFalse(taken.await(200, TimeUnit.MILLISECONDS));
+
+        queue.add(newResponse("hash", newPeer(1), 0));
+        assertTrue(taken.await(1, TimeUnit.SECONDS));
+        assertEquals("hash", takenResponse.get().getHash58());
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException {
+        ArbitraryDataFileRequestQueue queue = new ArbitraryDataFileRequestQueue(1000);
+        Peer peer = newPeer(1);
+
+        long expiredTimestamp = NTP.getTime() - ArbitraryDataManager.ARBITRARY_RELAY_TIMEOUT - 1000L;
+        queue.add(new ArbitraryFileListResponseInfo("expired", "signature", peer, expiredTimestamp, expiredTimestamp, 0));
+        queue.add(newResponse("hash", peer, 1));
+        assertEquals(2, queue.size());
+
+        assertEquals("hash", queue.take(NO_OTHER_REQUESTS).getHash58());
+        assertEquals(0, queue.size());
+        assertEquals(0, queue.getQueuedHashCount());
+    }
+
+    @Test
+    public void testMaxResponses() {
+        ArbitraryDataFileRequestQueue queue = new ArbitraryDataFileRequestQueue(2);
+        Peer peer = newPeer(1);
+
+        assertTrue(queue.add(newResponse("hash1", peer, 0)));
+        assertTrue(queue.add(newResponse("hash2", peer, 0)));
+        assertFalse(queue.add(newResponse("hash3", peer, 0)));
+
+        queue.remove("hash1");
+        assertTrue(queue.add(newResponse("hash3", peer, 0)));
+    }
+
+    private static Peer newPeer(int index) {
+        return new Peer(new PeerData(PeerAddress.fromString("127.0.0." + index + ":12392")));
+    }
+
+    private static ArbitraryFileListResponseInfo newResponse(String hash58, Peer peer, int requestHops) {
+        Long now = NTP.getTime();
+        return new ArbitraryFileListResponseInfo(hash58, "signature", peer, now, now, requestHops);
+    }
+
+}
@@ -1,6 +1,7 @@
 package org.qortal.test.arbitrary;
 
 import org.junit.Before;
+import org.junit.Ignore;
 import org.junit.Test;
 import org.qortal.repository.DataException;
 import org.qortal.arbitrary.ArbitraryDataFile;
@@ -74,4 +75,41 @@ public class ArbitraryDataFileTests extends Common {
 		assertEquals(originalFileDigest, arbitraryDataFile.digest58());
 	}
 
+	@Ignore(value = "Benchmark only - run manually to compare split and join timings")
+	@Test
+	public void benchmarkSplitAndJoin() throws DataException {
+		final int fileSize = 50 * 1024 * 1024; // 50MiB
+		final int rounds = 3;
+
+		byte[] randomData = new byte[fileSize];
+		new Random().nextBytes(randomData); // No need for SecureRandom here
+
+		ArbitraryDataFile arbitraryDataFile = new ArbitraryDataFile(randomData, null);
+		String originalFileDigest = arbitraryDataFile.digest58();
+
+		System.out.println(String.format("Round  Split(ms)  Join(ms)  Split(MiB/s)  Join(MiB/s)"));
+
+		try {
+			for (int round = 0; round < rounds; ++round) {
+				long splitStart = System.nanoTime();
+				arbitraryDataFile.split(ArbitraryDataFile.CHUNK_SIZE);
+				double splitMs = (System.nanoTime() - splitStart) / 1_000_000.0;
+				assertEquals(fileSize / ArbitraryDataFile.CHUNK_SIZE, arbitraryDataFile.chunkCount());
+
+				arbitraryDataFile.delete();
+				assertFalse(arbitraryDataFile.exists());
+
+				long joinStart = System.nanoTime();
+				assertTrue(arbitraryDataFile.join());
+				double joinMs = (System.nanoTime() - joinStart) / 1_000_000.0;
+				assertEquals(originalFileDigest, arbitraryDataFile.digest58());
+
+				System.out.println(String.format("%5d %10.1f %9.1f %13.1f %12.1f", round, splitMs, joinMs,
+						fileSize / 1024.0 / 1024.0 / (splitMs / 1000.0), fileSize / 1024.0 / 1024.0 / (joinMs / 1000.0)));
+			}
+		} finally {
+			arbitraryDataFile.deleteAll();
+		}
+	}
+
 }
@@ -0,0 +1,48 @@
+package org.qortal.test.arbitrary;
+
+import org.junit.Test;
+import org.qortal.arbitrary.ArbitraryDataRenderer;
+
+import static org.junit.Assert.*;
+
+public class ArbitraryDataRendererTests {
+
+    @Test
+    public void testParseRange() {
+        final long fileLength = 1000L;
+
+        assertArrayEquals(new long[] { 0L, 499L }, ArbitraryDataRenderer.parseRange("bytes=0-499", fileLength));
+        assertArrayEquals(new long[] { 500L, 999L }, ArbitraryDataRenderer.parseRange("bytes=500-", fileLength));
+        assertArrayEquals(new long[] { 900L, 999L }, ArbitraryDataRenderer.parseRange("bytes=-100", fileLength));
+
+        // End beyond file is truncated, suffix longer than file is whole file
+        assertArrayEquals(new long[] { 990L, 999L }, ArbitraryDataRenderer.parseRange("bytes=990-5000", fileLength));
+        assertArrayEquals(new long[] { 0L, 999L }, ArbitraryDataRenderer.parseRange("bytes=-5000", fileLength));
+
+        // Unsatisfiable
+        assertNull(ArbitraryDataRenderer.parseRange("bytes=1000-", fileLength));
+        assertNull(ArbitraryDataRenderer.parseRange("bytes=-0", fileLength));
+
+        // Unsupported or malformed, so whole file is sent
+        assertEquals(0, ArbitraryDataRenderer.parseRange("bytes=0-1,5-10", fileLength).length);
+        assertEquals(0, ArbitraryDataRenderer.parseRange("items=0-1", fileLength).length);
+        assertEquals(0, ArbitraryDataRenderer.parseRange("bytes=abc-", fileLength).length);
+        assertEquals(0, ArbitraryDataRenderer.parseRange("bytes=500-400", fileLength).length);
+        assertEquals(0, ArbitraryDataRenderer.parseRange("bytes=5000-400", fileLength).length);
+    }
+
+    @Test
+    public void testMatchesETag() {
+        final String eTag = "\"3xYz\"";
+
+        assertTrue(ArbitraryDataRenderer.matchesETag(eTag, eTag));
+        assertTrue(ArbitraryDataRenderer.matchesETag("\"other\", " + eTag, eTag));
+        assertTrue(ArbitraryDataRenderer.matchesETag("W/" + eTag, eTag));
+        assertTrue(ArbitraryDataRenderer.matchesETag("*", eTag));
+
+        assertFalse(ArbitraryDataRenderer.matchesETag("\"other\"", eTag));
+        assertFalse(ArbitraryDataRenderer.matchesETag(null, eTag));
+        assertFalse(ArbitraryDataRenderer.matchesETag(eTag, null));
+    }
+
+}
@@ -10,6 +10,7 @@ import org.qortal.arbitrary.ArbitraryDataFile;
 import org.qortal.arbitrary.misc.Service;
 import org.qortal.controller.arbitrary.ArbitraryDataCleanupManager;
 import org.qortal.controller.arbitrary.ArbitraryDataManager;
+import org.qortal.controller.arbitrary.ArbitraryDataStorageLedger;
 import org.qortal.controller.arbitrary.ArbitraryDataStorageManager;
 import org.qortal.data.transaction.ArbitraryTransactionData;
 import org.qortal.data.transaction.RegisterNameTransactionData;
@@ -27,8 +28,10 @@ import org.qortal.utils.Base58;
 import org.qortal.utils.NTP;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
@@ -121,6 +124,45 @@ public class ArbitraryDataStorageCapacityTests extends Common {
     }
 
 
+    @Test
+    public void testStorageLedger() throws DataException, IOException {
+        ArbitraryDataStorageManager storageManager = ArbitraryDataStorageManager.getInstance();
+        ArbitraryDataStorageLedger storageLedger = storageManager.getStorageLedger();
+        Long now = NTP.getTime();
+        assertNotNull("NTP time must be synced", now);
+
+        // Ledger starts counting once directory size has been calculated
+        storageManager.calculateDirectorySize(now);
+        assertTrue(storageLedger.isReconciled());
+        assertEquals(0L, storageManager.getTotalDirectorySize());
+
+        byte[] signature = new byte[64];
+        new Random().nextBytes(signature);
+        String signature58 = Base58.encode(signature);
+
+        // Writing files is counted straight away, without recalculating
+        ArbitraryDataFile arbitraryDataFile1 = new ArbitraryDataFile(new byte[1000], signature);
+        ArbitraryDataFile arbitraryDataFile2 = new ArbitraryDataFile(new byte[500], signature);
+        assertEquals(1500L, storageManager.getTotalDirectorySize());
+
+        // Existing usage moves to name once it is known
+        assertEquals(0L, storageLedger.getBytesForName("test"));
+        storageLedger.setName(signature58, "test");
+        assertEquals(1500L, storageLedger.getBytesForName("test"));
+
+        // Deleting files is counted too
+        assertTrue(arbitraryDataFile1.delete());
+        assertEquals(500L, storageManager.getTotalDirectorySize());
+        assertEquals(500L, storageLedger.getBytesForName("test"));
+
+        // Files changed by other means are picked up when reconciling
+        Files.write(arbitraryDataFile2.getFilePath(), new byte[2000]);
+        assertEquals(500L, storageLedger.getTotalBytes());
+        storageLedger.reconcile();
+        assertEquals(2000L, storageLedger.getTotalBytes());
+    }
+
+
     private void deleteDataDirectories() {
         // Delete data directory if exists
         Path dataPath = Paths.get(Settings.getInstance().getDataPath());
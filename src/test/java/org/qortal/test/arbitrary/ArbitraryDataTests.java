@@ -7,6 +7,7 @@ import org.qortal.account.PrivateKeyAccount;
 import org.qortal.arbitrary.ArbitraryDataDigest;
 import org.qortal.arbitrary.ArbitraryDataFile;
 import org.qortal.arbitrary.ArbitraryDataFile.*;
+import org.qortal.arbitrary.ArbitraryDataLayerCache;
 import org.qortal.arbitrary.ArbitraryDataReader;
 import org.qortal.arbitrary.exception.MissingDataException;
 import org.qortal.arbitrary.metadata.ArbitraryDataMetadataPatch;
@@ -95,6 +96,60 @@ public class ArbitraryDataTests extends Common {
         }
     }
 
+    @Test
+    public void testLayerCache() throws DataException, IOException, MissingDataException {
+        try (final Repository repository = RepositoryManager.getRepository()) {
+            PrivateKeyAccount alice = Common.getTestAccount(repository, "alice");
+            String publicKey58 = Base58.encode(alice.getPublicKey());
+            String name = "TEST"; // Can be anything for this test
+            String identifier = null; // Not used for this test
+            Service service = Service.ARBITRARY_DATA;
+
+            // Register the name to Alice
+            RegisterNameTransactionData transactionData = new RegisterNameTransactionData(TestTransaction.generateBase(alice), name, "");
+            transactionData.setFee(new RegisterNameTransaction(null, null).getUnitFee(transactionData.getTimestamp()));
+            TransactionUtils.signAndMint(repository, transactionData, alice);
+
+            // Create PUT and PATCH transactions
+            Path path1 = Paths.get("src/test/resources/arbitrary/demo1");
+            ArbitraryUtils.createAndMintTxn(repository, publicKey58, path1, name, identifier, Method.PUT, service, alice);
+            Path path2 = Paths.get("src/test/resources/arbitrary/demo2");
+            ArbitraryUtils.createAndMintTxn(repository, publicKey58, path2, name, identifier, Method.PATCH, service, alice);
+
+            // Build the latest state, which should then be cached
+            ArbitraryDataReader arbitraryDataReader = new ArbitraryDataReader(name, ResourceIdType.NAME, service, identifier);
+            arbitraryDataReader.loadSynchronously(true);
+            byte[] patchSignature = arbitraryDataReader.getLatestSignature();
+            assertTrue(ArbitraryDataLayerCache.isCached(patchSignature));
+
+            // Create another PATCH transaction, which only needs applying to the cached state
+            Path path3 = Paths.get("src/test/resources/arbitrary/demo3");
+            ArbitraryUtils.createAndMintTxn(repository, publicKey58, path3, name, identifier, Method.PATCH, service, alice);
+
+            arbitraryDataReader = new ArbitraryDataReader(name, ResourceIdType.NAME, service, identifier);
+            arbitraryDataReader.loadSynchronously(true);
+            Path finalPath = arbitraryDataReader.getFilePath();
+
+            // Its directory hash should match the hash of demo3
+            ArbitraryDataDigest path3Digest = new ArbitraryDataDigest(path3);
+            path3Digest.compute();
+            ArbitraryDataDigest finalPathDigest = new ArbitraryDataDigest(finalPath);
+            finalPathDigest.compute();
+            assertEquals(path3Digest.getHash58(), finalPathDigest.getHash58());
+
+            // Only the latest state should remain cached
+            assertTrue(ArbitraryDataLayerCache.isCached(arbitraryDataReader.getLatestSignature()));
+            assertFalse(ArbitraryDataLayerCache.isCached(patchSignature));
+
+            // Rebuilding from the cached state, without any new layers, should produce the same result
+            arbitraryDataReader = new ArbitraryDataReader(name, ResourceIdType.NAME, service, identifier);
+            arbitraryDataReader.loadSynchronously(true);
+            finalPathDigest = new ArbitraryDataDigest(arbitraryDataReader.getFilePath());
+            finalPathDigest.compute();
+            assertEquals(path3Digest.getHash58(), finalPathDigest.getHash58());
+        }
+    }
+
     @Test
     public void testPatchBeforePut() throws DataException, IOException {
         try (final Repository repository = RepositoryManager.getRepository()) {
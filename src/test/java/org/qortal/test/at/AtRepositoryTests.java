@@ -12,6 +12,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.qortal.account.PrivateKeyAccount;
 import org.qortal.asset.Asset;
+import org.qortal.at.ATCodeCache;
 import org.qortal.data.at.ATData;
 import org.qortal.data.at.ATStateData;
 import org.qortal.data.transaction.BaseTransactionData;
@@ -417,4 +418,83 @@ public class AtRepositoryTests extends Common {
 			assertNull(atStateData.getStateData());
 		}
 	}
+
+	@Test
+	public void testGetExecutableATsOmitsSleepingATs() throws DataException {
+		byte[] creationBytes = AtUtils.buildSimpleAT();
+
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			PrivateKeyAccount deployer = Common.getTestAccount(repository, "alice");
+
+			long fundingAmount = 1_00000000L;
+			DeployAtTransaction deployAtTransaction = AtUtils.doDeployAT(repository, deployer, creationBytes, fundingAmount);
+			String atAddress = deployAtTransaction.getATAccount().getAddress();
+
+			final int wakeHeight = 10;
+
+			// Pretend AT is sleeping until wake height
+			ATData atData = repository.getATRepository().fromATAddress(atAddress);
+			atData.setIsSleeping(true);
+			atData.setSleepUntilHeight(wakeHeight);
+			repository.getATRepository().save(atData);
+
+			assertNull(findAT(repository.getATRepository().getExecutableATs(wakeHeight - 1), atAddress));
+			assertNotNull(findAT(repository.getATRepository().getExecutableATs(wakeHeight), atAddress));
+			assertNotNull(findAT(repository.getATRepository().getExecutableATs(wakeHeight + 1), atAddress));
+
+			// Frozen ATs still need to run
+			atData.setIsFrozen(true);
+			repository.getATRepository().save(atData);
+			assertNotNull(findAT(repository.getATRepository().getExecutableATs(wakeHeight - 1), atAddress));
+
+			// ATs waiting for a message still need checking
+			atData.setIsFrozen(false);
+			atData.setSleepUntilMessageTimestamp(1L);
+			repository.getATRepository().save(atData);
+			assertNotNull(findAT(repository.getATRepository().getExecutableATs(wakeHeight - 1), atAddress));
+
+			// Finished ATs never run
+			atData.setSleepUntilMessageTimestamp(null);
+			atData.setIsSleeping(false);
+			atData.setIsFinished(true);
+			repository.getATRepository().save(atData);
+			assertNull(findAT(repository.getATRepository().getExecutableATs(wakeHeight + 1), atAddress));
+		}
+	}
+
+	@Test
+	public void testCodeCache() throws DataException {
+		byte[] creationBytes = AtUtils.buildSimpleAT();
+
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			PrivateKeyAccount deployer = Common.getTestAccount(repository, "alice");
+
+			long fundingAmount = 1_00000000L;
+			DeployAtTransaction deployAtTransaction = AtUtils.doDeployAT(repository, deployer, creationBytes, fundingAmount);
+			String atAddress = deployAtTransaction.getATAccount().getAddress();
+
+			int height = repository.getBlockRepository().getBlockchainHeight() + 1;
+			ATData atData = findAT(repository.getATRepository().getExecutableATs(height), atAddress);
+			assertNotNull(atData);
+
+			// Code isn't loaded with executable ATs
+			assertNull(atData.getCodeBytes());
+
+			byte[] expectedCodeBytes = repository.getATRepository().fromATAddress(atAddress).getCodeBytes();
+
+			// Once from repository, then from cache
+			ATCodeCache.clear();
+			assertArrayEquals(expectedCodeBytes, ATCodeCache.getCodeBytes(repository, atData));
+			assertArrayEquals(expectedCodeBytes, ATCodeCache.getCodeBytes(repository, atData));
+
+			// Cached code is used to run AT
+			BlockUtils.mintBlock(repository);
+			assertEquals(height, repository.getATRepository().getLatestATState(atAddress).getHeight().intValue());
+		}
+	}
+
+	private static ATData findAT(List<ATData> atDataList, String atAddress) {
+		return atDataList.stream().filter(atData -> atData.getATAddress().equals(atAddress)).findFirst().orElse(null);
+	}
+
 }
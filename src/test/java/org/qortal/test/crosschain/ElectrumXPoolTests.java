@@ -0,0 +1,327 @@
+package org.qortal.test.crosschain;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.Security;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.jsse.provider.BouncyCastleJsseProvider;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.junit.After;
+import org.junit.Test;
+import org.qortal.crosschain.ElectrumX;
+import org.qortal.crosschain.ElectrumX.Server.ConnectionType;
+import org.qortal.crosschain.ForeignBlockchainException;
+import org.qortal.crosschain.TransactionHash;
+import org.qortal.crypto.Crypto;
+
+import com.google.common.hash.HashCode;
+import com.google.common.primitives.Bytes;
+
+/** Tests ElectrumX connection pooling, pipelining and batching against local stub servers. */
+public class ElectrumXPoolTests {
+
+	static {
+		// This must go before any calls to LogManager/Logger
+		System.setProperty("java.util.logging.manager", "org.apache.logging.log4j.jul.LogManager");
+
+		Security.insertProviderAt(new BouncyCastleProvider(), 0);
+		Security.insertProviderAt(new BouncyCastleJsseProvider(), 1);
+	}
+
+	private static final String GENESIS_HASH = "000000000933ea01ad0ee984209779baaec3ced90fa3f408719526f8d77f4943";
+	private static final long HEIGHT = 123456L;
+
+	private final List<StubServer> stubServers = new ArrayList<>();
+
+	/** Minimal ElectrumX server, answering each request after a fixed delay, in any order. */
+	private static class StubServer implements Runnable {
+		private final ServerSocket serverSocket;
+		private final long responseDelay; // ms
+		private final ScheduledExecutorService responseExecutor = Executors.newScheduledThreadPool(4);
+		private final Set<String> usedScriptHashes;
+
+		final AtomicInteger requestCount = new AtomicInteger();
+		final AtomicInteger batchCount = new AtomicInteger();
+
+		StubServer(long responseDelay, Set<String> usedScriptHashes) throws IOException {
+			this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+			this.responseDelay = responseDelay;
+			this.usedScriptHashes = usedScriptHashes;
+
+			Thread thread = new Thread(this, "ElectrumX stub");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		ElectrumX.Server getServer() {
+			return new ElectrumX.Server(InetAddress.getLoopbackAddress().getHostAddress(), ConnectionType.TCP, this.serverSocket.getLocalPort());
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					Socket socket = this.serverSocket.accept();
+
+					Thread thread = new Thread(() -> this.serve(socket), "ElectrumX stub connection");
+					thread.setDaemon(true);
+					thread.start();
+				}
+			} catch (IOException e) {
+				// Shut down
+			}
+		}
+
+		void close() throws IOException {
+			this.serverSocket.close();
+			this.responseExecutor.shutdownNow();
+		}
+
+		@SuppressWarnings("unchecked")
+		private void serve(Socket socket) {
+			try (socket) {
+				BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+				OutputStream outputStream = socket.getOutputStream();
+
+				String line;
+				while ((line = reader.readLine()) != null) {
+					Object requestObj = JSONValue.parse(line);
+
+					if (requestObj instanceof JSONArray) {
+						this.batchCount.incrementAndGet();
+
+						List<JSONObject> requests = new ArrayList<>((JSONArray) requestObj);
+						this.requestCount.addAndGet(requests.size());
+
+						this.responseExecutor.schedule(() -> {
+							// Batch responses can be in any order
+							JSONArray responses = new JSONArray();
+							for (int i = requests.size() - 1; i >= 0; --i)
+								responses.add(this.respond(requests.get(i)));
+
+							write(outputStream, responses.toJSONString());
+						}, this.responseDelay, TimeUnit.MILLISECONDS);
+					} else {
+						this.requestCount.incrementAndGet();
+
+						JSONObject request = (JSONObject) requestObj;
+						this.responseExecutor.schedule(() -> {
+							if ("blockchain.headers.subscribe".equals(request.get("method")))
+								// Notifications have no id and can arrive at any time
+								write(outputStream, "{\"jsonrpc\":\"2.0\",\"method\":\"blockchain.headers.subscribe\",\"params\":[{\"height\":1}]}");
+
+							write(outputStream, this.respond(request).toJSONString());
+						}, this.responseDelay, TimeUnit.MILLISECONDS);
+					}
+				}
+			} catch (IOException e) {
+				// Connection closed
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private JSONObject respond(JSONObject request) {
+			JSONObject response = new JSONObject();
+			response.put("jsonrpc", "2.0");
+			response.put("id", request.get("id"));
+
+			JSONArray params = (JSONArray) request.get("params");
+
+			switch ((String) request.get("method")) {
+				case "server.features": {
+					JSONObject features = new JSONObject();
+					features.put("protocol_min", "1.4");
+					features.put("genesis_hash", GENESIS_HASH);
+					response.put("result", features);
+					break;
+				}
+
+				case "server.peers.subscribe":
+					response.put("result", new JSONArray());
+					break;
+
+				case "blockchain.headers.subscribe": {
+					JSONObject header = new JSONObject();
+					header.put("height", HEIGHT);
+					response.put("result", header);
+					break;
+				}
+
+				case "blockchain.scripthash.get_history": {
+					String scriptHash = (String) params.get(0);
+					JSONArray history = new JSONArray();
+
+					if (this.usedScriptHashes.contains(scriptHash)) {
+						JSONObject entry = new JSONObject();
+						entry.put("tx_hash", scriptHash);
+						entry.put("height", HEIGHT);
+						history.add(entry);
+					}
+
+					response.put("result", history);
+					break;
+				}
+
+				default: {
+					JSONObject error = new JSONObject();
+					error.put("code", -32601L);
+					error.put("message", "unknown method");
+					response.put("error", error);
+					break;
+				}
+			}
+
+			return response;
+		}
+
+		private static void write(OutputStream outputStream, String response) {
+			try {
+				synchronized (outputStream) {
+					outputStream.write((response + "\n").getBytes(StandardCharsets.UTF_8));
+					outputStream.flush();
+				}
+			} catch (IOException e) {
+				// Connection closed
+			}
+		}
+	}
+
+	@After
+	public void afterTest() throws IOException {
+		for (StubServer stubServer : this.stubServers)
+			stubServer.close();
+
+		this.stubServers.clear();
+	}
+
+	@Test
+	public void testPipelinedRequests() throws Exception {
+		final long responseDelay = 200L; // ms
+		final int requestCount = 20;
+
+		ElectrumX electrumX = getInstance(newStubServer(responseDelay, Collections.emptySet()));
+		// Connect before timing
+		assertEquals(HEIGHT, electrumX.getCurrentHeight());
+
+		ExecutorService executor = Executors.newFixedThreadPool(requestCount);
+		try {
+			List<Callable<Integer>> requests = new ArrayList<>();
+			for (int i = 0; i < requestCount; ++i)
+				requests.add(electrumX::getCurrentHeight);
+
+			long startTime = System.currentTimeMillis();
+			List<Future<Integer>> results = executor.invokeAll(requests);
+			long duration = System.currentTimeMillis() - startTime;
+
+			for (Future<Integer> result : results)
+				assertEquals(HEIGHT, (long) result.get());
+
+			System.out.println(String.format("%d concurrent requests, each taking %dms, completed in %dms", requestCount, responseDelay, duration));
+			assertTrue("requests should be in flight at the same time", duration < requestCount * responseDelay / 4);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testBatchedAddressTransactions() throws ForeignBlockchainException, IOException {
+		List<byte[]> scripts = new ArrayList<>();
+		Set<String> usedScriptHashes = new HashSet<>();
+
+		Random random = new Random();
+		for (int i = 0; i < 120; ++i) {
+			byte[] script = new byte[25];
+			random.nextBytes(script);
+			scripts.add(script);
+
+			if (i % 7 == 0)
+				usedScriptHashes.add(scriptHash(script));
+		}
+
+		StubServer stubServer = newStubServer(10L, usedScriptHashes);
+		ElectrumX electrumX = getInstance(stubServer);
+		// Connect first
+		electrumX.getCurrentHeight();
+
+		int previousBatchCount = stubServer.batchCount.get();
+		List<List<TransactionHash>> addressTransactions = electrumX.getAddressTransactions(scripts, false);
+		int batchCount = stubServer.batchCount.get() - previousBatchCount;
+
+		assertEquals(scripts.size(), addressTransactions.size());
+		assertTrue("scripts should be looked up in a few batches", batchCount > 0 && batchCount < scripts.size() / 10);
+
+		for (int i = 0; i < scripts.size(); ++i) {
+			String scriptHash = scriptHash(scripts.get(i));
+			List<TransactionHash> transactionHashes = addressTransactions.get(i);
+
+			// Same as individual lookup
+			assertEquals(electrumX.getAddressTransactions(scripts.get(i), false).size(), transactionHashes.size());
+
+			if (usedScriptHashes.contains(scriptHash)) {
+				assertEquals(1, transactionHashes.size());
+				assertEquals(scriptHash, transactionHashes.get(0).txHash);
+			} else {
+				assertTrue(transactionHashes.isEmpty());
+			}
+		}
+	}
+
+	@Test
+	public void testLatencyBasedServerSelection() throws ForeignBlockchainException, IOException {
+		StubServer slowServer = newStubServer(700L, Collections.emptySet());
+		StubServer fastServer = newStubServer(5L, Collections.emptySet());
+
+		ElectrumX electrumX = getInstance(slowServer, fastServer);
+
+		// Enough requests for slow server's average response time to become known
+		for (int i = 0; i < 10; ++i)
+			electrumX.getCurrentHeight();
+
+		int previousSlowCount = slowServer.requestCount.get();
+		int previousFastCount = fastServer.requestCount.get();
+
+		for (int i = 0; i < 10; ++i)
+			electrumX.getCurrentHeight();
+
+		assertEquals("slow server should no longer be used", previousSlowCount, slowServer.requestCount.get());
+		assertEquals(previousFastCount + 10, fastServer.requestCount.get());
+	}
+
+	private StubServer newStubServer(long responseDelay, Set<String> usedScriptHashes) throws IOException {
+		StubServer stubServer = new StubServer(responseDelay, usedScriptHashes);
+		this.stubServers.add(stubServer);
+		return stubServer;
+	}
+
+	private static ElectrumX getInstance(StubServer... stubServers) {
+		List<ElectrumX.Server> servers = new ArrayList<>();
+		for (StubServer stubServer : stubServers)
+			servers.add(stubServer.getServer());
+
+		Map<ConnectionType, Integer> defaultPorts = new EnumMap<>(ConnectionType.class);
+		defaultPorts.put(ConnectionType.TCP, 50001);
+
+		return new ElectrumX("Stub-" + UUID.randomUUID(), GENESIS_HASH, servers, defaultPorts);
+	}
+
+	private static String scriptHash(byte[] script) {
+		byte[] scriptHash = Crypto.digest(script);
+		Bytes.reverse(scriptHash);
+		return HashCode.fromBytes(scriptHash).toString();
+	}
+
+}
@@ -0,0 +1,238 @@
+package org.qortal.test.minting;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.qortal.account.PrivateKeyAccount;
+import org.qortal.asset.Asset;
+import org.qortal.block.Block;
+import org.qortal.block.Block.ValidationResult;
+import org.qortal.block.IncrementalBlockBuilder;
+import org.qortal.controller.BlockMinter;
+import org.qortal.controller.OnlineAccountsManager;
+import org.qortal.data.account.AccountBalanceData;
+import org.qortal.data.account.AccountData;
+import org.qortal.data.transaction.BaseTransactionData;
+import org.qortal.data.transaction.PaymentTransactionData;
+import org.qortal.data.transaction.TransactionData;
+import org.qortal.group.Group;
+import org.qortal.repository.DataException;
+import org.qortal.repository.Repository;
+import org.qortal.repository.RepositoryManager;
+import org.qortal.settings.Settings;
+import org.qortal.test.common.AccountUtils;
+import org.qortal.test.common.Common;
+import org.qortal.transaction.Transaction;
+import org.qortal.utils.Amounts;
+import org.qortal.utils.Base58;
+import org.qortal.utils.NTP;
+
+public class IncrementalBlockBuilderTests extends Common {
+
+	private static final String DISABLE_REFERENCE_SETTINGS = "test-settings-v2-disable-reference.json";
+
+	@Before
+	public void beforeTest() throws DataException {
+		Common.useDefaultSettings();
+	}
+
+	@Test
+	public void testDependentTransactions() throws DataException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			PrivateKeyAccount alice = Common.getTestAccount(repository, "alice");
+			PrivateKeyAccount bob = Common.getTestAccount(repository, "bob");
+			PrivateKeyAccount chloe = Common.getTestAccount(repository, "chloe");
+			PrivateKeyAccount newAccount = randomAccount(repository);
+
+			final long timestamp = NTP.getTime();
+
+			// New account can only spend once funded, with each spend referencing the previous transaction
+			TransactionData fundingData = buildPayment(repository, alice, alice.getLastReference(), timestamp, newAccount.getAddress(), 100L * Amounts.MULTIPLIER);
+			TransactionData firstSpendData = buildPayment(repository, newAccount, fundingData.getSignature(), timestamp + 1, bob.getAddress(), 10L * Amounts.MULTIPLIER);
+			TransactionData secondSpendData = buildPayment(repository, newAccount, firstSpendData.getSignature(), timestamp + 2, chloe.getAddress(), 10L * Amounts.MULTIPLIER);
+
+			List<TransactionData> transactions = Arrays.asList(fundingData, firstSpendData, secondSpendData);
+
+			assertBuildersAgree(repository, transactions, transactions);
+		}
+	}
+
+	@Test
+	public void testInvalidTransactionRolledBack() throws DataException {
+		Common.useSettings(DISABLE_REFERENCE_SETTINGS);
+		NTP.setFixedOffset(Settings.getInstance().getTestNtpOffset());
+
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			PrivateKeyAccount alice = Common.getTestAccount(repository, "alice");
+			PrivateKeyAccount bob = Common.getTestAccount(repository, "bob");
+			PrivateKeyAccount chloe = Common.getTestAccount(repository, "chloe");
+			PrivateKeyAccount spender = randomAccount(repository);
+
+			AccountUtils.pay(repository, alice, spender.getAddress(), 100L * Amounts.MULTIPLIER);
+
+			final long timestamp = NTP.getTime();
+
+			// Each payment is valid on its own, but not all together
+			TransactionData firstData = buildPayment(repository, spender, spender.getLastReference(), timestamp, bob.getAddress(), 60L * Amounts.MULTIPLIER);
+			TransactionData overspendData = buildPayment(repository, spender, firstData.getSignature(), timestamp + 1, chloe.getAddress(), 60L * Amounts.MULTIPLIER);
+			TransactionData lastData = buildPayment(repository, spender, overspendData.getSignature(), timestamp + 2, bob.getAddress(), 30L * Amounts.MULTIPLIER);
+
+			importAll(repository, firstData, overspendData, lastData);
+
+			assertMintedBlockAgrees(repository, Arrays.asList(firstData, lastData));
+		}
+	}
+
+	@Test
+	public void testOutOfOrderTransactions() throws DataException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			PrivateKeyAccount alice = Common.getTestAccount(repository, "alice");
+			PrivateKeyAccount bob = Common.getTestAccount(repository, "bob");
+			PrivateKeyAccount chloe = Common.getTestAccount(repository, "chloe");
+			PrivateKeyAccount newAccount = randomAccount(repository);
+
+			final long timestamp = NTP.getTime();
+
+			TransactionData fundingData = buildPayment(repository, alice, alice.getLastReference(), timestamp, newAccount.getAddress(), 100L * Amounts.MULTIPLIER);
+			TransactionData spendData = buildPayment(repository, newAccount, fundingData.getSignature(), timestamp + 1, bob.getAddress(), 10L * Amounts.MULTIPLIER);
+			TransactionData unrelatedData = buildPayment(repository, bob, bob.getLastReference(), timestamp + 2, chloe.getAddress(), 10L * Amounts.MULTIPLIER);
+
+			// Latest first, then dependent transactions, forcing state rebuilds
+			List<TransactionData> offeredTransactions = Arrays.asList(unrelatedData, fundingData, spendData);
+
+			assertBuildersAgree(repository, offeredTransactions, Arrays.asList(fundingData, spendData, unrelatedData));
+		}
+	}
+
+	@Test
+	public void testProcessingFailureRebuild() throws DataException {
+		Common.useSettings(DISABLE_REFERENCE_SETTINGS);
+		NTP.setFixedOffset(Settings.getInstance().getTestNtpOffset());
+
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			PrivateKeyAccount alice = Common.getTestAccount(repository, "alice");
+			PrivateKeyAccount bob = Common.getTestAccount(repository, "bob");
+			PrivateKeyAccount chloe = Common.getTestAccount(repository, "chloe");
+
+			// Any payment to this account overflows its balance, which only fails part-way through processing
+			PrivateKeyAccount overflowAccount = randomAccount(repository);
+			repository.getAccountRepository().ensureAccount(new AccountData(overflowAccount.getAddress()));
+			repository.getAccountRepository().save(new AccountBalanceData(overflowAccount.getAddress(), Asset.QORT, Long.MAX_VALUE));
+			repository.saveChanges();
+
+			final long timestamp = NTP.getTime();
+
+			TransactionData firstData = buildPayment(repository, alice, alice.getLastReference(), timestamp, bob.getAddress(), 10L * Amounts.MULTIPLIER);
+			TransactionData failingData = buildPayment(repository, alice, firstData.getSignature(), timestamp + 1, overflowAccount.getAddress(), 10L * Amounts.MULTIPLIER);
+			TransactionData lastData = buildPayment(repository, bob, bob.getLastReference(), timestamp + 2, chloe.getAddress(), 10L * Amounts.MULTIPLIER);
+
+			importAll(repository, firstData, failingData, lastData);
+
+			assertMintedBlockAgrees(repository, Arrays.asList(firstData, lastData));
+		}
+	}
+
+	/** Builds candidate blocks from unconfirmed transactions, then mints block, checking all agree with <tt>expectedTransactions</tt>. */
+	private static void assertMintedBlockAgrees(Repository repository, List<TransactionData> expectedTransactions) throws DataException {
+		List<TransactionData> unconfirmedTransactions = Transaction.getUnconfirmedTransactions(repository);
+		assertBuildersAgree(repository, unconfirmedTransactions, expectedTransactions);
+
+		PrivateKeyAccount mintingAccount = Common.getTestAccount(repository, "alice-reward-share");
+		Block mintedBlock = BlockMinter.mintTestingBlock(repository, mintingAccount);
+
+		assertEquals(toSignatures58(expectedTransactions), toSignatures58(mintedBlock));
+	}
+
+	/** Checks incremental builder produces valid block with same transactions as old one-shot approach. */
+	private static void assertBuildersAgree(Repository repository, List<TransactionData> offeredTransactions, List<TransactionData> expectedTransactions) throws DataException {
+		List<String> oneShotSignatures = buildOneShot(repository, offeredTransactions);
+		assertEquals(toSignatures58(expectedTransactions), oneShotSignatures);
+
+		List<String> incrementalSignatures = buildIncrementally(repository, offeredTransactions);
+		assertEquals(oneShotSignatures, incrementalSignatures);
+	}
+
+	/** Validates whole block after adding each transaction, as BlockMinter did before IncrementalBlockBuilder. */
+	private static List<String> buildOneShot(Repository repository, List<TransactionData> transactions) throws DataException {
+		Block newBlock = mintCandidateBlock(repository);
+
+		for (TransactionData transactionData : transactions) {
+			if (!newBlock.addTransaction(transactionData))
+				break;
+
+			if (newBlock.isValid() != ValidationResult.OK)
+				newBlock.deleteTransaction(transactionData);
+		}
+
+		repository.discardChanges();
+
+		return toSignatures58(newBlock);
+	}
+
+	private static List<String> buildIncrementally(Repository repository, List<TransactionData> transactions) throws DataException {
+		Block newBlock = mintCandidateBlock(repository);
+
+		try (IncrementalBlockBuilder blockBuilder = new IncrementalBlockBuilder(repository, newBlock)) {
+			for (TransactionData transactionData : transactions)
+				if (!blockBuilder.addTransaction(transactionData))
+					break;
+		}
+
+		newBlock.sign();
+		assertEquals(ValidationResult.OK, newBlock.isValid());
+
+		repository.discardChanges();
+
+		return toSignatures58(newBlock);
+	}
+
+	private static Block mintCandidateBlock(Repository repository) throws DataException {
+		PrivateKeyAccount mintingAccount = Common.getTestAccount(repository, "alice-reward-share");
+		OnlineAccountsManager.getInstance().ensureTestingAccountsOnline(mintingAccount);
+
+		Block newBlock = Block.mint(repository, repository.getBlockRepository().getLastBlock(), mintingAccount);
+		assertNotNull(newBlock);
+
+		// Needed before transactions can be added
+		newBlock.sign();
+
+		return newBlock;
+	}
+
+	private static TransactionData buildPayment(Repository repository, PrivateKeyAccount sender, byte[] reference, long timestamp, String recipient, long amount) throws DataException {
+		BaseTransactionData baseTransactionData = new BaseTransactionData(timestamp, Group.NO_GROUP, reference, sender.getPublicKey(), AccountUtils.fee, null);
+		TransactionData transactionData = new PaymentTransactionData(baseTransactionData, recipient, amount);
+
+		Transaction transaction = Transaction.fromData(repository, transactionData);
+		transaction.setInitialApprovalStatus();
+		transaction.sign(sender);
+
+		return transactionData;
+	}
+
+	private static void importAll(Repository repository, TransactionData... transactions) throws DataException {
+		for (TransactionData transactionData : transactions)
+			assertEquals(Transaction.ValidationResult.OK, Transaction.fromData(repository, transactionData).importAsUnconfirmed());
+	}
+
+	private static PrivateKeyAccount randomAccount(Repository repository) {
+		byte[] privateKey = new byte[32];
+		new Random().nextBytes(privateKey);
+		return new PrivateKeyAccount(repository, privateKey);
+	}
+
+	private static List<String> toSignatures58(List<TransactionData> transactions) {
+		return transactions.stream().map(transactionData -> Base58.encode(transactionData.getSignature())).collect(Collectors.toList());
+	}
+
+	private static List<String> toSignatures58(Block block) throws DataException {
+		return block.getTransactions().stream().map(transaction -> Base58.encode(transaction.getTransactionData().getSignature())).collect(Collectors.toList());
+	}
+
+}
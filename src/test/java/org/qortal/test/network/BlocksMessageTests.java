@@ -0,0 +1,259 @@
+package org.qortal.test.network;
+
+import com.google.common.primitives.Ints;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.qortal.controller.BlockMinter;
+import org.qortal.controller.Controller;
+import org.qortal.data.block.BlockData;
+import org.qortal.network.message.*;
+import org.qortal.repository.BlockArchiveWriter;
+import org.qortal.repository.DataException;
+import org.qortal.repository.Repository;
+import org.qortal.repository.RepositoryManager;
+import org.qortal.settings.Settings;
+import org.qortal.test.common.Common;
+import org.qortal.transform.TransformationException;
+import org.qortal.transform.block.BlockTransformation;
+import org.qortal.utils.NTP;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BlocksMessageTests extends Common {
+
+	/** Blocks 2 to this height are archived, then pruned from the repository */
+	private static final int MAX_ARCHIVED_HEIGHT = 50;
+
+	@Before
+	public void beforeTest() throws DataException {
+		Common.useSettings("test-settings-v2-block-archive.json");
+		NTP.setFixedOffset(Settings.getInstance().getTestNtpOffset());
+		this.deleteArchiveDirectory();
+	}
+
+	@After
+	public void afterTest() throws DataException {
+		this.deleteArchiveDirectory();
+	}
+
+	@Test
+	public void testGetBlocksSerialization() throws MessageException {
+		byte[] parentSignature = new byte[64];
+		Arrays.fill(parentSignature, (byte) 0x5a);
+
+		byte[] messageBytes = new GetBlocksMessage(parentSignature, 123).toBytes();
+		GetBlocksMessage messageIn = (GetBlocksMessage) Message.fromByteBuffer(ByteBuffer.wrap(messageBytes).asReadOnlyBuffer());
+
+		assertArrayEquals(parentSignature, messageIn.getParentSignature());
+		assertEquals(123, messageIn.getNumberRequested());
+	}
+
+	@Test
+	public void testEmptyBlocksSerialization() throws MessageException {
+		byte[] messageBytes = new BlocksMessage(Collections.emptyList()).toBytes();
+		BlocksMessage messageIn = (BlocksMessage) Message.fromByteBuffer(ByteBuffer.wrap(messageBytes).asReadOnlyBuffer());
+
+		assertTrue(messageIn.getBlockTransformations().isEmpty());
+	}
+
+	@Test
+	public void testMixedBlocksSerialization() throws DataException, InterruptedException, TransformationException, IOException, MessageException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			archiveAndPrune(repository);
+
+			// Parent is archived, so run starts with archived (V1) blocks, followed by repository (V2) blocks
+			final int parentHeight = MAX_ARCHIVED_HEIGHT - 5;
+			List<byte[]> serializedBlocks = collectBlocks(repository, parentHeight, 10, BlocksMessage.getMaxBlocksLength());
+			assertEquals(10, serializedBlocks.size());
+
+			byte[] messageBytes = new BlocksMessage(serializedBlocks).toBytes();
+			BlocksMessage messageIn = (BlocksMessage) Message.fromByteBuffer(ByteBuffer.wrap(messageBytes).asReadOnlyBuffer());
+
+			List<BlockTransformation> blockTransformations = messageIn.getBlockTransformations();
+			assertEquals(10, blockTransformations.size());
+
+			for (int i = 0; i < blockTransformations.size(); ++i) {
+				BlockData blockDataIn = blockTransformations.get(i).getBlockData();
+				int expectedHeight = parentHeight + 1 + i;
+
+				assertEquals(expectedHeight, (int) blockDataIn.getHeight());
+				assertArrayEquals(getSignature(repository, expectedHeight), blockDataIn.getSignature());
+
+				// Archived blocks carry AT states, repository blocks carry AT states hash
+				if (expectedHeight <= MAX_ARCHIVED_HEIGHT)
+					assertNull(blockTransformations.get(i).getAtStatesHash());
+				else
+					assertNotNull(blockTransformations.get(i).getAtStatesHash());
+			}
+		}
+	}
+
+	@Test
+	public void testMaxBlocksPerResponse() throws DataException, InterruptedException, TransformationException, IOException, IllegalAccessException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			archiveAndPrune(repository);
+
+			FieldUtils.writeField(Settings.getInstance(), "maxBlocksPerResponse", 4, true);
+
+			List<byte[]> serializedBlocks = collectBlocks(repository, MAX_ARCHIVED_HEIGHT - 2, 10, BlocksMessage.getMaxBlocksLength());
+			assertEquals(4, serializedBlocks.size());
+
+			// Peer asking for fewer gets fewer
+			serializedBlocks = collectBlocks(repository, MAX_ARCHIVED_HEIGHT - 2, 3, BlocksMessage.getMaxBlocksLength());
+			assertEquals(3, serializedBlocks.size());
+
+			// Nonsensical request gets nothing
+			serializedBlocks = collectBlocks(repository, MAX_ARCHIVED_HEIGHT - 2, -1, BlocksMessage.getMaxBlocksLength());
+			assertTrue(serializedBlocks.isEmpty());
+		}
+	}
+
+	@Test
+	public void testMaxBlocksLength() throws DataException, InterruptedException, TransformationException, IOException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			archiveAndPrune(repository);
+
+			final int parentHeight = MAX_ARCHIVED_HEIGHT - 2;
+			List<byte[]> allBlocks = collectBlocks(repository, parentHeight, 10, BlocksMessage.getMaxBlocksLength());
+			assertEquals(10, allBlocks.size());
+
+			// Allow room for first 3 blocks, plus all but one byte of 4th
+			int maxBlocksLength = 0;
+			for (int i = 0; i < 3; ++i)
+				maxBlocksLength += allBlocks.get(i).length;
+
+			List<byte[]> serializedBlocks = collectBlocks(repository, parentHeight, 10, maxBlocksLength + allBlocks.get(3).length - 1);
+			assertEquals(3, serializedBlocks.size());
+
+			// Exactly enough room for 4 blocks
+			serializedBlocks = collectBlocks(repository, parentHeight, 10, maxBlocksLength + allBlocks.get(3).length);
+			assertEquals(4, serializedBlocks.size());
+
+			// Not enough room for even one block
+			serializedBlocks = collectBlocks(repository, parentHeight, 10, allBlocks.get(0).length - 1);
+			assertTrue(serializedBlocks.isEmpty());
+		}
+	}
+
+	@Test
+	public void testTruncatedBlocks() throws DataException, InterruptedException, TransformationException, IOException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			archiveAndPrune(repository);
+
+			List<byte[]> serializedBlocks = collectBlocks(repository, MAX_ARCHIVED_HEIGHT - 1, 2, BlocksMessage.getMaxBlocksLength());
+			assertEquals(2, serializedBlocks.size());
+
+			byte[] dataBytes = toDataBytes(serializedBlocks.size(), serializedBlocks);
+
+			// Valid as-is
+			try {
+				BlocksMessage messageIn = (BlocksMessage) BlocksMessage.fromByteBuffer(1, ByteBuffer.wrap(dataBytes).asReadOnlyBuffer());
+				assertEquals(2, messageIn.getBlockTransformations().size());
+			} catch (MessageException e) {
+				fail("Valid BLOCKS data should be accepted");
+			}
+
+			// Truncated within last block, and within last block's entry header
+			assertInvalid(Arrays.copyOf(dataBytes, dataBytes.length - 1));
+			assertInvalid(Arrays.copyOf(dataBytes, Ints.BYTES + serializedBlocks.get(0).length + 3));
+
+			// Count claims more blocks than there are
+			assertInvalid(toDataBytes(3, serializedBlocks));
+		}
+	}
+
+	@Test
+	public void testInvalidBlockCounts() {
+		byte[] entryPadding = new byte[100];
+
+		// Negative count
+		assertInvalid(toDataBytes(-1, Collections.singletonList(entryPadding)));
+
+		// Count too large for data supplied
+		assertInvalid(toDataBytes(Integer.MAX_VALUE, Collections.singletonList(entryPadding)));
+		assertInvalid(toDataBytes(1000, Collections.singletonList(entryPadding)));
+
+		// Count missing entirely
+		assertInvalid(new byte[2]);
+	}
+
+	private static void assertInvalid(byte[] dataBytes) {
+		try {
+			BlocksMessage.fromByteBuffer(1, ByteBuffer.wrap(dataBytes).asReadOnlyBuffer());
+			fail("Invalid BLOCKS data should be rejected");
+		} catch (MessageException e) {
+			// Expected
+		}
+	}
+
+	private static byte[] toDataBytes(int count, List<byte[]> serializedBlocks) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		bytes.write(Ints.toByteArray(count), 0, Ints.BYTES);
+		for (byte[] serializedBlock : serializedBlocks)
+			bytes.write(serializedBlock, 0, serializedBlock.length);
+
+		return bytes.toByteArray();
+	}
+
+	private static List<byte[]> collectBlocks(Repository repository, int parentHeight, int numberRequested, int maxBlocksLength) throws DataException, TransformationException {
+		List<byte[]> serializedBlocks = new ArrayList<>();
+		Controller.collectBlocksForResponse(repository, getSignature(repository, parentHeight), numberRequested, maxBlocksLength, serializedBlocks);
+		return serializedBlocks;
+	}
+
+	private static byte[] getSignature(Repository repository, int height) throws DataException {
+		BlockData blockData = repository.getBlockRepository().fromHeight(height);
+		if (blockData == null)
+			blockData = repository.getBlockArchiveRepository().fromHeight(height);
+
+		assertNotNull(blockData);
+		return blockData.getSignature();
+	}
+
+	/** Mints blocks, archives blocks 2 to {@link #MAX_ARCHIVED_HEIGHT}, then prunes them from the repository. */
+	private static void archiveAndPrune(Repository repository) throws DataException, InterruptedException, TransformationException, IOException {
+		for (int i = 0; i < MAX_ARCHIVED_HEIGHT + 20; i++) {
+			BlockMinter.mintTestingBlock(repository, Common.getTestAccount(repository, "alice-reward-share"));
+		}
+
+		repository.getBlockRepository().setOnlineAccountsSignaturesTrimHeight(MAX_ARCHIVED_HEIGHT + 1);
+		repository.getATRepository().setAtTrimHeight(MAX_ARCHIVED_HEIGHT + 1);
+
+		BlockArchiveWriter writer = new BlockArchiveWriter(0, BlockArchiveWriter.getMaxArchiveHeight(repository), repository);
+		writer.setShouldEnforceFileSizeTarget(false); // To avoid the need to pre-calculate file sizes
+		assertEquals(BlockArchiveWriter.BlockArchiveWriteResult.OK, writer.write());
+
+		repository.getBlockArchiveRepository().setBlockArchiveHeight(MAX_ARCHIVED_HEIGHT + 1);
+
+		repository.getBlockRepository().pruneBlocks(0, MAX_ARCHIVED_HEIGHT);
+		repository.getBlockRepository().setBlockPruneHeight(MAX_ARCHIVED_HEIGHT + 1);
+		repository.saveChanges();
+
+		assertNull(repository.getBlockRepository().fromHeight(MAX_ARCHIVED_HEIGHT));
+		assertNotNull(repository.getBlockRepository().fromHeight(MAX_ARCHIVED_HEIGHT + 1));
+	}
+
+	private void deleteArchiveDirectory() {
+		// Delete archive directory if exists
+		Path archivePath = Paths.get(Settings.getInstance().getRepositoryPath(), "archive").toAbsolutePath();
+		try {
+			FileUtils.deleteDirectory(archivePath.toFile());
+		} catch (IOException e) {
+
+		}
+	}
+
+}
@@ -0,0 +1,121 @@
+package org.qortal.test.network;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.jsse.provider.BouncyCastleJsseProvider;
+import org.junit.Test;
+import org.qortal.network.message.*;
+
+import java.nio.ByteBuffer;
+import java.security.Security;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MessageFramingTests {
+
+    private static final Random RANDOM = new Random();
+    static {
+        // This must go before any calls to LogManager/Logger
+        System.setProperty("java.util.logging.manager", "org.apache.logging.log4j.jul.LogManager");
+
+        Security.insertProviderAt(new BouncyCastleProvider(), 0);
+        Security.insertProviderAt(new BouncyCastleJsseProvider(), 1);
+    }
+
+    @Test
+    public void testMessageLength() throws MessageException {
+        byte[] signature = new byte[64];
+        RANDOM.nextBytes(signature);
+
+        Message messageWithData = new GetBlockMessage(signature);
+        messageWithData.setId(12345);
+        assertMessageLength(messageWithData.toBytes());
+
+        Message messageWithoutData = new PingMessage();
+        assertMessageLength(messageWithoutData.toBytes());
+    }
+
+    @Test
+    public void testMultipleMessagesInBuffer() throws MessageException {
+        byte[] signature = new byte[64];
+        RANDOM.nextBytes(signature);
+
+        byte[] firstBytes = new GetBlockMessage(signature).toBytes();
+        byte[] secondBytes = new PingMessage().toBytes();
+
+        ByteBuffer byteBuffer = ByteBuffer.allocate(firstBytes.length + secondBytes.length);
+        byteBuffer.put(firstBytes).put(secondBytes).flip();
+
+        int firstLength = Message.getMessageLength(byteBuffer);
+        assertEquals(firstBytes.length, firstLength);
+        assertEquals("buffer position should not change", 0, byteBuffer.position());
+
+        byteBuffer.position(firstLength);
+        assertEquals(secondBytes.length, Message.getMessageLength(byteBuffer));
+    }
+
+    @Test
+    public void testByteBuffers() throws MessageException {
+        byte[] signature = new byte[64];
+        RANDOM.nextBytes(signature);
+
+        Message message = new GetBlockMessage(signature);
+        byte[] messageBytes = message.toBytes();
+
+        // Each call, e.g. once per peer when broadcasting, gets its own buffers
+        for (int i = 0; i < 3; ++i) {
+            ByteBuffer[] byteBuffers = message.toByteBuffers();
+
+            ByteBuffer combined = ByteBuffer.allocate(messageBytes.length);
+            for (ByteBuffer byteBuffer : byteBuffers)
+                combined.put(byteBuffer);
+
+            assertFalse(combined.hasRemaining());
+            assertArrayEquals(messageBytes, combined.array());
+        }
+
+        // Message ID is only in header
+        message.setId(999);
+        ByteBuffer[] byteBuffers = message.toByteBuffers();
+        assertEquals(2, byteBuffers.length);
+        assertEquals(messageBytes.length + 4, byteBuffers[0].remaining() + byteBuffers[1].remaining());
+        assertEquals(message.getId(), Message.fromByteBuffer(ByteBuffer.wrap(message.toBytes())).getId());
+    }
+
+    @Test
+    public void testIncorrectMagic() throws MessageException {
+        byte[] messageBytes = new PingMessage().toBytes();
+        messageBytes[0] ^= (byte) 0xff;
+
+        try {
+            Message.getMessageLength(ByteBuffer.wrap(messageBytes));
+            fail("Incorrect magic should be rejected");
+        } catch (MessageException e) {
+            // Expected
+        }
+    }
+
+    private static void assertMessageLength(byte[] messageBytes) throws MessageException {
+        boolean headerComplete = false;
+
+        // Every prefix either has incomplete header, or gives full message length
+        for (int prefixLength = 0; prefixLength <= messageBytes.length; ++prefixLength) {
+            ByteBuffer prefix = ByteBuffer.wrap(messageBytes, 0, prefixLength);
+            int messageLength = Message.getMessageLength(prefix);
+
+            if (messageLength == -1) {
+                assertFalse("header shouldn't become incomplete again", headerComplete);
+                continue;
+            }
+
+            headerComplete = true;
+            assertEquals(messageBytes.length, messageLength);
+        }
+
+        assertTrue(headerComplete);
+
+        // Full message must still decode
+        assertNotNull(Message.fromByteBuffer(ByteBuffer.wrap(messageBytes).asReadOnlyBuffer()));
+    }
+
+}
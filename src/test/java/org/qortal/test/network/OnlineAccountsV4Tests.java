@@ -0,0 +1,145 @@
+package org.qortal.test.network;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.jsse.provider.BouncyCastleJsseProvider;
+import org.junit.Test;
+import org.qortal.controller.OnlineAccountsManager;
+import org.qortal.network.message.*;
+import org.qortal.transform.Transformer;
+import org.qortal.utils.ByteArray;
+import org.qortal.utils.InvertibleBloomLookupTable;
+
+import java.nio.ByteBuffer;
+import java.security.Security;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class OnlineAccountsV4Tests {
+
+    private static final Random RANDOM = new Random();
+    private static final int CELL_COUNT = 60;
+    static {
+        // This must go before any calls to LogManager/Logger
+        System.setProperty("java.util.logging.manager", "org.apache.logging.log4j.jul.LogManager");
+
+        Security.insertProviderAt(new BouncyCastleProvider(), 0);
+        Security.insertProviderAt(new BouncyCastleJsseProvider(), 1);
+    }
+
+    @Test
+    public void testListDifference() {
+        // Fixed seed, as listing can occasionally fail even for small differences
+        Random random = new Random(12345L);
+        List<byte[]> commonKeys = generatePublicKeys(random, 3000);
+        List<byte[]> ourOnlyKeys = generatePublicKeys(random, 12);
+        List<byte[]> theirOnlyKeys = generatePublicKeys(random, 6);
+
+        InvertibleBloomLookupTable ourTable = buildTable(commonKeys, ourOnlyKeys);
+        InvertibleBloomLookupTable theirTable = buildTable(commonKeys, theirOnlyKeys);
+
+        InvertibleBloomLookupTable.Difference difference = ourTable.subtract(theirTable).listDifference();
+        assertNotNull("difference should be small enough to list", difference);
+
+        assertEquals(toSet(ourOnlyKeys), toSet(difference.getOurKeys()));
+        assertEquals(toSet(theirOnlyKeys), toSet(difference.getTheirKeys()));
+
+        // Same sets have no difference
+        difference = ourTable.subtract(buildTable(commonKeys, ourOnlyKeys)).listDifference();
+        assertNotNull(difference);
+        assertTrue(difference.getOurKeys().isEmpty());
+        assertTrue(difference.getTheirKeys().isEmpty());
+    }
+
+    @Test
+    public void testDifferenceTooLarge() {
+        InvertibleBloomLookupTable ourTable = buildTable(generatePublicKeys(RANDOM, 500), Collections.emptyList());
+        InvertibleBloomLookupTable theirTable = buildTable(Collections.emptyList(), Collections.emptyList());
+
+        assertNull(ourTable.subtract(theirTable).listDifference());
+    }
+
+    @Test
+    public void testInsertDelete() {
+        List<byte[]> keys = generatePublicKeys(RANDOM, 100);
+        InvertibleBloomLookupTable table = buildTable(keys, Collections.emptyList());
+
+        // Deleting in a different order leaves an empty table
+        Collections.shuffle(keys);
+        keys.forEach(table::delete);
+
+        assertArrayEquals(new InvertibleBloomLookupTable(CELL_COUNT, Transformer.PUBLIC_KEY_LENGTH).toBytes(), table.toBytes());
+    }
+
+    @Test
+    public void testSerialization() throws MessageException {
+        long timestamp1 = 1L << 40;
+        long timestamp2 = timestamp1 + OnlineAccountsManager.ONLINE_TIMESTAMP_MODULUS;
+
+        List<byte[]> keys = generatePublicKeys(RANDOM, 1000);
+
+        Map<Long, Map<Byte, byte[]>> hashesOut = new HashMap<>();
+        for (byte[] publicKey : keys) {
+            hashesOut.computeIfAbsent(timestamp1, k -> new HashMap<>())
+                    .compute(publicKey[0], (k, v) -> OnlineAccountsManager.xorByteArrayInPlace(v, publicKey));
+            hashesOut.computeIfAbsent(timestamp2, k -> new HashMap<>())
+                    .compute(publicKey[0], (k, v) -> OnlineAccountsManager.xorByteArrayInPlace(v, publicKey));
+        }
+
+        // Only first timestamp has a table
+        InvertibleBloomLookupTable tableOut = buildTable(keys, Collections.emptyList());
+        Map<Long, InvertibleBloomLookupTable> tablesOut = Map.of(timestamp1, tableOut);
+
+        byte[] messageBytes = new GetOnlineAccountsV4Message(hashesOut, tablesOut).toBytes();
+        GetOnlineAccountsV4Message messageIn = (GetOnlineAccountsV4Message) Message.fromByteBuffer(ByteBuffer.wrap(messageBytes).asReadOnlyBuffer());
+
+        Map<Long, Map<Byte, byte[]>> hashesIn = messageIn.getHashesByTimestampThenByte();
+        assertEquals(hashesOut.keySet(), hashesIn.keySet());
+        for (Long timestamp : hashesOut.keySet()) {
+            assertEquals(hashesOut.get(timestamp).keySet(), hashesIn.get(timestamp).keySet());
+
+            for (Byte leadingByte : hashesOut.get(timestamp).keySet())
+                assertArrayEquals(hashesOut.get(timestamp).get(leadingByte), hashesIn.get(timestamp).get(leadingByte));
+        }
+
+        Map<Long, InvertibleBloomLookupTable> tablesIn = messageIn.getTablesByTimestamp();
+        assertEquals(Set.of(timestamp1), tablesIn.keySet());
+        assertArrayEquals(tableOut.toBytes(), tablesIn.get(timestamp1).toBytes());
+    }
+
+    @Test
+    public void testEmptySerialization() throws MessageException {
+        byte[] messageBytes = new GetOnlineAccountsV4Message(Collections.emptyMap(), Collections.emptyMap()).toBytes();
+        GetOnlineAccountsV4Message messageIn = (GetOnlineAccountsV4Message) Message.fromByteBuffer(ByteBuffer.wrap(messageBytes).asReadOnlyBuffer());
+
+        assertTrue(messageIn.getHashesByTimestampThenByte().isEmpty());
+        assertTrue(messageIn.getTablesByTimestamp().isEmpty());
+    }
+
+    private static InvertibleBloomLookupTable buildTable(List<byte[]> commonKeys, List<byte[]> extraKeys) {
+        InvertibleBloomLookupTable table = new InvertibleBloomLookupTable(CELL_COUNT, Transformer.PUBLIC_KEY_LENGTH);
+
+        commonKeys.forEach(table::insert);
+        extraKeys.forEach(table::insert);
+
+        return table;
+    }
+
+    private static Set<ByteArray> toSet(List<byte[]> keys) {
+        return keys.stream().map(ByteArray::wrap).collect(Collectors.toSet());
+    }
+
+    private static List<byte[]> generatePublicKeys(Random random, int count) {
+        List<byte[]> publicKeys = new ArrayList<>();
+
+        for (int i = 0; i < count; ++i) {
+            byte[] publicKey = new byte[Transformer.PUBLIC_KEY_LENGTH];
+            random.nextBytes(publicKey);
+            publicKeys.add(publicKey);
+        }
+
+        return publicKeys;
+    }
+
+}
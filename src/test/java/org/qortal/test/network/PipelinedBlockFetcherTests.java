@@ -0,0 +1,334 @@
+package org.qortal.test.network;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.qortal.account.PrivateKeyAccount;
+import org.qortal.block.Block;
+import org.qortal.controller.BlockMinter;
+import org.qortal.controller.Controller;
+import org.qortal.controller.PipelinedBlockFetcher;
+import org.qortal.data.block.BlockData;
+import org.qortal.data.network.PeerData;
+import org.qortal.network.Peer;
+import org.qortal.network.PeerAddress;
+import org.qortal.network.message.*;
+import org.qortal.repository.DataException;
+import org.qortal.repository.Repository;
+import org.qortal.repository.RepositoryManager;
+import org.qortal.test.common.Common;
+import org.qortal.transform.TransformationException;
+import org.qortal.utils.Base58;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class PipelinedBlockFetcherTests extends Common {
+
+	private static final int BLOCK_COUNT = 10;
+	private static final int WINDOW_SIZE = 5;
+	private static final long WAIT_TIMEOUT = 10_000L; // ms
+
+	private Repository repository;
+	private byte[] parentSignature;
+	/** Signatures of blocks after parent, in chain order */
+	private final List<byte[]> signatures = new ArrayList<>();
+	/** Received-form BLOCK_V2 messages, keyed by base58 block signature */
+	private final Map<String, Message> blockMessages = new HashMap<>();
+
+	private final List<StubPeer> stubPeers = new ArrayList<>();
+	private PipelinedBlockFetcher blockFetcher;
+
+	@Before
+	public void beforeTest() throws DataException, TransformationException, MessageException {
+		Common.useDefaultSettings();
+
+		this.repository = RepositoryManager.getRepository();
+
+		PrivateKeyAccount mintingAccount = Common.getTestAccount(this.repository, "alice-reward-share");
+		for (int i = 0; i < BLOCK_COUNT; ++i)
+			BlockMinter.mintTestingBlock(this.repository, mintingAccount);
+
+		this.parentSignature = this.repository.getBlockRepository().fromHeight(1).getSignature();
+
+		for (int height = 2; height <= BLOCK_COUNT + 1; ++height) {
+			BlockData blockData = this.repository.getBlockRepository().fromHeight(height);
+			this.signatures.add(blockData.getSignature());
+
+			// Round-trip through serialization, so message is as if received from a peer
+			byte[] messageBytes = new BlockV2Message(new Block(this.repository, blockData)).toBytes();
+			this.blockMessages.put(Base58.encode(blockData.getSignature()), Message.fromByteBuffer(ByteBuffer.wrap(messageBytes).asReadOnlyBuffer()));
+		}
+	}
+
+	@After
+	public void afterTest() throws DataException {
+		if (this.blockFetcher != null)
+			this.blockFetcher.shutdown();
+
+		// Don't leave any stub peer waiting
+		this.stubPeers.forEach(StubPeer::release);
+
+		if (this.repository != null)
+			this.repository.close();
+	}
+
+	@Test
+	public void testOutOfOrderArrival() throws InterruptedException {
+		StubPeer peer = this.newStubPeer("primary");
+
+		// First block arrives last
+		peer.delays.put(signature58(0), 500L);
+
+		this.blockFetcher = this.newFetcher(peer, Collections.emptyList());
+		this.blockFetcher.addSignatures(this.signatures);
+
+		this.assertAllBlocksFetched(0);
+
+		assertNotEquals("Later blocks should have arrived before first block", signature58(0), peer.answered.get(0));
+		assertFalse(this.blockFetcher.hasPending());
+	}
+
+	@Test
+	public void testHelperPeerFallback() throws InterruptedException {
+		StubPeer peer = this.newStubPeer("primary");
+		StubPeer helperPeer = this.newStubPeer("helper");
+
+		// Helper never supplies blocks
+		helperPeer.withheld.addAll(this.blockMessages.keySet());
+
+		this.blockFetcher = this.newFetcher(peer, Collections.singletonList(helperPeer));
+		this.blockFetcher.addSignatures(this.signatures);
+
+		this.assertAllBlocksFetched(0);
+
+		assertFalse("Helper peer should have been asked for some blocks", helperPeer.requested.isEmpty());
+		assertTrue("Primary peer should have been asked for blocks helper didn't supply", peer.requested.containsAll(helperPeer.requested));
+
+		// Each block requested from primary peer once, either directly or as fallback
+		assertEquals(BLOCK_COUNT, peer.requested.size());
+		assertEquals(BLOCK_COUNT, new HashSet<>(peer.requested).size());
+	}
+
+	@Test
+	public void testClearCancelsInFlightFetches() throws InterruptedException {
+		StubPeer peer = this.newStubPeer("primary");
+		StubPeer helperPeer = this.newStubPeer("helper");
+
+		// Nothing is answered until released
+		peer.held.addAll(this.blockMessages.keySet());
+		helperPeer.held.addAll(this.blockMessages.keySet());
+		helperPeer.withheld.addAll(this.blockMessages.keySet());
+
+		this.blockFetcher = this.newFetcher(peer, Collections.singletonList(helperPeer));
+		this.blockFetcher.addSignatures(this.signatures);
+
+		waitFor(() -> peer.requested.size() + helperPeer.requested.size() == WINDOW_SIZE);
+
+		this.blockFetcher.clear();
+		assertFalse(this.blockFetcher.hasPending());
+
+		// Every waiting download should be interrupted
+		waitFor(() -> peer.interrupted.get() + helperPeer.interrupted.get() == WINDOW_SIZE);
+
+		peer.release();
+		helperPeer.release();
+		Thread.sleep(200L);
+
+		// No fallback to primary peer for blocks helper was asked for, and nothing more requested
+		assertEquals(WINDOW_SIZE, peer.requested.size() + helperPeer.requested.size());
+		assertTrue(Collections.disjoint(peer.requested, helperPeer.requested));
+		assertTrue(peer.answered.isEmpty());
+
+		// Fetcher can be used again after clear()
+		this.blockFetcher.addSignatures(this.signatures);
+		this.assertAllBlocksFetched(0);
+	}
+
+	@Test
+	public void testVerificationFailureDropsLaterBlocks() throws InterruptedException {
+		final int badIndex = 2;
+
+		// Block has correct signature but doesn't match what minter signed
+		byte[] badReference = new byte[64];
+		new Random().nextBytes(badReference);
+		((BlockV2Message) this.blockMessages.get(signature58(badIndex))).getBlockData().setReference(badReference);
+
+		StubPeer peer = this.newStubPeer("primary");
+
+		// Blocks after bad block are still downloading when it is verified
+		for (int i = badIndex + 1; i < BLOCK_COUNT; ++i)
+			peer.held.add(signature58(i));
+
+		this.blockFetcher = this.newFetcher(peer, Collections.emptyList());
+		this.blockFetcher.addSignatures(this.signatures);
+
+		for (int i = 0; i < badIndex; ++i)
+			assertTrue(this.blockFetcher.next(this.signatures.get(i)).isSignatureValid());
+
+		PipelinedBlockFetcher.VerifiedBlock verifiedBlock = this.blockFetcher.next(this.signatures.get(badIndex));
+		assertNotNull(verifiedBlock);
+		assertFalse(verifiedBlock.isSignatureValid());
+
+		// Window was refilled after each next()
+		final int inFlightCount = WINDOW_SIZE;
+		waitFor(() -> peer.requested.size() == badIndex + 1 + inFlightCount);
+
+		// Caller gives up on this peer, as Synchronizer does
+		this.blockFetcher.clear();
+		assertFalse(this.blockFetcher.hasPending());
+
+		waitFor(() -> peer.interrupted.get() == inFlightCount);
+
+		peer.release();
+		Thread.sleep(200L);
+
+		// Nothing after bad block was supplied
+		Set<String> expectedAnswered = this.signatures.subList(0, badIndex + 1).stream().map(Base58::encode).collect(Collectors.toSet());
+		assertEquals(badIndex + 1, peer.answered.size());
+		assertEquals(expectedAnswered, new HashSet<>(peer.answered));
+	}
+
+	@Test
+	public void testVerificationOnWorkerPool() throws InterruptedException {
+		Controller.StatsSnapshot.SyncBlockFetchStats stats = Controller.getInstance().stats.syncBlockFetchStats;
+		final long initialVerifiedCount = stats.blocksVerified.get();
+
+		StubPeer peer = this.newStubPeer("primary");
+
+		this.blockFetcher = this.newFetcher(peer, Collections.emptyList());
+		this.blockFetcher.addSignatures(this.signatures);
+
+		// Whole window is verified before caller asks for any block
+		waitFor(() -> stats.blocksVerified.get() - initialVerifiedCount == WINDOW_SIZE);
+		assertTrue(Thread.getAllStackTraces().keySet().stream().anyMatch(thread -> thread.getName().startsWith("Synchronizer-Verify-")));
+
+		this.assertAllBlocksFetched(0);
+
+		assertEquals(BLOCK_COUNT, stats.blocksVerified.get() - initialVerifiedCount);
+	}
+
+	@Test
+	public void testOutOfStepDiscardsStaleFetches() throws InterruptedException {
+		final int resumeIndex = 3;
+
+		StubPeer peer = this.newStubPeer("primary");
+
+		// First block is still downloading when caller moves on
+		peer.held.add(signature58(0));
+
+		this.blockFetcher = this.newFetcher(peer, Collections.emptyList());
+		this.blockFetcher.addSignatures(this.signatures);
+
+		waitFor(() -> peer.requested.size() == WINDOW_SIZE);
+
+		// Caller now expects a different block, e.g. after re-fetching signatures
+		PipelinedBlockFetcher.VerifiedBlock verifiedBlock = this.blockFetcher.next(this.signatures.get(resumeIndex));
+		assertNotNull(verifiedBlock);
+		assertArrayEquals(this.signatures.get(resumeIndex), verifiedBlock.getBlock().getSignature());
+		assertTrue(verifiedBlock.isSignatureValid());
+
+		// Stale download was interrupted, so never supplied even once released
+		waitFor(() -> peer.interrupted.get() == 1);
+		peer.release();
+		Thread.sleep(200L);
+		assertFalse(peer.answered.contains(signature58(0)));
+
+		// Pipeline carries on from caller's block
+		this.blockFetcher.addSignatures(this.signatures.subList(resumeIndex + 1, BLOCK_COUNT));
+		this.assertAllBlocksFetched(resumeIndex + 1);
+	}
+
+	private StubPeer newStubPeer(String name) {
+		StubPeer stubPeer = new StubPeer(name + ".example.com:12392", this.blockMessages);
+		this.stubPeers.add(stubPeer);
+		return stubPeer;
+	}
+
+	private PipelinedBlockFetcher newFetcher(Peer peer, List<Peer> helperPeers) {
+		return new PipelinedBlockFetcher(this.repository, peer, helperPeers, WINDOW_SIZE, this.parentSignature, 1);
+	}
+
+	/** Fetches blocks from <tt>startIndex</tt> onwards, checking they are returned in chain order with valid signatures. */
+	private void assertAllBlocksFetched(int startIndex) throws InterruptedException {
+		for (int i = startIndex; i < BLOCK_COUNT; ++i) {
+			byte[] signature = this.signatures.get(i);
+
+			PipelinedBlockFetcher.VerifiedBlock verifiedBlock = this.blockFetcher.next(signature);
+			assertNotNull(String.format("Block %d not fetched", i), verifiedBlock);
+			assertArrayEquals(signature, verifiedBlock.getBlock().getSignature());
+			assertTrue(verifiedBlock.isSignatureValid());
+		}
+	}
+
+	private String signature58(int index) {
+		return Base58.encode(this.signatures.get(index));
+	}
+
+	private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + WAIT_TIMEOUT;
+
+		while (!condition.getAsBoolean()) {
+			assertTrue("Timed out waiting for condition", System.currentTimeMillis() < deadline);
+			Thread.sleep(10L);
+		}
+	}
+
+	/** Peer that answers GET_BLOCK from prepared messages, without any network connection. */
+	private static class StubPeer extends Peer {
+		private final Map<String, Message> blockMessages;
+		private final CountDownLatch releaseLatch = new CountDownLatch(1);
+
+		/** Signatures of blocks this peer doesn't supply */
+		final Set<String> withheld = ConcurrentHashMap.newKeySet();
+		/** Signatures of blocks whose responses wait for {@link #release()} */
+		final Set<String> held = ConcurrentHashMap.newKeySet();
+		/** Response delays, in ms, keyed by signature */
+		final Map<String, Long> delays = new ConcurrentHashMap<>();
+
+		final List<String> requested = Collections.synchronizedList(new ArrayList<>());
+		final List<String> answered = Collections.synchronizedList(new ArrayList<>());
+		final AtomicInteger interrupted = new AtomicInteger();
+
+		StubPeer(String address, Map<String, Message> blockMessages) {
+			super(new PeerData(PeerAddress.fromString(address)));
+			this.blockMessages = blockMessages;
+		}
+
+		void release() {
+			this.releaseLatch.countDown();
+		}
+
+		@Override
+		public Message getResponse(Message message) throws InterruptedException {
+			String signature58 = Base58.encode(((GetBlockMessage) message).getSignature());
+			this.requested.add(signature58);
+
+			try {
+				if (this.held.contains(signature58))
+					this.releaseLatch.await();
+
+				Long delay = this.delays.get(signature58);
+				if (delay != null)
+					Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				this.interrupted.incrementAndGet();
+				throw e;
+			}
+
+			if (this.withheld.contains(signature58))
+				return null;
+
+			this.answered.add(signature58);
+			return this.blockMessages.get(signature58);
+		}
+	}
+
+}